@@ -0,0 +1,131 @@
+package com.example.pixelplace.eventhandler;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import com.example.pixelplace.websocket.RawPixelWebSocketHandler;
+import com.example.pixelplace.websocket.ResyncingSessionFactory;
+import com.example.pixelplace.websocket.TileSubscriptionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.converter.ByteArrayMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara la transmisión por WebSocket de un mensaje por pixel contra
+ * los PIXEL_BATCH agrupados por tick.
+ *
+ * El broker se reemplaza por un canal que solo cuenta mensajes y bytes;
+ * la serialización JSON es la real (Jackson). Cada operación es un pixel:
+ * ops/s es el costo de CPU por pixel en un hilo, y los contadores
+ * messages/bytes muestran cuánto llega al broker (y a cada navegador).
+ * Con coalesce=true se simula un tick cada eventsPerTick pixeles.
+ * Con binary=true además se codifica y publica el BinaryPixelFrame:
+ * jsonBytes contra binaryBytes compara el ancho de banda por formato.
+ *
+ * Ejecutar con: ./gradlew jmh -Pjmh.includes=WebSocketBroadcastBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class WebSocketBroadcastBenchmark {
+
+    private static final int EVENT_COUNT = 4096;
+
+    @Param({"false", "true"})
+    private boolean coalesce;
+
+    @Param({"false", "true"})
+    private boolean binary;
+
+    // 250 pixeles por tick de 50 ms ≈ 5000 pixeles/s
+    @Param({"250"})
+    private int eventsPerTick;
+
+    // Lado de la zona donde se pinta (más chica = más coordenadas repetidas)
+    @Param({"200"})
+    private int hotspot;
+
+    private WebSocketEventHandler handler;
+    private CanvasPixelUpdate[] updates;
+    private int next;
+    private Counters counters;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long messages;
+        public long jsonBytes;
+        public long binaryBytes;
+    }
+
+    @Setup
+    public void setup() {
+        LiveUpdateProperties liveProperties = new LiveUpdateProperties();
+        liveProperties.getBroadcast().setCoalesce(coalesce);
+        liveProperties.getBinary().setEnabled(binary);
+
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> {
+            int length = ((byte[]) message.getPayload()).length;
+            counters.messages++;
+            if (String.valueOf(message.getHeaders().get(MessageHeaders.CONTENT_TYPE)).contains("json")) {
+                counters.jsonBytes += length;
+            } else {
+                counters.binaryBytes += length;
+            }
+            return true;
+        });
+        template.setMessageConverter(new CompositeMessageConverter(Arrays.asList(
+                new ByteArrayMessageConverter(), new MappingJackson2MessageConverter())));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        RawPixelWebSocketHandler rawSessions = new RawPixelWebSocketHandler(
+                new ResyncingSessionFactory(liveProperties, meterRegistry));
+        handler = new WebSocketEventHandler(template, new ImageGenerationProperties(), liveProperties,
+                new TileSubscriptionRegistry(), rawSessions, meterRegistry);
+        handler.init();
+        // Los ticks los marca el benchmark (eventsPerTick), no el hilo ws-broadcast
+        handler.shutdown();
+
+        Random random = new Random(42);
+        updates = new CanvasPixelUpdate[EVENT_COUNT];
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            updates[i] = new CanvasPixelUpdate(
+                    "canvas-a",
+                    random.nextInt(hotspot),
+                    random.nextInt(hotspot),
+                    "#FF8800",
+                    "user-" + random.nextInt(100),
+                    System.currentTimeMillis(),
+                    i,
+                    i + 1
+            );
+        }
+    }
+
+    @Benchmark
+    public void broadcast(Counters counters) {
+        this.counters = counters;
+        handler.on(updates[next]);
+        next = (next + 1) & (EVENT_COUNT - 1);
+
+        if (coalesce && next % eventsPerTick == 0) {
+            handler.flush();
+        }
+    }
+}
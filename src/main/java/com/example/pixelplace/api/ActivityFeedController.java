@@ -0,0 +1,46 @@
+package com.example.pixelplace.api;
+
+import com.example.pixelplace.dto.ActivityFeed;
+import com.example.pixelplace.service.ActivityFeedService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Controller para el feed de actividad reciente de un canvas.
+ *
+ * Lee el anillo en memoria de ActivityFeedService: no consulta el
+ * EventStore. Las actualizaciones llegan además como ACTIVITY_DIGEST por
+ * /topic/activity/{canvasId}.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/canvas/{canvasId}/activity")
+@RequiredArgsConstructor
+public class ActivityFeedController {
+
+    private final ActivityFeedService activityFeedService;
+
+    /**
+     * GET /api/canvas/{canvasId}/activity?limit=50
+     *
+     * Últimas colocaciones, más reciente primero (vacío si el canvas no tuvo actividad).
+     */
+    @GetMapping
+    public ResponseEntity<ActivityFeed> getActivity(
+            @PathVariable("canvasId") String canvasId,
+            @RequestParam(value = "limit", defaultValue = "50") int limit) {
+
+        log.debug("📰 Request feed de actividad - Canvas: {}, limit={}", canvasId, limit);
+
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(activityFeedService.recent(canvasId, limit));
+    }
+}
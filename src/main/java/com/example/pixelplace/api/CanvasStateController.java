@@ -0,0 +1,107 @@
+package com.example.pixelplace.api;
+
+import com.example.pixelplace.service.CanvasChangeLog;
+import com.example.pixelplace.service.CanvasSnapshotService;
+import com.example.pixelplace.service.CanvasSnapshotService.Snapshot;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Controller para el estado binario completo del canvas (ver CanvasSnapshotService).
+ *
+ * Pensado para la carga inicial del frontend: en lugar de decodificar el
+ * PNG, el cliente recibe la paleta y los índices de cada pixel junto con
+ * la secuencia de la proyección, y a partir de ahí aplica los deltas del
+ * WebSocket con secuencia mayor. Un cliente que se reconecta o hace polling
+ * se pone al día con /changes: el tráfico es proporcional a los cambios,
+ * no al tamaño del canvas.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/canvas/{canvasId}/state")
+@RequiredArgsConstructor
+public class CanvasStateController {
+
+    public static final String SEQUENCE_HEADER = "X-Canvas-Sequence";
+    public static final String EPOCH_HEADER = "X-Canvas-Epoch";
+
+    private final CanvasSnapshotService snapshotService;
+    private final CanvasChangeLog changeLog;
+
+    /**
+     * GET /api/canvas/{canvasId}/state
+     *
+     * Estado binario comprimido con gzip (Content-Encoding), streameado
+     * desde el raster de la proyección. La secuencia y el epoch van también
+     * en headers para leerlos sin descomprimir. Si el canvas no existe retorna 404.
+     */
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> getCanvasState(
+            @PathVariable("canvasId") String canvasId) {
+
+        Snapshot snapshot = snapshotService.prepare(canvasId);
+        if (snapshot == null) {
+            log.warn("⚠️ Canvas no encontrado para estado binario: {}", canvasId);
+            return ResponseEntity.notFound().build();
+        }
+
+        log.info("📦 Request estado binario - Canvas: {}, seq={}", canvasId, snapshot.getSequence());
+
+        StreamingResponseBody body = out -> snapshotService.write(snapshot, out);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_ENCODING, "gzip")
+                .header(SEQUENCE_HEADER, Long.toString(snapshot.getSequence()))
+                .header(EPOCH_HEADER, Long.toString(snapshot.getEpoch()))
+                .cacheControl(CacheControl.noStore())
+                .body(body);
+    }
+
+    /**
+     * GET /api/canvas/{canvasId}/state/changes?since=N&epoch=E
+     *
+     * Pixeles cambiados después de la secuencia N (formato PXD1, ver
+     * CanvasSnapshotService). Si la secuencia ya no está en el registro, es
+     * de otro epoch (reinicio) o no existe, retorna 410: el cliente debe
+     * recargar el estado completo.
+     */
+    @GetMapping("/changes")
+    public ResponseEntity<byte[]> getChanges(
+            @PathVariable("canvasId") String canvasId,
+            @RequestParam(name = "since") long since,
+            @RequestParam(name = "epoch", required = false) Long epoch) {
+
+        long currentEpoch = snapshotService.getEpoch();
+        CanvasChangeLog.Changes changes = epoch == null || epoch == currentEpoch
+                ? changeLog.since(canvasId, since)
+                : null;
+
+        if (changes == null) {
+            log.debug("⏪ Cambios no disponibles, recargar estado: canvas={}, since={}, epoch={}",
+                    canvasId, since, epoch);
+            return ResponseEntity.status(HttpStatus.GONE)
+                    .header(EPOCH_HEADER, Long.toString(currentEpoch))
+                    .cacheControl(CacheControl.noStore())
+                    .build();
+        }
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(SEQUENCE_HEADER, Long.toString(changes.getToSequence()))
+                .header(EPOCH_HEADER, Long.toString(currentEpoch))
+                .cacheControl(CacheControl.noStore())
+                .body(snapshotService.encodeChanges(changes));
+    }
+}
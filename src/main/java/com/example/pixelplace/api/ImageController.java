@@ -1,24 +1,44 @@
 package com.example.pixelplace.api;
 
+import com.example.pixelplace.dto.TileManifest;
 import com.example.pixelplace.repository.CanvasImageFileRepository;
+import com.example.pixelplace.repository.ImageVersion;
+import com.example.pixelplace.repository.storage.ContentHash;
+import com.example.pixelplace.repository.storage.StoredImage;
+import com.example.pixelplace.service.OnDemandRenderService;
+import com.example.pixelplace.service.OverviewPyramidService;
+import com.example.pixelplace.service.TileManifestService;
+import com.example.pixelplace.service.ViewportImageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Controller para servir imágenes del canvas pre-generadas.
  * 
- * Las imágenes se generan automáticamente en background mediante EventHandlers.
- * Este controller solo las sirve.
+ * Las escalas configuradas se generan automáticamente en background mediante
+ * EventHandlers; cualquier otra escala (o una imagen que falta) se renderiza
+ * al pedirla (ver OnDemandRenderService). Este controller las sirve, leyéndolas del backend ImageStorage
+ * configurado a través de CanvasImageFileRepository.
+ * 
+ * Las respuestas llevan ETag fuerte (hash de contenido) y Last-Modified
+ * tomados de ImageVersionRegistry: un If-None-Match / If-Modified-Since
+ * vigente se responde 304 sin leer los bytes de la imagen.
+ * 
+ * Los tiles también se sirven en URLs versionadas (ver TileManifest),
+ * cacheables indefinidamente: una versión nunca cambia de contenido.
  */
 @Slf4j
 @RestController
@@ -26,7 +46,17 @@ import java.nio.file.Path;
 @RequiredArgsConstructor
 public class ImageController {
 
+    private static final CacheControl CACHE_CONTROL =
+            CacheControl.maxAge(5, TimeUnit.SECONDS).cachePublic();
+
+    private static final CacheControl IMMUTABLE =
+            CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
     private final CanvasImageFileRepository imageRepository;
+    private final TileManifestService tileManifestService;
+    private final OnDemandRenderService onDemandRenderService;
+    private final ViewportImageService viewportImageService;
+    private final OverviewPyramidService overviewPyramidService;
 
     /**
      * GET /api/canvas/{canvasId}/image
@@ -34,13 +64,15 @@ public class ImageController {
      * 
      * Sirve la imagen pre-generada del canvas.
      * 
-     * NOTA: Las imágenes se generan automáticamente en background.
-     * Si no existe imagen, retorna 404.
+     * NOTA: Las escalas configuradas se generan en background; las demás se
+     * renderizan a demanda. Si el canvas no existe retorna 404; si el cliente
+     * ya tiene la versión vigente, retorna 304.
      */
     @GetMapping
     public ResponseEntity<Resource> getCanvasImage(
             @PathVariable("canvasId") String canvasId,
-            @RequestParam(name = "scale", defaultValue = "1") int scale) {
+            @RequestParam(name = "scale", defaultValue = "1") int scale,
+            WebRequest webRequest) {
         
         log.info("🖼️ Request imagen - Canvas: {}, scale={}", canvasId, scale);
         
@@ -51,34 +83,34 @@ public class ImageController {
         }
         
         try {
-            // Verificar que existe la imagen
-            if (!imageRepository.imageExists(canvasId, scale)) {
+            // Versión en memoria (renderiza a demanda si falta o está vieja)
+            ImageVersion version = onDemandRenderService.getOrRenderImage(canvasId, scale);
+            if (version == null) {
                 log.warn("⚠️ Imagen no encontrada: canvas={}, scale={}", canvasId, scale);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND)
                         .body(null);
             }
 
-            // Obtener path de la imagen
-            Path imagePath = imageRepository.getImagePath(canvasId, scale);
+            if (webRequest.checkNotModified(version.getETag(), version.getLastModified())) {
+                log.debug("✅ Imagen sin cambios (304): canvas={}, scale={}", canvasId, scale);
+                return notModified(version);
+            }
 
-            if (!Files.exists(imagePath)) {
-                log.error("❌ Archivo no existe: {}", imagePath);
+            // Obtener bytes de la imagen
+            StoredImage stored = imageRepository.getStoredImage(canvasId, scale);
+
+            if (stored == null) {
+                log.error("❌ Imagen desaparecida del almacenamiento: canvas={}, scale={}", canvasId, scale);
                 return ResponseEntity.notFound().build();
             }
 
-            // Servir imagen como recurso
-            Resource imageResource = new FileSystemResource(imagePath);
-            long fileSize = Files.size(imagePath);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_PNG);
-            headers.setContentLength(fileSize);
-            headers.setCacheControl("public, max-age=5"); // Cache 5 segundos
+            log.info("✅ Imagen servida: {} KB", stored.size() / 1024);
             
-            log.info("✅ Imagen servida: {} KB", fileSize / 1024);
-            
-            return new ResponseEntity<>(imageResource, headers, HttpStatus.OK);
+            return pngResponse(stored, version);
             
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             log.error("❌ Error sirviendo imagen", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
@@ -104,9 +136,9 @@ public class ImageController {
                 stats.availableScales.add(scale);
                 
                 try {
-                    Path imagePath = imageRepository.getImagePath(canvasId, scale);
-                    if (Files.exists(imagePath)) {
-                        stats.totalSize += Files.size(imagePath);
+                    StoredImage stored = imageRepository.getStoredImage(canvasId, scale);
+                    if (stored != null) {
+                        stats.totalSize += stored.size();
                     }
                 } catch (Exception e) {
                     log.warn("Error leyendo tamaño de imagen: {}", e.getMessage());
@@ -121,17 +153,23 @@ public class ImageController {
      * GET /api/canvas/{canvasId}/image/tile/{tileX}/{tileY}
      * GET /api/canvas/{canvasId}/image/tile/{tileX}/{tileY}?scale=10
      * 
-     * Sirve la imagen pre-generada de un tile específico.
+     * Sirve la imagen pre-generada de un tile específico (304 si el
+     * cliente ya tiene la versión vigente).
+     * 
+     * Con ?level=N (N >= 1) sirve el tile de la pirámide de vistas reducidas:
+     * cada pixel resume 2^N x 2^N pixeles del canvas y scale se ignora.
      */
     @GetMapping("/tile/{tileX}/{tileY}")
     public ResponseEntity<Resource> getTileImage(
             @PathVariable("canvasId") String canvasId,
             @PathVariable("tileX") int tileX,
             @PathVariable("tileY") int tileY,
-            @RequestParam(name = "scale", defaultValue = "10") int scale) {
+            @RequestParam(name = "scale", defaultValue = "10") int scale,
+            @RequestParam(name = "level", defaultValue = "0") int level,
+            WebRequest webRequest) {
         
-        log.info("🖼️ Request tile - Canvas: {}, tile=({},{}), scale={}", 
-                canvasId, tileX, tileY, scale);
+        log.info("🖼️ Request tile - Canvas: {}, tile=({},{}), scale={}, level={}", 
+                canvasId, tileX, tileY, scale, level);
         
         // Validaciones
         if (scale < 1 || scale > 100) {
@@ -139,46 +177,300 @@ public class ImageController {
             return ResponseEntity.badRequest().build();
         }
         
-        if (tileX < 0 || tileY < 0) {
-            log.warn("⚠️ Índices de tile inválidos: ({}, {})", tileX, tileY);
+        if (tileX < 0 || tileY < 0 || level < 0) {
+            log.warn("⚠️ Índices de tile inválidos: ({}, {}), level={}", tileX, tileY, level);
             return ResponseEntity.badRequest().build();
         }
+
+        if (level > 0) {
+            return getOverviewTile(canvasId, tileX, tileY, level, webRequest);
+        }
         
         try {
-            // Verificar que existe la imagen del tile
-            if (!imageRepository.tileImageExists(canvasId, tileX, tileY, scale)) {
+            // Versión en memoria (renderiza a demanda si falta o está vieja)
+            ImageVersion version = onDemandRenderService.getOrRenderTile(canvasId, tileX, tileY, scale);
+            if (version == null) {
                 log.warn("⚠️ Tile no encontrado: canvas={}, tile=({},{}), scale={}", 
                         canvasId, tileX, tileY, scale);
                 return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
             }
 
-            // Obtener path de la imagen del tile
-            Path imagePath = imageRepository.getTileImagePath(canvasId, tileX, tileY, scale);
+            if (webRequest.checkNotModified(version.getETag(), version.getLastModified())) {
+                log.debug("✅ Tile sin cambios (304): canvas={}, tile=({},{}), scale={}",
+                        canvasId, tileX, tileY, scale);
+                return notModified(version);
+            }
+
+            // Obtener bytes del tile
+            StoredImage stored = imageRepository.getStoredTileImage(canvasId, tileX, tileY, scale);
 
-            if (!Files.exists(imagePath)) {
-                log.error("❌ Archivo no existe: {}", imagePath);
+            if (stored == null) {
+                log.error("❌ Tile desaparecido del almacenamiento: canvas={}, tile=({},{}), scale={}",
+                        canvasId, tileX, tileY, scale);
                 return ResponseEntity.notFound().build();
             }
 
-            // Servir imagen como recurso
-            Resource imageResource = new FileSystemResource(imagePath);
-            long fileSize = Files.size(imagePath);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.IMAGE_PNG);
-            headers.setContentLength(fileSize);
-            headers.setCacheControl("public, max-age=5"); // Cache 5 segundos
-            
-            log.info("✅ Tile servido: {} KB", fileSize / 1024);
+            log.info("✅ Tile servido: {} KB", stored.size() / 1024);
             
-            return new ResponseEntity<>(imageResource, headers, HttpStatus.OK);
+            return pngResponse(stored, version);
             
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             log.error("❌ Error sirviendo tile", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
 
+    /**
+     * Tile de la pirámide de vistas reducidas (armándola si todavía no existe).
+     */
+    private ResponseEntity<Resource> getOverviewTile(String canvasId, int tileX, int tileY,
+                                                     int level, WebRequest webRequest) {
+        try {
+            int levels = overviewPyramidService.ensureBuilt(canvasId);
+            if (level > levels) {
+                log.warn("⚠️ Nivel inexistente: canvas={}, level={} (máximo {})", canvasId, level, levels);
+                return ResponseEntity.notFound().build();
+            }
+
+            ImageVersion version = imageRepository.getOverviewTileVersion(canvasId, level, tileX, tileY);
+            if (version == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            if (webRequest.checkNotModified(version.getETag(), version.getLastModified())) {
+                return notModified(version);
+            }
+
+            StoredImage stored = imageRepository.getStoredOverviewTile(canvasId, level, tileX, tileY);
+            if (stored == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            return pngResponse(stored, version);
+
+        } catch (Exception e) {
+            log.error("❌ Error sirviendo tile de la pirámide", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * GET /api/canvas/{canvasId}/image/viewport?x=0&y=0&width=200&height=100&zoom=10
+     * 
+     * Región del canvas (en pixeles del canvas) a un zoom dado, armada en el
+     * servidor con los tiles de esa escala: la carga inicial es un solo
+     * request. 304 si el cliente ya tiene el viewport con las mismas
+     * versiones de tiles.
+     */
+    @GetMapping("/viewport")
+    public ResponseEntity<Resource> getViewportImage(
+            @PathVariable("canvasId") String canvasId,
+            @RequestParam("x") int x,
+            @RequestParam("y") int y,
+            @RequestParam("width") int width,
+            @RequestParam("height") int height,
+            @RequestParam(name = "zoom", defaultValue = "10") int zoom,
+            WebRequest webRequest) {
+
+        if (zoom < 1 || zoom > 100 || x < 0 || y < 0 || width < 1 || height < 1) {
+            log.warn("⚠️ Viewport inválido: ({},{}) {}x{} zoom={}", x, y, width, height, zoom);
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            ViewportImageService.Viewport viewport =
+                    viewportImageService.resolve(canvasId, x, y, width, height, zoom);
+            if (viewport == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            if (webRequest.checkNotModified(viewport.getETag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .cacheControl(CACHE_CONTROL)
+                        .eTag(viewport.getETag())
+                        .build();
+            }
+
+            byte[] png = viewportImageService.render(viewport);
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_PNG)
+                    .contentLength(png.length)
+                    .cacheControl(CACHE_CONTROL)
+                    .eTag(viewport.getETag())
+                    .body(new ByteArrayResource(png));
+
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("❌ Error sirviendo viewport", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * GET /api/canvas/{canvasId}/image/tiles/manifest
+     * 
+     * Versión actual de cada tile del canvas en todas las escalas de tiles.
+     * El cliente lo consulta (con If-None-Match) y pide solo los tiles cuya
+     * versión cambió. El manifiesto y su ETag salen de memoria mientras no
+     * cambie ningún tile (ver TileManifestService).
+     */
+    @GetMapping("/tiles/manifest")
+    public ResponseEntity<TileManifest> getTileManifest(
+            @PathVariable("canvasId") String canvasId,
+            WebRequest webRequest) {
+
+        try {
+            TileManifestService.CachedManifest cached = tileManifestService.getManifest(canvasId);
+            if (cached == null) {
+                log.warn("⚠️ Canvas no encontrado para manifiesto: {}", canvasId);
+                return ResponseEntity.notFound().build();
+            }
+            TileManifest manifest = cached.getManifest();
+            String eTag = cached.getETag();
+
+            if (webRequest.checkNotModified(eTag)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .cacheControl(CacheControl.noCache())
+                        .eTag(eTag)
+                        .build();
+            }
+
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.noCache())
+                    .eTag(eTag)
+                    .body(manifest);
+
+        } catch (Exception e) {
+            log.error("❌ Error armando manifiesto de tiles", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * GET /api/canvas/{canvasId}/image/tile/{tileX}/{tileY}/v/{version}?scale=10
+     * 
+     * Tile en una versión concreta, con Cache-Control immutable. Solo se
+     * guarda la última versión: si la pedida ya no es la vigente se
+     * redirige a la URL de la vigente.
+     */
+    @GetMapping("/tile/{tileX}/{tileY}/v/{version}")
+    public ResponseEntity<Resource> getVersionedTileImage(
+            @PathVariable("canvasId") String canvasId,
+            @PathVariable("tileX") int tileX,
+            @PathVariable("tileY") int tileY,
+            @PathVariable("version") long requestedVersion,
+            @RequestParam(name = "scale", defaultValue = "10") int scale,
+            WebRequest webRequest) {
+
+        if (scale < 1 || scale > 100 || tileX < 0 || tileY < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        try {
+            ImageVersion version = onDemandRenderService.getOrRenderTile(canvasId, tileX, tileY, scale);
+            if (version == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            if (version.getVersion() != requestedVersion) {
+                return redirectToVersion(canvasId, tileX, tileY, scale, version);
+            }
+
+            if (webRequest.checkNotModified(version.getETag())) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .cacheControl(IMMUTABLE)
+                        .eTag(version.getETag())
+                        .build();
+            }
+
+            StoredImage stored = imageRepository.getStoredTileImage(canvasId, tileX, tileY, scale);
+            if (stored == null) {
+                return ResponseEntity.notFound().build();
+            }
+
+            // El tile pudo reescribirse entre leer la versión y los bytes: una URL
+            // immutable nunca debe quedar cacheada con contenido de otra versión
+            if (!ContentHash.of(stored.getData()).equals(version.getContentHash())) {
+                version = imageRepository.getTileImageVersion(canvasId, tileX, tileY, scale);
+                return redirectToVersion(canvasId, tileX, tileY, scale, version);
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.IMAGE_PNG);
+            headers.setContentLength(stored.size());
+            headers.setCacheControl(IMMUTABLE);
+            headers.setETag(version.getETag());
+            headers.setLastModified(version.getLastModified());
+
+            return new ResponseEntity<>(new InputStreamResource(stored.inputStream()), headers, HttpStatus.OK);
+
+        } catch (IllegalArgumentException e) {
+            log.warn("⚠️ {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("❌ Error sirviendo tile versionado", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Redirección (no cacheable) a la URL de la versión vigente de un tile.
+     */
+    private ResponseEntity<Resource> redirectToVersion(String canvasId, int tileX, int tileY,
+                                                       int scale, ImageVersion version) {
+        if (version == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        String location = UriComponentsBuilder
+                .fromPath("/api/canvas/{canvasId}/image/tile/{tileX}/{tileY}/v/{version}")
+                .queryParam("scale", scale)
+                .buildAndExpand(canvasId, tileX, tileY, version.getVersion())
+                .toUriString();
+
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .cacheControl(CacheControl.noStore())
+                .header(HttpHeaders.LOCATION, location)
+                .build();
+    }
+
+    /**
+     * Respuesta PNG con los bytes de una imagen guardada.
+     */
+    private ResponseEntity<Resource> pngResponse(StoredImage stored, ImageVersion version) {
+        // La imagen pudo reescribirse (aquí o en otra réplica) entre leer la
+        // versión y los bytes: los validadores salen de lo que se sirve
+        if (!version.matches(stored)) {
+            version = ImageVersion.of(stored);
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.IMAGE_PNG);
+        headers.setContentLength(stored.size());
+        headers.setCacheControl(CACHE_CONTROL);
+        headers.setETag(version.getETag());
+        headers.setLastModified(version.getLastModified());
+
+        return new ResponseEntity<>(new InputStreamResource(stored.inputStream()), headers, HttpStatus.OK);
+    }
+
+    /**
+     * 304 con los mismos validadores que la respuesta completa.
+     */
+    private ResponseEntity<Resource> notModified(ImageVersion version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .cacheControl(CACHE_CONTROL)
+                .eTag(version.getETag())
+                .lastModified(version.getLastModified())
+                .build();
+    }
+
     // DTO para stats
     @lombok.Data
     public static class ImageStats {
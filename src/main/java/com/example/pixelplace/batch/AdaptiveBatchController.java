@@ -0,0 +1,253 @@
+package com.example.pixelplace.batch;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+
+/**
+ * Calcula umbrales de batch por canvas/tile para el modo ADAPTIVE.
+ *
+ * Para cada clave mide la tasa de eventos (EWMA del intervalo entre eventos)
+ * y, por tipo de imagen, el costo de render de un batch. Con eso elige un
+ * intervalo de flush:
+ *
+ *   demanda    = costo × Σ min(tasa_i, 1 / latenciaObjetivo)
+ *   intervalo  = latenciaObjetivo × max(1, demanda / presupuestoCpu)
+ *   umbral_i   = clamp(ceil(tasa_i × intervalo), min, max)
+ *
+ * Con poco tráfico cada tile se renderiza apenas llega su primer pixel; con
+ * mucho tráfico el intervalo crece lo justo para no pasar el presupuesto de CPU.
+ * Los umbrales e intervalos elegidos se exponen como métricas.
+ */
+@Slf4j
+@Component
+public class AdaptiveBatchController {
+
+    public enum Target { CANVAS, TILE }
+
+    // Evita tasas infinitas cuando llegan varios eventos en el mismo milisegundo
+    private static final double MIN_INTERVAL_MILLIS = 0.01;
+
+    // Una clave sin eventos por este tiempo deja de contarse como activa
+    private static final long MIN_IDLE_EVICTION_MILLIS = 60_000;
+
+    // Capacidad inicial por tipo: evita rehashes mientras se suman claves en el arranque
+    private static final int CANVAS_CAPACITY = 64;
+    private static final int TILE_CAPACITY = 4096;
+
+    // KeyLoad olvidados que se reutilizan para claves nuevas
+    private static final int MAX_POOLED_LOADS = 4096;
+
+    private final ImageGenerationProperties properties;
+    private final LoadTracker canvasLoad;
+    private final LoadTracker tileLoad;
+
+    public AdaptiveBatchController(ImageGenerationProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.canvasLoad = new LoadTracker(CANVAS_CAPACITY);
+        this.tileLoad = new LoadTracker(TILE_CAPACITY);
+        canvasLoad.registerGauges(meterRegistry, "canvas");
+        tileLoad.registerGauges(meterRegistry, "tile");
+    }
+
+    /**
+     * Registra un evento para una clave y devuelve su umbral de batch actual.
+     *
+     * @param target Tipo de imagen
+     * @param key Clave (TileKeys)
+     * @param now Timestamp del evento en ms
+     * @return Cantidad de eventos a partir de la cual procesar el batch
+     */
+    public int onEvent(Target target, long key, long now) {
+        return tracker(target).onEvent(key, now);
+    }
+
+    /**
+     * Registra lo que tardó en renderizarse un batch (todas las escalas).
+     */
+    public void recordRender(Target target, long elapsedNanos) {
+        tracker(target).recordRender(elapsedNanos / 1_000_000.0);
+    }
+
+    /**
+     * Antigüedad máxima (ms) que puede alcanzar el pixel más viejo de un batch
+     * antes de procesarlo por tiempo.
+     */
+    public long flushIntervalMillis(Target target) {
+        return (long) tracker(target).flushIntervalMillis;
+    }
+
+    /**
+     * Recalcula intervalos y métricas, y olvida claves inactivas.
+     * Se invoca en cada tick del modo ADAPTIVE.
+     */
+    public void refresh(long now) {
+        canvasLoad.refresh(now);
+        tileLoad.refresh(now);
+    }
+
+    private LoadTracker tracker(Target target) {
+        return target == Target.CANVAS ? canvasLoad : tileLoad;
+    }
+
+    /**
+     * Carga observada de una clave.
+     */
+    private static final class KeyLoad {
+        long lastEventMillis;
+        double intervalMillis;
+        int threshold;
+    }
+
+    /**
+     * Estado adaptativo de un tipo de imagen (canvas o tiles).
+     */
+    private final class LoadTracker {
+
+        private final LongObjectTable<KeyLoad> loads;
+        private final ArrayDeque<KeyLoad> pool = new ArrayDeque<>();
+
+        private long[] keyBuffer;
+
+        // EWMA del costo de render de un batch (ms); 0 hasta la primera medición
+        private double renderCostMillis;
+
+        // Valores publicados (recalculados en refresh)
+        private volatile double flushIntervalMillis = properties.getAdaptive().getTargetFreshnessMillis();
+        private volatile double maxThreshold;
+        private volatile double meanThreshold;
+        private volatile double eventsPerSecond;
+        private volatile double cpuDemand;
+        private volatile double renderCostGauge;
+
+        LoadTracker(int initialCapacity) {
+            loads = new LongObjectTable<>(initialCapacity);
+            keyBuffer = new long[initialCapacity];
+        }
+
+        synchronized int onEvent(long key, long now) {
+            ImageGenerationProperties.Adaptive adaptive = properties.getAdaptive();
+            KeyLoad load = loads.get(key);
+
+            if (load == null) {
+                // Sin historial: se asume un evento por ventana objetivo (umbral mínimo)
+                load = pool.isEmpty() ? new KeyLoad() : pool.pop();
+                load.intervalMillis = adaptive.getTargetFreshnessMillis();
+                loads.put(key, load);
+            } else {
+                long elapsed = Math.max(0, now - load.lastEventMillis);
+                load.intervalMillis += adaptive.getSmoothing() * (elapsed - load.intervalMillis);
+            }
+
+            load.lastEventMillis = now;
+            load.threshold = threshold(load, adaptive);
+            return load.threshold;
+        }
+
+        synchronized void recordRender(double elapsedMillis) {
+            if (renderCostMillis == 0) {
+                renderCostMillis = elapsedMillis;
+            } else {
+                renderCostMillis += properties.getAdaptive().getSmoothing() * (elapsedMillis - renderCostMillis);
+            }
+        }
+
+        synchronized void refresh(long now) {
+            ImageGenerationProperties.Adaptive adaptive = properties.getAdaptive();
+            double target = adaptive.getTargetFreshnessMillis();
+            long idleLimit = Math.max(MIN_IDLE_EVICTION_MILLIS, (long) (10 * flushIntervalMillis));
+
+            // 1. Olvidar claves inactivas
+            if (keyBuffer.length < loads.size()) {
+                keyBuffer = new long[Integer.highestOneBit(loads.size()) << 1];
+            }
+            int count = loads.keys(keyBuffer);
+            for (int i = 0; i < count; i++) {
+                if (now - loads.get(keyBuffer[i]).lastEventMillis > idleLimit) {
+                    KeyLoad evicted = loads.remove(keyBuffer[i]);
+                    if (pool.size() < MAX_POOLED_LOADS) {
+                        pool.push(evicted);
+                    }
+                }
+            }
+
+            // 2. Demanda de CPU si todas las claves se renderizaran con la latencia objetivo
+            double rendersPerMilli = 0;
+            double totalRate = 0;
+            for (int slot = 0; slot < loads.capacity(); slot++) {
+                KeyLoad load = loads.valueAt(slot);
+                if (load != null) {
+                    double rate = rate(load);
+                    totalRate += rate;
+                    rendersPerMilli += Math.min(rate, 1.0 / target);
+                }
+            }
+            double demand = renderCostMillis * rendersPerMilli;
+            double budget = Math.max(adaptive.getCpuBudget(), 0.001);
+
+            // 3. Intervalo: el objetivo, estirado lo justo para respetar el presupuesto
+            flushIntervalMillis = target * Math.max(1.0, demand / budget);
+
+            // 4. Umbrales con el nuevo intervalo
+            int max = 0;
+            long sum = 0;
+            for (int slot = 0; slot < loads.capacity(); slot++) {
+                KeyLoad load = loads.valueAt(slot);
+                if (load != null) {
+                    load.threshold = threshold(load, adaptive);
+                    max = Math.max(max, load.threshold);
+                    sum += load.threshold;
+                }
+            }
+
+            maxThreshold = max;
+            meanThreshold = loads.isEmpty() ? 0 : (double) sum / loads.size();
+            eventsPerSecond = totalRate * 1000;
+            cpuDemand = demand;
+            renderCostGauge = renderCostMillis;
+        }
+
+        private int threshold(KeyLoad load, ImageGenerationProperties.Adaptive adaptive) {
+            int threshold = (int) Math.ceil(rate(load) * flushIntervalMillis);
+            return Math.max(adaptive.getMinBatchSize(), Math.min(adaptive.getMaxBatchSize(), threshold));
+        }
+
+        private double rate(KeyLoad load) {
+            return 1.0 / Math.max(load.intervalMillis, MIN_INTERVAL_MILLIS);
+        }
+
+        void registerGauges(MeterRegistry registry, String target) {
+            Gauge.builder("pixelplace.image.adaptive.threshold", this, t -> t.maxThreshold)
+                    .description("Umbral de batch adaptativo (máximo entre claves activas)")
+                    .tag("target", target).tag("stat", "max")
+                    .register(registry);
+            Gauge.builder("pixelplace.image.adaptive.threshold", this, t -> t.meanThreshold)
+                    .description("Umbral de batch adaptativo (promedio entre claves activas)")
+                    .tag("target", target).tag("stat", "mean")
+                    .register(registry);
+            Gauge.builder("pixelplace.image.adaptive.flush.interval", this, t -> t.flushIntervalMillis)
+                    .description("Antigüedad máxima de un batch antes de procesarlo")
+                    .baseUnit("milliseconds")
+                    .tag("target", target)
+                    .register(registry);
+            Gauge.builder("pixelplace.image.adaptive.event.rate", this, t -> t.eventsPerSecond)
+                    .description("Tasa de eventos observada entre claves activas")
+                    .baseUnit("events.per.second")
+                    .tag("target", target)
+                    .register(registry);
+            Gauge.builder("pixelplace.image.adaptive.render.cost", this, t -> t.renderCostGauge)
+                    .description("Costo promedio (EWMA) de renderizar un batch")
+                    .baseUnit("milliseconds")
+                    .tag("target", target)
+                    .register(registry);
+            Gauge.builder("pixelplace.image.adaptive.cpu.demand", this, t -> t.cpuDemand)
+                    .description("Fracción de core necesaria para cumplir la latencia objetivo")
+                    .tag("target", target)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.pixelplace.batch;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interna los IDs de canvas a índices enteros estables.
+ *
+ * Permite usar claves primitivas (ver TileKeys) en el hot path de eventos.
+ * Resolver un canvas ya registrado no genera objetos: el hash del String
+ * queda cacheado y el Integer del mapa se reutiliza.
+ */
+@Component
+public class CanvasIdRegistry {
+
+    private final ConcurrentHashMap<String, Integer> indexes = new ConcurrentHashMap<>();
+
+    private volatile String[] canvasIds = new String[16];
+
+    private int nextIndex;
+
+    /**
+     * Obtiene (o asigna) el índice interno de un canvas.
+     *
+     * @param canvasId ID del canvas
+     * @return Índice interno
+     */
+    public int intern(String canvasId) {
+        Integer index = indexes.get(canvasId);
+        if (index != null) {
+            return index;
+        }
+        return register(canvasId);
+    }
+
+    /**
+     * Resuelve el ID de canvas de un índice interno.
+     *
+     * @param index Índice interno
+     * @return ID del canvas
+     */
+    public String canvasId(int index) {
+        return canvasIds[index];
+    }
+
+    private synchronized int register(String canvasId) {
+        Integer existing = indexes.get(canvasId);
+        if (existing != null) {
+            return existing;
+        }
+
+        int index = nextIndex++;
+        String[] ids = canvasIds;
+        if (index == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[index] = canvasId;
+        canvasIds = ids;
+
+        indexes.put(canvasId, index);
+        return index;
+    }
+}
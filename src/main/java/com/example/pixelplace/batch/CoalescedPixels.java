@@ -0,0 +1,169 @@
+package com.example.pixelplace.batch;
+
+import java.util.Arrays;
+
+/**
+ * Pixeles pendientes de transmitir de un canvas, con el último valor por
+ * coordenada (last-write-wins).
+ *
+ * La coordenada empaquetada (x << 16 | y) se busca en una tabla con hash
+ * abierto que apunta a arrays paralelos en orden de primera aparición:
+ * repetir una coordenada pisa su color y usuario sin agregar una entrada.
+ * Los String de color y usuario son los del evento, no se copian.
+ *
+ * También lleva el rango de secuencias cubierto: (fromSequence, toSequence],
+ * desde la secuencia anterior al primer pixel hasta la del último. Los
+ * pixeles sin secuencia (0) no lo modifican; si ninguno la tiene el rango
+ * queda en (0, 0].
+ * No es thread-safe; los usuarios sincronizan por fuera.
+ */
+public final class CoalescedPixels {
+
+    private static final int EMPTY = -1;
+
+    /**
+     * Capacidad máxima que conserva el buffer al limpiarse (igual que PixelBatch).
+     */
+    static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private int[] table;
+    private int mask;
+
+    private int[] coords;
+    private String[] colors;
+    private String[] userIds;
+    private int size;
+
+    private long fromSequence = -1;
+    private long toSequence;
+
+    public CoalescedPixels() {
+        allocate(16);
+    }
+
+    /**
+     * Agrega un pixel o reemplaza el valor pendiente de su coordenada.
+     *
+     * @param previousSequence Secuencia anterior del canvas (ver CanvasPixelUpdate)
+     * @param sequence Secuencia del pixel (creciente), o 0 si no tiene
+     */
+    public void add(int x, int y, String color, String userId, long previousSequence, long sequence) {
+        if (sequence > 0) {
+            if (fromSequence < 0) {
+                fromSequence = previousSequence;
+            }
+            toSequence = sequence;
+        }
+
+        int coord = ((x & 0xFFFF) << 16) | (y & 0xFFFF);
+        int slot = mix(coord) & mask;
+        while (table[slot] != EMPTY) {
+            int index = table[slot];
+            if (coords[index] == coord) {
+                colors[index] = color;
+                userIds[index] = userId;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == coords.length) {
+            grow();
+            slot = mix(coord) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        table[slot] = size;
+        coords[size] = coord;
+        colors[size] = color;
+        userIds[size] = userId;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int x(int index) {
+        return coords[index] >>> 16;
+    }
+
+    public int y(int index) {
+        return coords[index] & 0xFFFF;
+    }
+
+    public String color(int index) {
+        return colors[index];
+    }
+
+    public String userId(int index) {
+        return userIds[index];
+    }
+
+    /**
+     * @return Secuencia anterior al primer pixel del buffer (exclusiva)
+     */
+    public long getFromSequence() {
+        return Math.max(fromSequence, 0);
+    }
+
+    /**
+     * @return Secuencia del último pixel agregado
+     */
+    public long getToSequence() {
+        return toSequence;
+    }
+
+    public void clear() {
+        if (coords.length > MAX_RETAINED_CAPACITY) {
+            allocate(16);
+        } else {
+            Arrays.fill(table, EMPTY);
+            Arrays.fill(colors, 0, size, null);
+            Arrays.fill(userIds, 0, size, null);
+        }
+        size = 0;
+        fromSequence = -1;
+        toSequence = 0;
+    }
+
+    private void allocate(int capacity) {
+        coords = new int[capacity];
+        colors = new String[capacity];
+        userIds = new String[capacity];
+        table = new int[capacity * 2];
+        mask = table.length - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    /**
+     * Duplica la capacidad y rearma la tabla (el orden de las entradas se conserva).
+     */
+    private void grow() {
+        int capacity = coords.length << 1;
+        coords = Arrays.copyOf(coords, capacity);
+        colors = Arrays.copyOf(colors, capacity);
+        userIds = Arrays.copyOf(userIds, capacity);
+        table = new int[capacity * 2];
+        mask = table.length - 1;
+        Arrays.fill(table, EMPTY);
+
+        for (int index = 0; index < size; index++) {
+            int slot = mix(coords[index]) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index;
+        }
+    }
+
+    private static int mix(int coord) {
+        int h = coord * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.pixelplace.batch;
+
+/**
+ * Parseo de colores hex (#RRGGBB o #RGB) a RGB empaquetado sin generar objetos,
+ * y formato inverso.
+ *
+ * Colores inválidos se tratan como blanco, igual que parseColor en los
+ * servicios de imágenes.
+ */
+public final class HexColor {
+
+    public static final int WHITE = 0xFFFFFF;
+
+    private HexColor() {
+    }
+
+    /**
+     * @param hexColor Color en formato #RRGGBB o #RGB
+     * @return RGB empaquetado (0xRRGGBB)
+     */
+    public static int parseRgb(String hexColor) {
+        if (hexColor == null || hexColor.isEmpty() || hexColor.charAt(0) != '#') {
+            return WHITE;
+        }
+
+        int length = hexColor.length();
+        int rgb = 0;
+
+        if (length == 7) {
+            for (int i = 1; i < 7; i++) {
+                int digit = Character.digit(hexColor.charAt(i), 16);
+                if (digit < 0) {
+                    return WHITE;
+                }
+                rgb = (rgb << 4) | digit;
+            }
+            return rgb;
+        }
+
+        if (length == 4) {
+            // #RGB → #RRGGBB
+            for (int i = 1; i < 4; i++) {
+                int digit = Character.digit(hexColor.charAt(i), 16);
+                if (digit < 0) {
+                    return WHITE;
+                }
+                rgb = (rgb << 8) | (digit * 0x11);
+            }
+            return rgb;
+        }
+
+        return WHITE;
+    }
+
+    /**
+     * @param rgb RGB empaquetado (0xRRGGBB)
+     * @return Color en formato #RRGGBB (mayúsculas)
+     */
+    public static String format(int rgb) {
+        char[] chars = new char[7];
+        chars[0] = '#';
+        for (int i = 6; i > 0; i--) {
+            chars[i] = Character.toUpperCase(Character.forDigit(rgb & 0xF, 16));
+            rgb >>>= 4;
+        }
+        return new String(chars);
+    }
+}
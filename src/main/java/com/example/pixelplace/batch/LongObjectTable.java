@@ -0,0 +1,172 @@
+package com.example.pixelplace.batch;
+
+import java.util.Arrays;
+
+/**
+ * Mapa long → objeto con hash abierto y sondeo lineal.
+ *
+ * Pensado para claves de TileKeys (siempre >= 0): no boxea claves ni crea
+ * nodos por entrada. No es thread-safe; los usuarios sincronizan por fuera.
+ *
+ * @param <V> Tipo de valor
+ */
+public final class LongObjectTable<V> {
+
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public LongObjectTable(int initialCapacity) {
+        allocate(Integer.highestOneBit(Math.max(8, initialCapacity - 1) << 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int slot = findSlot(key);
+        return keys[slot] == key ? (V) values[slot] : null;
+    }
+
+    /**
+     * @return Valor anterior o null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        int slot = findSlot(key);
+        if (keys[slot] == key) {
+            V previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return Valor eliminado o null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int slot = findSlot(key);
+        if (keys[slot] != key) {
+            return null;
+        }
+
+        V value = (V) values[slot];
+        removeSlot(slot);
+        return value;
+    }
+
+    /**
+     * Copia las claves en un buffer provisto por el llamador.
+     *
+     * @return Cantidad de claves copiadas (como máximo target.length)
+     */
+    public int keys(long[] target) {
+        int count = 0;
+        for (int i = 0; i < keys.length && count < target.length; i++) {
+            if (keys[i] != EMPTY) {
+                target[count++] = keys[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Capacidad interna; junto con {@link #keyAt}/{@link #valueAt} permite
+     * recorrer la tabla sin iteradores.
+     */
+    public int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return Clave del slot o -1 si está vacío
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private int findSlot(long key) {
+        int slot = hash(key) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Borrado con desplazamiento hacia atrás: mantiene las cadenas de sondeo
+     * sin necesidad de tombstones.
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & mask;
+
+        while (keys[next] != EMPTY) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.pixelplace.batch;
+
+import java.util.ArrayDeque;
+
+/**
+ * Tabla de batches pendientes indexada por clave primitiva (ver TileKeys).
+ *
+ * Usa LongObjectTable para no boxear claves, y un pool de PixelBatch para
+ * reutilizar los buffers una vez renderizados. En régimen estable, agregar
+ * un pixel no genera ningún objeto.
+ *
+ * Backpressure: si un batch supera maxPixelsPerKey, o el total de pixeles
+ * pendientes supera maxPendingPixels, el batch que crece se colapsa (ver
+ * PixelBatch.isCollapsed): libera sus pixeles y queda pendiente de una
+ * única regeneración completa diferida. Así la memoria queda acotada
+ * aunque el render se atrase.
+ *
+ * Todos los métodos son synchronized: los event handlers corren en varios
+ * threads del consumidor de Kafka.
+ */
+public final class PendingBatches {
+
+    private static final int MAX_POOLED = 1024;
+
+    private final LongObjectTable<PixelBatch> batches;
+    private final ArrayDeque<PixelBatch> pool = new ArrayDeque<>();
+    private int pendingPixels;
+    private int collapsedBatches;
+    private long collapses;
+
+    private int maxPixelsPerKey = Integer.MAX_VALUE;
+    private int maxPendingPixels = Integer.MAX_VALUE;
+
+    public PendingBatches() {
+        this(64);
+    }
+
+    public PendingBatches(int initialCapacity) {
+        this.batches = new LongObjectTable<>(initialCapacity);
+    }
+
+    /**
+     * Configura los límites de backpressure.
+     *
+     * @param maxPixelsPerKey Pixeles máximos en un batch antes de colapsarlo
+     * @param maxPendingPixels Pixeles pendientes máximos entre todas las claves
+     */
+    public synchronized void setLimits(int maxPixelsPerKey, int maxPendingPixels) {
+        this.maxPixelsPerKey = maxPixelsPerKey;
+        this.maxPendingPixels = maxPendingPixels;
+    }
+
+    /**
+     * Agrega un pixel al batch de una clave, creándolo (o tomándolo del pool) si no existe.
+     *
+     * @return Cantidad de pixeles guardados en el batch tras agregar
+     *         (0 si el batch está colapsado y espera regeneración completa)
+     */
+    public synchronized int add(long key, int x, int y, int rgb, long timestamp) {
+        PixelBatch batch = batches.get(key);
+        if (batch == null) {
+            batch = pool.isEmpty() ? new PixelBatch() : pool.pop();
+            batches.put(key, batch);
+        }
+
+        if (batch.isCollapsed()) {
+            batch.touch(timestamp);
+            return 0;
+        }
+
+        batch.add(x, y, rgb, timestamp);
+        pendingPixels++;
+
+        if (batch.size() > maxPixelsPerKey || pendingPixels > maxPendingPixels) {
+            pendingPixels -= batch.size();
+            batch.collapse();
+            collapsedBatches++;
+            collapses++;
+            return 0;
+        }
+
+        return batch.size();
+    }
+
+    /**
+     * Marca una clave para regeneración completa diferida, como si su batch
+     * se hubiera colapsado, sin contarlo como colapso por backpressure.
+     */
+    public synchronized void requestRegeneration(long key, long timestamp) {
+        PixelBatch batch = batches.get(key);
+        if (batch == null) {
+            batch = pool.isEmpty() ? new PixelBatch() : pool.pop();
+            batches.put(key, batch);
+        }
+
+        batch.touch(timestamp);
+        if (!batch.isCollapsed()) {
+            pendingPixels -= batch.size();
+            batch.collapse();
+            collapsedBatches++;
+        }
+    }
+
+    /**
+     * Retira el batch de una clave. El llamador debe devolverlo con {@link #recycle}.
+     *
+     * @return Batch pendiente o null si no había pixeles
+     */
+    public synchronized PixelBatch drain(long key) {
+        PixelBatch batch = batches.remove(key);
+        if (batch != null) {
+            pendingPixels -= batch.size();
+            if (batch.isCollapsed()) {
+                collapsedBatches--;
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Devuelve un batch ya procesado al pool.
+     */
+    public synchronized void recycle(PixelBatch batch) {
+        if (batch == null) {
+            return;
+        }
+        batch.clear();
+        if (pool.size() < MAX_POOLED) {
+            pool.push(batch);
+        }
+    }
+
+    /**
+     * Timestamp del pixel más antiguo pendiente de una clave.
+     *
+     * @return Timestamp en ms, o -1 si la clave no tiene pixeles pendientes
+     */
+    public synchronized long firstEventMillis(long key) {
+        PixelBatch batch = batches.get(key);
+        return batch == null ? -1L : batch.getFirstEventMillis();
+    }
+
+    /**
+     * Copia las claves pendientes en un buffer provisto por el llamador.
+     *
+     * @param target Buffer destino
+     * @return Cantidad de claves copiadas (como máximo target.length)
+     */
+    public synchronized int keys(long[] target) {
+        return batches.keys(target);
+    }
+
+    /**
+     * Copia las claves cuyos batches están (o no) colapsados.
+     *
+     * @param target Buffer destino
+     * @param collapsed true para claves colapsadas, false para el resto
+     * @return Cantidad de claves copiadas (como máximo target.length)
+     */
+    public synchronized int keys(long[] target, boolean collapsed) {
+        int count = 0;
+        for (int slot = 0; slot < batches.capacity() && count < target.length; slot++) {
+            PixelBatch batch = batches.valueAt(slot);
+            if (batch != null && batch.isCollapsed() == collapsed) {
+                target[count++] = batches.keyAt(slot);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Timestamp del pixel pendiente más antiguo entre todas las claves.
+     *
+     * @return Timestamp en ms, o -1 si no hay pendientes
+     */
+    public synchronized long oldestEventMillis() {
+        long oldest = -1L;
+        for (int slot = 0; slot < batches.capacity(); slot++) {
+            PixelBatch batch = batches.valueAt(slot);
+            if (batch != null && (oldest < 0 || batch.getFirstEventMillis() < oldest)) {
+                oldest = batch.getFirstEventMillis();
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @return Cantidad de claves con pixeles pendientes
+     */
+    public synchronized int size() {
+        return batches.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    /**
+     * @return Total de pixeles pendientes entre todas las claves
+     */
+    public synchronized int pendingPixels() {
+        return pendingPixels;
+    }
+
+    /**
+     * @return Cantidad de batches colapsados esperando regeneración completa
+     */
+    public synchronized int collapsedBatches() {
+        return collapsedBatches;
+    }
+
+    /**
+     * @return Total histórico de batches colapsados
+     */
+    public synchronized long collapses() {
+        return collapses;
+    }
+}
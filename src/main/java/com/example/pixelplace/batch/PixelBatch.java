@@ -0,0 +1,135 @@
+package com.example.pixelplace.batch;
+
+import java.util.Arrays;
+
+/**
+ * Buffer reutilizable de pixeles pendientes de un canvas o de un tile.
+ *
+ * Cada pixel se guarda empaquetado en un long:
+ *
+ *   [ x : 16 | y : 16 | rgb : 24 ]
+ *
+ * de modo que acumular eventos no crea objetos. Los buffers se obtienen y
+ * se devuelven a través de PendingBatches.
+ *
+ * Un batch "colapsado" descartó sus pixeles por backpressure: ya no
+ * guarda coordenadas, solo cuenta eventos, y al procesarse se regenera
+ * la imagen completa desde la proyección.
+ */
+public final class PixelBatch {
+
+    static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Capacidad máxima que conserva un buffer al reciclarse.
+     * Evita que un pico de tráfico deje buffers enormes en el pool.
+     */
+    static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private long[] pixels = new long[INITIAL_CAPACITY];
+    private int size;
+    private int eventCount;
+    private boolean collapsed;
+    private long firstEventMillis;
+    private long lastEventMillis;
+
+    void add(int x, int y, int rgb, long timestamp) {
+        if (size == pixels.length) {
+            pixels = Arrays.copyOf(pixels, size << 1);
+        }
+        pixels[size++] = ((x & 0xFFFFL) << 40) | ((y & 0xFFFFL) << 24) | (rgb & 0xFFFFFFL);
+        touch(timestamp);
+    }
+
+    /**
+     * Registra un evento sin guardar el pixel (batch colapsado).
+     */
+    void touch(long timestamp) {
+        if (eventCount++ == 0) {
+            firstEventMillis = timestamp;
+        }
+        lastEventMillis = timestamp;
+    }
+
+    /**
+     * Descarta los pixeles acumulados y marca el batch para regeneración completa.
+     */
+    void collapse() {
+        size = 0;
+        collapsed = true;
+        if (pixels.length > MAX_RETAINED_CAPACITY) {
+            pixels = new long[INITIAL_CAPACITY];
+        }
+    }
+
+    void clear() {
+        size = 0;
+        eventCount = 0;
+        collapsed = false;
+        firstEventMillis = 0;
+        lastEventMillis = 0;
+        if (pixels.length > MAX_RETAINED_CAPACITY) {
+            pixels = new long[INITIAL_CAPACITY];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0 && !collapsed;
+    }
+
+    /**
+     * @return true si el batch descartó sus pixeles y requiere regeneración completa
+     */
+    public boolean isCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * @return Eventos recibidos por el batch, incluidos los descartados al colapsar
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    /**
+     * @param index Posición del pixel en el batch
+     * @return Coordenada X del pixel
+     */
+    public int x(int index) {
+        return (int) (pixels[index] >>> 40) & 0xFFFF;
+    }
+
+    /**
+     * @param index Posición del pixel en el batch
+     * @return Coordenada Y del pixel
+     */
+    public int y(int index) {
+        return (int) (pixels[index] >>> 24) & 0xFFFF;
+    }
+
+    /**
+     * @param index Posición del pixel en el batch
+     * @return Color del pixel (0xRRGGBB)
+     */
+    public int rgb(int index) {
+        return (int) pixels[index] & 0xFFFFFF;
+    }
+
+    /**
+     * @return Timestamp (ms) del pixel más antiguo del batch
+     */
+    public long getFirstEventMillis() {
+        return firstEventMillis;
+    }
+
+    /**
+     * @return Timestamp (ms) del pixel más reciente del batch
+     */
+    public long getLastEventMillis() {
+        return lastEventMillis;
+    }
+}
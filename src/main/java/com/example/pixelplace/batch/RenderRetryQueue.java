@@ -0,0 +1,233 @@
+package com.example.pixelplace.batch;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import com.example.pixelplace.config.ImageGenerationProperties;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cola de reintentos para renders fallidos.
+ *
+ * Un batch que falla no dispara una regeneración completa en el mismo
+ * thread: se encola con backoff exponencial y lo procesa luego una tarea
+ * en segundo plano. Las fallas repetidas de la misma clave se fusionan en
+ * una sola entrada (acumulando los tiles afectados), y al agotar los
+ * intentos la entrada se descarta y queda registrada en métricas.
+ *
+ * Métricas: pixelplace.image.render.failures, pixelplace.image.render.retries,
+ * pixelplace.image.render.retry.exhausted y pixelplace.image.render.retry.pending.
+ */
+@Slf4j
+@Component
+public class RenderRetryQueue {
+
+    private final ImageGenerationProperties properties;
+    private final LongObjectTable<Entry> canvasEntries = new LongObjectTable<>(16);
+    private final LongObjectTable<Entry> tileEntries = new LongObjectTable<>(16);
+
+    private final Counter canvasFailures;
+    private final Counter tileFailures;
+    private final Counter canvasRetrySuccess;
+    private final Counter canvasRetryFailure;
+    private final Counter tileRetrySuccess;
+    private final Counter tileRetryFailure;
+    private final Counter canvasExhausted;
+    private final Counter tileExhausted;
+
+    public RenderRetryQueue(ImageGenerationProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        canvasFailures = failureCounter(meterRegistry, "canvas");
+        tileFailures = failureCounter(meterRegistry, "tile");
+        canvasRetrySuccess = retryCounter(meterRegistry, "canvas", "success");
+        canvasRetryFailure = retryCounter(meterRegistry, "canvas", "failure");
+        tileRetrySuccess = retryCounter(meterRegistry, "tile", "success");
+        tileRetryFailure = retryCounter(meterRegistry, "tile", "failure");
+        canvasExhausted = exhaustedCounter(meterRegistry, "canvas");
+        tileExhausted = exhaustedCounter(meterRegistry, "tile");
+
+        Gauge.builder("pixelplace.image.render.retry.pending", this, q -> q.pending(q.canvasEntries))
+                .description("Renders fallidos esperando reintento")
+                .tag("target", "canvas")
+                .register(meterRegistry);
+        Gauge.builder("pixelplace.image.render.retry.pending", this, q -> q.pending(q.tileEntries))
+                .description("Renders fallidos esperando reintento")
+                .tag("target", "tile")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Encola el reintento de un batch de canvas fallido.
+     *
+     * Solo se repintarán las regiones de los tiles que tocaba el batch.
+     * Si el batch estaba colapsado (sin pixeles), se regenera el canvas completo.
+     *
+     * @param canvasKey Clave del canvas (TileKeys.canvasKey)
+     * @param batch Batch que falló
+     * @param tileSize Tamaño de tile para calcular las regiones afectadas
+     */
+    public synchronized void enqueueCanvas(long canvasKey, PixelBatch batch, int tileSize, long now) {
+        canvasFailures.increment();
+
+        Entry entry = canvasEntries.get(canvasKey);
+        if (entry == null) {
+            entry = new Entry(canvasKey, false, now + backoff(1));
+            canvasEntries.put(canvasKey, entry);
+        }
+
+        if (batch.isCollapsed()) {
+            entry.fullRegeneration = true;
+        }
+
+        int canvasIndex = TileKeys.canvasIndex(canvasKey);
+        for (int i = 0; i < batch.size(); i++) {
+            entry.tiles.add(TileKeys.tileKey(canvasIndex, batch.x(i) / tileSize, batch.y(i) / tileSize));
+        }
+    }
+
+    /**
+     * Encola el reintento (regeneración completa) de un tile fallido.
+     *
+     * @param tileKey Clave del tile (TileKeys.tileKey)
+     */
+    public synchronized void enqueueTile(long tileKey, long now) {
+        tileFailures.increment();
+
+        if (tileEntries.get(tileKey) == null) {
+            tileEntries.put(tileKey, new Entry(tileKey, true, now + backoff(1)));
+        }
+    }
+
+    /**
+     * Retira las entradas cuyo reintento ya venció.
+     *
+     * @param now Timestamp actual en ms
+     * @param target Lista donde agregar las entradas vencidas
+     */
+    public synchronized void pollDue(long now, List<Entry> target) {
+        pollDue(canvasEntries, now, target);
+        pollDue(tileEntries, now, target);
+    }
+
+    /**
+     * Registra que el reintento de una entrada funcionó.
+     */
+    public synchronized void succeeded(Entry entry) {
+        (entry.isTile() ? tileRetrySuccess : canvasRetrySuccess).increment();
+        log.info("✅ Reintento exitoso: {} tras {} intento(s)", describe(entry), entry.attempts);
+    }
+
+    /**
+     * Registra que el reintento de una entrada volvió a fallar y la reprograma
+     * con backoff exponencial, o la descarta si agotó los intentos.
+     */
+    public synchronized void failed(Entry entry, long now) {
+        (entry.isTile() ? tileRetryFailure : canvasRetryFailure).increment();
+
+        if (entry.attempts >= properties.getRetry().getMaxAttempts()) {
+            (entry.isTile() ? tileExhausted : canvasExhausted).increment();
+            log.error("❌ Reintentos agotados para {} tras {} intentos", describe(entry), entry.attempts);
+            return;
+        }
+
+        LongObjectTable<Entry> entries = entry.isTile() ? tileEntries : canvasEntries;
+        Entry pending = entries.get(entry.key);
+        if (pending != null) {
+            // Mientras se reintentaba llegó otra falla de la misma clave: fusionar
+            pending.tiles.addAll(entry.tiles);
+            pending.fullRegeneration |= entry.fullRegeneration;
+            pending.attempts = Math.max(pending.attempts, entry.attempts);
+            return;
+        }
+
+        entry.nextAttemptMillis = now + backoff(entry.attempts + 1);
+        entries.put(entry.key, entry);
+    }
+
+    public synchronized boolean isEmpty() {
+        return canvasEntries.isEmpty() && tileEntries.isEmpty();
+    }
+
+    private void pollDue(LongObjectTable<Entry> entries, long now, List<Entry> target) {
+        int start = target.size();
+        for (int slot = 0; slot < entries.capacity(); slot++) {
+            Entry entry = entries.valueAt(slot);
+            if (entry != null && entry.nextAttemptMillis <= now) {
+                target.add(entry);
+            }
+        }
+        for (int i = start; i < target.size(); i++) {
+            Entry entry = target.get(i);
+            entries.remove(entry.key);
+            entry.attempts++;
+        }
+    }
+
+    /**
+     * Backoff exponencial: inicial × 2^(intento - 1), con tope.
+     */
+    private long backoff(int attempt) {
+        ImageGenerationProperties.Retry retry = properties.getRetry();
+        long delay = retry.getInitialBackoffMillis() << Math.min(attempt - 1, 20);
+        return Math.min(delay, retry.getMaxBackoffMillis());
+    }
+
+    private synchronized int pending(LongObjectTable<Entry> entries) {
+        return entries.size();
+    }
+
+    private String describe(Entry entry) {
+        return entry.isTile()
+                ? String.format("tile (%d,%d)", TileKeys.tileX(entry.key), TileKeys.tileY(entry.key))
+                : "canvas";
+    }
+
+    private static Counter failureCounter(MeterRegistry registry, String target) {
+        return Counter.builder("pixelplace.image.render.failures")
+                .description("Batches cuyo render falló y se encolaron para reintento")
+                .tag("target", target)
+                .register(registry);
+    }
+
+    private static Counter retryCounter(MeterRegistry registry, String target, String outcome) {
+        return Counter.builder("pixelplace.image.render.retries")
+                .description("Reintentos de render procesados")
+                .tag("target", target)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static Counter exhaustedCounter(MeterRegistry registry, String target) {
+        return Counter.builder("pixelplace.image.render.retry.exhausted")
+                .description("Renders descartados tras agotar los reintentos")
+                .tag("target", target)
+                .register(registry);
+    }
+
+    /**
+     * Reintento pendiente de un canvas o de un tile.
+     */
+    @Getter
+    public static final class Entry {
+
+        private final long key;
+        private final boolean tile;
+        private final Set<Long> tiles = new HashSet<>();
+        private boolean fullRegeneration;
+        private int attempts;
+        private long nextAttemptMillis;
+
+        Entry(long key, boolean tile, long nextAttemptMillis) {
+            this.key = key;
+            this.tile = tile;
+            this.nextAttemptMillis = nextAttemptMillis;
+        }
+    }
+}
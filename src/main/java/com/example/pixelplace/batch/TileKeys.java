@@ -0,0 +1,52 @@
+package com.example.pixelplace.batch;
+
+/**
+ * Claves primitivas para canvas y tiles.
+ *
+ * Una clave empaqueta en un long el índice interno del canvas
+ * (ver CanvasIdRegistry) y las coordenadas del tile:
+ *
+ *   [ canvasIndex : 32 | tileX : 16 | tileY : 16 ]
+ *
+ * Reemplaza a las claves String "canvasId_tileX_tileY", que obligaban a
+ * formatear en cada evento y a parsear con split/parseInt al procesar.
+ */
+public final class TileKeys {
+
+    private static final long COORD_MASK = 0xFFFFL;
+
+    private TileKeys() {
+    }
+
+    /**
+     * Clave de un tile.
+     *
+     * @param canvasIndex Índice interno del canvas
+     * @param tileX Índice X del tile (0..65535)
+     * @param tileY Índice Y del tile (0..65535)
+     */
+    public static long tileKey(int canvasIndex, int tileX, int tileY) {
+        return ((long) canvasIndex << 32) | ((tileX & COORD_MASK) << 16) | (tileY & COORD_MASK);
+    }
+
+    /**
+     * Clave del canvas completo (coordenadas de tile en cero).
+     *
+     * @param canvasIndex Índice interno del canvas
+     */
+    public static long canvasKey(int canvasIndex) {
+        return (long) canvasIndex << 32;
+    }
+
+    public static int canvasIndex(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int tileX(long key) {
+        return (int) ((key >>> 16) & COORD_MASK);
+    }
+
+    public static int tileY(long key) {
+        return (int) (key & COORD_MASK);
+    }
+}
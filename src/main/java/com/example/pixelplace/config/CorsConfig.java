@@ -56,7 +56,11 @@ public class CorsConfig {
             "accept",
             "Origin",
             "Access-Control-Request-Method",
-            "Access-Control-Request-Headers"
+            "Access-Control-Request-Headers",
+            "ETag",
+            "Last-Modified",
+            "X-Canvas-Sequence",
+            "X-Canvas-Epoch"
         ));
 
         // Tiempo que el navegador puede cachear la respuesta preflight
@@ -11,6 +11,7 @@ import org.springframework.context.annotation.Configuration;
  * - TIME: Genera imagen cada X segundos
  * - COUNT: Genera imagen cada N eventos
  * - HYBRID: Genera imagen con lo que ocurra primero (tiempo O cantidad)
+ * - ADAPTIVE: Ajusta el umbral de cada tile según la carga observada
  */
 @Data
 @Configuration
@@ -23,7 +24,7 @@ public class ImageGenerationProperties {
     private boolean enabled = true;
 
     /**
-     * Modo de batch: TIME, COUNT, HYBRID
+     * Modo de batch: TIME, COUNT, HYBRID, ADAPTIVE
      */
     private BatchMode mode = BatchMode.HYBRID;
 
@@ -42,6 +43,59 @@ public class ImageGenerationProperties {
      */
     private String storageDirectory = "/var/canvas-images";
 
+    /**
+     * Backend de almacenamiento de imágenes: FILESYSTEM, MEMORY, PACK
+     */
+    private Storage storage = new Storage();
+
+    @Data
+    public static class Storage {
+
+        /**
+         * Tipo de backend (ver ImageStorage)
+         */
+        private StorageType type = StorageType.FILESYSTEM;
+
+        /**
+         * PACK: intervalo (ms) de la compactación en segundo plano (0 = deshabilitada)
+         */
+        private long compactionIntervalMillis = 60_000;
+
+        /**
+         * PACK: fracción mínima de bytes reemplazados para compactar un pack
+         */
+        private double compactionGarbageRatio = 0.5;
+
+        /**
+         * PACK: bytes reemplazados mínimos para compactar un pack
+         */
+        private long compactionMinBytes = 1_048_576;
+
+        /**
+         * Persistir las imágenes en segundo plano (write-behind) en lugar de
+         * escribir a disco dentro del event handler
+         */
+        private boolean writeBehind = true;
+
+        /**
+         * Threads del writer asíncrono
+         */
+        private int writerThreads = 2;
+
+        /**
+         * Bytes máximos del cache en memoria de PNG codificados
+         * (FILESYSTEM y PACK; 0 = sin cache)
+         */
+        private long cacheMaxBytes = 64L * 1024 * 1024;
+
+        /**
+         * Con varios pods sobre el mismo storage (relay distinto de LOCAL),
+         * cada cuánto se revalida una entrada del cache con un stat del
+         * backend (ms). Con un solo pod no se revalida
+         */
+        private long cacheRevalidateMillis = 1000;
+    }
+
     /**
      * Scale por defecto para las imágenes generadas
      */
@@ -58,6 +112,85 @@ public class ImageGenerationProperties {
      */
     private int[] scaleVersions = {1};
 
+    /**
+     * Render a demanda de las escalas que no están en scaleVersions /
+     * tileScaleVersions (o de imágenes que faltan)
+     */
+    private OnDemand onDemand = new OnDemand();
+
+    @Data
+    public static class OnDemand {
+
+        /**
+         * Renderizar al pedir una imagen que no existe o está desactualizada
+         * (si es false, ImageController responde 404)
+         */
+        private boolean enabled = true;
+
+        /**
+         * Pixeles máximos (ancho x alto ya escalados) de una imagen renderizada a demanda
+         */
+        private long maxImagePixels = 4096L * 4096;
+
+        /**
+         * Tiempo máximo (ms) que un request espera el render que ya está en curso
+         */
+        private long waitTimeoutMillis = 30_000;
+    }
+
+    /**
+     * Pirámide de vistas reducidas (1/2, 1/4, ...) para minimapa y zoom alejado
+     */
+    private Overview overview = new Overview();
+
+    @Data
+    public static class Overview {
+
+        /**
+         * Mantener la pirámide de niveles reducidos
+         */
+        private boolean enabled = true;
+
+        /**
+         * Niveles máximos (el último suele contener el canvas entero en un tile)
+         */
+        private int maxLevels = 6;
+
+        /**
+         * Intervalo (ms) de actualización de las celdas afectadas por tiles modificados
+         */
+        private long intervalMillis = 5_000;
+    }
+
+    /**
+     * Endpoint de viewport: región del canvas armada con los tiles cacheados
+     */
+    private Viewport viewport = new Viewport();
+
+    @Data
+    public static class Viewport {
+
+        /**
+         * Pixeles máximos (ancho x alto ya escalados) de la imagen de un viewport
+         */
+        private long maxImagePixels = 4096L * 4096;
+
+        /**
+         * Tiempo (ms) que se conserva el PNG de un viewport ya codificado
+         */
+        private long cacheTtlMillis = 10_000;
+
+        /**
+         * Viewports codificados máximos en cache
+         */
+        private int cacheMaxEntries = 128;
+
+        /**
+         * Pixeles máximos de los tiles decodificados que se mantienen en memoria
+         */
+        private long rasterCacheMaxPixels = 16L * 1024 * 1024;
+    }
+
     /**
      * ========== CONFIGURACIÓN DE TILES ==========
      */
@@ -85,6 +218,139 @@ public class ImageGenerationProperties {
      */
     private int tileBatchSize = 5;
 
+    /**
+     * Parámetros del modo ADAPTIVE
+     */
+    private Adaptive adaptive = new Adaptive();
+
+    @Data
+    public static class Adaptive {
+
+        /**
+         * Latencia objetivo (ms) entre que llega un pixel y su imagen se actualiza
+         */
+        private long targetFreshnessMillis = 1000;
+
+        /**
+         * Presupuesto de CPU para renderizar, en fracción de un core (0.5 = medio core)
+         */
+        private double cpuBudget = 0.5;
+
+        /**
+         * Umbral mínimo de eventos por batch
+         */
+        private int minBatchSize = 1;
+
+        /**
+         * Umbral máximo de eventos por batch
+         */
+        private int maxBatchSize = 500;
+
+        /**
+         * Cada cuántos ms se revisan los batches vencidos por antigüedad
+         */
+        private long tickMillis = 200;
+
+        /**
+         * Factor de suavizado (EWMA) para tasa de eventos y costo de render
+         */
+        private double smoothing = 0.2;
+    }
+
+    /**
+     * Límites de backpressure del pipeline de imágenes
+     */
+    private Backpressure backpressure = new Backpressure();
+
+    @Data
+    public static class Backpressure {
+
+        /**
+         * Pixeles pendientes máximos por tipo de imagen (canvas o tiles).
+         * Al superarse, el batch que crece se colapsa en una regeneración completa.
+         */
+        private int maxPendingPixels = 200_000;
+
+        /**
+         * Pixeles pendientes máximos en el batch de un tile antes de colapsarlo
+         */
+        private int maxPixelsPerTile = 2_000;
+
+        /**
+         * Pixeles pendientes máximos en el batch de un canvas completo antes de colapsarlo
+         */
+        private int maxPixelsPerCanvas = 20_000;
+
+        /**
+         * Intervalo (ms) de la tarea que procesa las regeneraciones diferidas
+         */
+        private long deferredRegenerationIntervalMillis = 5_000;
+
+        /**
+         * Regeneraciones completas máximas por tick (acota la CPU durante picos)
+         */
+        private int maxDeferredRegenerationsPerTick = 4;
+
+        /**
+         * SLO de frescura (ms): antigüedad máxima aceptable del pixel más
+         * viejo al momento de quedar visible en la imagen
+         */
+        private long freshnessSloMillis = 5_000;
+    }
+
+    /**
+     * Reintentos de renders fallidos
+     */
+    private Retry retry = new Retry();
+
+    @Data
+    public static class Retry {
+
+        /**
+         * Espera (ms) antes del primer reintento
+         */
+        private long initialBackoffMillis = 1_000;
+
+        /**
+         * Espera máxima (ms) entre reintentos (backoff exponencial)
+         */
+        private long maxBackoffMillis = 60_000;
+
+        /**
+         * Intentos máximos antes de descartar el reintento
+         */
+        private int maxAttempts = 6;
+
+        /**
+         * Intervalo (ms) de la tarea que procesa los reintentos vencidos
+         */
+        private long tickMillis = 1_000;
+    }
+
+    /**
+     * Verificación en segundo plano de tiles contra la proyección
+     */
+    private Reconciliation reconciliation = new Reconciliation();
+
+    @Data
+    public static class Reconciliation {
+
+        /**
+         * Habilitar la verificación periódica de tiles
+         */
+        private boolean enabled = true;
+
+        /**
+         * Intervalo (ms) entre ejecuciones
+         */
+        private long intervalMillis = 30_000;
+
+        /**
+         * Tiles verificados como máximo por ejecución
+         */
+        private int tilesPerRun = 16;
+    }
+
     public enum BatchMode {
         /**
          * Batch solo por tiempo (cada N segundos)
@@ -99,6 +365,31 @@ public class ImageGenerationProperties {
         /**
          * Batch híbrido: lo que ocurra primero entre tiempo y cantidad
          */
-        HYBRID
+        HYBRID,
+
+        /**
+         * Batch adaptativo: umbral por tile calculado a partir de la tasa de
+         * eventos y el costo de render medidos, buscando la latencia objetivo
+         * sin exceder el presupuesto de CPU
+         */
+        ADAPTIVE
+    }
+
+    public enum StorageType {
+        /**
+         * Un PNG por imagen bajo storageDirectory (layout histórico)
+         */
+        FILESYSTEM,
+
+        /**
+         * Solo memoria, sin I/O de disco (tests, benchmarks, pruebas de carga)
+         */
+        MEMORY,
+
+        /**
+         * Un archivo pack por canvas bajo storageDirectory. Un solo
+         * proceso por directorio (no para volúmenes compartidos entre réplicas).
+         */
+        PACK
     }
-}
\ No newline at end of file
+}
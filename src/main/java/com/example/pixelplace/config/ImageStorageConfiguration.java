@@ -0,0 +1,72 @@
+package com.example.pixelplace.config;
+
+import com.example.pixelplace.repository.storage.CachingImageStorage;
+import com.example.pixelplace.repository.storage.FileSystemImageStorage;
+import com.example.pixelplace.repository.storage.ImageStorage;
+import com.example.pixelplace.repository.storage.InMemoryImageStorage;
+import com.example.pixelplace.repository.storage.PackFileImageStorage;
+import com.example.pixelplace.repository.storage.WriteBehindImageStorage;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selecciona el backend de almacenamiento de imágenes según
+ * pixel-place.image.generation.storage.type (FILESYSTEM, MEMORY, PACK).
+ * 
+ * Con storage.write-behind los backends de disco se envuelven en
+ * WriteBehindImageStorage para que los renders no esperen la escritura,
+ * y con storage.cache-max-bytes > 0 en CachingImageStorage (por fuera)
+ * para servir los tiles calientes sin tocar el backend. Solo con varios
+ * pods (relay distinto de LOCAL) otro proceso escribe el mismo storage y
+ * el cache revalida sus entradas.
+ */
+@Slf4j
+@Configuration
+public class ImageStorageConfiguration {
+
+    @Bean
+    public ImageStorage imageStorage(ImageGenerationProperties properties, LiveUpdateProperties liveProperties,
+                                     MeterRegistry meterRegistry) {
+        ImageGenerationProperties.Storage storage = properties.getStorage();
+        ImageGenerationProperties.StorageType type = storage.getType();
+        log.info("💾 Almacenamiento de imágenes: {} ({})", type, properties.getStorageDirectory());
+
+        ImageStorage backend;
+        switch (type) {
+            case MEMORY:
+                // Sin disco no hay latencia que ocultar
+                return new InMemoryImageStorage();
+            case PACK:
+                backend = new PackFileImageStorage(
+                        properties.getStorageDirectory(),
+                        storage.getCompactionIntervalMillis(),
+                        storage.getCompactionGarbageRatio(),
+                        storage.getCompactionMinBytes()
+                );
+                break;
+            case FILESYSTEM:
+            default:
+                backend = new FileSystemImageStorage(properties.getStorageDirectory());
+                break;
+        }
+
+        if (storage.isWriteBehind()) {
+            log.info("   Write-behind: {} writers", storage.getWriterThreads());
+            ImageGenerationProperties.Retry retry = properties.getRetry();
+            backend = new WriteBehindImageStorage(backend, storage.getWriterThreads(),
+                    retry.getInitialBackoffMillis(), retry.getMaxBackoffMillis(), retry.getMaxAttempts(),
+                    meterRegistry);
+        }
+
+        if (storage.getCacheMaxBytes() > 0) {
+            long revalidateMillis = liveProperties.isRelayed() ? storage.getCacheRevalidateMillis() : 0;
+            log.info("   Cache en memoria: {} MB (revalidación: {} ms)",
+                    storage.getCacheMaxBytes() / (1024 * 1024), revalidateMillis);
+            backend = new CachingImageStorage(backend, storage.getCacheMaxBytes(), revalidateMillis, meterRegistry);
+        }
+
+        return backend;
+    }
+}
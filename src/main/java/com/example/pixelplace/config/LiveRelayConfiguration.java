@@ -0,0 +1,39 @@
+package com.example.pixelplace.config;
+
+import com.example.pixelplace.websocket.relay.InMemoryRelayTransport;
+import com.example.pixelplace.websocket.relay.KafkaRelayTransport;
+import com.example.pixelplace.websocket.relay.RelayTransport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Selecciona el transporte del relay de pixeles según
+ * pixel-place.live.relay.type (LOCAL, IN_MEMORY, KAFKA).
+ *
+ * Con LOCAL no hay transporte: PixelUpdateRelay transmite directo los
+ * pixeles que procesa este pod.
+ */
+@Slf4j
+@Configuration
+public class LiveRelayConfiguration {
+
+    @Bean
+    @ConditionalOnProperty(name = "pixel-place.live.relay.type", havingValue = "KAFKA")
+    public RelayTransport kafkaRelayTransport(LiveUpdateProperties properties,
+                                              @Value("${axon.kafka.bootstrap-servers}") String bootstrapServers) {
+        LiveUpdateProperties.Relay relay = properties.getRelay();
+        log.info("📡 Relay de pixeles: KAFKA (topic={}, servers={})", relay.getTopic(), bootstrapServers);
+        return new KafkaRelayTransport(bootstrapServers, relay.getTopic(), relay.getGroupIdPrefix(),
+                relay.getBackfillRecords());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "pixel-place.live.relay.type", havingValue = "IN_MEMORY")
+    public RelayTransport inMemoryRelayTransport() {
+        log.info("📡 Relay de pixeles: IN_MEMORY");
+        return new InMemoryRelayTransport();
+    }
+}
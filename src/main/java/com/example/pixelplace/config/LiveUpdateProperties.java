@@ -0,0 +1,183 @@
+package com.example.pixelplace.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configuración de las actualizaciones en vivo del canvas (deltas por
+ * HTTP y WebSocket).
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "pixel-place.live")
+public class LiveUpdateProperties {
+
+    /**
+     * Registro de cambios recientes por canvas (GET .../state/changes)
+     */
+    private ChangeLog changeLog = new ChangeLog();
+
+    @Data
+    public static class ChangeLog {
+
+        /**
+         * Cambios retenidos por canvas (se redondea a potencia de 2).
+         * Un cliente más atrasado que esto recibe 410 y recarga el estado.
+         */
+        private int capacity = 32_768;
+    }
+
+    /**
+     * Transmisión por WebSocket (/topic/canvas/{canvasId})
+     */
+    private Broadcast broadcast = new Broadcast();
+
+    @Data
+    public static class Broadcast {
+
+        /**
+         * Agrupar los pixeles de cada canvas en un mensaje PIXEL_BATCH por
+         * tick. false = un mensaje PIXEL_PLACED por pixel.
+         */
+        private boolean coalesce = true;
+
+        /**
+         * Intervalo entre mensajes agrupados (ms)
+         */
+        private long tickMillis = 50;
+    }
+
+    /**
+     * Frames binarios (BinaryPixelFrame) para los clientes que los negocian
+     */
+    private Binary binary = new Binary();
+
+    @Data
+    public static class Binary {
+
+        /**
+         * Publicar también en /topic/canvas/{canvasId}.bin
+         */
+        private boolean enabled = true;
+
+        /**
+         * Incluir el usuario de cada pixel (diccionario por frame)
+         */
+        private boolean includeUsers = true;
+    }
+
+    /**
+     * Endpoint WebSocket sin STOMP (/ws-raw, ver RawPixelWebSocketHandler)
+     */
+    private Raw raw = new Raw();
+
+    @Data
+    public static class Raw {
+
+        private boolean enabled = true;
+    }
+
+    /**
+     * Límites de envío por sesión WebSocket (ver ResyncingSessionDecorator)
+     */
+    private Session session = new Session();
+
+    @Data
+    public static class Session {
+
+        /**
+         * Bytes pendientes de envío por sesión. Al superarlos se descartan
+         * los mensajes de pixeles en cola y se envía un RESYNC.
+         */
+        private int sendBufferLimitBytes = 256 * 1024;
+
+        /**
+         * Tiempo máximo de un envío bloqueado antes de cerrar la sesión (ms)
+         */
+        private long sendTimeLimitMillis = 10_000;
+
+        /**
+         * Hilos que vacían las colas de las sesiones
+         */
+        private int flushThreads = 4;
+    }
+
+    /**
+     * Feed de actividad reciente por canvas (ver ActivityFeedService)
+     */
+    private Feed feed = new Feed();
+
+    @Data
+    public static class Feed {
+
+        /**
+         * Colocaciones retenidas por canvas
+         */
+        private int size = 50;
+
+        /**
+         * Enviar el resumen periódico por /topic/activity/{canvasId}
+         */
+        private boolean digestEnabled = true;
+
+        /**
+         * Intervalo entre resúmenes (ms)
+         */
+        private long digestMillis = 5000;
+    }
+
+    /**
+     * Reparto de los pixeles a todos los pods (ver PixelUpdateRelay)
+     */
+    private Relay relay = new Relay();
+
+    @Data
+    public static class Relay {
+
+        private RelayType type = RelayType.LOCAL;
+
+        /**
+         * Topic de Kafka del relay (type=KAFKA)
+         */
+        private String topic = "pixel-place-live-updates";
+
+        /**
+         * Prefijo del consumer group propio de cada pod (type=KAFKA)
+         */
+        private String groupIdPrefix = "pixel-place-live";
+
+        /**
+         * Registros por partición que se releen al arrancar para poblar
+         * CanvasChangeLog (type=KAFKA)
+         */
+        private int backfillRecords = 10_000;
+    }
+
+    /**
+     * Con relay la proyección numera los pixeles con su posición en el topic
+     * de relay (igual en todos los pods) en vez de con un contador propio.
+     *
+     * @return true si los pixeles llegan a la proyección por el relay
+     */
+    public boolean isRelayed() {
+        return relay.getType() != RelayType.LOCAL;
+    }
+
+    public enum RelayType {
+        /**
+         * Un solo pod: los pixeles procesados aquí se transmiten directo
+         */
+        LOCAL,
+
+        /**
+         * Bus en la JVM (reemplazo de Kafka para tests con varios contextos)
+         */
+        IN_MEMORY,
+
+        /**
+         * Topic de relay con un consumer group por pod
+         */
+        KAFKA
+    }
+}
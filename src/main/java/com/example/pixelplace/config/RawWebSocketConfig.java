@@ -0,0 +1,30 @@
+package com.example.pixelplace.config;
+
+import com.example.pixelplace.websocket.RawPixelWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Endpoint WebSocket sin SockJS ni STOMP en /ws-raw: frames
+ * BinaryPixelFrame sin envoltura (ver RawPixelWebSocketHandler).
+ *
+ * Convive con /ws (STOMP), que sigue siendo el endpoint para todo lo demás.
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "pixel-place.live.raw.enabled", havingValue = "true", matchIfMissing = true)
+public class RawWebSocketConfig implements WebSocketConfigurer {
+
+    private final RawPixelWebSocketHandler rawPixelWebSocketHandler;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(rawPixelWebSocketHandler, "/ws-raw")
+                .setAllowedOriginPatterns(WebSocketConfig.ALLOWED_ORIGINS);
+    }
+}
@@ -6,7 +6,8 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 /**
  * Configuración para habilitar tareas programadas (@Scheduled).
  * 
- * Necesario para el procesamiento de batches por tiempo.
+ * Solo para tareas livianas (digest del feed de actividad): las tareas de
+ * render corren en el hilo dedicado de RenderScheduler.
  */
 @Configuration
 @EnableScheduling
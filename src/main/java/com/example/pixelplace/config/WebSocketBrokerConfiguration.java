@@ -0,0 +1,31 @@
+package com.example.pixelplace.config;
+
+import com.example.pixelplace.websocket.ResyncingSessionFactory;
+import com.example.pixelplace.websocket.ResyncingSubProtocolWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+
+/**
+ * Reemplaza a @EnableWebSocketMessageBroker: misma configuración del
+ * broker STOMP (aplica los WebSocketMessageBrokerConfigurer, como
+ * WebSocketConfig) pero con sesiones de cola acotada, ver
+ * ResyncingSubProtocolWebSocketHandler.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebSocketBrokerConfiguration extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final ResyncingSessionFactory sessionFactory;
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(AbstractSubscribableChannel clientInboundChannel,
+                                                        AbstractSubscribableChannel clientOutboundChannel) {
+        return new ResyncingSubProtocolWebSocketHandler(clientInboundChannel, clientOutboundChannel,
+                sessionFactory);
+    }
+}
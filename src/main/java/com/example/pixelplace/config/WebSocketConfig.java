@@ -1,8 +1,12 @@
 package com.example.pixelplace.config;
 
+import com.example.pixelplace.websocket.PixelFormatInterceptor;
+import com.example.pixelplace.websocket.SubscriptionReplayInterceptor;
+import com.example.pixelplace.websocket.TileSubscriptionRegistry;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
@@ -11,11 +15,36 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
  * 
  * Permite a los clientes conectarse vía WebSocket y recibir
  * notificaciones de pixeles colocados.
+ * 
+ * El formato (JSON por defecto o binario) se negocia en el CONNECT,
+ * ver PixelFormatInterceptor. Además del topic del canvas completo hay
+ * un topic por tile para clientes con zoom (ver TileSubscriptionRegistry).
+ * Un SUBSCRIBE con last-sequence recibe los pixeles perdidos durante una
+ * reconexión (ver SubscriptionReplayInterceptor).
+ *
+ * Para visores de alto volumen hay además un endpoint sin STOMP, ver
+ * RawWebSocketConfig.
+ *
+ * El broker lo habilita WebSocketBrokerConfiguration (colas por sesión
+ * acotadas con RESYNC para clientes lentos).
  */
 @Configuration
-@EnableWebSocketMessageBroker
+@RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // CORS: Permitir conexiones desde el frontend (también en /ws-raw)
+    // PRODUCCIÓN: Cambiar a dominio específico
+    static final String[] ALLOWED_ORIGINS = {
+        "http://localhost:3000",
+        "http://localhost:5173",
+        "http://127.0.0.1:3000",
+        "http://127.0.0.1:5173"
+    };
+
+    private final PixelFormatInterceptor pixelFormatInterceptor;
+    private final TileSubscriptionRegistry tileSubscriptionRegistry;
+    private final SubscriptionReplayInterceptor subscriptionReplayInterceptor;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry config) {
         // Habilitar un broker de mensajes simple en memoria
@@ -24,21 +53,25 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         
         // Los mensajes enviados al servidor usan prefijo /app
         config.setApplicationDestinationPrefixes("/app");
+
+        // Entregar a cada sesión en el orden de publicación: los clientes
+        // encadenan los batches por secuencia
+        config.setPreservePublishOrder(true);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Endpoint WebSocket en /ws
         registry.addEndpoint("/ws")
-                // CORS: Permitir conexiones desde el frontend
-                // PRODUCCIÓN: Cambiar a dominio específico
-                .setAllowedOriginPatterns(
-                    "http://localhost:3000",
-                    "http://localhost:5173",
-                    "http://127.0.0.1:3000",
-                    "http://127.0.0.1:5173"
-                )
+                .setAllowedOriginPatterns(ALLOWED_ORIGINS)
                 // SockJS fallback para navegadores que no soportan WebSocket
+                // (WebSocket nativo, con frames binarios, en /ws/websocket)
                 .withSockJS();
     }
-}
\ No newline at end of file
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        // Primero el formato: el registro de tiles y el replay usan el destino final
+        registration.interceptors(pixelFormatInterceptor, tileSubscriptionRegistry, subscriptionReplayInterceptor);
+    }
+}
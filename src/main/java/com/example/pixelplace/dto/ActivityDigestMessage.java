@@ -0,0 +1,22 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Mensaje WebSocket periódico con las colocaciones del feed de actividad
+ * en (fromSequence, toSequence], más reciente primero (como máximo el
+ * tamaño del feed).
+ *
+ * Topic: /topic/activity/{canvasId}
+ */
+@Value
+public class ActivityDigestMessage {
+    String type = "ACTIVITY_DIGEST";
+    String canvasId;
+    long fromSequence;
+    long toSequence;
+    long timestamp;
+    List<ActivityEntry> entries;
+}
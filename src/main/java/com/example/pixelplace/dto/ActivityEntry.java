@@ -0,0 +1,19 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+/**
+ * Una colocación del feed de actividad de un canvas (ver ActivityFeedService).
+ *
+ * Inmutable: el mismo objeto vive en el anillo y se devuelve tal cual en
+ * los snapshots, sin copias por lectura.
+ */
+@Value
+public class ActivityEntry {
+    long sequence;
+    int x;
+    int y;
+    String color;
+    String userId;
+    long timestamp;
+}
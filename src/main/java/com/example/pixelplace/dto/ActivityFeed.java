@@ -0,0 +1,18 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Últimas colocaciones de un canvas (más reciente primero).
+ *
+ * sequence es la última posición del feed (no la secuencia de la
+ * proyección): un cliente que hace polling compara con la que ya tiene.
+ */
+@Value
+public class ActivityFeed {
+    String canvasId;
+    long sequence;
+    List<ActivityEntry> entries;
+}
@@ -0,0 +1,27 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+/**
+ * Pixel ya aplicado a la proyección, con su posición en la secuencia del canvas.
+ *
+ * CanvasStateProjection lo publica (evento de Spring) en el orden en que
+ * asigna las secuencias; los emisores en vivo lo usan para que los clientes
+ * puedan combinar el estado binario con los deltas sin huecos.
+ *
+ * previousSequence es la secuencia anterior del mismo canvas: el cambio
+ * cubre el rango (previousSequence, sequence]. Con LOCAL es sequence - 1;
+ * con relay las posiciones del topic no son consecutivas por canvas.
+ * Antes de secuenciarse (publicado al relay) ambas valen 0.
+ */
+@Value
+public class CanvasPixelUpdate {
+    String canvasId;
+    int x;
+    int y;
+    String color;
+    String userId;
+    long timestamp;
+    long previousSequence;
+    long sequence;
+}
@@ -1,11 +1,24 @@
 package com.example.pixelplace.dto;
 
+import com.example.pixelplace.batch.HexColor;
 import lombok.Data;
-import java.util.HashMap;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Estado completo de un canvas reconstruido desde eventos
+ * Estado completo de un canvas reconstruido desde eventos.
+ * 
+ * Los pixeles se guardan en un ConcurrentHashMap porque la proyección
+ * se sigue actualizando con eventos nuevos mientras los renderers la leen.
+ * 
+ * Una vez inicializado (initRaster), también se mantiene un raster denso
+ * RGB (fila-mayor) del que se sirve el estado binario sin recorrer el mapa.
+ * sequence es la posición de la proyección: todos los eventos del canvas
+ * con secuencia menor o igual ya están aplicados.
  */
 @Data
 public class CanvasState {
@@ -15,9 +28,14 @@ public class CanvasState {
     private Integer height;
     private String backgroundColor;
     private Map<String, PixelState> pixels; // Key: "{x}_{y}"
+    private volatile long sequence;
+
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    private volatile int[] raster;
     
     public CanvasState() {
-        this.pixels = new HashMap<>();
+        this.pixels = new ConcurrentHashMap<>();
     }
     
     public CanvasState(String canvasId, String name, Integer width, Integer height, String backgroundColor) {
@@ -26,12 +44,17 @@ public class CanvasState {
         this.width = width;
         this.height = height;
         this.backgroundColor = backgroundColor;
-        this.pixels = new HashMap<>();
+        this.pixels = new ConcurrentHashMap<>();
     }
     
     public void setPixel(int x, int y, String color, String userId, long timestamp) {
         String key = x + "_" + y;
         pixels.put(key, new PixelState(x, y, color, userId, timestamp));
+
+        int[] rgb = raster;
+        if (rgb != null && x < width && y < height) {
+            rgb[y * width + x] = HexColor.parseRgb(color);
+        }
     }
     
     public PixelState getPixel(int x, int y) {
@@ -41,4 +64,19 @@ public class CanvasState {
     public int getPixelCount() {
         return pixels.size();
     }
-}
\ No newline at end of file
+
+    /**
+     * Arma el raster denso desde los pixeles actuales. Requiere las
+     * dimensiones; a partir de acá setPixel también escribe el raster.
+     */
+    public void initRaster() {
+        int[] rgb = new int[width * height];
+        Arrays.fill(rgb, HexColor.parseRgb(backgroundColor));
+        for (PixelState pixel : pixels.values()) {
+            if (pixel.getX() < width && pixel.getY() < height) {
+                rgb[pixel.getY() * width + pixel.getX()] = HexColor.parseRgb(pixel.getColor());
+            }
+        }
+        raster = rgb;
+    }
+}
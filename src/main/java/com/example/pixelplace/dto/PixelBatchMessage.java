@@ -0,0 +1,29 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+/**
+ * Mensaje WebSocket con los pixeles de un canvas acumulados durante un tick.
+ *
+ * Un valor por coordenada (el último del tick), en arrays paralelos para
+ * no repetir nombres de campo por pixel. Cubre las secuencias
+ * (fromSequence, toSequence]: el cliente aplica el batch si toSequence es
+ * mayor que la secuencia que ya tiene, y detecta un hueco si fromSequence
+ * es mayor que ella. Con relay entre pods las secuencias son posiciones
+ * del topic de relay: crecientes por canvas pero no consecutivas.
+ *
+ * Los batches de replay (ver SubscriptionReplayInterceptor) no traen
+ * usuarios: userIds tiene nulls.
+ */
+@Value
+public class PixelBatchMessage {
+    String type = "PIXEL_BATCH";
+    String canvasId;
+    long fromSequence;
+    long toSequence;
+    long timestamp;
+    int[] x;
+    int[] y;
+    String[] colors;
+    String[] userIds;
+}
@@ -0,0 +1,27 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+/**
+ * Mensaje WebSocket de un pixel colocado.
+ *
+ * Mismo JSON que el Map usado anteriormente, pero con campos tipados
+ * en lugar de un HashMap con boxing por evento.
+ *
+ * sequence es la posición del pixel en la secuencia del canvas (ver
+ * CanvasStateProjection): el cliente descarta los deltas con secuencia
+ * menor o igual a la del estado binario que cargó.
+ */
+@Value
+public class PixelPlacedMessage {
+    String type = "PIXEL_PLACED";
+    String canvasId;
+    int x;
+    int y;
+    String color;
+    String userId;
+    long timestamp;
+    int tileX;
+    int tileY;
+    long sequence;
+}
@@ -0,0 +1,19 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+/**
+ * Mensaje WebSocket que pide al cliente recuperar los cambios posteriores
+ * a fromSequence por HTTP (GET /api/canvas/{canvasId}/state/changes), o el
+ * estado completo si esa secuencia ya no está disponible (410).
+ *
+ * Se envía en lugar de deltas que el servidor no puede entregar: a una
+ * sesión atrasada (ver ResyncingSessionDecorator) o a una reconexión cuya
+ * secuencia ya no está en el registro de cambios.
+ */
+@Value
+public class ResyncMessage {
+    String type = "RESYNC";
+    String canvasId;
+    long fromSequence;
+}
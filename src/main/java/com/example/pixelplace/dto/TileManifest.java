@@ -0,0 +1,22 @@
+package com.example.pixelplace.dto;
+
+import lombok.Value;
+
+import java.util.Map;
+
+/**
+ * Versión actual de cada tile de un canvas, por escala.
+ *
+ * Formato compacto: por cada escala un arreglo de tilesX * tilesY
+ * versiones en orden fila-mayor (índice = tileY * tilesX + tileX);
+ * 0 significa que el tile todavía no existe. El tile se pide en
+ * /api/canvas/{canvasId}/image/tile/{tileX}/{tileY}/v/{version}?scale=N.
+ */
+@Value
+public class TileManifest {
+    String canvasId;
+    int tileSize;
+    int tilesX;
+    int tilesY;
+    Map<Integer, long[]> versions;
+}
@@ -1,24 +1,34 @@
 package com.example.pixelplace.eventhandler;
 
+import com.example.pixelplace.batch.AdaptiveBatchController;
+import com.example.pixelplace.batch.CanvasIdRegistry;
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.batch.PendingBatches;
+import com.example.pixelplace.batch.PixelBatch;
+import com.example.pixelplace.batch.RenderRetryQueue;
+import com.example.pixelplace.batch.TileKeys;
 import com.example.pixelplace.config.ImageGenerationProperties;
-import com.example.pixelplace.dto.PixelState;
 import com.example.pixelplace.event.CanvasCreatedEvent;
 import com.example.pixelplace.event.PixelPlacedEvent;
 import com.example.pixelplace.service.IncrementalImageService;
+import com.example.pixelplace.service.RenderScheduler;
 import com.example.pixelplace.service.TileImageService;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.axonframework.eventhandling.EventHandler;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * EventHandler que escucha eventos de pixeles y genera imágenes en batch.
@@ -28,9 +38,27 @@ import java.util.concurrent.ConcurrentHashMap;
  * 2. Tiles individuales (100x100 pixeles por defecto)
  * 
  * Estrategias de batch:
- * - TIME: Genera imagen cada X segundos (vía @Scheduled)
+ * - TIME: Genera imagen cada X segundos (vía RenderScheduler)
  * - COUNT: Genera imagen cada N eventos
  * - HYBRID: Genera imagen con lo que ocurra primero
+ * - ADAPTIVE: Umbral por tile según carga observada (ver AdaptiveBatchController)
+ * 
+ * Hot path por evento sin asignaciones: las claves de canvas y tile son
+ * long empaquetados (ver TileKeys) y los pixeles se acumulan en buffers
+ * reutilizables (ver PendingBatches).
+ * 
+ * Backpressure: los pendientes están acotados. Un tile (o canvas) atrasado
+ * se colapsa en una única regeneración completa diferida, que se procesa
+ * con un límite por tick. Métricas: pixelplace.image.backlog.* y
+ * pixelplace.image.freshness (antigüedad del pixel más viejo al renderizar).
+ * 
+ * Fallas: un batch que no se pudo renderizar va a RenderRetryQueue con
+ * backoff exponencial; la tarea processRenderRetries repinta solo los tiles
+ * afectados en lugar de regenerar todo en el thread del evento.
+ * 
+ * Las tareas periódicas corren en el hilo dedicado de RenderScheduler, no
+ * en el scheduler de @Scheduled: un render largo no atrasa otras tareas
+ * programadas y los ticks no corren en paralelo entre sí.
  */
 @Slf4j
 @Component
@@ -40,25 +68,52 @@ public class ImageGenerationEventHandler {
     private final IncrementalImageService incrementalImageService;
     private final TileImageService tileImageService;
     private final ImageGenerationProperties properties;
+    private final CanvasIdRegistry canvasIds;
+    private final AdaptiveBatchController adaptiveController;
+    private final RenderRetryQueue retryQueue;
+    private final RenderScheduler renderScheduler;
+    private final MeterRegistry meterRegistry;
 
     // ========== CANVAS COMPLETO ==========
     
-    // Acumulador de pixeles pendientes por canvas
-    private final Map<String, List<PixelState>> pendingPixels = new ConcurrentHashMap<>();
-
-    // Contador de eventos por canvas (para batch por cantidad)
-    private final Map<String, Integer> eventCounts = new ConcurrentHashMap<>();
+    // Pixeles pendientes por canvas: TileKeys.canvasKey(canvas) -> PixelBatch
+    private final PendingBatches pendingPixels = new PendingBatches();
 
     // ========== TILES ==========
     
-    // Acumulador de pixeles pendientes por tile: "canvasId_tileX_tileY" -> List<PixelState>
-    private final Map<String, List<PixelState>> pendingTilePixels = new ConcurrentHashMap<>();
-    
-    // Contador de eventos por tile
-    private final Map<String, Integer> tileEventCounts = new ConcurrentHashMap<>();
+    // Pixeles pendientes por tile: TileKeys.tileKey(canvas, tileX, tileY) -> PixelBatch
+    private final PendingBatches pendingTilePixels = new PendingBatches();
+
+    // Buffer de claves para el procesamiento por tiempo (solo lo usa el hilo de RenderScheduler)
+    private long[] keyBuffer = new long[256];
+
+    // Reintentos vencidos del tick actual (solo lo usa el hilo de RenderScheduler)
+    private final List<RenderRetryQueue.Entry> dueRetries = new ArrayList<>();
+
+    // Antigüedad del pixel más viejo de cada batch al quedar visible en la imagen
+    private Timer canvasFreshness;
+    private Timer tileFreshness;
 
     @PostConstruct
     public void init() {
+        ImageGenerationProperties.Backpressure backpressure = properties.getBackpressure();
+        pendingPixels.setLimits(backpressure.getMaxPixelsPerCanvas(), backpressure.getMaxPendingPixels());
+        pendingTilePixels.setLimits(backpressure.getMaxPixelsPerTile(), backpressure.getMaxPendingPixels());
+
+        registerBacklogMetrics(pendingPixels, "canvas");
+        registerBacklogMetrics(pendingTilePixels, "tile");
+        canvasFreshness = freshnessTimer("canvas");
+        tileFreshness = freshnessTimer("tile");
+
+        renderScheduler.scheduleWithFixedDelay("time-batches", this::processTimeBatches,
+                TimeUnit.SECONDS.toMillis(properties.getBatchIntervalSeconds()));
+        renderScheduler.scheduleWithFixedDelay("adaptive-batches", this::processAdaptiveBatches,
+                properties.getAdaptive().getTickMillis());
+        renderScheduler.scheduleWithFixedDelay("deferred-regenerations", this::processDeferredRegenerations,
+                properties.getBackpressure().getDeferredRegenerationIntervalMillis());
+        renderScheduler.scheduleWithFixedDelay("render-retries", this::processRenderRetries,
+                properties.getRetry().getTickMillis());
+
         if (properties.isEnabled()) {
             log.info("🚀 Generación automática de imágenes HABILITADA");
             log.info("   Modo: {}", properties.getMode());
@@ -91,15 +146,29 @@ public class ImageGenerationEventHandler {
         log.info("🎨 Canvas creado: {} - Inicializando imagen base...", event.getCanvasId());
 
         try {
-            // Generar imagen base vacía para cada escala configurada
+            // Imagen base vacía para cada escala configurada: sale del evento
+            // y de PNG en blanco cacheados, sin reconstruir la proyección
             for (int scale : properties.getScaleVersions()) {
-                incrementalImageService.regenerateFullImage(
-                        event.getCanvasId(), 
+                incrementalImageService.createBlankImage(
+                        event.getCanvasId(),
+                        event.getWidth(),
+                        event.getHeight(),
+                        event.getBackgroundColor(),
                         scale, 
                         properties.isDefaultGrid()
                 );
             }
 
+            if (properties.isTilesEnabled()) {
+                tileImageService.createBlankTiles(
+                        event.getCanvasId(),
+                        event.getWidth(),
+                        event.getHeight(),
+                        event.getBackgroundColor(),
+                        properties.isDefaultGrid()
+                );
+            }
+
             log.info("✅ Imagen base inicializada para canvas: {}", event.getCanvasId());
 
         } catch (IOException e) {
@@ -116,67 +185,58 @@ public class ImageGenerationEventHandler {
             return;
         }
 
-        String canvasId = event.getCanvasId();
+        int x = event.getX();
+        int y = event.getY();
+
+        if (log.isDebugEnabled()) {
+            log.debug("📥 Evento recibido: canvas={}, pixel=({}, {})", event.getCanvasId(), x, y);
+        }
 
-        log.debug("📥 Evento recibido: canvas={}, pixel=({}, {})", 
-                canvasId, event.getX(), event.getY());
+        int canvasIndex = canvasIds.intern(event.getCanvasId());
+        int rgb = HexColor.parseRgb(event.getColor());
+        long now = System.currentTimeMillis();
 
-        PixelState pixelState = new PixelState(
-                event.getX(),
-                event.getY(),
-                event.getColor(),
-                event.getUserId(),
-                System.currentTimeMillis()
-        );
+        boolean adaptive = properties.getMode() == ImageGenerationProperties.BatchMode.ADAPTIVE;
+        boolean countMode = adaptive ||
+                            properties.getMode() == ImageGenerationProperties.BatchMode.COUNT ||
+                            properties.getMode() == ImageGenerationProperties.BatchMode.HYBRID;
 
         // ========== PROCESAMIENTO PARA CANVAS COMPLETO ==========
         
-        // Agregar pixel a la cola de pendientes del canvas
-        pendingPixels.computeIfAbsent(canvasId, k -> new ArrayList<>()).add(pixelState);
-
-        // Incrementar contador del canvas
-        int canvasCount = eventCounts.compute(canvasId, (k, v) -> (v == null) ? 1 : v + 1);
-
-        log.debug("📊 Canvas {}: {} eventos acumulados", canvasId, canvasCount);
+        long canvasKey = TileKeys.canvasKey(canvasIndex);
+        int canvasCount = pendingPixels.add(canvasKey, x, y, rgb, now);
+        int canvasThreshold = adaptive
+                ? adaptiveController.onEvent(AdaptiveBatchController.Target.CANVAS, canvasKey, now)
+                : properties.getBatchSize();
 
         // Verificar si debe procesar batch del canvas
-        if (properties.getMode() == ImageGenerationProperties.BatchMode.COUNT ||
-            properties.getMode() == ImageGenerationProperties.BatchMode.HYBRID) {
-
-            if (canvasCount >= properties.getBatchSize()) {
-                log.info("📦 Batch por CANTIDAD alcanzado para canvas {}: {} eventos", 
-                        canvasId, canvasCount);
-                processCanvasBatch(canvasId);
+        if (countMode && canvasCount >= canvasThreshold) {
+            if (log.isDebugEnabled()) {
+                log.debug("📦 Batch por CANTIDAD alcanzado para canvas {}: {} eventos",
+                        event.getCanvasId(), canvasCount);
             }
+            processCanvasBatch(canvasKey);
         }
 
         // ========== PROCESAMIENTO PARA TILES ==========
         
         if (properties.isTilesEnabled()) {
-            // Calcular índice del tile al que pertenece el pixel
-            int[] tileIndices = tileImageService.getTileIndices(event.getX(), event.getY());
-            int tileX = tileIndices[0];
-            int tileY = tileIndices[1];
-            
-            String tileKey = String.format("%s_%d_%d", canvasId, tileX, tileY);
+            // Calcular el tile al que pertenece el pixel
+            int tileSize = properties.getTileSize();
+            long tileKey = TileKeys.tileKey(canvasIndex, x / tileSize, y / tileSize);
             
-            // Agregar pixel a la cola de pendientes del tile
-            pendingTilePixels.computeIfAbsent(tileKey, k -> new ArrayList<>()).add(pixelState);
-            
-            // Incrementar contador del tile
-            int tileCount = tileEventCounts.compute(tileKey, (k, v) -> (v == null) ? 1 : v + 1);
-            
-            log.debug("📊 Tile {}: {} eventos acumulados", tileKey, tileCount);
+            int tileCount = pendingTilePixels.add(tileKey, x, y, rgb, now);
+            int tileThreshold = adaptive
+                    ? adaptiveController.onEvent(AdaptiveBatchController.Target.TILE, tileKey, now)
+                    : properties.getTileBatchSize();
             
             // Verificar si debe procesar batch del tile
-            if (properties.getMode() == ImageGenerationProperties.BatchMode.COUNT ||
-                properties.getMode() == ImageGenerationProperties.BatchMode.HYBRID) {
-
-                if (tileCount >= properties.getTileBatchSize()) {
-                    log.info("📦 Batch por CANTIDAD alcanzado para tile {}: {} eventos", 
-                            tileKey, tileCount);
-                    processTileBatch(canvasId, tileX, tileY);
+            if (countMode && tileCount >= tileThreshold) {
+                if (log.isDebugEnabled()) {
+                    log.debug("📦 Batch por CANTIDAD alcanzado para tile ({},{}) de canvas {}: {} eventos",
+                            TileKeys.tileX(tileKey), TileKeys.tileY(tileKey), event.getCanvasId(), tileCount);
                 }
+                processTileBatch(tileKey);
             }
         }
     }
@@ -186,7 +246,6 @@ public class ImageGenerationEventHandler {
      * 
      * Se ejecuta cada X segundos (configurado en properties.batchIntervalSeconds).
      */
-    @Scheduled(fixedDelayString = "#{${pixel-place.image.generation.batch-interval-seconds} * 1000}")
     public void processTimeBatches() {
         if (!properties.isEnabled()) {
             return;
@@ -201,8 +260,9 @@ public class ImageGenerationEventHandler {
         if (!pendingPixels.isEmpty()) {
             log.info("⏰ Procesando batches de CANVAS por TIEMPO...");
 
-            for (String canvasId : new ArrayList<>(pendingPixels.keySet())) {
-                processCanvasBatch(canvasId);
+            int count = pendingKeys(pendingPixels, false);
+            for (int i = 0; i < count; i++) {
+                processCanvasBatch(keyBuffer[i]);
             }
         }
 
@@ -210,40 +270,180 @@ public class ImageGenerationEventHandler {
         if (properties.isTilesEnabled() && !pendingTilePixels.isEmpty()) {
             log.info("⏰ Procesando batches de TILES por TIEMPO...");
 
-            for (String tileKey : new ArrayList<>(pendingTilePixels.keySet())) {
-                // Parse tileKey: "canvasId_tileX_tileY"
-                String[] parts = tileKey.split("_");
-                if (parts.length >= 3) {
-                    // Reconstruir canvasId (puede contener guiones)
-                    int lastUnderscore = tileKey.lastIndexOf("_");
-                    int secondLastUnderscore = tileKey.lastIndexOf("_", lastUnderscore - 1);
-                    
-                    String canvasId = tileKey.substring(0, secondLastUnderscore);
-                    int tileX = Integer.parseInt(parts[parts.length - 2]);
-                    int tileY = Integer.parseInt(parts[parts.length - 1]);
-                    
-                    processTileBatch(canvasId, tileX, tileY);
+            int count = pendingKeys(pendingTilePixels, false);
+            for (int i = 0; i < count; i++) {
+                processTileBatch(keyBuffer[i]);
+            }
+        }
+    }
+
+    /**
+     * Tarea programada del modo ADAPTIVE.
+     * 
+     * Recalcula los umbrales y procesa los batches cuyo pixel más antiguo
+     * superó el intervalo de flush elegido por AdaptiveBatchController.
+     */
+    public void processAdaptiveBatches() {
+        if (!properties.isEnabled() || properties.getMode() != ImageGenerationProperties.BatchMode.ADAPTIVE) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        adaptiveController.refresh(now);
+
+        long canvasInterval = adaptiveController.flushIntervalMillis(AdaptiveBatchController.Target.CANVAS);
+        int count = pendingKeys(pendingPixels, false);
+        for (int i = 0; i < count; i++) {
+            long first = pendingPixels.firstEventMillis(keyBuffer[i]);
+            if (first >= 0 && now - first >= canvasInterval) {
+                processCanvasBatch(keyBuffer[i]);
+            }
+        }
+
+        if (properties.isTilesEnabled()) {
+            long tileInterval = adaptiveController.flushIntervalMillis(AdaptiveBatchController.Target.TILE);
+            count = pendingKeys(pendingTilePixels, false);
+            for (int i = 0; i < count; i++) {
+                long first = pendingTilePixels.firstEventMillis(keyBuffer[i]);
+                if (first >= 0 && now - first >= tileInterval) {
+                    processTileBatch(keyBuffer[i]);
                 }
             }
         }
     }
 
+    /**
+     * Tarea programada que procesa los batches colapsados por backpressure.
+     * 
+     * Cada uno se resuelve con una regeneración completa desde la proyección,
+     * como máximo maxDeferredRegenerationsPerTick por ejecución y empezando
+     * por los canvas, para acotar la CPU durante picos de tráfico. Con relay
+     * entre pods la proyección lleva el stream completo (ver
+     * CanvasStateProjection), así que la imagen compartida no pierde los
+     * pixeles procesados en otros pods.
+     */
+    public void processDeferredRegenerations() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        int budget = properties.getBackpressure().getMaxDeferredRegenerationsPerTick();
+
+        int count = pendingKeys(pendingPixels, true);
+        for (int i = 0; i < count && budget > 0; i++, budget--) {
+            processCanvasBatch(keyBuffer[i]);
+        }
+
+        if (properties.isTilesEnabled()) {
+            count = pendingKeys(pendingTilePixels, true);
+            for (int i = 0; i < count && budget > 0; i++, budget--) {
+                processTileBatch(keyBuffer[i]);
+            }
+        }
+    }
+
+    /**
+     * Tarea programada que procesa los renders fallidos cuyo backoff venció.
+     * 
+     * Los canvas se reparan repintando solo las regiones de los tiles que
+     * tocaba el batch fallido; los tiles se regeneran desde la proyección.
+     */
+    public void processRenderRetries() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        retryQueue.pollDue(now, dueRetries);
+
+        try {
+            for (RenderRetryQueue.Entry entry : dueRetries) {
+                if (retryRender(entry)) {
+                    retryQueue.succeeded(entry);
+                } else {
+                    retryQueue.failed(entry, System.currentTimeMillis());
+                }
+            }
+        } finally {
+            dueRetries.clear();
+        }
+    }
+
+    /**
+     * Copia en keyBuffer las claves pendientes colapsadas (o no), agrandándolo si hace falta.
+     * 
+     * @return Cantidad de claves copiadas
+     */
+    private int pendingKeys(PendingBatches batches, boolean collapsed) {
+        int required = batches.size();
+        if (keyBuffer.length < required) {
+            keyBuffer = new long[Integer.highestOneBit(required) << 1];
+        }
+        return batches.keys(keyBuffer, collapsed);
+    }
+
+    private void registerBacklogMetrics(PendingBatches batches, String target) {
+        Gauge.builder("pixelplace.image.backlog.pixels", batches, PendingBatches::pendingPixels)
+                .description("Pixeles pendientes de renderizar")
+                .tag("target", target)
+                .register(meterRegistry);
+        Gauge.builder("pixelplace.image.backlog.batches", batches, PendingBatches::size)
+                .description("Batches pendientes de renderizar")
+                .tag("target", target)
+                .register(meterRegistry);
+        Gauge.builder("pixelplace.image.backlog.collapsed", batches, PendingBatches::collapsedBatches)
+                .description("Batches colapsados esperando regeneración completa")
+                .tag("target", target)
+                .register(meterRegistry);
+        Gauge.builder("pixelplace.image.backlog.oldest.age", batches, b -> {
+                    long oldest = b.oldestEventMillis();
+                    return oldest < 0 ? 0 : System.currentTimeMillis() - oldest;
+                })
+                .description("Antigüedad del pixel pendiente más viejo")
+                .baseUnit("milliseconds")
+                .tag("target", target)
+                .register(meterRegistry);
+        FunctionCounter.builder("pixelplace.image.backlog.collapses", batches, PendingBatches::collapses)
+                .description("Batches colapsados por backpressure")
+                .tag("target", target)
+                .register(meterRegistry);
+    }
+
+    private Timer freshnessTimer(String target) {
+        return Timer.builder("pixelplace.image.freshness")
+                .description("Antigüedad del pixel más viejo de un batch al quedar visible")
+                .tag("target", target)
+                .serviceLevelObjectives(Duration.ofMillis(properties.getBackpressure().getFreshnessSloMillis()))
+                .register(meterRegistry);
+    }
+
     /**
      * Procesa un batch de pixeles pendientes para un canvas completo.
      * 
-     * @param canvasId ID del canvas
+     * @param canvasKey Clave del canvas (TileKeys.canvasKey)
      */
-    private synchronized void processCanvasBatch(String canvasId) {
-        List<PixelState> pixels = pendingPixels.remove(canvasId);
-        Integer count = eventCounts.remove(canvasId);
+    private synchronized void processCanvasBatch(long canvasKey) {
+        PixelBatch pixels = pendingPixels.drain(canvasKey);
 
         if (pixels == null || pixels.isEmpty()) {
+            pendingPixels.recycle(pixels);
             return;
         }
 
-        log.info("🎨 Procesando batch de CANVAS: canvasId={}, pixeles={}", canvasId, pixels.size());
+        String canvasId = canvasIds.canvasId(TileKeys.canvasIndex(canvasKey));
+
+        if (pixels.isCollapsed()) {
+            regenerateCollapsedCanvas(canvasKey, canvasId, pixels);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("🎨 Procesando batch de CANVAS: canvasId={}, pixeles={}", canvasId, pixels.size());
+        }
 
         try {
+            long start = System.nanoTime();
+
             // Generar imagen para cada escala configurada
             for (int scale : properties.getScaleVersions()) {
                 incrementalImageService.updateCanvasImage(
@@ -254,53 +454,53 @@ public class ImageGenerationEventHandler {
                 );
             }
 
-            log.info("✅ Batch de CANVAS procesado: canvasId={}, {} pixeles, {} escalas",
-                    canvasId, pixels.size(), properties.getScaleVersions().length);
-
-        } catch (Exception e) {
-            log.error("❌ Error procesando batch de canvas {}: {}", canvasId, e.getMessage(), e);
+            adaptiveController.recordRender(AdaptiveBatchController.Target.CANVAS, System.nanoTime() - start);
+            recordFreshness(canvasFreshness, pixels);
 
-            // Reintentar regeneración completa si falla
-            try {
-                log.warn("🔄 Intentando regeneración completa del canvas...");
-                
-                for (int scale : properties.getScaleVersions()) {
-                    incrementalImageService.regenerateFullImage(
-                            canvasId,
-                            scale,
-                            properties.isDefaultGrid()
-                    );
-                }
-                
-                log.info("✅ Regeneración completa del canvas exitosa");
-                
-            } catch (Exception e2) {
-                log.error("❌ Fallo crítico en regeneración del canvas: {}", e2.getMessage(), e2);
+            if (log.isDebugEnabled()) {
+                log.debug("✅ Batch de CANVAS procesado: canvasId={}, {} pixeles, {} escalas",
+                        canvasId, pixels.size(), properties.getScaleVersions().length);
             }
+
+        } catch (Exception e) {
+            log.error("❌ Error procesando batch de canvas {}: {} - encolado para reintento",
+                    canvasId, e.getMessage(), e);
+            retryQueue.enqueueCanvas(canvasKey, pixels, properties.getTileSize(), System.currentTimeMillis());
+        } finally {
+            pendingPixels.recycle(pixels);
         }
     }
 
     /**
      * Procesa un batch de pixeles pendientes para un tile específico.
      * 
-     * @param canvasId ID del canvas
-     * @param tileX Índice X del tile
-     * @param tileY Índice Y del tile
+     * @param tileKey Clave del tile (TileKeys.tileKey)
      */
-    private synchronized void processTileBatch(String canvasId, int tileX, int tileY) {
-        String tileKey = String.format("%s_%d_%d", canvasId, tileX, tileY);
-        
-        List<PixelState> pixels = pendingTilePixels.remove(tileKey);
-        Integer count = tileEventCounts.remove(tileKey);
+    private synchronized void processTileBatch(long tileKey) {
+        PixelBatch pixels = pendingTilePixels.drain(tileKey);
 
         if (pixels == null || pixels.isEmpty()) {
+            pendingTilePixels.recycle(pixels);
+            return;
+        }
+
+        String canvasId = canvasIds.canvasId(TileKeys.canvasIndex(tileKey));
+        int tileX = TileKeys.tileX(tileKey);
+        int tileY = TileKeys.tileY(tileKey);
+
+        if (pixels.isCollapsed()) {
+            regenerateCollapsedTile(tileKey, canvasId, tileX, tileY, pixels);
             return;
         }
 
-        log.info("🎨 Procesando batch de TILE: tile=({},{}), canvasId={}, pixeles={}", 
-                tileX, tileY, canvasId, pixels.size());
+        if (log.isDebugEnabled()) {
+            log.debug("🎨 Procesando batch de TILE: tile=({},{}), canvasId={}, pixeles={}",
+                    tileX, tileY, canvasId, pixels.size());
+        }
 
         try {
+            long start = System.nanoTime();
+
             // Generar imagen del tile para cada escala configurada
             for (int scale : properties.getTileScaleVersions()) {
                 tileImageService.updateTileImage(
@@ -313,50 +513,163 @@ public class ImageGenerationEventHandler {
                 );
             }
 
-            log.info("✅ Batch de TILE procesado: tile=({},{}), {} pixeles, {} escalas",
-                    tileX, tileY, pixels.size(), properties.getTileScaleVersions().length);
+            adaptiveController.recordRender(AdaptiveBatchController.Target.TILE, System.nanoTime() - start);
+            recordFreshness(tileFreshness, pixels);
 
+            if (log.isDebugEnabled()) {
+                log.debug("✅ Batch de TILE procesado: tile=({},{}), {} pixeles, {} escalas",
+                        tileX, tileY, pixels.size(), properties.getTileScaleVersions().length);
+            }
+
+        } catch (Exception e) {
+            log.error("❌ Error procesando batch de tile ({},{}): {} - encolado para reintento",
+                    tileX, tileY, e.getMessage(), e);
+            retryQueue.enqueueTile(tileKey, System.currentTimeMillis());
+        } finally {
+            pendingTilePixels.recycle(pixels);
+        }
+    }
+
+    /**
+     * Regenera por completo un canvas cuyo batch se colapsó por backpressure.
+     */
+    private void regenerateCollapsedCanvas(long canvasKey, String canvasId, PixelBatch batch) {
+        log.info("🧹 Regeneración diferida de CANVAS: canvasId={}, {} eventos colapsados",
+                canvasId, batch.getEventCount());
+
+        try {
+            for (int scale : properties.getScaleVersions()) {
+                incrementalImageService.regenerateFullImage(canvasId, scale, properties.isDefaultGrid());
+            }
+            recordFreshness(canvasFreshness, batch);
+        } catch (Exception e) {
+            log.error("❌ Fallo en regeneración diferida del canvas {}: {} - encolado para reintento",
+                    canvasId, e.getMessage(), e);
+            retryQueue.enqueueCanvas(canvasKey, batch, properties.getTileSize(), System.currentTimeMillis());
+        } finally {
+            pendingPixels.recycle(batch);
+        }
+    }
+
+    /**
+     * Regenera por completo un tile cuyo batch se colapsó por backpressure.
+     */
+    private void regenerateCollapsedTile(long tileKey, String canvasId, int tileX, int tileY, PixelBatch batch) {
+        log.info("🧹 Regeneración diferida de TILE: tile=({},{}), canvasId={}, {} eventos colapsados",
+                tileX, tileY, canvasId, batch.getEventCount());
+
+        try {
+            for (int scale : properties.getTileScaleVersions()) {
+                tileImageService.regenerateFullTileImage(canvasId, tileX, tileY, scale, properties.isDefaultGrid());
+            }
+            recordFreshness(tileFreshness, batch);
         } catch (Exception e) {
-            log.error("❌ Error procesando batch de tile ({},{}): {}", tileX, tileY, e.getMessage(), e);
+            log.error("❌ Fallo en regeneración diferida del tile ({},{}): {} - encolado para reintento",
+                    tileX, tileY, e.getMessage(), e);
+            retryQueue.enqueueTile(tileKey, System.currentTimeMillis());
+        } finally {
+            pendingTilePixels.recycle(batch);
+        }
+    }
+
+    /**
+     * Ejecuta un reintento bajo el mismo lock que los batches, para no
+     * competir con un render incremental sobre la misma imagen.
+     * 
+     * @return true si el render se completó en todas las escalas
+     */
+    private synchronized boolean retryRender(RenderRetryQueue.Entry entry) {
+        String canvasId = canvasIds.canvasId(TileKeys.canvasIndex(entry.getKey()));
+
+        try {
+            if (entry.isTile()) {
+                int tileX = TileKeys.tileX(entry.getKey());
+                int tileY = TileKeys.tileY(entry.getKey());
+                log.info("🔄 Reintento #{} de TILE: tile=({},{}), canvasId={}",
+                        entry.getAttempts(), tileX, tileY, canvasId);
 
-            // Reintentar regeneración completa del tile si falla
-            try {
-                log.warn("🔄 Intentando regeneración completa del tile...");
-                
                 for (int scale : properties.getTileScaleVersions()) {
-                    tileImageService.regenerateFullTileImage(
+                    tileImageService.regenerateFullTileImage(canvasId, tileX, tileY, scale, properties.isDefaultGrid());
+                }
+            } else if (entry.isFullRegeneration()) {
+                log.info("🔄 Reintento #{} de CANVAS (completo): canvasId={}", entry.getAttempts(), canvasId);
+
+                for (int scale : properties.getScaleVersions()) {
+                    incrementalImageService.regenerateFullImage(canvasId, scale, properties.isDefaultGrid());
+                }
+            } else {
+                log.info("🔄 Reintento #{} de CANVAS: canvasId={}, {} tiles afectados",
+                        entry.getAttempts(), canvasId, entry.getTiles().size());
+
+                for (int scale : properties.getScaleVersions()) {
+                    incrementalImageService.repaintTiles(
                             canvasId,
-                            tileX,
-                            tileY,
+                            entry.getTiles(),
+                            properties.getTileSize(),
                             scale,
                             properties.isDefaultGrid()
                     );
                 }
-                
-                log.info("✅ Regeneración completa del tile exitosa");
-                
-            } catch (Exception e2) {
-                log.error("❌ Fallo crítico en regeneración del tile: {}", e2.getMessage(), e2);
             }
+            return true;
+
+        } catch (Exception e) {
+            log.warn("⚠️ Falló el reintento #{} de render en canvas {}: {}",
+                    entry.getAttempts(), canvasId, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Regenera la imagen del canvas en una escala bajo el lock de los batches.
+     * Lo usa el render a demanda cuando la escala también la escribe el pipeline.
+     */
+    public synchronized void regenerateCanvasImage(String canvasId, int scale) throws IOException {
+        incrementalImageService.regenerateFullImage(canvasId, scale, properties.isDefaultGrid());
+    }
+
+    /**
+     * Regenera un tile en una escala bajo el lock de los batches.
+     * Lo usa el render a demanda cuando la escala también la escribe el pipeline.
+     */
+    public synchronized void regenerateTileImage(String canvasId, int tileX, int tileY, int scale) throws IOException {
+        tileImageService.regenerateFullTileImage(canvasId, tileX, tileY, scale, properties.isDefaultGrid());
+    }
+
+    private void recordFreshness(Timer timer, PixelBatch batch) {
+        if (timer != null) {
+            timer.record(System.currentTimeMillis() - batch.getFirstEventMillis(), TimeUnit.MILLISECONDS);
         }
     }
 
+    /**
+     * Indica si no hay pixeles pendientes de render ni reintentos en cola.
+     * Los trabajos de baja prioridad solo corren cuando esto es true.
+     */
+    public boolean isIdle() {
+        return pendingPixels.pendingPixels() == 0 &&
+               pendingTilePixels.pendingPixels() == 0 &&
+               retryQueue.isEmpty();
+    }
+
+    /**
+     * Programa la regeneración completa de un tile por la vía diferida
+     * (processDeferredRegenerations), respetando su límite por tick.
+     */
+    public void requestTileRegeneration(String canvasId, int tileX, int tileY) {
+        long tileKey = TileKeys.tileKey(canvasIds.intern(canvasId), tileX, tileY);
+        pendingTilePixels.requestRegeneration(tileKey, System.currentTimeMillis());
+    }
+
     /**
      * Obtiene estadísticas del procesamiento de batches.
      * 
      * @return Estadísticas en formato String
      */
     public String getStats() {
-        int totalPendingCanvas = pendingPixels.values().stream()
-                .mapToInt(List::size)
-                .sum();
-
-        int totalPendingTiles = pendingTilePixels.values().stream()
-                .mapToInt(List::size)
-                .sum();
-
-        return String.format("Pendientes - Canvas: %d canvas (%d pixeles), Tiles: %d tiles (%d pixeles)",
-                pendingPixels.size(), totalPendingCanvas, 
-                pendingTilePixels.size(), totalPendingTiles);
+        return String.format("Pendientes - Canvas: %d canvas (%d pixeles, %d colapsados), " +
+                        "Tiles: %d tiles (%d pixeles, %d colapsados)",
+                pendingPixels.size(), pendingPixels.pendingPixels(), pendingPixels.collapsedBatches(),
+                pendingTilePixels.size(), pendingTilePixels.pendingPixels(), pendingTilePixels.collapsedBatches());
     }
 }
\ No newline at end of file
@@ -0,0 +1,230 @@
+package com.example.pixelplace.eventhandler;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.dto.CanvasState;
+import com.example.pixelplace.repository.CanvasImageFileRepository;
+import com.example.pixelplace.service.CanvasStateProjection;
+import com.example.pixelplace.service.RenderScheduler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Verificación en segundo plano de los tiles renderizados contra la proyección.
+ *
+ * Los PNG pueden quedar desfasados del estado event-sourced tras un crash,
+ * un batch descartado o un reintento agotado. Este job recorre los tiles de
+ * los canvas cacheados en CanvasStateProjection, calcula un checksum del
+ * raster de la proyección (CanvasState.getRaster, sin copiarlo) y del
+ * raster guardado (muestreando el centro de cada celda en la escala más
+ * chica) y solo re-renderiza los que difieren.
+ *
+ * La proyección es la referencia porque tiene el stream completo de
+ * pixeles: con relay entre pods se alimenta del relay (ver
+ * CanvasStateProjection), no solo de las particiones de este pod, así que
+ * un tile pintado por otro pod no cuenta como desfasado.
+ *
+ * Es de baja prioridad: corre únicamente cuando el pipeline de render está
+ * ocioso, verifica como máximo tilesPerRun tiles por ejecución y los tiles
+ * a reparar pasan por la regeneración diferida del handler, con su propio
+ * límite por tick. Corre en el hilo de RenderScheduler, serializado con
+ * los ticks de render.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TileReconciler {
+
+    private final CanvasStateProjection canvasProjection;
+    private final CanvasImageFileRepository imageRepository;
+    private final ImageGenerationEventHandler imageGenerationHandler;
+    private final ImageGenerationProperties properties;
+    private final RenderScheduler renderScheduler;
+    private final MeterRegistry meterRegistry;
+
+    // Posición del recorrido (solo la usa el hilo de RenderScheduler)
+    private final List<String> canvasQueue = new ArrayList<>();
+    private int canvasPosition;
+    private int tilePosition;
+
+    private Counter matched;
+    private Counter mismatched;
+    private Counter missing;
+
+    @PostConstruct
+    public void init() {
+        matched = checkCounter("match");
+        mismatched = checkCounter("mismatch");
+        missing = checkCounter("missing");
+
+        renderScheduler.scheduleWithFixedDelay("tile-reconciliation", this::reconcile,
+                properties.getReconciliation().getIntervalMillis());
+    }
+
+    public void reconcile() {
+        if (!properties.isEnabled() || !properties.isTilesEnabled() ||
+            !properties.getReconciliation().isEnabled()) {
+            return;
+        }
+
+        if (!imageGenerationHandler.isIdle()) {
+            log.debug("⏸️ Reconciliación de tiles pospuesta: hay render pendiente");
+            return;
+        }
+
+        int budget = properties.getReconciliation().getTilesPerRun();
+        int repaired = 0;
+
+        while (budget > 0 && imageGenerationHandler.isIdle()) {
+            if (canvasPosition >= canvasQueue.size()) {
+                // Fin de la vuelta: volver a tomar los canvas cacheados
+                canvasQueue.clear();
+                canvasQueue.addAll(canvasProjection.getCachedCanvasIds());
+                canvasPosition = 0;
+                tilePosition = 0;
+                if (canvasQueue.isEmpty()) {
+                    return;
+                }
+            }
+
+            String canvasId = canvasQueue.get(canvasPosition);
+            CanvasState state = canvasProjection.getCachedState(canvasId);
+            int[] raster = state != null ? state.getRaster() : null;
+            if (raster == null || state.getWidth() == null || state.getHeight() == null) {
+                nextCanvas();
+                continue;
+            }
+
+            int tileSize = properties.getTileSize();
+            int tilesX = (state.getWidth() + tileSize - 1) / tileSize;
+            int tilesY = (state.getHeight() + tileSize - 1) / tileSize;
+
+            int background = HexColor.parseRgb(state.getBackgroundColor());
+            while (budget > 0 && tilePosition < tilesX * tilesY) {
+                int tileX = tilePosition % tilesX;
+                int tileY = tilePosition / tilesX;
+                tilePosition++;
+                budget--;
+
+                if (!verifyTile(state, raster, background, tileX, tileY)) {
+                    imageGenerationHandler.requestTileRegeneration(canvasId, tileX, tileY);
+                    repaired++;
+                }
+            }
+
+            if (tilePosition >= tilesX * tilesY) {
+                nextCanvas();
+            }
+        }
+
+        if (repaired > 0) {
+            log.info("🩺 Reconciliación de tiles: {} tiles desfasados programados para regenerar", repaired);
+        }
+    }
+
+    private void nextCanvas() {
+        canvasPosition++;
+        tilePosition = 0;
+    }
+
+    /**
+     * Compara el checksum del tile guardado con el de la proyección.
+     *
+     * @return true si coinciden (o no hay nada que verificar)
+     */
+    private boolean verifyTile(CanvasState state, int[] raster, int background, int tileX, int tileY) {
+        int scale = smallestTileScale();
+        int tileSize = properties.getTileSize();
+        int startX = tileX * tileSize;
+        int startY = tileY * tileSize;
+        int endX = Math.min(startX + tileSize, state.getWidth());
+        int endY = Math.min(startY + tileSize, state.getHeight());
+
+        BufferedImage image;
+        try {
+            image = imageRepository.loadTileImage(state.getCanvasId(), tileX, tileY, scale);
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo leer tile ({},{}) de canvas {}: {}",
+                    tileX, tileY, state.getCanvasId(), e.getMessage());
+            image = null;
+        }
+
+        // Un tile que nunca se pintó es válido mientras la proyección lo tenga vacío
+        if (image == null) {
+            if (!hasPixels(raster, background, state.getWidth(), startX, startY, endX, endY)) {
+                return true;
+            }
+            missing.increment();
+            return false;
+        }
+
+        if (image.getWidth() < (endX - startX) * scale || image.getHeight() < (endY - startY) * scale) {
+            mismatched.increment();
+            return false;
+        }
+
+        CRC32 expectedChecksum = new CRC32();
+        CRC32 actualChecksum = new CRC32();
+        int center = scale / 2;
+        int width = state.getWidth();
+
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                update(expectedChecksum, raster[y * width + x]);
+                update(actualChecksum, image.getRGB((x - startX) * scale + center, (y - startY) * scale + center));
+            }
+        }
+
+        if (expectedChecksum.getValue() != actualChecksum.getValue()) {
+            log.info("🩺 Tile desfasado: canvas={}, tile=({},{})", state.getCanvasId(), tileX, tileY);
+            mismatched.increment();
+            return false;
+        }
+
+        matched.increment();
+        return true;
+    }
+
+    private static boolean hasPixels(int[] raster, int background, int width,
+                                     int startX, int startY, int endX, int endY) {
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                if (raster[y * width + x] != background) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void update(CRC32 checksum, int rgb) {
+        checksum.update(rgb >>> 16);
+        checksum.update(rgb >>> 8);
+        checksum.update(rgb);
+    }
+
+    private int smallestTileScale() {
+        int smallest = Integer.MAX_VALUE;
+        for (int scale : properties.getTileScaleVersions()) {
+            smallest = Math.min(smallest, scale);
+        }
+        return smallest;
+    }
+
+    private Counter checkCounter(String outcome) {
+        return Counter.builder("pixelplace.image.reconciliation.tiles")
+                .description("Tiles verificados contra la proyección")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -1,20 +1,66 @@
 package com.example.pixelplace.eventhandler;
 
-import com.example.pixelplace.event.PixelPlacedEvent;
+import com.example.pixelplace.batch.CoalescedPixels;
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import com.example.pixelplace.dto.PixelBatchMessage;
+import com.example.pixelplace.dto.PixelPlacedMessage;
+import com.example.pixelplace.websocket.BinaryPixelFrame;
+import com.example.pixelplace.websocket.PixelFormatInterceptor;
+import com.example.pixelplace.websocket.RawPixelWebSocketHandler;
+import com.example.pixelplace.websocket.TileSubscriptionRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.axonframework.eventhandling.EventHandler;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * EventHandler que transmite eventos de pixeles via WebSocket.
- * 
+ *
  * Cuando se coloca un pixel, envía el evento a todos los clientes
- * suscritos al topic del canvas.
+ * suscritos al topic del canvas. Recibe los CanvasPixelUpdate que
+ * publica CanvasStateProjection (no el evento de Axon directamente) a
+ * través de PixelUpdateRelay: con varios pods, cada uno recibe los pixeles
+ * de todos y los transmite solo a sus propias sesiones.
+ *
+ * Por defecto los pixeles se agrupan por canvas durante un tick corto
+ * (last-write-wins por coordenada) y se envía un solo PIXEL_BATCH por
+ * tick: una serialización y un mensaje del broker por canvas, en lugar
+ * de uno por pixel. Con coalesce=false se envía un PIXEL_PLACED por pixel.
+ *
+ * Los clientes que negociaron formato binario (ver PixelFormatInterceptor)
+ * reciben los mismos pixeles como BinaryPixelFrame en
+ * /topic/canvas/{canvasId}.bin, codificados una vez por mensaje. El mismo
+ * frame se entrega sin STOMP a las sesiones de /ws-raw (ver
+ * RawPixelWebSocketHandler).
+ *
+ * Los clientes con zoom pueden suscribirse solo a los tiles de su viewport
+ * (/topic/canvas/{canvasId}/tile/{tileX}/{tileY}): cada PIXEL_BATCH se
+ * parte por tile y se envía solo a los tiles con suscriptores (ver
+ * TileSubscriptionRegistry). En esos topics las secuencias crecen pero no
+ * son contiguas: un tile solo recibe los ticks en que cambió.
+ *
+ * El tick corre en su propio hilo (ws-broadcast), no en el de render (ver
+ * RenderScheduler): un render largo no debe atrasar la transmisión.
+ *
+ * Métricas (costo del fan-out por pod): pixelplace.live.broadcast.flush,
+ * pixelplace.live.broadcast.messages.
  */
 @Slf4j
 @Component
@@ -22,38 +68,279 @@ import java.util.Map;
 public class WebSocketEventHandler {
 
     private final SimpMessagingTemplate messagingTemplate;
+    private final ImageGenerationProperties properties;
+    private final LiveUpdateProperties liveProperties;
+    private final TileSubscriptionRegistry tileSubscriptions;
+    private final RawPixelWebSocketHandler rawSessions;
+    private final MeterRegistry meterRegistry;
+
+    private static final Map<String, Object> BINARY_HEADERS =
+            Collections.singletonMap(MessageHeaders.CONTENT_TYPE, MimeTypeUtils.APPLICATION_OCTET_STREAM);
+
+    // Destinos ya construidos por canvas: evita concatenar el String en cada evento
+    private final Map<String, String> destinations = new ConcurrentHashMap<>();
+    private final Map<String, String> binaryDestinations = new ConcurrentHashMap<>();
+
+    // Pixeles pendientes del próximo tick por canvas (cada buffer es su propio lock)
+    private final Map<String, CoalescedPixels> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService ticker;
+    private Timer flushTimer;
+    private Counter messagesSent;
+
+    @PostConstruct
+    public void init() {
+        flushTimer = Timer.builder("pixelplace.live.broadcast.flush")
+                .description("Tiempo de un tick de transmisión (todos los canvas y tiles)")
+                .register(meterRegistry);
+        messagesSent = Counter.builder("pixelplace.live.broadcast.messages")
+                .description("Mensajes de pixeles enviados al broker de WebSocket")
+                .register(meterRegistry);
+
+        long tickMillis = liveProperties.getBroadcast().getTickMillis();
+        ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ws-broadcast");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::flush, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
 
     /**
-     * Escucha eventos de pixeles colocados y los transmite via WebSocket.
-     * 
+     * Transmite via WebSocket un pixel aplicado a la proyección (de este
+     * pod o de otro, ver PixelUpdateRelay).
+     *
      * Topic: /topic/canvas/{canvasId}
      */
-    @EventHandler
-    public void on(PixelPlacedEvent event) {
-        log.info("📡 Broadcasting pixel event: canvas={}, pixel=({}, {}), color={}", 
-                event.getCanvasId(), event.getX(), event.getY(), event.getColor());
-
-        // Crear payload para WebSocket
-        Map<String, Object> payload = new HashMap<>();
-        payload.put("type", "PIXEL_PLACED");
-        payload.put("canvasId", event.getCanvasId());
-        payload.put("x", event.getX());
-        payload.put("y", event.getY());
-        payload.put("color", event.getColor());
-        payload.put("userId", event.getUserId());
-        payload.put("timestamp", System.currentTimeMillis());
+    public void on(CanvasPixelUpdate update) {
+        if (log.isDebugEnabled()) {
+            log.debug("📡 Broadcasting pixel event: canvas={}, pixel=({}, {}), color={}, seq={}",
+                    update.getCanvasId(), update.getX(), update.getY(), update.getColor(), update.getSequence());
+        }
+
+        if (liveProperties.getBroadcast().isCoalesce()) {
+            CoalescedPixels pixels = pending.computeIfAbsent(update.getCanvasId(), id -> new CoalescedPixels());
+            synchronized (pixels) {
+                pixels.add(update.getX(), update.getY(), update.getColor(), update.getUserId(),
+                        update.getPreviousSequence(), update.getSequence());
+            }
+            return;
+        }
 
         // Calcular tile al que pertenece el pixel
-        int tileSize = 100;
-        int tileX = event.getX() / tileSize;
-        int tileY = event.getY() / tileSize;
-        payload.put("tileX", tileX);
-        payload.put("tileY", tileY);
+        int tileSize = properties.getTileSize();
+
+        PixelPlacedMessage payload = new PixelPlacedMessage(
+                update.getCanvasId(),
+                update.getX(),
+                update.getY(),
+                update.getColor(),
+                update.getUserId(),
+                System.currentTimeMillis(),
+                update.getX() / tileSize,
+                update.getY() / tileSize,
+                update.getSequence()
+        );
 
         // Enviar a todos los clientes suscritos al canvas
-        String destination = "/topic/canvas/" + event.getCanvasId();
+        send(destination(update.getCanvasId()), payload);
+
+        if (hasBinarySubscribers(update.getCanvasId()) || tileSubscriptions.hasAnySubscribers()
+                || rawSessions.hasSubscribers(update.getCanvasId())) {
+            PixelBatchMessage single = new PixelBatchMessage(
+                    update.getCanvasId(),
+                    update.getPreviousSequence(),
+                    update.getSequence(),
+                    payload.getTimestamp(),
+                    new int[]{update.getX()},
+                    new int[]{update.getY()},
+                    new String[]{update.getColor()},
+                    new String[]{update.getUserId()}
+            );
+            sendCanvasBinary(single);
+            sendTiles(single);
+        }
+    }
+
+    /**
+     * Envía un PIXEL_BATCH por canvas con los pixeles acumulados en el tick.
+     */
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        try {
+            flushTimer.record(this::flushPending);
+        } catch (RuntimeException e) {
+            // Una excepción cancelaría las ejecuciones siguientes del ticker
+            log.error("❌ Error en el tick de transmisión: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flushPending() {
+        for (Map.Entry<String, CoalescedPixels> entry : pending.entrySet()) {
+            String canvasId = entry.getKey();
+            CoalescedPixels pixels = entry.getValue();
+
+            PixelBatchMessage payload;
+            synchronized (pixels) {
+                if (pixels.isEmpty()) {
+                    continue;
+                }
+                payload = toMessage(canvasId, pixels);
+                pixels.clear();
+            }
+
+            try {
+                send(destination(canvasId), payload);
+                sendCanvasBinary(payload);
+                sendTiles(payload);
+            } catch (Exception e) {
+                log.error("❌ Error transmitiendo batch del canvas {}: {}", canvasId, e.getMessage(), e);
+            }
+        }
+    }
+
+    private static PixelBatchMessage toMessage(String canvasId, CoalescedPixels pixels) {
+        int size = pixels.size();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        String[] colors = new String[size];
+        String[] userIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = pixels.x(i);
+            ys[i] = pixels.y(i);
+            colors[i] = pixels.color(i);
+            userIds[i] = pixels.userId(i);
+        }
+
+        return new PixelBatchMessage(
+                canvasId,
+                pixels.getFromSequence(),
+                pixels.getToSequence(),
+                System.currentTimeMillis(),
+                xs,
+                ys,
+                colors,
+                userIds
+        );
+    }
+
+    /**
+     * Parte el batch por tile y envía cada parte a los tiles con suscriptores.
+     */
+    private void sendTiles(PixelBatchMessage batch) {
+        if (!tileSubscriptions.hasAnySubscribers()) {
+            return;
+        }
+
+        // Índices ordenados por tile: [ tileX : 16 | tileY : 16 | índice : 32 ]
+        int tileSize = properties.getTileSize();
+        int count = batch.getX().length;
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            long tile = ((long) (batch.getX()[i] / tileSize) << 16) | (batch.getY()[i] / tileSize);
+            order[i] = (tile << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int start = 0;
+        while (start < count) {
+            long tile = order[start] >>> 32;
+            int end = start + 1;
+            while (end < count && order[end] >>> 32 == tile) {
+                end++;
+            }
+            sendTile(batch, (int) (tile >>> 16), (int) (tile & 0xFFFF), order, start, end);
+            start = end;
+        }
+    }
+
+    private void sendTile(PixelBatchMessage batch, int tileX, int tileY, long[] order, int start, int end) {
+        String json = TileSubscriptionRegistry.tileDestination(batch.getCanvasId(), tileX, tileY);
+        String binary = json + PixelFormatInterceptor.BINARY_SUFFIX;
+        boolean sendJson = tileSubscriptions.hasSubscribers(json);
+        boolean sendBinary = liveProperties.getBinary().isEnabled() && tileSubscriptions.hasSubscribers(binary);
+        if (!sendJson && !sendBinary) {
+            return;
+        }
+
+        int size = end - start;
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        String[] colors = new String[size];
+        String[] userIds = new String[size];
+        for (int i = 0; i < size; i++) {
+            int index = (int) order[start + i];
+            xs[i] = batch.getX()[index];
+            ys[i] = batch.getY()[index];
+            colors[i] = batch.getColors()[index];
+            userIds[i] = batch.getUserIds()[index];
+        }
+        PixelBatchMessage part = new PixelBatchMessage(batch.getCanvasId(), batch.getFromSequence(),
+                batch.getToSequence(), batch.getTimestamp(), xs, ys, colors, userIds);
+
+        if (sendJson) {
+            send(json, part);
+        }
+        if (sendBinary) {
+            sendBinary(part, binary);
+        }
+    }
+
+    /**
+     * Frame binario del canvas completo: una codificación para el topic .bin
+     * y para las sesiones de /ws-raw, solo si alguno tiene suscriptores
+     * (ver TileSubscriptionRegistry).
+     */
+    private void sendCanvasBinary(PixelBatchMessage batch) {
+        boolean topic = hasBinarySubscribers(batch.getCanvasId());
+        boolean raw = rawSessions.hasSubscribers(batch.getCanvasId());
+        if (!topic && !raw) {
+            return;
+        }
+
+        byte[] frame = BinaryPixelFrame.encode(batch, liveProperties.getBinary().isIncludeUsers());
+        if (topic) {
+            sendBinary(frame, binaryDestination(batch.getCanvasId()));
+        }
+        if (raw) {
+            rawSessions.send(batch.getCanvasId(), frame);
+        }
+    }
+
+    private void sendBinary(PixelBatchMessage batch, String destination) {
+        sendBinary(BinaryPixelFrame.encode(batch, liveProperties.getBinary().isIncludeUsers()), destination);
+    }
+
+    private void sendBinary(byte[] frame, String destination) {
+        messagingTemplate.convertAndSend(destination, frame, BINARY_HEADERS);
+        messagesSent.increment();
+    }
+
+    private void send(String destination, Object payload) {
         messagingTemplate.convertAndSend(destination, payload);
+        messagesSent.increment();
+    }
+
+    /**
+     * @return true si alguna sesión STOMP está suscrita al frame binario del canvas
+     */
+    private boolean hasBinarySubscribers(String canvasId) {
+        return liveProperties.getBinary().isEnabled() && tileSubscriptions.hasSubscribers(binaryDestination(canvasId));
+    }
+
+    private String binaryDestination(String canvasId) {
+        return binaryDestinations.computeIfAbsent(canvasId,
+                id -> destination(id) + PixelFormatInterceptor.BINARY_SUFFIX);
+    }
 
-        log.debug("✅ Event broadcasted to {}", destination);
+    private String destination(String canvasId) {
+        return destinations.computeIfAbsent(canvasId, id -> "/topic/canvas/" + id);
     }
-}
\ No newline at end of file
+}
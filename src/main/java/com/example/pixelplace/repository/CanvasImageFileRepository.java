@@ -1,6 +1,10 @@
 package com.example.pixelplace.repository;
 
-import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.repository.storage.ContentHash;
+import com.example.pixelplace.repository.storage.ImageKey;
+import com.example.pixelplace.repository.storage.ImageStat;
+import com.example.pixelplace.repository.storage.ImageStorage;
+import com.example.pixelplace.repository.storage.StoredImage;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Repository;
@@ -11,15 +15,18 @@ import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.InputStream;
 import java.util.Iterator;
 
 /**
- * Repositorio para guardar y cargar imágenes del canvas desde el filesystem.
+ * Repositorio para guardar y cargar imágenes del canvas.
+ * 
+ * Codifica y decodifica los PNG; dónde se guardan los bytes lo decide
+ * el backend ImageStorage configurado (filesystem, memoria o pack).
+ * Cada escritura actualiza ImageVersionRegistry, de donde salen los
+ * ETag/Last-Modified que usa ImageController.
  * 
  * CAMBIOS:
  * - Compresión PNG optimizada (nivel 3 en vez de 6) para mejor calidad
@@ -30,47 +37,96 @@ import java.util.Iterator;
 @RequiredArgsConstructor
 public class CanvasImageFileRepository {
 
-    private final ImageGenerationProperties properties;
+    private final ImageStorage storage;
+    private final ImageVersionRegistry versions;
 
     /**
-     * Guarda una imagen en el filesystem con compresión optimizada.
+     * Guarda una imagen con compresión optimizada.
      * 
      * @param canvasId ID del canvas
      * @param image Imagen a guardar
-     * @param scale Factor de escala (para nombrar el archivo)
-     * @return Path del archivo guardado
+     * @param scale Factor de escala
+     * @return Clave con la que quedó guardada
      */
-    public Path saveImage(String canvasId, BufferedImage image, int scale) throws IOException {
-        Path canvasDir = getCanvasDirectory(canvasId);
-        ensureDirectoryExists(canvasDir);
+    public ImageKey saveImage(String canvasId, BufferedImage image, int scale) throws IOException {
+        byte[] png = encodePng(image);
+        ImageKey key = saveEncodedImage(canvasId, png, scale);
 
-        String filename = scale == 1 ? "latest.png" : String.format("latest_%dx.png", scale);
-        Path imagePath = canvasDir.resolve(filename);
+        log.info("💾 Imagen guardada: canvas={}, scale={} ({}x{}, {}KB)", 
+                canvasId, scale, image.getWidth(), image.getHeight(), png.length / 1024);
+
+        return key;
+    }
+
+    /**
+     * Guarda una imagen de canvas ya codificada (ej: PNG en blanco cacheado).
+     * 
+     * @param canvasId ID del canvas
+     * @param png Bytes PNG
+     * @param scale Factor de escala
+     * @return Clave con la que quedó guardada
+     */
+    public ImageKey saveEncodedImage(String canvasId, byte[] png, int scale) throws IOException {
+        ImageKey key = ImageKey.canvas(canvasId, scale);
+        store(key, png);
+        return key;
+    }
+
+    private void store(ImageKey key, byte[] png) throws IOException {
+        storage.put(key, png);
+        ImageStat stat = storage.stat(key);
+        if (stat == null || stat.getSize() != png.length) {
+            // Otra réplica escribió justo después: que version() relea
+            versions.remove(key);
+            return;
+        }
+        versions.update(key, ContentHash.of(png), stat.getLastModified(), png.length);
+    }
 
-        // Guardar con compresión optimizada
-        saveImageWithCompression(image, imagePath.toFile());
+    /**
+     * Versión de una imagen para GET condicionales.
+     * 
+     * La versión en memoria se valida con un stat del storage (fecha y
+     * tamaño): si otra réplica reescribió la imagen, se relee una vez para
+     * calcular el hash. Así un 304 o un ETag nunca corresponden a bytes
+     * que el storage ya no tiene.
+     * 
+     * @return Versión o null si la imagen no existe
+     */
+    private ImageVersion version(ImageKey key) throws IOException {
+        ImageStat stat = storage.stat(key);
+        if (stat == null) {
+            versions.remove(key);
+            return null;
+        }
 
-        log.info("💾 Imagen guardada: {} ({}x{}, {}KB)", 
-                imagePath, image.getWidth(), image.getHeight(), 
-                imagePath.toFile().length() / 1024);
+        ImageVersion version = versions.get(key);
+        if (version != null && version.matches(stat)) {
+            return version;
+        }
 
-        return imagePath;
+        StoredImage stored = storage.get(key);
+        if (stored == null) {
+            return null;
+        }
+        return versions.update(key, ContentHash.of(stored.getData()), stored.getLastModified(), stored.size());
     }
 
     /**
-     * Guarda una imagen con parámetros de compresión optimizados.
+     * Codifica una imagen a PNG con parámetros de compresión optimizados.
      * Compresión nivel 3 (en vez de 6) para mejor calidad.
      * 
-     * @param image Imagen a guardar
-     * @param outputFile Archivo de salida
+     * @param image Imagen a codificar
+     * @return Bytes PNG
      */
-    private void saveImageWithCompression(BufferedImage image, File outputFile) throws IOException {
+    public byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(16 * 1024);
         Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
         
         if (!writers.hasNext()) {
-            // Fallback a guardado simple si no hay writer disponible
-            ImageIO.write(image, "PNG", outputFile);
-            return;
+            // Fallback a codificación simple si no hay writer disponible
+            ImageIO.write(image, "PNG", output);
+            return output.toByteArray();
         }
         
         ImageWriter writer = writers.next();
@@ -84,12 +140,34 @@ public class CanvasImageFileRepository {
             writeParam.setCompressionQuality(0.7f); // Equivalente a nivel ~3
         }
         
-        try (ImageOutputStream ios = ImageIO.createImageOutputStream(outputFile)) {
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(output)) {
             writer.setOutput(ios);
             writer.write(null, new IIOImage(image, null, null), writeParam);
         } finally {
             writer.dispose();
         }
+
+        return output.toByteArray();
+    }
+
+    /**
+     * Decodifica una imagen guardada.
+     * 
+     * @return Imagen o null si no existe
+     */
+    private BufferedImage decode(ImageKey key) throws IOException {
+        StoredImage stored = storage.get(key);
+
+        if (stored == null) {
+            log.debug("📂 No existe imagen previa: {}", key);
+            return null;
+        }
+
+        try (InputStream input = stored.inputStream()) {
+            BufferedImage image = ImageIO.read(input);
+            log.debug("📂 Imagen cargada: {} ({}x{})", key, image.getWidth(), image.getHeight());
+            return image;
+        }
     }
 
     /**
@@ -100,19 +178,7 @@ public class CanvasImageFileRepository {
      * @return Imagen cargada o null si no existe
      */
     public BufferedImage loadImage(String canvasId, int scale) throws IOException {
-        Path canvasDir = getCanvasDirectory(canvasId);
-        String filename = scale == 1 ? "latest.png" : String.format("latest_%dx.png", scale);
-        Path imagePath = canvasDir.resolve(filename);
-
-        if (!Files.exists(imagePath)) {
-            log.debug("📂 No existe imagen previa: {}", imagePath);
-            return null;
-        }
-
-        BufferedImage image = ImageIO.read(imagePath.toFile());
-        log.debug("📂 Imagen cargada: {} ({}x{})", imagePath, image.getWidth(), image.getHeight());
-        
-        return image;
+        return decode(ImageKey.canvas(canvasId, scale));
     }
 
     /**
@@ -123,102 +189,87 @@ public class CanvasImageFileRepository {
      * @return true si existe
      */
     public boolean imageExists(String canvasId, int scale) {
-        Path canvasDir = getCanvasDirectory(canvasId);
-        String filename = scale == 1 ? "latest.png" : String.format("latest_%dx.png", scale);
-        Path imagePath = canvasDir.resolve(filename);
-        
-        return Files.exists(imagePath);
+        return storage.exists(ImageKey.canvas(canvasId, scale));
     }
 
     /**
-     * Elimina todas las imágenes de un canvas.
+     * Obtiene los bytes PNG de la imagen del canvas para servir via HTTP.
      * 
      * @param canvasId ID del canvas
+     * @param scale Factor de escala
+     * @return Imagen guardada o null si no existe
      */
-    public void deleteAllImages(String canvasId) throws IOException {
-        Path canvasDir = getCanvasDirectory(canvasId);
-        
-        if (Files.exists(canvasDir)) {
-            Files.walk(canvasDir)
-                    .sorted((a, b) -> b.compareTo(a)) // Borrar archivos antes que directorios
-                    .forEach(path -> {
-                        try {
-                            Files.delete(path);
-                        } catch (IOException e) {
-                            log.warn("⚠️ Error borrando {}: {}", path, e.getMessage());
-                        }
-                    });
-            
-            log.info("🗑️ Imágenes eliminadas: {}", canvasDir);
-        }
+    public StoredImage getStoredImage(String canvasId, int scale) throws IOException {
+        return storage.get(ImageKey.canvas(canvasId, scale));
     }
 
     /**
-     * Obtiene el directorio del canvas.
+     * Versión (ETag, Last-Modified) de la imagen del canvas.
      * 
      * @param canvasId ID del canvas
-     * @return Path del directorio
+     * @param scale Factor de escala
+     * @return Versión o null si no existe
      */
-    private Path getCanvasDirectory(String canvasId) {
-        return Paths.get(properties.getStorageDirectory(), canvasId);
+    public ImageVersion getImageVersion(String canvasId, int scale) throws IOException {
+        return version(ImageKey.canvas(canvasId, scale));
     }
 
     /**
-     * Asegura que un directorio existe.
-     * 
-     * @param directory Directorio a crear
+     * @return true si el backend guarda una sola vez las imágenes idénticas
      */
-    private void ensureDirectoryExists(Path directory) throws IOException {
-        if (!Files.exists(directory)) {
-            Files.createDirectories(directory);
-            log.debug("📁 Directorio creado: {}", directory);
-        }
+    public boolean isDeduplicating() {
+        return storage.isDeduplicating();
     }
 
     /**
-     * Obtiene la ruta de la imagen para servir via HTTP.
+     * Elimina todas las imágenes de un canvas.
      * 
      * @param canvasId ID del canvas
-     * @param scale Factor de escala
-     * @return Path del archivo
      */
-    public Path getImagePath(String canvasId, int scale) {
-        Path canvasDir = getCanvasDirectory(canvasId);
-        String filename = scale == 1 ? "latest.png" : String.format("latest_%dx.png", scale);
-        return canvasDir.resolve(filename);
+    public void deleteAllImages(String canvasId) throws IOException {
+        storage.deleteCanvas(canvasId);
+        versions.removeCanvas(canvasId);
+        log.info("🗑️ Imágenes eliminadas: {}", canvasId);
     }
 
     // ========== MÉTODOS PARA TILES ==========
 
     /**
-     * Guarda una imagen de tile en el filesystem con compresión optimizada.
+     * Guarda una imagen de tile con compresión optimizada.
      * 
      * @param canvasId ID del canvas
      * @param tileX Índice X del tile
      * @param tileY Índice Y del tile
      * @param image Imagen del tile
      * @param scale Factor de escala
-     * @return Path del archivo guardado
+     * @return Clave con la que quedó guardado
      */
-    public Path saveTileImage(String canvasId, int tileX, int tileY, 
-                              BufferedImage image, int scale) throws IOException {
-        Path tilesDir = getTilesDirectory(canvasId);
-        ensureDirectoryExists(tilesDir);
-
-        String filename = scale == 1 ? 
-                String.format("tile_%d_%d.png", tileX, tileY) : 
-                String.format("tile_%d_%d_%dx.png", tileX, tileY, scale);
-        
-        Path imagePath = tilesDir.resolve(filename);
+    public ImageKey saveTileImage(String canvasId, int tileX, int tileY, 
+                                  BufferedImage image, int scale) throws IOException {
+        byte[] png = encodePng(image);
+        ImageKey key = saveEncodedTileImage(canvasId, tileX, tileY, png, scale);
 
-        // Guardar con compresión optimizada
-        saveImageWithCompression(image, imagePath.toFile());
+        log.info("💾 Tile guardado: canvas={}, tile=({},{}), scale={} ({}x{}, {}KB)", 
+                canvasId, tileX, tileY, scale, image.getWidth(), image.getHeight(), png.length / 1024);
 
-        log.info("💾 Tile guardado: {} ({}x{}, {}KB)", 
-                imagePath, image.getWidth(), image.getHeight(), 
-                imagePath.toFile().length() / 1024);
+        return key;
+    }
 
-        return imagePath;
+    /**
+     * Guarda un tile ya codificado (ej: PNG en blanco cacheado).
+     * 
+     * @param canvasId ID del canvas
+     * @param tileX Índice X del tile
+     * @param tileY Índice Y del tile
+     * @param png Bytes PNG
+     * @param scale Factor de escala
+     * @return Clave con la que quedó guardado
+     */
+    public ImageKey saveEncodedTileImage(String canvasId, int tileX, int tileY,
+                                         byte[] png, int scale) throws IOException {
+        ImageKey key = ImageKey.tile(canvasId, tileX, tileY, scale);
+        store(key, png);
+        return key;
     }
 
     /**
@@ -232,23 +283,7 @@ public class CanvasImageFileRepository {
      */
     public BufferedImage loadTileImage(String canvasId, int tileX, int tileY, 
                                        int scale) throws IOException {
-        Path tilesDir = getTilesDirectory(canvasId);
-        
-        String filename = scale == 1 ? 
-                String.format("tile_%d_%d.png", tileX, tileY) : 
-                String.format("tile_%d_%d_%dx.png", tileX, tileY, scale);
-        
-        Path imagePath = tilesDir.resolve(filename);
-
-        if (!Files.exists(imagePath)) {
-            log.debug("📂 No existe tile previo: {}", imagePath);
-            return null;
-        }
-
-        BufferedImage image = ImageIO.read(imagePath.toFile());
-        log.debug("📂 Tile cargado: {} ({}x{})", imagePath, image.getWidth(), image.getHeight());
-        
-        return image;
+        return decode(ImageKey.tile(canvasId, tileX, tileY, scale));
     }
 
     /**
@@ -261,43 +296,86 @@ public class CanvasImageFileRepository {
      * @return true si existe
      */
     public boolean tileImageExists(String canvasId, int tileX, int tileY, int scale) {
-        Path tilesDir = getTilesDirectory(canvasId);
-        
-        String filename = scale == 1 ? 
-                String.format("tile_%d_%d.png", tileX, tileY) : 
-                String.format("tile_%d_%d_%dx.png", tileX, tileY, scale);
-        
-        Path imagePath = tilesDir.resolve(filename);
-        
-        return Files.exists(imagePath);
+        return storage.exists(ImageKey.tile(canvasId, tileX, tileY, scale));
     }
 
     /**
-     * Obtiene la ruta de la imagen de un tile.
+     * Obtiene los bytes PNG de un tile para servir via HTTP.
      * 
      * @param canvasId ID del canvas
      * @param tileX Índice X del tile
      * @param tileY Índice Y del tile
      * @param scale Factor de escala
-     * @return Path del archivo
+     * @return Tile guardado o null si no existe
      */
-    public Path getTileImagePath(String canvasId, int tileX, int tileY, int scale) {
-        Path tilesDir = getTilesDirectory(canvasId);
-        
-        String filename = scale == 1 ? 
-                String.format("tile_%d_%d.png", tileX, tileY) : 
-                String.format("tile_%d_%d_%dx.png", tileX, tileY, scale);
-        
-        return tilesDir.resolve(filename);
+    public StoredImage getStoredTileImage(String canvasId, int tileX, int tileY, int scale) throws IOException {
+        return storage.get(ImageKey.tile(canvasId, tileX, tileY, scale));
     }
 
     /**
-     * Obtiene el directorio de tiles del canvas.
+     * Versión (ETag, Last-Modified) de un tile.
      * 
      * @param canvasId ID del canvas
-     * @return Path del directorio de tiles
+     * @param tileX Índice X del tile
+     * @param tileY Índice Y del tile
+     * @param scale Factor de escala
+     * @return Versión o null si no existe
+     */
+    public ImageVersion getTileImageVersion(String canvasId, int tileX, int tileY, int scale) throws IOException {
+        return version(ImageKey.tile(canvasId, tileX, tileY, scale));
+    }
+
+    /**
+     * Versión de un tile tal como quedó en memoria al guardarlo, sin
+     * validarla contra el storage.
+     *
+     * @return Versión o null si el tile no se escribió (o se invalidó) desde el arranque
+     */
+    public ImageVersion getKnownTileImageVersion(String canvasId, int tileX, int tileY, int scale) {
+        return versions.get(ImageKey.tile(canvasId, tileX, tileY, scale));
+    }
+
+    /**
+     * @return Generación de las versiones de tiles del canvas (ver ImageVersionRegistry)
+     */
+    public long tileVersionGeneration(String canvasId) {
+        return versions.tileGeneration(canvasId);
+    }
+
+    // ========== PIRÁMIDE DE VISTAS REDUCIDAS ==========
+
+    /**
+     * Guarda un tile ya codificado de la pirámide.
+     * 
+     * @param canvasId ID del canvas
+     * @param level Nivel (1 = 1/2, 2 = 1/4, ...)
+     * @param tileX Índice X del tile en ese nivel
+     * @param tileY Índice Y del tile en ese nivel
+     * @param png Bytes PNG
+     * @return Clave con la que quedó guardado
+     */
+    public ImageKey saveEncodedOverviewTile(String canvasId, int level, int tileX, int tileY,
+                                            byte[] png) throws IOException {
+        ImageKey key = ImageKey.overview(canvasId, level, tileX, tileY);
+        store(key, png);
+        return key;
+    }
+
+    /**
+     * Obtiene los bytes PNG de un tile de la pirámide para servir via HTTP.
+     * 
+     * @return Tile guardado o null si no existe
+     */
+    public StoredImage getStoredOverviewTile(String canvasId, int level, int tileX, int tileY) throws IOException {
+        return storage.get(ImageKey.overview(canvasId, level, tileX, tileY));
+    }
+
+    /**
+     * Versión (ETag, Last-Modified) de un tile de la pirámide.
+     * 
+     * @return Versión o null si no existe
      */
-    private Path getTilesDirectory(String canvasId) {
-        return getCanvasDirectory(canvasId).resolve("tiles");
+    public ImageVersion getOverviewTileVersion(String canvasId, int level, int tileX, int tileY) throws IOException {
+        return version(ImageKey.overview(canvasId, level, tileX, tileY));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package com.example.pixelplace.repository;
+
+import com.example.pixelplace.repository.storage.ContentHash;
+import com.example.pixelplace.repository.storage.ImageStat;
+import com.example.pixelplace.repository.storage.StoredImage;
+import lombok.Value;
+
+/**
+ * Versión de una imagen guardada: lo necesario para responder GET
+ * condicionales sin leer los bytes.
+ *
+ * Guarda también la fecha y el tamaño que tenía la imagen en el storage
+ * al calcular el hash: si un stat posterior no coincide, otra réplica la
+ * reescribió y la versión ya no vale (ver CanvasImageFileRepository).
+ */
+@Value
+public class ImageVersion {
+
+    ContentHash contentHash;
+
+    /**
+     * Momento (epoch millis) en que se guardó este contenido
+     */
+    long lastModified;
+
+    /**
+     * Fecha de la imagen en el storage cuando se calculó el hash
+     */
+    long storedAt;
+
+    /**
+     * Tamaño en bytes del PNG
+     */
+    long size;
+
+    /**
+     * Versión calculada de los bytes que se van a servir.
+     */
+    public static ImageVersion of(StoredImage stored) {
+        return new ImageVersion(ContentHash.of(stored.getData()), stored.getLastModified(),
+                stored.getLastModified(), stored.size());
+    }
+
+    /**
+     * @return true si el storage todavía tiene la imagen de la que sale esta versión
+     */
+    public boolean matches(ImageStat stat) {
+        return storedAt == stat.getLastModified() && size == stat.getSize();
+    }
+
+    /**
+     * @return true si los bytes leídos son los de esta versión
+     */
+    public boolean matches(StoredImage stored) {
+        return storedAt == stored.getLastModified() && size == stored.size();
+    }
+
+    /**
+     * Número de versión de las URLs /v/{version}: los primeros 53 bits del
+     * hash de contenido, así todas las réplicas dan el mismo número para
+     * los mismos bytes. 53 bits para que el manifiesto JSON no pierda
+     * precisión en JavaScript; 0 queda para "no existe".
+     */
+    public long getVersion() {
+        long version = contentHash.getHigh() >>> 11;
+        return version != 0 ? version : 1;
+    }
+
+    /**
+     * ETag fuerte derivado del hash de contenido (ya entre comillas)
+     */
+    public String getETag() {
+        return "\"" + contentHash + "\"";
+    }
+}
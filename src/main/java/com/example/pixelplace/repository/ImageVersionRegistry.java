@@ -0,0 +1,96 @@
+package com.example.pixelplace.repository;
+
+import com.example.pixelplace.repository.storage.ContentHash;
+import com.example.pixelplace.repository.storage.ImageKey;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versiones en memoria de las imágenes guardadas (canvas y tiles).
+ *
+ * CanvasImageFileRepository la actualiza en cada escritura y la valida con
+ * un stat del storage antes de usarla (otra réplica pudo reescribir la
+ * imagen); ImageController responde 304 sin leer los bytes.
+ *
+ * La versión de una clave solo cambia si cambia el hash de contenido:
+ * volver a guardar los mismos bytes no invalida caches de clientes. El
+ * número de versión sale del hash (ver ImageVersion.getVersion), no de un
+ * contador: todas las réplicas y los reinicios coinciden en él.
+ *
+ * Además lleva una generación por canvas que avanza con cada cambio de
+ * versión de sus tiles: TileManifestService la usa para saber si su
+ * manifiesto en memoria sigue vigente sin recorrer el storage.
+ */
+@Component
+public class ImageVersionRegistry {
+
+    private final ConcurrentHashMap<ImageKey, ImageVersion> versions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    /**
+     * Registra el contenido recién guardado de una clave.
+     *
+     * @return Versión vigente (la anterior si el contenido no cambió)
+     */
+    public ImageVersion update(ImageKey key, ContentHash hash, long storedAt, long size) {
+        ImageVersion previous = versions.get(key);
+        ImageVersion updated = versions.compute(key, (k, current) -> {
+            if (current != null && current.getContentHash().equals(hash)) {
+                // Mismo contenido: Last-Modified no cambia, sí el stat que la valida
+                return current.getStoredAt() == storedAt
+                        ? current
+                        : new ImageVersion(hash, current.getLastModified(), storedAt, size);
+            }
+            return new ImageVersion(hash, storedAt, storedAt, size);
+        });
+        if (previous == null || previous.getVersion() != updated.getVersion()) {
+            changed(key);
+        }
+        return updated;
+    }
+
+    /**
+     * @return Versión conocida o null si la clave no se escribió desde el arranque
+     */
+    public ImageVersion get(ImageKey key) {
+        return versions.get(key);
+    }
+
+    public void remove(ImageKey key) {
+        if (versions.remove(key) != null) {
+            changed(key);
+        }
+    }
+
+    /**
+     * Olvida todas las versiones de un canvas.
+     */
+    public void removeCanvas(String canvasId) {
+        versions.keySet().removeIf(key -> key.getCanvasId().equals(canvasId));
+        generation(canvasId).incrementAndGet();
+    }
+
+    /**
+     * @return Contador que avanza con cada cambio de versión de un tile del canvas
+     */
+    public long tileGeneration(String canvasId) {
+        AtomicLong generation = generations.get(canvasId);
+        return generation == null ? 0 : generation.get();
+    }
+
+    private void changed(ImageKey key) {
+        if (key.isTile()) {
+            generation(key.getCanvasId()).incrementAndGet();
+        }
+    }
+
+    private AtomicLong generation(String canvasId) {
+        return generations.computeIfAbsent(canvasId, id -> new AtomicLong());
+    }
+
+    public int size() {
+        return versions.size();
+    }
+}
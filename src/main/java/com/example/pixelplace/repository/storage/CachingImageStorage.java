@@ -0,0 +1,297 @@
+package com.example.pixelplace.repository.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorador con cache LRU acotado por bytes de los PNG ya codificados.
+ *
+ * Se llena al escribir: cada put() del pipeline de render deja los bytes
+ * en el heap, así los tiles recién pintados (los que todos están mirando)
+ * se sirven sin tocar el backend. En un miss se lee el backend una vez y
+ * se copia al heap (un slice de pack mapeado no se retiene).
+ *
+ * Con varios pods sobre el mismo storage (revalidateMillis > 0) otro pod
+ * puede reemplazar una imagen sin pasar por este cache: un hit cuya última
+ * validación tiene más de revalidateMillis se valida con un stat del
+ * backend (fecha y tamaño, ver ImageStat) y, si no coincide, la entrada se
+ * descarta y se relee. Dentro de esa ventana los hits, stat() y exists()
+ * no tocan el backend, así que un tile caliente cuesta a lo sumo un stat
+ * por ventana y no uno por request. Con un solo pod (revalidateMillis = 0)
+ * todas las escrituras pasan por acá y no se revalida.
+ *
+ * El cache está dividido en segmentos con su propio lock y su parte del
+ * presupuesto; dentro de cada segmento se desaloja por recencia de uso.
+ * Una imagen más grande que un segmento no se cachea.
+ *
+ * Métricas: pixelplace.image.storage.cache (outcome=hit|miss|stale),
+ * pixelplace.image.storage.cache.bytes.
+ */
+@Slf4j
+public class CachingImageStorage implements ImageStorage, AutoCloseable {
+
+    private static final int SEGMENTS = 16;
+
+    // Costo aproximado de la entrada además de los bytes (clave, nodo, StoredImage)
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private final ImageStorage delegate;
+    private final long revalidateMillis;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter stale;
+
+    public CachingImageStorage(ImageStorage delegate, long maxBytes, long revalidateMillis,
+                               MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.revalidateMillis = revalidateMillis;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxBytes / SEGMENTS);
+        }
+
+        Gauge.builder("pixelplace.image.storage.cache.bytes", cachedBytes, AtomicLong::get)
+                .description("Bytes de PNG cacheados en memoria")
+                .register(meterRegistry);
+        hits = cacheCounter(meterRegistry, "hit");
+        misses = cacheCounter(meterRegistry, "miss");
+        stale = cacheCounter(meterRegistry, "stale");
+    }
+
+    @Override
+    public void put(ImageKey key, byte[] png) throws IOException {
+        delegate.put(key, png);
+        cachePut(key, png);
+    }
+
+    @Override
+    public void put(ImageKey key, byte[] png, long lastModified) throws IOException {
+        delegate.put(key, png, lastModified);
+        cachePut(key, png);
+    }
+
+    private void cachePut(ImageKey key, byte[] png) throws IOException {
+        // Con la fecha del backend, para que el stat de get() la reconozca
+        ImageStat stat = delegate.stat(key);
+        long lastModified = stat != null ? stat.getLastModified() : System.currentTimeMillis();
+        // Después del backend: un miss concurrente nunca pisa esta versión (ver get)
+        segment(key).put(key, new Entry(StoredImage.of(png, lastModified)), true);
+    }
+
+    @Override
+    public StoredImage get(ImageKey key) throws IOException {
+        Segment segment = segment(key);
+        Entry entry = segment.get(key);
+        if (entry != null) {
+            ImageStat stat = validate(segment, key, entry);
+            if (stat != null) {
+                hits.increment();
+                return entry.image;
+            }
+        } else {
+            misses.increment();
+        }
+
+        StoredImage stored = delegate.get(key);
+        if (stored == null) {
+            return null;
+        }
+
+        StoredImage copy = StoredImage.of(stored.toByteArray(), stored.getLastModified());
+        // Solo si sigue ausente: un put() posterior a la lectura tiene la versión nueva
+        return segment.put(key, new Entry(copy), false).image;
+    }
+
+    @Override
+    public ImageStat stat(ImageKey key) throws IOException {
+        Segment segment = segment(key);
+        Entry entry = segment.get(key);
+        if (entry != null) {
+            ImageStat stat = validate(segment, key, entry);
+            if (stat != null) {
+                return stat;
+            }
+        }
+        return delegate.stat(key);
+    }
+
+    @Override
+    public boolean exists(ImageKey key) {
+        Entry entry = segment(key).get(key);
+        if (entry != null && !needsRevalidation(entry)) {
+            return true;
+        }
+        return delegate.exists(key);
+    }
+
+    /**
+     * Confirma que la entrada sigue vigente, con un stat del backend solo si
+     * venció su ventana de validación.
+     *
+     * @return Stat de la entrada, o null si se descartó por reemplazada o borrada
+     */
+    private ImageStat validate(Segment segment, ImageKey key, Entry entry) throws IOException {
+        StoredImage image = entry.image;
+        if (!needsRevalidation(entry)) {
+            return new ImageStat(image.getLastModified(), image.size());
+        }
+
+        ImageStat stat = delegate.stat(key);
+        if (stat != null && stat.matches(image)) {
+            entry.validatedMillis = System.currentTimeMillis();
+            return stat;
+        }
+        // Reemplazada o borrada por fuera de este cache
+        stale.increment();
+        segment.invalidate(key, entry);
+        return null;
+    }
+
+    private boolean needsRevalidation(Entry entry) {
+        return revalidateMillis > 0 && System.currentTimeMillis() - entry.validatedMillis >= revalidateMillis;
+    }
+
+    @Override
+    public void deleteCanvas(String canvasId) throws IOException {
+        for (Segment segment : segments) {
+            segment.removeCanvas(canvasId);
+        }
+        delegate.deleteCanvas(canvasId);
+    }
+
+    @Override
+    public boolean isDeduplicating() {
+        return delegate.isDeduplicating();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    /**
+     * @return Bytes cacheados (incluye el costo aproximado por entrada)
+     */
+    public long cachedBytes() {
+        return cachedBytes.get();
+    }
+
+    private Segment segment(ImageKey key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static long cost(Entry entry) {
+        return entry.image.size() + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Imagen cacheada con el momento de su última validación contra el backend.
+     */
+    private static final class Entry {
+
+        final StoredImage image;
+        volatile long validatedMillis = System.currentTimeMillis();
+
+        Entry(StoredImage image) {
+            this.image = image;
+        }
+    }
+
+    private static Counter cacheCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder("pixelplace.image.storage.cache")
+                .description("Lecturas de imágenes servidas desde el cache en memoria")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    /**
+     * LRU de un segmento (LinkedHashMap en orden de acceso).
+     */
+    private final class Segment {
+
+        private final long maxBytes;
+        private final LinkedHashMap<ImageKey, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Entry get(ImageKey key) {
+            return entries.get(key);
+        }
+
+        /**
+         * Descarta la entrada solo si sigue siendo la misma (un put() concurrente gana).
+         */
+        synchronized void invalidate(ImageKey key, Entry entry) {
+            if (entries.get(key) == entry) {
+                remove(key, entry);
+            }
+        }
+
+        /**
+         * @param replace false para no pisar una entrada existente
+         * @return La entrada que quedó vigente para la clave
+         */
+        synchronized Entry put(ImageKey key, Entry entry, boolean replace) {
+            long cost = cost(entry);
+
+            Entry current = entries.get(key);
+            if (current != null && !replace) {
+                return current;
+            }
+            if (current != null) {
+                remove(key, current);
+            }
+            if (cost > maxBytes) {
+                return entry;
+            }
+
+            entries.put(key, entry);
+            account(cost);
+
+            Iterator<Map.Entry<ImageKey, Entry>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<ImageKey, Entry> evicted = eldest.next();
+                eldest.remove();
+                account(-cost(evicted.getValue()));
+            }
+            return entry;
+        }
+
+        synchronized void removeCanvas(String canvasId) {
+            Iterator<Map.Entry<ImageKey, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<ImageKey, Entry> entry = it.next();
+                if (entry.getKey().getCanvasId().equals(canvasId)) {
+                    it.remove();
+                    account(-cost(entry.getValue()));
+                }
+            }
+        }
+
+        private void remove(ImageKey key, Entry entry) {
+            entries.remove(key);
+            account(-cost(entry));
+        }
+
+        private void account(long delta) {
+            bytes += delta;
+            cachedBytes.addAndGet(delta);
+        }
+    }
+}
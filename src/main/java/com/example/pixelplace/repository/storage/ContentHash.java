@@ -0,0 +1,43 @@
+package com.example.pixelplace.repository.storage;
+
+import lombok.Value;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hash de contenido (primeros 128 bits de SHA-256) de un PNG codificado.
+ *
+ * Los backends que deduplican lo usan como dirección del contenido:
+ * imágenes con los mismos bytes se guardan una sola vez.
+ */
+@Value
+public class ContentHash {
+
+    long high;
+    long low;
+
+    public static ContentHash of(byte[] data) {
+        return of(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Hash de los bytes restantes del buffer (no consume el buffer original).
+     */
+    public static ContentHash of(ByteBuffer data) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(data.duplicate());
+            ByteBuffer digest = ByteBuffer.wrap(sha256.digest());
+            return new ContentHash(digest.getLong(), digest.getLong());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x", high, low);
+    }
+}
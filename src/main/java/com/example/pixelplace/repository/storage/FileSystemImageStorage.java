@@ -0,0 +1,121 @@
+package com.example.pixelplace.repository.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Almacenamiento en filesystem con el layout histórico:
+ *
+ * {storageDirectory}/{canvasId}/latest[_Nx].png
+ * {storageDirectory}/{canvasId}/tiles/tile_{x}_{y}[_Nx].png
+ * {storageDirectory}/{canvasId}/overview/level_{nivel}_{x}_{y}.png
+ */
+@Slf4j
+public class FileSystemImageStorage implements ImageStorage {
+
+    private final Path root;
+
+    public FileSystemImageStorage(String storageDirectory) {
+        this.root = Paths.get(storageDirectory);
+    }
+
+    /**
+     * Escribe en un archivo temporal y lo renombra atómicamente sobre el
+     * destino, así un lector nunca ve un PNG a medio escribir.
+     */
+    @Override
+    public void put(ImageKey key, byte[] png) throws IOException {
+        put(key, png, System.currentTimeMillis());
+    }
+
+    /**
+     * La fecha queda como mtime del archivo (se fija en el temporal, el
+     * rename la conserva).
+     */
+    @Override
+    public void put(ImageKey key, byte[] png, long lastModified) throws IOException {
+        Path path = resolve(key);
+        Files.createDirectories(path.getParent());
+
+        Path temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, png);
+            Files.setLastModifiedTime(temp, FileTime.fromMillis(lastModified));
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public StoredImage get(ImageKey key) throws IOException {
+        Path path = resolve(key);
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            return new StoredImage(ByteBuffer.wrap(bytes), Files.getLastModifiedTime(path).toMillis());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ImageStat stat(ImageKey key) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(resolve(key), BasicFileAttributes.class);
+            return new ImageStat(attributes.lastModifiedTime().toMillis(), attributes.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean exists(ImageKey key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public void deleteCanvas(String canvasId) throws IOException {
+        Path canvasDir = root.resolve(canvasId);
+        if (!Files.exists(canvasDir)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(canvasDir)) {
+            paths.sorted(Comparator.reverseOrder()) // Borrar archivos antes que directorios
+                    .forEach(path -> {
+                        try {
+                            Files.delete(path);
+                        } catch (IOException e) {
+                            log.warn("⚠️ Error borrando {}: {}", path, e.getMessage());
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Ruta del archivo de una imagen dentro del layout.
+     */
+    public Path resolve(ImageKey key) {
+        Path canvasDir = root.resolve(key.getCanvasId());
+        switch (key.getKind()) {
+            case TILE:
+                return canvasDir.resolve("tiles").resolve(key.fileName());
+            case OVERVIEW:
+                return canvasDir.resolve("overview").resolve(key.fileName());
+            case CANVAS:
+            default:
+                return canvasDir.resolve(key.fileName());
+        }
+    }
+}
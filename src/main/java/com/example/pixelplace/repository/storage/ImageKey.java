@@ -0,0 +1,57 @@
+package com.example.pixelplace.repository.storage;
+
+import lombok.Value;
+
+/**
+ * Identifica una imagen guardada: el canvas completo o un tile, en una escala,
+ * o un tile de la pirámide de vistas reducidas (OVERVIEW, donde scale es el
+ * nivel: cada celda resume 2^nivel x 2^nivel pixeles del canvas).
+ */
+@Value
+public class ImageKey {
+
+    public enum Kind {
+        CANVAS,
+        TILE,
+        OVERVIEW
+    }
+
+    Kind kind;
+    String canvasId;
+    int tileX;
+    int tileY;
+    int scale;
+
+    public static ImageKey canvas(String canvasId, int scale) {
+        return new ImageKey(Kind.CANVAS, canvasId, 0, 0, scale);
+    }
+
+    public static ImageKey tile(String canvasId, int tileX, int tileY, int scale) {
+        return new ImageKey(Kind.TILE, canvasId, tileX, tileY, scale);
+    }
+
+    public static ImageKey overview(String canvasId, int level, int tileX, int tileY) {
+        return new ImageKey(Kind.OVERVIEW, canvasId, tileX, tileY, level);
+    }
+
+    public boolean isTile() {
+        return kind == Kind.TILE;
+    }
+
+    /**
+     * Nombre de archivo del layout histórico:
+     * latest.png / latest_{scale}x.png y tile_{x}_{y}.png / tile_{x}_{y}_{scale}x.png
+     * (pirámide: level_{nivel}_{x}_{y}.png)
+     */
+    public String fileName() {
+        if (kind == Kind.OVERVIEW) {
+            return "level_" + scale + "_" + tileX + "_" + tileY + ".png";
+        }
+        if (kind == Kind.CANVAS) {
+            return scale == 1 ? "latest.png" : "latest_" + scale + "x.png";
+        }
+        return scale == 1
+                ? "tile_" + tileX + "_" + tileY + ".png"
+                : "tile_" + tileX + "_" + tileY + "_" + scale + "x.png";
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.pixelplace.repository.storage;
+
+import lombok.Value;
+
+/**
+ * Metadatos de una imagen guardada, sin leer sus bytes.
+ *
+ * CachingImageStorage y CanvasImageFileRepository (versiones para ETag)
+ * los comparan con los de su copia en memoria para detectar que otro pod
+ * (o proceso) reemplazó la imagen en el backend.
+ */
+@Value
+public class ImageStat {
+
+    /**
+     * Momento (epoch millis) en que se guardó la imagen
+     */
+    long lastModified;
+
+    /**
+     * Tamaño en bytes del PNG
+     */
+    long size;
+
+    /**
+     * @return true si describe la misma versión que la imagen dada
+     */
+    public boolean matches(StoredImage image) {
+        return image.getLastModified() == lastModified && image.size() == size;
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.pixelplace.repository.storage;
+
+import java.io.IOException;
+
+/**
+ * SPI de almacenamiento de imágenes (PNG ya codificados).
+ *
+ * CanvasImageFileRepository codifica/decodifica y delega aquí; los
+ * renderers y ImageController no conocen el backend concreto.
+ * Implementaciones: FileSystemImageStorage (layout histórico en disco),
+ * InMemoryImageStorage (tests, benchmarks, pruebas de carga sin disco)
+ * y PackFileImageStorage (un archivo pack por canvas). Los dos últimos
+ * deduplican por hash de contenido (ver ContentHash).
+ */
+public interface ImageStorage {
+
+    /**
+     * Guarda (o reemplaza) los bytes PNG de una imagen.
+     */
+    void put(ImageKey key, byte[] png) throws IOException;
+
+    /**
+     * Guarda con una fecha dada en lugar de la actual. WriteBehindImageStorage
+     * persiste así sus versiones pendientes: stat() reporta la misma fecha
+     * antes y después de la escritura, y las copias validadas contra ella
+     * (CachingImageStorage, versiones de CanvasImageFileRepository) siguen
+     * siendo válidas.
+     */
+    default void put(ImageKey key, byte[] png, long lastModified) throws IOException {
+        put(key, png);
+    }
+
+    /**
+     * @return Imagen guardada o null si no existe
+     */
+    StoredImage get(ImageKey key) throws IOException;
+
+    boolean exists(ImageKey key);
+
+    /**
+     * Fecha y tamaño de una imagen sin copiar sus bytes. Los backends que
+     * leen de disco lo sobrescriben con un stat del archivo.
+     *
+     * @return Metadatos o null si no existe
+     */
+    default ImageStat stat(ImageKey key) throws IOException {
+        StoredImage image = get(key);
+        return image == null ? null : new ImageStat(image.getLastModified(), image.size());
+    }
+
+    /**
+     * Elimina todas las imágenes (canvas y tiles) de un canvas.
+     */
+    void deleteCanvas(String canvasId) throws IOException;
+
+    /**
+     * Indica si el backend guarda una sola vez los contenidos idénticos.
+     * Con deduplicación, guardar muchas imágenes iguales (tiles en blanco)
+     * cuesta un puntero por clave y no una copia.
+     */
+    default boolean isDeduplicating() {
+        return false;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.pixelplace.repository.storage;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Almacenamiento solo en memoria, sin I/O de disco.
+ *
+ * Pensado para tests, benchmarks y pruebas de carga; se pierde al reiniciar.
+ * Deduplica por contenido: cada clave apunta a un blob compartido con
+ * contador de referencias, así miles de tiles en blanco ocupan un solo PNG.
+ */
+public class InMemoryImageStorage implements ImageStorage {
+
+    private final ConcurrentHashMap<ImageKey, Pointer> images = new ConcurrentHashMap<>();
+    private final Map<ContentHash, Blob> blobs = new HashMap<>();
+
+    @Override
+    public void put(ImageKey key, byte[] png) {
+        put(key, png, System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void put(ImageKey key, byte[] png, long lastModified) {
+        ContentHash hash = ContentHash.of(png);
+        Blob blob = blobs.get(hash);
+
+        if (blob == null || !Arrays.equals(blob.png, png)) {
+            blob = new Blob(hash, png);
+            blobs.putIfAbsent(hash, blob);
+        }
+        blob.refs++;
+
+        Pointer previous = images.put(key, new Pointer(blob, lastModified));
+        if (previous != null) {
+            release(previous.blob);
+        }
+    }
+
+    @Override
+    public StoredImage get(ImageKey key) {
+        Pointer pointer = images.get(key);
+        return pointer == null ? null : new StoredImage(ByteBuffer.wrap(pointer.blob.png), pointer.lastModified);
+    }
+
+    @Override
+    public boolean exists(ImageKey key) {
+        return images.containsKey(key);
+    }
+
+    @Override
+    public synchronized void deleteCanvas(String canvasId) {
+        images.entrySet().removeIf(entry -> {
+            if (!entry.getKey().getCanvasId().equals(canvasId)) {
+                return false;
+            }
+            release(entry.getValue().blob);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean isDeduplicating() {
+        return true;
+    }
+
+    private void release(Blob blob) {
+        if (--blob.refs == 0) {
+            blobs.remove(blob.hash, blob);
+        }
+    }
+
+    /**
+     * @return Cantidad de imágenes guardadas
+     */
+    public int size() {
+        return images.size();
+    }
+
+    /**
+     * @return Cantidad de contenidos distintos guardados
+     */
+    public synchronized int uniqueImages() {
+        return blobs.size();
+    }
+
+    private static final class Blob {
+
+        final ContentHash hash;
+        final byte[] png;
+        int refs;
+
+        Blob(ContentHash hash, byte[] png) {
+            this.hash = hash;
+            this.png = png;
+        }
+    }
+
+    private static final class Pointer {
+
+        final Blob blob;
+        final long lastModified;
+
+        Pointer(Blob blob, long lastModified) {
+            this.blob = blob;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,755 @@
+package com.example.pixelplace.repository.storage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Almacenamiento en un pack por canvas, en lugar de un PNG por tile y escala:
+ *
+ * {storageDirectory}/{canvasId}/images.pack  datos (append-only, mapeado en memoria)
+ * {storageDirectory}/{canvasId}/images.idx   índice de offsets (append-only)
+ *
+ * Cada escritura agrega un registro al pack y una entrada al índice; la
+ * versión vigente de cada imagen es la última escrita. Una lectura es un
+ * lookup en el índice en memoria más un slice del buffer mapeado, sin
+ * Files.exists ni apertura de archivos por request. No se hace fsync por
+ * escritura: el page cache absorbe las escrituras y solo la compactación
+ * y el cierre fuerzan a disco.
+ *
+ * Deduplicación: los PNG se direccionan por ContentHash. Si el contenido
+ * ya está en el pack (típicamente tiles en blanco), se escribe solo un
+ * registro de enlace al blob existente, que lleva un contador de
+ * referencias. Un blob sin referencias es basura para la compactación.
+ *
+ * Una tarea en segundo plano compacta los packs cuya fracción de registros
+ * reemplazados supera compactionGarbageRatio, reescribiendo solo los blobs
+ * y enlaces vigentes y reemplazando pack e índice con un rename atómico.
+ *
+ * Formato de registro del pack (blob o enlace):
+ * [kind:1][tileX:4][tileY:4][scale:4][lastModified:8][length:4][png:length]
+ * [kind:1][tileX:4][tileY:4][scale:4][lastModified:8][-1:4][dataOffset:8][length:4]
+ *
+ * Formato de entrada del índice:
+ * [kind:1][tileX:4][tileY:4][scale:4][lastModified:8][length:4][dataOffset:8][recordOffset:8]
+ *
+ * El encabezado de cada registro permite reconstruir el índice recorriendo
+ * el pack si el índice quedó atrasado tras un crash.
+ *
+ * Un solo proceso por directorio: el índice se carga una vez y las
+ * escrituras van al final según el tamaño que conoce este proceso. Cada
+ * pack toma un lock exclusivo (images.lock) y otro proceso que intente
+ * abrirlo falla. En volúmenes compartidos entre réplicas usar FILESYSTEM.
+ */
+@Slf4j
+public class PackFileImageStorage implements ImageStorage, AutoCloseable {
+
+    static final String PACK_FILE = "images.pack";
+    static final String INDEX_FILE = "images.idx";
+    static final int HEADER_BYTES = 1 + 4 + 4 + 4 + 8 + 4;
+    static final int LINK = -1;
+    static final int LINK_BYTES = 8 + 4;
+    static final int INDEX_ENTRY_BYTES = HEADER_BYTES + 8 + 8;
+    static final String LOCK_FILE = "images.lock";
+    static final long MIN_REMAP_BYTES = 1L << 20;
+
+    private final Path root;
+    private final double compactionGarbageRatio;
+    private final long compactionMinBytes;
+    private final ConcurrentHashMap<String, Pack> packs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService compactor;
+
+    public PackFileImageStorage(String storageDirectory, long compactionIntervalMillis,
+                                double compactionGarbageRatio, long compactionMinBytes) {
+        this.root = Paths.get(storageDirectory);
+        this.compactionGarbageRatio = compactionGarbageRatio;
+        this.compactionMinBytes = compactionMinBytes;
+
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "image-pack-compactor");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (compactionIntervalMillis > 0) {
+            compactor.scheduleWithFixedDelay(this::compactAll,
+                    compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void put(ImageKey key, byte[] png) throws IOException {
+        put(key, png, System.currentTimeMillis());
+    }
+
+    @Override
+    public void put(ImageKey key, byte[] png, long lastModified) throws IOException {
+        pack(key.getCanvasId()).append(key, png, lastModified);
+    }
+
+    @Override
+    public StoredImage get(ImageKey key) throws IOException {
+        Pack pack = existingPack(key.getCanvasId());
+        return pack == null ? null : pack.read(key);
+    }
+
+    @Override
+    public boolean exists(ImageKey key) {
+        try {
+            Pack pack = existingPack(key.getCanvasId());
+            return pack != null && pack.contains(key);
+        } catch (IOException e) {
+            log.warn("⚠️ Error abriendo pack de {}: {}", key.getCanvasId(), e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void deleteCanvas(String canvasId) throws IOException {
+        Pack pack = packs.remove(canvasId);
+        if (pack != null) {
+            pack.close();
+        }
+        Files.deleteIfExists(root.resolve(canvasId).resolve(PACK_FILE));
+        Files.deleteIfExists(root.resolve(canvasId).resolve(INDEX_FILE));
+        Files.deleteIfExists(root.resolve(canvasId).resolve(LOCK_FILE));
+    }
+
+    @Override
+    public boolean isDeduplicating() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+        for (Pack pack : packs.values()) {
+            try {
+                pack.close();
+            } catch (IOException e) {
+                log.warn("⚠️ Error cerrando pack {}: {}", pack.dataPath, e.getMessage());
+            }
+        }
+        packs.clear();
+    }
+
+    /**
+     * Compacta los packs abiertos con suficiente espacio desperdiciado.
+     */
+    void compactAll() {
+        for (Pack pack : packs.values()) {
+            try {
+                if (pack.needsCompaction(compactionGarbageRatio, compactionMinBytes)) {
+                    pack.compact();
+                }
+            } catch (Exception e) {
+                log.error("❌ Error compactando pack {}: {}", pack.dataPath, e.getMessage(), e);
+            }
+        }
+    }
+
+    private Pack pack(String canvasId) throws IOException {
+        Pack pack = packs.get(canvasId);
+        if (pack != null) {
+            return pack;
+        }
+        synchronized (packs) {
+            pack = packs.get(canvasId);
+            if (pack == null) {
+                pack = Pack.open(root.resolve(canvasId), canvasId);
+                packs.put(canvasId, pack);
+            }
+            return pack;
+        }
+    }
+
+    /**
+     * Pack ya abierto o existente en disco; no crea archivos en lecturas.
+     */
+    private Pack existingPack(String canvasId) throws IOException {
+        Pack pack = packs.get(canvasId);
+        if (pack != null || !Files.exists(root.resolve(canvasId).resolve(PACK_FILE))) {
+            return pack;
+        }
+        return pack(canvasId);
+    }
+
+    /**
+     * Un pack de datos, su índice en disco y los índices en memoria.
+     */
+    private static final class Pack {
+
+        private final String canvasId;
+        private final Path dataPath;
+        private final Path indexPath;
+        private final Map<ImageKey, Entry> index = new HashMap<>();
+        private final Map<Long, Blob> blobsByOffset = new HashMap<>();
+        private final Map<ContentHash, Blob> blobsByHash = new HashMap<>();
+
+        private final Path lockPath;
+        private FileChannel lockChannel;
+        private FileLock lock;
+
+        private FileChannel data;
+        private FileChannel indexChannel;
+        private long size;
+        private long liveBytes;
+
+        // Vista mapeada del pack hasta mappedSize; se re-mapea al crecer
+        private volatile MappedByteBuffer mapped;
+        private volatile long mappedSize;
+
+        private Pack(String canvasId, Path directory) {
+            this.canvasId = canvasId;
+            this.dataPath = directory.resolve(PACK_FILE);
+            this.indexPath = directory.resolve(INDEX_FILE);
+            this.lockPath = directory.resolve(LOCK_FILE);
+        }
+
+        static Pack open(Path directory, String canvasId) throws IOException {
+            Files.createDirectories(directory);
+            Pack pack = new Pack(canvasId, directory);
+            pack.acquireLock();
+            try {
+                pack.openChannels();
+                pack.loadIndex();
+            } catch (IOException | RuntimeException e) {
+                pack.releaseLock();
+                throw e;
+            }
+            return pack;
+        }
+
+        /**
+         * Lock exclusivo entre procesos: el índice vive en memoria y las
+         * escrituras van al final según el tamaño conocido por este proceso,
+         * así que un segundo pod sobre el mismo volumen pisaría registros.
+         */
+        private void acquireLock() throws IOException {
+            lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                lock = lockChannel.tryLock();
+            } catch (IOException e) {
+                lockChannel.close();
+                throw e;
+            }
+            if (lock == null) {
+                lockChannel.close();
+                throw new IOException("Pack " + dataPath + " en uso por otro proceso "
+                        + "(PACK requiere un solo escritor por directorio; usar FILESYSTEM en volúmenes compartidos)");
+            }
+        }
+
+        private void releaseLock() throws IOException {
+            if (lock != null) {
+                lock.release();
+            }
+            lockChannel.close();
+        }
+
+        private void openChannels() throws IOException {
+            data = FileChannel.open(dataPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            indexChannel = FileChannel.open(indexPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            mapped = null;
+            mappedSize = 0;
+        }
+
+        /**
+         * Carga el índice desde disco y recupera los registros del pack
+         * posteriores a la última entrada indexada (crash entre ambas
+         * escrituras). Un registro final incompleto se descarta. Al final
+         * calcula el hash de cada blob vigente para la deduplicación.
+         */
+        private void loadIndex() throws IOException {
+            long dataSize = data.size();
+            long indexSize = indexChannel.size();
+            long validIndexSize = indexSize - indexSize % INDEX_ENTRY_BYTES;
+
+            ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            long indexedEnd = 0;
+            for (long position = 0; position < validIndexSize; position += INDEX_ENTRY_BYTES) {
+                buffer.clear();
+                readFully(indexChannel, buffer, position);
+                buffer.flip();
+
+                ImageKey key = readKey(buffer);
+                long lastModified = buffer.getLong();
+                int length = buffer.getInt();
+                long dataOffset = buffer.getLong();
+                long recordOffset = buffer.getLong();
+
+                Record record = dataOffset + length <= dataSize && recordOffset + HEADER_BYTES <= dataSize
+                        ? readRecord(recordOffset)
+                        : null;
+                if (record == null || !record.key.equals(key) ||
+                    record.dataOffset != dataOffset || record.length != length) {
+                    // Índice de otra generación del pack (crash durante una
+                    // compactación): descartarlo y reconstruirlo desde el pack
+                    log.warn("⚠️ Índice {} no coincide con el pack: reconstruyendo", indexPath);
+                    index.clear();
+                    blobsByOffset.clear();
+                    liveBytes = 0;
+                    indexedEnd = 0;
+                    validIndexSize = 0;
+                    break;
+                }
+                register(key, record.toEntry(lastModified));
+                indexedEnd = Math.max(indexedEnd, record.end);
+            }
+            if (validIndexSize < indexSize) {
+                indexChannel.truncate(validIndexSize);
+            }
+
+            // Registros escritos en el pack pero no en el índice
+            long position = indexedEnd;
+            int recovered = 0;
+            while (position + HEADER_BYTES <= dataSize) {
+                Record record = readRecord(position);
+                if (record == null || record.end > dataSize || record.dataOffset + record.length > dataSize) {
+                    break;
+                }
+                Entry entry = record.toEntry(record.lastModified);
+                register(record.key, entry);
+                writeIndexEntry(record.key, entry);
+                recovered++;
+                position = record.end;
+            }
+
+            if (position < dataSize) {
+                log.warn("⚠️ Pack {} con registro incompleto: truncando {} bytes", dataPath, dataSize - position);
+                data.truncate(position);
+            }
+            size = position;
+
+            for (Blob blob : blobsByOffset.values()) {
+                ByteBuffer png = ByteBuffer.allocate(blob.length);
+                readFully(data, png, blob.dataOffset);
+                blob.hash = ContentHash.of(png.array());
+                blobsByHash.putIfAbsent(blob.hash, blob);
+            }
+
+            log.info("📦 Pack abierto: {} ({} imágenes, {} contenidos distintos, {} KB, {} recuperadas del pack)",
+                    dataPath, index.size(), blobsByOffset.size(), size / 1024, recovered);
+        }
+
+        /**
+         * Lee el encabezado (y el enlace, si lo es) del registro en una posición.
+         *
+         * @return Registro o null si el encabezado no es válido
+         */
+        private Record readRecord(long position) throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + LINK_BYTES);
+            header.limit((int) Math.min(header.capacity(), data.size() - position));
+            if (header.limit() < HEADER_BYTES) {
+                return null;
+            }
+            readFully(data, header, position);
+            header.flip();
+
+            int kind = header.get(0);
+            if (kind < 0 || kind >= ImageKey.Kind.values().length) {
+                return null;
+            }
+            ImageKey key = readKey(header);
+            long lastModified = header.getLong();
+            int length = header.getInt();
+
+            if (length >= 0) {
+                long dataOffset = position + HEADER_BYTES;
+                return new Record(key, lastModified, dataOffset, length, false, position, dataOffset + length);
+            }
+            if (length != LINK || header.remaining() < LINK_BYTES) {
+                return null;
+            }
+            long dataOffset = header.getLong();
+            int targetLength = header.getInt();
+            return new Record(key, lastModified, dataOffset, targetLength, true,
+                    position, position + HEADER_BYTES + LINK_BYTES);
+        }
+
+        private ImageKey readKey(ByteBuffer buffer) {
+            ImageKey.Kind kind = ImageKey.Kind.values()[buffer.get()];
+            int tileX = buffer.getInt();
+            int tileY = buffer.getInt();
+            int scale = buffer.getInt();
+            return new ImageKey(kind, canvasId, tileX, tileY, scale);
+        }
+
+        /**
+         * Apunta una clave a su nueva versión, ajustando referencias y bytes vivos.
+         */
+        private void register(ImageKey key, Entry entry) {
+            Blob blob = blobsByOffset.get(entry.dataOffset);
+            if (blob == null) {
+                blob = new Blob(entry.dataOffset, entry.length);
+                blobsByOffset.put(entry.dataOffset, blob);
+                liveBytes += HEADER_BYTES + blob.length;
+            }
+            blob.refs++;
+            entry.blob = blob;
+            if (entry.link) {
+                liveBytes += HEADER_BYTES + LINK_BYTES;
+            }
+
+            Entry previous = index.put(key, entry);
+            if (previous != null) {
+                release(previous);
+            }
+        }
+
+        private void release(Entry entry) {
+            if (entry.link) {
+                liveBytes -= HEADER_BYTES + LINK_BYTES;
+            }
+            Blob blob = entry.blob;
+            if (--blob.refs == 0) {
+                liveBytes -= HEADER_BYTES + blob.length;
+                blobsByOffset.remove(blob.dataOffset);
+                if (blob.hash != null) {
+                    blobsByHash.remove(blob.hash, blob);
+                }
+            }
+        }
+
+        synchronized void append(ImageKey key, byte[] png, long lastModified) throws IOException {
+            ContentHash hash = ContentHash.of(png);
+            Blob existing = blobsByHash.get(hash);
+            boolean link = existing != null && sameContent(existing, png);
+
+            ByteBuffer record;
+            if (link) {
+                record = ByteBuffer.allocate(HEADER_BYTES + LINK_BYTES);
+                putKey(record, key)
+                        .putLong(lastModified)
+                        .putInt(LINK)
+                        .putLong(existing.dataOffset)
+                        .putInt(existing.length)
+                        .flip();
+            } else {
+                record = ByteBuffer.allocate(HEADER_BYTES + png.length);
+                putKey(record, key)
+                        .putLong(lastModified)
+                        .putInt(png.length)
+                        .put(png)
+                        .flip();
+            }
+
+            long recordOffset = size;
+            long position = size;
+            while (record.hasRemaining()) {
+                position += data.write(record, position);
+            }
+
+            Entry entry = link
+                    ? new Entry(existing.dataOffset, existing.length, lastModified, true, recordOffset)
+                    : new Entry(recordOffset + HEADER_BYTES, png.length, lastModified, false, recordOffset);
+            writeIndexEntry(key, entry);
+            register(key, entry);
+            if (!link) {
+                entry.blob.hash = hash;
+                blobsByHash.putIfAbsent(hash, entry.blob);
+            }
+            size = position;
+        }
+
+        private boolean sameContent(Blob blob, byte[] png) throws IOException {
+            if (blob.length != png.length) {
+                return false;
+            }
+            ByteBuffer stored = ByteBuffer.allocate(blob.length);
+            readFully(data, stored, blob.dataOffset);
+            stored.flip();
+            return stored.equals(ByteBuffer.wrap(png));
+        }
+
+        private void writeIndexEntry(ImageKey key, Entry entry) throws IOException {
+            ByteBuffer buffer = indexEntry(key, entry);
+            long position = indexChannel.size();
+            while (buffer.hasRemaining()) {
+                position += indexChannel.write(buffer, position);
+            }
+        }
+
+        private static ByteBuffer indexEntry(ImageKey key, Entry entry) {
+            ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            putKey(buffer, key)
+                    .putLong(entry.lastModified)
+                    .putInt(entry.length)
+                    .putLong(entry.dataOffset)
+                    .putLong(entry.recordOffset)
+                    .flip();
+            return buffer;
+        }
+
+        private static ByteBuffer putKey(ByteBuffer buffer, ImageKey key) {
+            return buffer.put((byte) key.getKind().ordinal())
+                    .putInt(key.getTileX())
+                    .putInt(key.getTileY())
+                    .putInt(key.getScale());
+        }
+
+        StoredImage read(ImageKey key) throws IOException {
+            Entry entry;
+            MappedByteBuffer view;
+            synchronized (this) {
+                entry = index.get(key);
+                if (entry == null) {
+                    return null;
+                }
+                view = mappingFor(entry);
+
+                if (view == null) {
+                    // Cola aún no mapeada o pack de más de 2 GB: lectura
+                    // posicional bajo el lock (compact() cierra y reemplaza data)
+                    ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+                    readFully(data, buffer, entry.dataOffset);
+                    buffer.flip();
+                    return new StoredImage(buffer, entry.lastModified);
+                }
+            }
+
+            return new StoredImage(view.slice((int) entry.dataOffset, entry.length), entry.lastModified);
+        }
+
+        /**
+         * Mapeo que cubre la entrada, o null si hay que leerla posicionalmente.
+         *
+         * El mapeo crece geométricamente: solo se re-mapea cuando la cola sin
+         * mapear llega a la mitad de lo mapeado (mínimo MIN_REMAP_BYTES), así
+         * con escrituras continuas los re-mapeos son O(log tamaño) y las
+         * lecturas de lo recién escrito van por lectura posicional.
+         */
+        private MappedByteBuffer mappingFor(Entry entry) throws IOException {
+            long end = entry.dataOffset + entry.length;
+            if (end > Integer.MAX_VALUE) {
+                return null;
+            }
+            if (mapped != null && end <= mappedSize) {
+                return mapped;
+            }
+            if (mapped == null || size - mappedSize >= Math.max(mappedSize / 2, MIN_REMAP_BYTES)) {
+                long mapSize = Math.min(size, Integer.MAX_VALUE);
+                mapped = data.map(FileChannel.MapMode.READ_ONLY, 0, mapSize);
+                mappedSize = mapSize;
+                return end <= mappedSize ? mapped : null;
+            }
+            return null;
+        }
+
+        synchronized boolean contains(ImageKey key) {
+            return index.containsKey(key);
+        }
+
+        synchronized boolean needsCompaction(double garbageRatio, long minBytes) {
+            long garbage = size - liveBytes;
+            return garbage >= minBytes && garbage >= size * garbageRatio;
+        }
+
+        /**
+         * Reescribe solo los blobs vigentes (una vez cada uno) y los enlaces
+         * de las demás claves que los comparten, en un pack nuevo que
+         * reemplaza al actual con un rename atómico. Los slices ya entregados
+         * siguen apuntando al mapeo anterior, que se libera cuando dejan de usarse.
+         */
+        synchronized void compact() throws IOException {
+            long before = size;
+            Path compactData = dataPath.resolveSibling(PACK_FILE + ".compact");
+            Path compactIndex = indexPath.resolveSibling(INDEX_FILE + ".compact");
+
+            // Claves agrupadas por blob, en orden de posición en el pack
+            Map<Blob, List<ImageKey>> keysByBlob = new IdentityHashMap<>();
+            for (Map.Entry<ImageKey, Entry> item : index.entrySet()) {
+                keysByBlob.computeIfAbsent(item.getValue().blob, blob -> new ArrayList<>()).add(item.getKey());
+            }
+            List<Blob> blobs = new ArrayList<>(keysByBlob.keySet());
+            blobs.sort((a, b) -> Long.compare(a.dataOffset, b.dataOffset));
+
+            Map<ImageKey, Entry> compacted = new HashMap<>();
+            long position = 0;
+            try (FileChannel out = FileChannel.open(compactData, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                 FileChannel outIndex = FileChannel.open(compactIndex, StandardOpenOption.CREATE,
+                         StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+
+                for (Blob blob : blobs) {
+                    long blobDataOffset = -1;
+
+                    for (ImageKey key : keysByBlob.get(blob)) {
+                        Entry current = index.get(key);
+                        ByteBuffer record;
+                        Entry moved;
+
+                        if (blobDataOffset < 0) {
+                            // Primera clave del blob: copiar el contenido
+                            ByteBuffer png = ByteBuffer.allocate(blob.length);
+                            readFully(data, png, blob.dataOffset);
+                            png.flip();
+
+                            record = ByteBuffer.allocate(HEADER_BYTES + blob.length);
+                            putKey(record, key).putLong(current.lastModified).putInt(blob.length).put(png).flip();
+                            blobDataOffset = position + HEADER_BYTES;
+                            moved = new Entry(blobDataOffset, blob.length, current.lastModified, false, position);
+                        } else {
+                            record = ByteBuffer.allocate(HEADER_BYTES + LINK_BYTES);
+                            putKey(record, key).putLong(current.lastModified).putInt(LINK)
+                                    .putLong(blobDataOffset).putInt(blob.length).flip();
+                            moved = new Entry(blobDataOffset, blob.length, current.lastModified, true, position);
+                        }
+
+                        while (record.hasRemaining()) {
+                            position += out.write(record);
+                        }
+                        ByteBuffer indexEntry = indexEntry(key, moved);
+                        while (indexEntry.hasRemaining()) {
+                            outIndex.write(indexEntry);
+                        }
+                        compacted.put(key, moved);
+                    }
+                }
+
+                out.force(true);
+                outIndex.force(true);
+            }
+
+            closeChannels();
+            // Si se cae entre ambos renames, el índice no valida contra el
+            // pack al abrirlo y se reconstruye recorriendo los encabezados
+            Files.move(compactIndex, indexPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(compactData, dataPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            openChannels();
+
+            // Reconstruir índices en memoria conservando los hashes ya calculados
+            Map<Long, ContentHash> hashes = new HashMap<>();
+            for (Blob blob : blobs) {
+                hashes.put(compacted.get(keysByBlob.get(blob).get(0)).dataOffset, blob.hash);
+            }
+            index.clear();
+            blobsByOffset.clear();
+            blobsByHash.clear();
+            liveBytes = 0;
+            size = position;
+            for (Map.Entry<ImageKey, Entry> item : compacted.entrySet()) {
+                register(item.getKey(), item.getValue());
+            }
+            for (Blob blob : blobsByOffset.values()) {
+                blob.hash = hashes.get(blob.dataOffset);
+                if (blob.hash != null) {
+                    blobsByHash.putIfAbsent(blob.hash, blob);
+                }
+            }
+
+            log.info("🗜️ Pack compactado: {} ({} KB -> {} KB, {} imágenes, {} contenidos distintos)",
+                    dataPath, before / 1024, size / 1024, index.size(), blobsByOffset.size());
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+            while (target.hasRemaining()) {
+                int read = channel.read(target, position);
+                if (read < 0) {
+                    throw new IOException("Fin inesperado del archivo");
+                }
+                position += read;
+            }
+        }
+
+        private void closeChannels() throws IOException {
+            data.force(false);
+            indexChannel.force(false);
+            data.close();
+            indexChannel.close();
+        }
+
+        synchronized void close() throws IOException {
+            try {
+                closeChannels();
+            } finally {
+                releaseLock();
+            }
+        }
+    }
+
+    /**
+     * Encabezado leído de un registro del pack.
+     */
+    private static final class Record {
+
+        final ImageKey key;
+        final long lastModified;
+        final long dataOffset;
+        final int length;
+        final boolean link;
+        final long offset;
+        final long end;
+
+        Record(ImageKey key, long lastModified, long dataOffset, int length, boolean link, long offset, long end) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.dataOffset = dataOffset;
+            this.length = length;
+            this.link = link;
+            this.offset = offset;
+            this.end = end;
+        }
+
+        Entry toEntry(long entryLastModified) {
+            return new Entry(dataOffset, length, entryLastModified, link, offset);
+        }
+    }
+
+    /**
+     * Versión vigente de una imagen: su registro y el blob al que apunta.
+     */
+    private static final class Entry {
+
+        final long dataOffset;
+        final int length;
+        final long lastModified;
+        final boolean link;
+        final long recordOffset;
+        Blob blob;
+
+        Entry(long dataOffset, int length, long lastModified, boolean link, long recordOffset) {
+            this.dataOffset = dataOffset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.link = link;
+            this.recordOffset = recordOffset;
+        }
+    }
+
+    /**
+     * Contenido PNG guardado una vez en el pack y compartido por varias claves.
+     */
+    private static final class Blob {
+
+        final long dataOffset;
+        final int length;
+        ContentHash hash;
+        int refs;
+
+        Blob(long dataOffset, int length) {
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.pixelplace.repository.storage;
+
+import lombok.Value;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes PNG de una imagen guardada y el momento en que se escribió.
+ *
+ * El buffer es de solo lectura y puede estar respaldado por memoria
+ * del heap, un archivo o una región mapeada de un pack.
+ */
+@Value
+public class StoredImage {
+
+    ByteBuffer data;
+    long lastModified;
+
+    public StoredImage(ByteBuffer data, long lastModified) {
+        this.data = data.asReadOnlyBuffer();
+        this.lastModified = lastModified;
+    }
+
+    public static StoredImage of(byte[] png, long lastModified) {
+        return new StoredImage(ByteBuffer.wrap(png), lastModified);
+    }
+
+    /**
+     * @return Tamaño en bytes del PNG
+     */
+    public int size() {
+        return data.remaining();
+    }
+
+    /**
+     * @return Stream nuevo sobre los bytes (no consume el buffer original)
+     */
+    public InputStream inputStream() {
+        return new ByteBufferInputStream(data.duplicate());
+    }
+
+    /**
+     * @return Copia de los bytes del PNG
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.pixelplace.repository.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decorador write-behind de un ImageStorage.
+ *
+ * put() solo publica el PNG ya codificado (inmutable) como versión
+ * pendiente de su clave y retorna; un pool chico de writers lo persiste
+ * en el backend real. Si llega una versión nueva antes de escribir la
+ * anterior, la anterior se descarta: por clave solo se escribe la más
+ * reciente. Las lecturas ven primero las versiones pendientes, así los
+ * renders incrementales y ImageController nunca leen una imagen vieja.
+ * La fecha de la versión pendiente es la que queda en el backend (ver
+ * ImageStorage.put con lastModified): stat() da lo mismo antes y después
+ * de persistir, y las copias validadas contra él no se invalidan solas.
+ *
+ * Una escritura fallida no se pierde: la clave sigue pendiente (las
+ * lecturas la ven y una versión nueva la reemplaza) y se reintenta con
+ * backoff exponencial, con los mismos límites que los reintentos de
+ * renders (pixel-place.image.generation.retry). Al agotar los intentos se
+ * descarta y se cuenta como exhausted.
+ *
+ * Métricas: pixelplace.image.storage.write.pending,
+ * pixelplace.image.storage.writes (outcome=written|superseded|failed|exhausted).
+ */
+@Slf4j
+public class WriteBehindImageStorage implements ImageStorage, AutoCloseable {
+
+    private final ImageStorage delegate;
+    private final ConcurrentHashMap<ImageKey, StoredImage> pending = new ConcurrentHashMap<>();
+    private final ExecutorService writers;
+    private final ScheduledExecutorService retries;
+    private final ConcurrentHashMap<ImageKey, Integer> attempts = new ConcurrentHashMap<>();
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxAttempts;
+
+    private final Counter written;
+    private final Counter superseded;
+    private final Counter failed;
+    private final Counter exhausted;
+
+    public WriteBehindImageStorage(ImageStorage delegate, int threads,
+                                   long initialBackoffMillis, long maxBackoffMillis, int maxAttempts,
+                                   MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxAttempts = maxAttempts;
+
+        AtomicInteger sequence = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "image-writer-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "image-writer-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("pixelplace.image.storage.write.pending", pending, ConcurrentHashMap::size)
+                .description("Imágenes codificadas esperando ser persistidas")
+                .register(meterRegistry);
+        written = writeCounter(meterRegistry, "written");
+        superseded = writeCounter(meterRegistry, "superseded");
+        failed = writeCounter(meterRegistry, "failed");
+        exhausted = writeCounter(meterRegistry, "exhausted");
+    }
+
+    @Override
+    public void put(ImageKey key, byte[] png) {
+        StoredImage previous = pending.put(key, StoredImage.of(png, System.currentTimeMillis()));
+
+        if (previous == null) {
+            writers.execute(() -> flush(key));
+        } else {
+            // El writer de esta clave todavía no la tomó: escribirá la nueva
+            superseded.increment();
+        }
+    }
+
+    /**
+     * Persiste la versión pendiente más reciente de una clave.
+     * Si durante la escritura llegó otra versión, vuelve a escribir.
+     * Si falla, deja la clave pendiente y agenda un reintento.
+     */
+    private void flush(ImageKey key) {
+        StoredImage image;
+        while ((image = pending.get(key)) != null) {
+            try {
+                // Con la fecha de la versión pendiente: stat() no cambia al persistirla
+                delegate.put(key, image.toByteArray(), image.getLastModified());
+                written.increment();
+                attempts.remove(key);
+            } catch (Exception e) {
+                failed.increment();
+                int attempt = attempts.merge(key, 1, Integer::sum);
+                if (attempt < maxAttempts) {
+                    long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+                    log.warn("⚠️ Error persistiendo imagen {} (intento {}/{}), reintento en {} ms: {}",
+                            key, attempt, maxAttempts, backoff, e.getMessage());
+                    // La clave sigue pendiente: un put nuevo la reemplaza y no agenda otro writer
+                    retries.schedule(() -> writers.execute(() -> flush(key)), backoff, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                exhausted.increment();
+                attempts.remove(key);
+                log.error("❌ Imagen {} descartada tras {} intentos: {}", key, attempt, e.getMessage(), e);
+            }
+
+            if (pending.remove(key, image)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public StoredImage get(ImageKey key) throws IOException {
+        StoredImage image = pending.get(key);
+        return image != null ? image : delegate.get(key);
+    }
+
+    @Override
+    public ImageStat stat(ImageKey key) throws IOException {
+        StoredImage image = pending.get(key);
+        return image != null ? new ImageStat(image.getLastModified(), image.size()) : delegate.stat(key);
+    }
+
+    @Override
+    public boolean exists(ImageKey key) {
+        return pending.containsKey(key) || delegate.exists(key);
+    }
+
+    @Override
+    public void deleteCanvas(String canvasId) throws IOException {
+        pending.keySet().removeIf(key -> key.getCanvasId().equals(canvasId));
+        attempts.keySet().removeIf(key -> key.getCanvasId().equals(canvasId));
+        delegate.deleteCanvas(canvasId);
+    }
+
+    @Override
+    public boolean isDeduplicating() {
+        return delegate.isDeduplicating();
+    }
+
+    /**
+     * Espera a que se persistan las escrituras pendientes y cierra el backend.
+     *
+     * Las claves que quedan pendientes (con un reintento agendado, o cuyo
+     * writer no terminó a tiempo) tienen un último intento sincrónico; las
+     * que fallan se cuentan como exhausted y se loguean.
+     */
+    @Override
+    public void close() throws Exception {
+        retries.shutdownNow();
+        writers.shutdown();
+        if (!writers.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("⚠️ Writers sin terminar al cerrar, {} imágenes pendientes", pending.size());
+            writers.shutdownNow();
+        }
+
+        int lost = 0;
+        for (Map.Entry<ImageKey, StoredImage> entry : pending.entrySet()) {
+            StoredImage image = entry.getValue();
+            try {
+                delegate.put(entry.getKey(), image.toByteArray(), image.getLastModified());
+                written.increment();
+                pending.remove(entry.getKey(), image);
+            } catch (Exception e) {
+                failed.increment();
+                exhausted.increment();
+                lost++;
+                log.error("❌ Imagen {} sin persistir al cerrar: {}", entry.getKey(), e.getMessage());
+            }
+        }
+        attempts.clear();
+        if (lost > 0) {
+            log.error("❌ Cierre con {} imágenes sin persistir", lost);
+        }
+
+        if (delegate instanceof AutoCloseable) {
+            ((AutoCloseable) delegate).close();
+        }
+    }
+
+    /**
+     * @return Imágenes pendientes de persistir
+     */
+    public int pendingWrites() {
+        return pending.size();
+    }
+
+    private static Counter writeCounter(MeterRegistry registry, String outcome) {
+        return Counter.builder("pixelplace.image.storage.writes")
+                .description("Imágenes procesadas por el writer asíncrono")
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.ActivityDigestMessage;
+import com.example.pixelplace.dto.ActivityEntry;
+import com.example.pixelplace.dto.ActivityFeed;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Feed de actividad: las últimas colocaciones de cada canvas (50 por
+ * defecto), por REST (GET /api/canvas/{canvasId}/activity) y como resumen
+ * periódico por WebSocket (/topic/activity/{canvasId}).
+ *
+ * Cada canvas tiene un anillo de tamaño fijo sin locks: el escritor toma
+ * su posición con un incremento atómico y publica una ActivityEntry
+ * inmutable en el slot (posición % size). Un lector recorre las últimas
+ * posiciones y acepta solo las entradas cuya secuencia coincide con la
+ * esperada (un slot pisado por una posición más nueva o aún no publicado
+ * se saltea), así nunca ve una entrada a medio escribir. Las lecturas
+ * solo asignan el array del resultado y no tocan el EventStore.
+ *
+ * Se alimenta del stream completo de CanvasPixelUpdate que entrega
+ * PixelUpdateRelay (el mismo que transmite WebSocketEventHandler), no de
+ * los PixelPlacedEvent de las particiones de este pod: con varios pods
+ * todos muestran el mismo feed.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ActivityFeedService {
+
+    private final LiveUpdateProperties properties;
+    private final SimpMessagingTemplate messagingTemplate;
+
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+
+    /**
+     * Registra un pixel del stream en vivo (de este pod o de otro).
+     */
+    public void on(CanvasPixelUpdate update) {
+        rings.computeIfAbsent(update.getCanvasId(), id -> new Ring(properties.getFeed().getSize()))
+                .add(update.getX(), update.getY(), update.getColor(), update.getUserId(), update.getTimestamp());
+    }
+
+    /**
+     * @param limit Máximo de entradas (se acota al tamaño del feed)
+     * @return Últimas colocaciones, más reciente primero (vacío si no hubo)
+     */
+    public ActivityFeed recent(String canvasId, int limit) {
+        Ring ring = rings.get(canvasId);
+        if (ring == null) {
+            return new ActivityFeed(canvasId, 0, Collections.emptyList());
+        }
+        long head = ring.head();
+        return new ActivityFeed(canvasId, head, Arrays.asList(ring.snapshot(head, 0, limit)));
+    }
+
+    /**
+     * Envía a cada canvas con actividad nueva un ACTIVITY_DIGEST con las
+     * colocaciones desde el resumen anterior.
+     */
+    @Scheduled(fixedDelayString = "${pixel-place.live.feed.digest-millis:5000}")
+    public void digest() {
+        if (!properties.getFeed().isDigestEnabled()) {
+            return;
+        }
+
+        for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+            Ring ring = entry.getValue();
+            long from = ring.digested;
+            long to = ring.publishedUpTo(from);
+            if (to == from) {
+                continue;
+            }
+
+            ActivityEntry[] entries = ring.snapshot(to, from, Integer.MAX_VALUE);
+            ring.digested = to;
+            try {
+                messagingTemplate.convertAndSend("/topic/activity/" + entry.getKey(), new ActivityDigestMessage(
+                        entry.getKey(), from, to, System.currentTimeMillis(), Arrays.asList(entries)));
+            } catch (Exception e) {
+                log.error("❌ Error enviando resumen de actividad del canvas {}: {}",
+                        entry.getKey(), e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class Ring {
+
+        private final AtomicReferenceArray<ActivityEntry> slots;
+        private final AtomicLong head = new AtomicLong();
+
+        // Última posición incluida en un resumen (solo la escribe digest)
+        private volatile long digested;
+
+        Ring(int size) {
+            slots = new AtomicReferenceArray<>(Math.max(size, 1));
+        }
+
+        void add(int x, int y, String color, String userId, long timestamp) {
+            long sequence = head.incrementAndGet();
+            ActivityEntry entry = new ActivityEntry(sequence, x, y, color, userId, timestamp);
+            int slot = slot(sequence);
+
+            // Un escritor atrasado una vuelta no pisa la entrada más nueva del slot
+            ActivityEntry current;
+            do {
+                current = slots.get(slot);
+                if (current != null && current.getSequence() > sequence) {
+                    return;
+                }
+            } while (!slots.compareAndSet(slot, current, entry));
+        }
+
+        long head() {
+            return head.get();
+        }
+
+        /**
+         * Última posición hasta la que todas las entradas desde after ya se
+         * publicaron (o se pisaron y no van a volver). Un escritor que tomó
+         * su posición pero todavía no publicó frena el avance, así su
+         * entrada entra en el resumen siguiente en lugar de perderse.
+         */
+        long publishedUpTo(long after) {
+            long head = head();
+            // Las posiciones de hace más de una vuelta ya no están en el anillo
+            long position = Math.max(after, head - slots.length());
+            while (position < head) {
+                ActivityEntry entry = slots.get(slot(position + 1));
+                if (entry == null || entry.getSequence() < position + 1) {
+                    break;
+                }
+                position++;
+            }
+            return position;
+        }
+
+        /**
+         * Entradas con posición en (after, head], más reciente primero.
+         */
+        ActivityEntry[] snapshot(long head, long after, int limit) {
+            int count = (int) Math.min(Math.min(head - after, slots.length()), Math.max(limit, 0));
+            ActivityEntry[] result = new ActivityEntry[count];
+            int found = 0;
+            for (long sequence = head; sequence > head - count; sequence--) {
+                ActivityEntry entry = slots.get(slot(sequence));
+                if (entry != null && entry.getSequence() == sequence) {
+                    result[found++] = entry;
+                }
+            }
+            return found == count ? result : Arrays.copyOf(result, found);
+        }
+
+        private int slot(long sequence) {
+            return (int) ((sequence - 1) % slots.length());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.repository.CanvasImageFileRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Cache de PNG ya codificados de imágenes en blanco (solo fondo y grid).
+ * 
+ * Un canvas nuevo o un tile sin pixeles siempre produce los mismos bytes
+ * para un tamaño, fondo, escala y grid dados: se dibujan y codifican una
+ * sola vez y después se reutilizan. Con un backend que deduplica, guardarlos
+ * cuesta solo un puntero por clave.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BlankImageCache {
+
+    // Combinaciones distintas esperadas: tamaños de canvas/tiles de borde × escalas
+    private static final int MAX_ENTRIES = 256;
+
+    private final CanvasImageFileRepository imageRepository;
+    private final ConcurrentHashMap<String, byte[]> encoded = new ConcurrentHashMap<>();
+
+    /**
+     * Bytes PNG de una imagen en blanco, dibujándola solo si no está en cache.
+     * 
+     * @param width Ancho en pixeles (no escalados)
+     * @param height Alto en pixeles (no escalados)
+     * @param backgroundColor Color de fondo (#RRGGBB)
+     * @param scale Factor de escala
+     * @param grid Si la imagen lleva cuadrícula
+     * @param renderer Dibuja la imagen en blanco si hace falta
+     */
+    public byte[] get(int width, int height, String backgroundColor, int scale, boolean grid,
+                      Supplier<BufferedImage> renderer) throws IOException {
+        String key = width + "x" + height + "@" + scale + ":" + backgroundColor + ":" + grid;
+
+        byte[] png = encoded.get(key);
+        if (png != null) {
+            return png;
+        }
+
+        png = imageRepository.encodePng(renderer.get());
+        if (encoded.size() >= MAX_ENTRIES) {
+            encoded.clear();
+        }
+        encoded.put(key, png);
+
+        log.debug("📄 Imagen en blanco codificada: {} ({} bytes)", key, png.length);
+
+        return png;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registro acotado de los cambios recientes de cada canvas, indexado por
+ * la secuencia de CanvasStateProjection.
+ *
+ * Cada cambio ocupa 16 bytes en tres arrays paralelos (secuencia,
+ * coordenadas empaquetadas y RGB) dentro de un anillo de capacity entradas
+ * en orden de llegada, sin objetos por evento. Las secuencias son
+ * crecientes pero no necesariamente consecutivas (con relay son posiciones
+ * del topic): cada cambio trae su secuencia anterior, y el anillo cubre
+ * (floor, last] mientras esas secuencias encadenen sin huecos.
+ *
+ * Lo alimenta PixelUpdateRelay, en orden por canvas.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CanvasChangeLog {
+
+    private final LiveUpdateProperties properties;
+
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+
+    /**
+     * Cambios de un canvas con secuencia en (fromSequence, toSequence].
+     * Cada entrada son 7 bytes: x (u16), y (u16), RGB (3 bytes), en orden de secuencia.
+     */
+    @Value
+    public static class Changes {
+        long fromSequence;
+        long toSequence;
+        int count;
+        byte[] packed;
+    }
+
+    /**
+     * Registra un pixel secuenciado (ver CanvasPixelUpdate.previousSequence).
+     */
+    public void on(CanvasPixelUpdate update) {
+        rings.computeIfAbsent(update.getCanvasId(), id -> new Ring(properties.getChangeLog().getCapacity()))
+                .append(update.getPreviousSequence(), update.getSequence(),
+                        update.getX(), update.getY(), HexColor.parseRgb(update.getColor()));
+    }
+
+    /**
+     * Cambios posteriores a una secuencia.
+     *
+     * @return Cambios (vacío si el cliente está al día) o null si la secuencia
+     *         ya no está en el anillo o es de un futuro que no existe
+     */
+    public Changes since(String canvasId, long since) {
+        Ring ring = rings.get(canvasId);
+        if (ring == null) {
+            // Sin cambios desde el arranque
+            return since == 0 ? new Changes(0, 0, 0, new byte[0]) : null;
+        }
+        return ring.since(since);
+    }
+
+    /**
+     * @return Última secuencia registrada del canvas (0 si no hubo cambios)
+     */
+    public long lastSequence(String canvasId) {
+        Ring ring = rings.get(canvasId);
+        return ring == null ? 0 : ring.last();
+    }
+
+    private static final class Ring {
+
+        private final int mask;
+        private final long[] sequences;
+        private final int[] coords;
+        private final int[] colors;
+
+        // Entradas en [head, head + size) (módulo capacidad); cubren (floor, last]
+        private int head;
+        private int size;
+        private long floor;
+        private long last;
+
+        Ring(int capacity) {
+            int length = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+            mask = length - 1;
+            sequences = new long[length];
+            coords = new int[length];
+            colors = new int[length];
+        }
+
+        synchronized void append(long previous, long sequence, int x, int y, int rgb) {
+            if (size == 0 || previous != last) {
+                // Primer cambio (o un hueco): lo anterior no encadena
+                head = 0;
+                size = 0;
+                floor = previous;
+            } else if (size == sequences.length) {
+                floor = sequences[head];
+                head = (head + 1) & mask;
+                size--;
+            }
+            int slot = (head + size) & mask;
+            sequences[slot] = sequence;
+            coords[slot] = (x << 16) | (y & 0xFFFF);
+            colors[slot] = rgb;
+            size++;
+            last = sequence;
+        }
+
+        synchronized long last() {
+            return last;
+        }
+
+        synchronized Changes since(long since) {
+            if (since > last || since < floor) {
+                return null;
+            }
+
+            // Primera entrada con secuencia > since (búsqueda binaria)
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sequences[(head + mid) & mask] <= since) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+
+            int count = size - low;
+            byte[] packed = new byte[count * 7];
+            int offset = 0;
+            for (int i = low; i < size; i++) {
+                int slot = (head + i) & mask;
+                int xy = coords[slot];
+                int rgb = colors[slot];
+                packed[offset++] = (byte) (xy >>> 24);
+                packed[offset++] = (byte) (xy >>> 16);
+                packed[offset++] = (byte) (xy >>> 8);
+                packed[offset++] = (byte) xy;
+                packed[offset++] = (byte) (rgb >>> 16);
+                packed[offset++] = (byte) (rgb >>> 8);
+                packed[offset++] = (byte) rgb;
+            }
+            return new Changes(since, last, count, packed);
+        }
+    }
+}
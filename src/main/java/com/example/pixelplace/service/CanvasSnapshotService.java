@@ -0,0 +1,298 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.dto.CanvasState;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Estado binario completo del canvas para la carga inicial del cliente.
+ *
+ * Formato (big-endian, comprimido con gzip):
+ * <pre>
+ *   "PXS1"                      magic (4 bytes)
+ *   epoch                       long  (proceso que asignó las secuencias)
+ *   sequence                    long  (posición de la proyección)
+ *   width, height               int, int
+ *   bitsPerPixel                byte  (4, 8, 16 o 24 = RGB sin paleta)
+ *   paletteSize                 int
+ *   palette                     paletteSize x 3 bytes RGB (índice 0 = fondo)
+ *   pixels                      fila por fila; cada fila ocupa
+ *                               ceil(width * bitsPerPixel / 8) bytes,
+ *                               con 4 bits el nibble alto es el pixel par
+ * </pre>
+ *
+ * Los colores son hex libres, así que la paleta se arma por snapshot con
+ * los colores presentes y el ancho por pixel es el mínimo que alcanza.
+ *
+ * Sin huecos ni dobles aplicaciones: la secuencia se lee antes de recorrer
+ * el raster. El raster puede traer además cambios posteriores, pero esos
+ * llegan también como deltas por WebSocket con secuencia mayor, y aplicar
+ * dos veces el mismo pixel deja el mismo resultado. El cliente descarta
+ * los deltas con secuencia menor o igual a la del snapshot.
+ *
+ * Para ponerse al día sin recargar, encodeChanges arma la lista de cambios
+ * posteriores a una secuencia (ver CanvasChangeLog), sin comprimir:
+ * <pre>
+ *   "PXD1"                      magic (4 bytes)
+ *   epoch                       long
+ *   fromSequence, toSequence    long, long  (cambios en (from, to])
+ *   count                       int
+ *   changes                     count x (x u16, y u16, RGB 3 bytes), en orden
+ * </pre>
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CanvasSnapshotService {
+
+    private static final byte[] MAGIC = {'P', 'X', 'S', '1'};
+    private static final byte[] CHANGES_MAGIC = {'P', 'X', 'D', '1'};
+
+    // Paletas más grandes que esto se envían como RGB directo
+    private static final int MAX_PALETTE = 1 << 16;
+
+    private final CanvasStateProjection canvasProjection;
+
+    /**
+     * Estado del canvas estampado con su posición en la proyección.
+     */
+    @Value
+    public static class Snapshot {
+        CanvasState state;
+        long epoch;
+        long sequence;
+    }
+
+    /**
+     * Toma la posición actual del canvas, reconstruyéndolo si no está en cache
+     * (un id desconocido no dispara la reconstrucción, ver findCanvasState).
+     *
+     * @return Snapshot o null si el canvas no existe
+     */
+    public Snapshot prepare(String canvasId) {
+        CanvasState state = canvasProjection.findCanvasState(canvasId);
+        if (state == null) {
+            return null;
+        }
+        // Antes de leer el raster (ver doc de la clase)
+        long sequence = state.getSequence();
+        return new Snapshot(state, canvasProjection.getEpoch(), sequence);
+    }
+
+    /**
+     * Escribe el snapshot comprimido directo desde el raster de la proyección,
+     * una fila a la vez.
+     */
+    public void write(Snapshot snapshot, OutputStream target) throws IOException {
+        long start = System.nanoTime();
+        CanvasState state = snapshot.getState();
+        int[] raster = state.getRaster();
+        int width = state.getWidth();
+        int height = state.getHeight();
+        int background = HexColor.parseRgb(state.getBackgroundColor());
+
+        Palette palette = Palette.of(raster, background);
+        int bits = palette == null ? 24
+                : palette.size() <= 16 ? 4
+                : palette.size() <= 256 ? 8
+                : 16;
+
+        GZIPOutputStream gzip = new GZIPOutputStream(target, 64 * 1024);
+        DataOutputStream out = new DataOutputStream(gzip);
+
+        out.write(MAGIC);
+        out.writeLong(snapshot.getEpoch());
+        out.writeLong(snapshot.getSequence());
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeByte(bits);
+        out.writeInt(palette == null ? 0 : palette.size());
+        if (palette != null) {
+            for (int i = 0; i < palette.size(); i++) {
+                writeRgb(out, palette.color(i));
+            }
+        }
+
+        byte[] row = new byte[(width * bits + 7) / 8];
+        for (int y = 0; y < height; y++) {
+            int offset = y * width;
+            if (bits == 4) {
+                Arrays.fill(row, (byte) 0);
+                for (int x = 0; x < width; x++) {
+                    int index = palette.indexOf(raster[offset + x]);
+                    row[x >> 1] |= (x & 1) == 0 ? index << 4 : index;
+                }
+            } else if (bits == 8) {
+                for (int x = 0; x < width; x++) {
+                    row[x] = (byte) palette.indexOf(raster[offset + x]);
+                }
+            } else if (bits == 16) {
+                for (int x = 0; x < width; x++) {
+                    int index = palette.indexOf(raster[offset + x]);
+                    row[2 * x] = (byte) (index >>> 8);
+                    row[2 * x + 1] = (byte) index;
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    int rgb = raster[offset + x];
+                    row[3 * x] = (byte) (rgb >>> 16);
+                    row[3 * x + 1] = (byte) (rgb >>> 8);
+                    row[3 * x + 2] = (byte) rgb;
+                }
+            }
+            out.write(row);
+        }
+
+        out.flush();
+        gzip.finish();
+
+        log.debug("📦 Snapshot binario: canvas={}, seq={}, {}x{}, {} bits/pixel, {} ms",
+                state.getCanvasId(), snapshot.getSequence(), width, height, bits,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * @return Epoch de las secuencias de este proceso
+     */
+    public long getEpoch() {
+        return canvasProjection.getEpoch();
+    }
+
+    /**
+     * Lista de cambios con su encabezado (formato PXD1).
+     */
+    public byte[] encodeChanges(CanvasChangeLog.Changes changes) {
+        ByteBuffer buffer = ByteBuffer.allocate(32 + changes.getPacked().length);
+        buffer.put(CHANGES_MAGIC)
+                .putLong(getEpoch())
+                .putLong(changes.getFromSequence())
+                .putLong(changes.getToSequence())
+                .putInt(changes.getCount())
+                .put(changes.getPacked());
+        return buffer.array();
+    }
+
+    private static void writeRgb(DataOutputStream out, int rgb) throws IOException {
+        out.writeByte(rgb >>> 16);
+        out.writeByte(rgb >>> 8);
+        out.writeByte(rgb);
+    }
+
+    /**
+     * Colores distintos del raster con su índice (hash abierto de ints, sin boxing).
+     */
+    private static final class Palette {
+
+        private static final int EMPTY = -1;
+
+        private int[] keys;
+        private int[] indexes;
+        private int[] colors = new int[16];
+        private int size;
+
+        private Palette() {
+            keys = new int[64];
+            indexes = new int[64];
+            Arrays.fill(keys, EMPTY);
+        }
+
+        /**
+         * @return Paleta con el fondo en el índice 0, o null si hay más de MAX_PALETTE colores
+         */
+        static Palette of(int[] raster, int background) {
+            Palette palette = new Palette();
+            palette.add(background);
+
+            int last = background;
+            for (int rgb : raster) {
+                if (rgb != last) {
+                    palette.add(rgb);
+                    if (palette.size > MAX_PALETTE) {
+                        return null;
+                    }
+                    last = rgb;
+                }
+            }
+            return palette;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int color(int index) {
+            return colors[index];
+        }
+
+        /**
+         * @return Índice del color, o 0 (fondo) si se pintó después de armar la
+         *         paleta: el delta de ese pixel lo corrige en el cliente
+         */
+        int indexOf(int rgb) {
+            int mask = keys.length - 1;
+            for (int slot = mix(rgb) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == rgb) {
+                    return indexes[slot];
+                }
+            }
+            return 0;
+        }
+
+        private void add(int rgb) {
+            int mask = keys.length - 1;
+            int slot = mix(rgb) & mask;
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == rgb) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = rgb;
+            indexes[slot] = size;
+            if (size == colors.length) {
+                colors = Arrays.copyOf(colors, size * 2);
+            }
+            colors[size++] = rgb;
+
+            if (size * 2 > keys.length) {
+                rehash();
+            }
+        }
+
+        private void rehash() {
+            int[] oldKeys = keys;
+            int[] oldIndexes = indexes;
+            keys = new int[oldKeys.length * 2];
+            indexes = new int[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int slot = mix(oldKeys[i]) & mask;
+                    while (keys[slot] != EMPTY) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    indexes[slot] = oldIndexes[i];
+                }
+            }
+        }
+
+        private static int mix(int rgb) {
+            int h = rgb * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
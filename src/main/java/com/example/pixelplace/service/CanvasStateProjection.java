@@ -1,32 +1,77 @@
 package com.example.pixelplace.service;
 
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
 import com.example.pixelplace.dto.CanvasState;
-import com.example.pixelplace.dto.PixelState;
 import com.example.pixelplace.event.CanvasCreatedEvent;
 import com.example.pixelplace.event.PixelPlacedEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.axonframework.eventhandling.DomainEventMessage;
+import org.axonframework.eventhandling.EventHandler;
+import org.axonframework.eventhandling.Timestamp;
 import org.axonframework.eventsourcing.eventstore.EventStore;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Servicio que reconstruye el estado del canvas desde el EventStore
+ * Servicio que reconstruye el estado del canvas desde el EventStore.
+ * 
+ * Una vez cacheado, el estado se mantiene al día aplicando los
+ * PixelPlacedEvent que llegan, así las regeneraciones completas
+ * no trabajan sobre una foto vieja del canvas.
+ * 
+ * Secuencia: cada PixelPlacedEvent recibe un número creciente por canvas
+ * y se republica como CanvasPixelUpdate en ese orden (bajo un lock por
+ * canvas). La secuencia arranca de nuevo en cada proceso; epoch identifica
+ * al proceso para que un cliente detecte el reinicio y recargue el estado.
+ *
+ * Con relay entre pods (ver LiveUpdateProperties.isRelayed) cada pod solo
+ * procesa sus particiones: los eventos se republican sin secuencia para el
+ * relay y el estado se actualiza con el stream completo que vuelve de él
+ * (applyRelayed), numerado con la posición en el topic. Así la secuencia y
+ * el estado son los mismos en todos los pods, y epoch es RELAY_EPOCH. Las
+ * regeneraciones completas de imágenes (y el resto de los lectores del
+ * estado) ven entonces los pixeles de todos los pods, no solo los de las
+ * particiones propias.
  */
 @Slf4j
 @Service
 public class CanvasStateProjection {
 
+    /**
+     * Epoch con relay: las posiciones del topic no se reinician con el proceso
+     */
+    public static final long RELAY_EPOCH = 0;
+
     private final EventStore eventStore;
     private final JdbcTemplate jdbcTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final LiveUpdateProperties liveProperties;
     private final ConcurrentHashMap<String, CanvasState> canvasCache;
+
+    // Estados en reconstrucción: reciben los eventos en vivo mientras se lee el EventStore
+    private final ConcurrentHashMap<String, CanvasState> building = new ConcurrentHashMap<>();
+
+    // Última secuencia asignada por canvas (también es el lock del canvas)
+    private final ConcurrentHashMap<String, AtomicLong> sequences = new ConcurrentHashMap<>();
+    private final long epoch;
     
-    public CanvasStateProjection(EventStore eventStore, JdbcTemplate jdbcTemplate) {
+    public CanvasStateProjection(EventStore eventStore, JdbcTemplate jdbcTemplate,
+                                 ApplicationEventPublisher eventPublisher,
+                                 LiveUpdateProperties liveProperties) {
         this.eventStore = eventStore;
         this.jdbcTemplate = jdbcTemplate;
+        this.eventPublisher = eventPublisher;
+        this.liveProperties = liveProperties;
+        this.epoch = liveProperties.isRelayed() ? RELAY_EPOCH : System.currentTimeMillis();
         this.canvasCache = new ConcurrentHashMap<>();
     }
 
@@ -46,6 +91,15 @@ public class CanvasStateProjection {
         
         CanvasState state = new CanvasState();
         state.setCanvasId(canvasId);
+
+        // Registrar antes de leer: los eventos que lleguen durante la lectura
+        // también se aplican, y todo lo que tenga secuencia <= a la actual ya
+        // está persistido, así que la lectura lo incluye
+        AtomicLong sequence = sequence(canvasId);
+        synchronized (sequence) {
+            state.setSequence(sequence.get());
+            building.put(canvasId, state);
+        }
         
         try {
             eventStore.readEvents(canvasId).asStream()
@@ -84,16 +138,56 @@ public class CanvasStateProjection {
             log.info("✅ Canvas reconstruido: {} pixeles", state.getPixelCount());
             
         } catch (Exception e) {
+            building.remove(canvasId, state);
             log.error("❌ Error reconstruyendo canvas: {}", canvasId, e);
             throw new IllegalStateException("Error reconstruyendo canvas: " + canvasId, e);
         }
         
         // Cachear
-        canvasCache.put(canvasId, state);
+        synchronized (sequence) {
+            state.initRaster();
+            canvasCache.put(canvasId, state);
+            building.remove(canvasId, state);
+        }
         
         return state;
     }
     
+    /**
+     * Estado de un canvas para las lecturas públicas: el cacheado o, si el
+     * canvas existe, reconstruido desde el EventStore.
+     * 
+     * Un id desconocido cuesta una consulta por clave a domain_event_entry,
+     * sin leer eventos ni buscar sus pixeles.
+     * 
+     * @return Estado o null si el canvas no existe
+     */
+    public CanvasState findCanvasState(String canvasId) {
+        CanvasState state = canvasCache.get(canvasId);
+        if (state != null) {
+            return state;
+        }
+        if (!canvasExists(canvasId)) {
+            return null;
+        }
+        try {
+            return rebuildCanvasState(canvasId);
+        } catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    private boolean canvasExists(String canvasId) {
+        // Solo el evento de creación: un id de pixel (canvasId_x_y) no cuenta como canvas
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM domain_event_entry WHERE aggregate_identifier = ? AND payload_type = ?",
+                Integer.class,
+                canvasId,
+                CanvasCreatedEvent.class.getName()
+        );
+        return count != null && count > 0;
+    }
+
     /**
      * Reconstruye solo los pixeles de un canvas (sin metadata)
      * Útil cuando solo necesitas los pixeles
@@ -106,6 +200,111 @@ public class CanvasStateProjection {
         return rebuildCanvasState(canvasId);
     }
     
+    /**
+     * Asigna la secuencia del evento, lo aplica al estado cacheado (o en
+     * reconstrucción) del canvas y lo republica como CanvasPixelUpdate.
+     * 
+     * Si el canvas no está en cache solo avanza la secuencia: la próxima
+     * reconstrucción desde el EventStore ya incluirá el evento.
+     *
+     * Con relay se aplica al estado pero se republica sin secuencia: la
+     * asigna applyRelayed cuando el pixel vuelve del relay, que lo aplica de
+     * nuevo en el orden del topic. Aplicarlo ya evita que una regeneración
+     * completa de este pod pinte sin sus propios pixeles en vuelo.
+     */
+    @EventHandler
+    public void on(PixelPlacedEvent event, @Timestamp Instant timestamp) {
+        String canvasId = event.getCanvasId();
+        long millis = timestamp.toEpochMilli();
+        boolean relayed = liveProperties.isRelayed();
+        AtomicLong sequence = sequence(canvasId);
+
+        synchronized (sequence) {
+            long position = relayed ? 0 : sequence.incrementAndGet();
+
+            CanvasState state = canvasCache.get(canvasId);
+            if (state == null) {
+                state = building.get(canvasId);
+            }
+            if (state != null) {
+                state.setPixel(event.getX(), event.getY(), event.getColor(), event.getUserId(), millis);
+                if (!relayed) {
+                    state.setSequence(position);
+                }
+            }
+
+            eventPublisher.publishEvent(new CanvasPixelUpdate(
+                    canvasId,
+                    event.getX(),
+                    event.getY(),
+                    event.getColor(),
+                    event.getUserId(),
+                    millis,
+                    relayed ? 0 : position - 1,
+                    position
+            ));
+        }
+    }
+
+    /**
+     * Aplica un pixel recibido del relay con su posición como secuencia.
+     *
+     * La secuencia anterior es la última posición vista del canvas, o origin
+     * si es el primero: todo lo posterior a origin llega a este pod, así que
+     * el rango (previousSequence, sequence] no tiene huecos. Los registros de
+     * backfill ya están en el EventStore (y por lo tanto en cualquier estado
+     * reconstruido): solo avanzan la secuencia.
+     *
+     * @return El pixel secuenciado, o null si la posición ya se había visto
+     */
+    public CanvasPixelUpdate applyRelayed(CanvasPixelUpdate update, long position, long origin, boolean backfill) {
+        String canvasId = update.getCanvasId();
+        AtomicLong sequence = sequence(canvasId);
+
+        synchronized (sequence) {
+            long previous = sequence.get();
+            if (position <= previous) {
+                return null;
+            }
+            sequence.set(position);
+
+            CanvasState state = canvasCache.get(canvasId);
+            if (state == null) {
+                state = building.get(canvasId);
+            }
+            if (state != null) {
+                if (!backfill) {
+                    state.setPixel(update.getX(), update.getY(), update.getColor(), update.getUserId(),
+                            update.getTimestamp());
+                }
+                state.setSequence(position);
+            }
+
+            return new CanvasPixelUpdate(
+                    canvasId,
+                    update.getX(),
+                    update.getY(),
+                    update.getColor(),
+                    update.getUserId(),
+                    update.getTimestamp(),
+                    Math.max(previous, origin),
+                    position
+            );
+        }
+    }
+
+    private AtomicLong sequence(String canvasId) {
+        return sequences.computeIfAbsent(canvasId, id -> new AtomicLong());
+    }
+
+    /**
+     * Identifica a este proceso (o RELAY_EPOCH con relay): las secuencias
+     * solo son comparables dentro del mismo epoch.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+    
     /**
      * Procesa un evento individual y actualiza el estado
      */
@@ -137,6 +336,22 @@ public class CanvasStateProjection {
         }
     }
     
+    /**
+     * Estado cacheado de un canvas, sin reconstruirlo desde el EventStore.
+     * 
+     * @return Estado o null si el canvas no está en cache
+     */
+    public CanvasState getCachedState(String canvasId) {
+        return canvasCache.get(canvasId);
+    }
+    
+    /**
+     * IDs de los canvas cacheados (vista de solo lectura)
+     */
+    public Set<String> getCachedCanvasIds() {
+        return Collections.unmodifiableSet(canvasCache.keySet());
+    }
+    
     /**
      * Invalida el cache de un canvas específico
      */
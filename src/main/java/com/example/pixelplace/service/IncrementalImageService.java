@@ -1,5 +1,7 @@
 package com.example.pixelplace.service;
 
+import com.example.pixelplace.batch.PixelBatch;
+import com.example.pixelplace.batch.TileKeys;
 import com.example.pixelplace.config.ImageGenerationProperties;
 import com.example.pixelplace.dto.CanvasState;
 import com.example.pixelplace.dto.PixelState;
@@ -11,6 +13,8 @@ import org.springframework.stereotype.Service;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -31,6 +35,7 @@ public class IncrementalImageService {
     private final CanvasImageFileRepository imageRepository;
     private final CanvasStateProjection canvasProjection;
     private final ImageGenerationProperties properties;
+    private final BlankImageCache blankImages;
 
     /**
      * Genera o actualiza la imagen de un canvas de manera incremental.
@@ -41,7 +46,7 @@ public class IncrementalImageService {
      * @param grid Si se debe dibujar cuadrícula
      * @return Imagen actualizada
      */
-    public BufferedImage updateCanvasImage(String canvasId, List<PixelState> newPixels, 
+    public BufferedImage updateCanvasImage(String canvasId, PixelBatch newPixels, 
                                            int scale, boolean grid) throws IOException {
         
         log.info("🎨 Actualizando imagen incremental: canvas={}, pixels={}, scale={}, grid={}", 
@@ -65,12 +70,9 @@ public class IncrementalImageService {
         g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
 
-        for (PixelState pixel : newPixels) {
-            Color color = parseColor(pixel.getColor());
-            g2d.setColor(color);
-            g2d.fillRect(pixel.getX() * scale, pixel.getY() * scale, scale, scale);
-            
-            log.debug("🖌️ Pixel pintado: ({}, {}) - {}", pixel.getX(), pixel.getY(), pixel.getColor());
+        for (int i = 0; i < newPixels.size(); i++) {
+            g2d.setColor(new Color(newPixels.rgb(i)));
+            g2d.fillRect(newPixels.x(i) * scale, newPixels.y(i) * scale, scale, scale);
         }
 
         g2d.dispose();
@@ -97,8 +99,16 @@ public class IncrementalImageService {
      * @return Imagen base
      */
     private BufferedImage createBaseImage(CanvasState canvasState, int scale, boolean includeGrid) {
-        int scaledWidth = canvasState.getWidth() * scale;
-        int scaledHeight = canvasState.getHeight() * scale;
+        return createBaseImage(canvasState.getWidth(), canvasState.getHeight(),
+                canvasState.getBackgroundColor(), scale);
+    }
+
+    /**
+     * Crea una imagen base (fondo solamente) a partir de las dimensiones.
+     */
+    private BufferedImage createBaseImage(int width, int height, String backgroundColor, int scale) {
+        int scaledWidth = width * scale;
+        int scaledHeight = height * scale;
 
         BufferedImage image = new BufferedImage(
                 scaledWidth,
@@ -112,7 +122,7 @@ public class IncrementalImageService {
         g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
 
         // Pintar fondo
-        Color bgColor = parseColor(canvasState.getBackgroundColor());
+        Color bgColor = parseColor(backgroundColor);
         g2d.setColor(bgColor);
         g2d.fillRect(0, 0, scaledWidth, scaledHeight);
 
@@ -190,6 +200,31 @@ public class IncrementalImageService {
         }
     }
 
+    /**
+     * Guarda la imagen inicial (en blanco) de un canvas recién creado.
+     * 
+     * No reconstruye la proyección ni vuelve a codificar: usa las
+     * dimensiones del evento y los bytes PNG de BlankImageCache.
+     * 
+     * @param canvasId ID del canvas
+     * @param width Ancho del canvas en pixeles
+     * @param height Alto del canvas en pixeles
+     * @param backgroundColor Color de fondo
+     * @param scale Factor de escala
+     * @param grid Si se debe dibujar cuadrícula
+     */
+    public void createBlankImage(String canvasId, int width, int height, String backgroundColor,
+                                 int scale, boolean grid) throws IOException {
+        byte[] png = blankImages.get(width, height, backgroundColor, scale, grid, () -> {
+            BufferedImage image = createBaseImage(width, height, backgroundColor, scale);
+            return grid && scale > 1 ? addGridToImage(image, width, height, scale) : image;
+        });
+
+        imageRepository.saveEncodedImage(canvasId, png, scale);
+
+        log.info("📄 Imagen en blanco guardada: canvas={}, scale={}", canvasId, scale);
+    }
+
     /**
      * Regenera completamente una imagen (útil si hay corrupción).
      * 
@@ -232,4 +267,105 @@ public class IncrementalImageService {
 
         return image;
     }
-}
\ No newline at end of file
+
+    /**
+     * Repinta desde la proyección solo las regiones de los tiles indicados
+     * sobre la imagen existente del canvas. Lo usan los reintentos de un
+     * batch fallido para no regenerar el canvas completo.
+     * 
+     * @param canvasId ID del canvas
+     * @param tileKeys Tiles afectados (TileKeys.tileKey)
+     * @param tileSize Tamaño de tile en pixeles
+     * @param scale Factor de escala
+     * @param grid Si se debe dibujar cuadrícula
+     */
+    public BufferedImage repaintTiles(String canvasId, Collection<Long> tileKeys, int tileSize,
+                                      int scale, boolean grid) throws IOException {
+        BufferedImage image = imageRepository.loadImage(canvasId, scale);
+
+        // Sin imagen previa no hay nada que reparar: regenerar completa
+        if (image == null) {
+            return regenerateFullImage(canvasId, scale, grid);
+        }
+
+        CanvasState canvasState = canvasProjection.rebuildCanvasState(canvasId);
+
+        List<Rectangle> regions = new ArrayList<>(tileKeys.size());
+        for (long tileKey : tileKeys) {
+            Rectangle region = new Rectangle(
+                    TileKeys.tileX(tileKey) * tileSize,
+                    TileKeys.tileY(tileKey) * tileSize,
+                    tileSize,
+                    tileSize
+            ).intersection(new Rectangle(0, 0, canvasState.getWidth(), canvasState.getHeight()));
+
+            if (!region.isEmpty()) {
+                regions.add(region);
+            }
+        }
+
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+
+        // Fondo de cada región
+        g2d.setColor(parseColor(canvasState.getBackgroundColor()));
+        for (Rectangle region : regions) {
+            g2d.fillRect(region.x * scale, region.y * scale, region.width * scale, region.height * scale);
+        }
+
+        // Pixeles de la proyección que caen en alguna región
+        int repainted = 0;
+        for (PixelState pixel : canvasState.getPixels().values()) {
+            for (Rectangle region : regions) {
+                if (region.contains(pixel.getX(), pixel.getY())) {
+                    g2d.setColor(parseColor(pixel.getColor()));
+                    g2d.fillRect(pixel.getX() * scale, pixel.getY() * scale, scale, scale);
+                    repainted++;
+                    break;
+                }
+            }
+        }
+
+        g2d.dispose();
+
+        // Grid solo dentro de las regiones repintadas
+        if (grid && scale > 1) {
+            for (Rectangle region : regions) {
+                addGridToRegion(image, region, scale);
+            }
+        }
+
+        imageRepository.saveImage(canvasId, image, scale);
+
+        log.info("✅ Regiones repintadas: canvas={}, {} tiles, {} pixeles, scale={}",
+                canvasId, regions.size(), repainted, scale);
+
+        return image;
+    }
+
+    /**
+     * Dibuja el grid recortado a una región (en pixeles del canvas, no escalados).
+     */
+    private void addGridToRegion(BufferedImage image, Rectangle region, int scale) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(new Color(128, 128, 128, 150));
+        g2d.setClip(region.x * scale, region.y * scale, region.width * scale + 1, region.height * scale + 1);
+
+        int top = region.y * scale;
+        int bottom = (region.y + region.height) * scale;
+        int left = region.x * scale;
+        int right = (region.x + region.width) * scale;
+
+        for (int x = region.x; x <= region.x + region.width; x++) {
+            g2d.drawLine(x * scale, top, x * scale, bottom);
+        }
+        for (int y = region.y; y <= region.y + region.height; y++) {
+            g2d.drawLine(left, y * scale, right, y * scale);
+        }
+
+        g2d.dispose();
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.dto.CanvasState;
+import com.example.pixelplace.eventhandler.ImageGenerationEventHandler;
+import com.example.pixelplace.repository.CanvasImageFileRepository;
+import com.example.pixelplace.repository.ImageVersion;
+import com.example.pixelplace.repository.storage.ImageKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Render a demanda de imágenes con single-flight.
+ *
+ * El pipeline de batches solo mantiene al día las escalas "calientes"
+ * (scaleVersions y tileScaleVersions). Cualquier otra escala, o una imagen
+ * que todavía no existe, se renderiza desde la proyección cuando alguien
+ * la pide. Requests concurrentes por la misma clave esperan el mismo
+ * render en lugar de lanzar uno cada uno.
+ *
+ * Una escala fría está desactualizada si la versión de su par caliente
+ * (el mismo tile o el canvas en la primera escala configurada) es más
+ * nueva: así no hace falta contar eventos por imagen.
+ *
+ * Métricas: pixelplace.image.ondemand.renders (outcome=rendered|joined|failed).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OnDemandRenderService {
+
+    private final CanvasImageFileRepository imageRepository;
+    private final CanvasStateProjection canvasProjection;
+    private final ImageGenerationEventHandler imageGenerationHandler;
+    private final IncrementalImageService incrementalImageService;
+    private final TileImageService tileImageService;
+    private final ImageGenerationProperties properties;
+    private final MeterRegistry meterRegistry;
+
+    private final ConcurrentHashMap<ImageKey, CompletableFuture<ImageVersion>> inFlight = new ConcurrentHashMap<>();
+
+    // Inicio del último render a demanda por clave: si el contenido no cambió,
+    // la versión conserva su lastModified anterior y no sirve para comparar
+    private final ConcurrentHashMap<ImageKey, Long> renderedAt = new ConcurrentHashMap<>();
+
+    private Counter rendered;
+    private Counter joined;
+    private Counter failed;
+
+    @PostConstruct
+    public void init() {
+        rendered = renderCounter("rendered");
+        joined = renderCounter("joined");
+        failed = renderCounter("failed");
+    }
+
+    /**
+     * Versión vigente de la imagen del canvas, renderizándola si falta o
+     * está desactualizada.
+     *
+     * @return Versión o null si el canvas no existe
+     * @throws IllegalArgumentException si la imagen supera maxImagePixels
+     */
+    public ImageVersion getOrRenderImage(String canvasId, int scale) throws IOException {
+        ImageKey key = ImageKey.canvas(canvasId, scale);
+        ImageVersion version = imageRepository.getImageVersion(canvasId, scale);
+        boolean hot = contains(properties.getScaleVersions(), scale);
+
+        if (version != null && (hot || !isStale(key, version, hotCanvasVersion(canvasId)))) {
+            return version;
+        }
+        if (!properties.getOnDemand().isEnabled()) {
+            return version;
+        }
+
+        CanvasState state = canvasProjection.findCanvasState(canvasId);
+        if (state == null) {
+            return null;
+        }
+        checkSize((long) state.getWidth() * state.getHeight(), scale);
+
+        return singleFlight(key, () -> {
+            if (hot) {
+                imageGenerationHandler.regenerateCanvasImage(canvasId, scale);
+            } else {
+                incrementalImageService.regenerateFullImage(canvasId, scale, properties.isDefaultGrid());
+            }
+            return imageRepository.getImageVersion(canvasId, scale);
+        });
+    }
+
+    /**
+     * Versión vigente de un tile, renderizándolo si falta o está desactualizado.
+     *
+     * @return Versión o null si el canvas no existe o el tile está fuera de él
+     * @throws IllegalArgumentException si el tile supera maxImagePixels
+     */
+    public ImageVersion getOrRenderTile(String canvasId, int tileX, int tileY, int scale) throws IOException {
+        ImageKey key = ImageKey.tile(canvasId, tileX, tileY, scale);
+        ImageVersion version = imageRepository.getTileImageVersion(canvasId, tileX, tileY, scale);
+        boolean hot = properties.isTilesEnabled() && contains(properties.getTileScaleVersions(), scale);
+
+        if (version != null && (hot || !isStale(key, version, hotTileVersion(canvasId, tileX, tileY)))) {
+            return version;
+        }
+        if (!properties.getOnDemand().isEnabled()) {
+            return version;
+        }
+
+        CanvasState state = canvasProjection.findCanvasState(canvasId);
+        int tileSize = properties.getTileSize();
+        if (state == null || tileX * tileSize >= state.getWidth() || tileY * tileSize >= state.getHeight()) {
+            return null;
+        }
+        checkSize((long) tileSize * tileSize, scale);
+
+        return singleFlight(key, () -> {
+            if (hot) {
+                imageGenerationHandler.regenerateTileImage(canvasId, tileX, tileY, scale);
+            } else {
+                tileImageService.regenerateFullTileImage(canvasId, tileX, tileY, scale, properties.isDefaultGrid());
+            }
+            return imageRepository.getTileImageVersion(canvasId, tileX, tileY, scale);
+        });
+    }
+
+    /**
+     * Ejecuta el render de una clave o espera el que ya está en curso.
+     */
+    private ImageVersion singleFlight(ImageKey key, Render render) throws IOException {
+        CompletableFuture<ImageVersion> mine = new CompletableFuture<>();
+        CompletableFuture<ImageVersion> running = inFlight.putIfAbsent(key, mine);
+
+        if (running != null) {
+            joined.increment();
+            return await(key, running);
+        }
+
+        try {
+            log.info("🖌️ Render a demanda: {}", key);
+            long start = System.currentTimeMillis();
+            ImageVersion version = render.run();
+            renderedAt.put(key, start);
+            rendered.increment();
+            mine.complete(version);
+            return version;
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private ImageVersion await(ImageKey key, CompletableFuture<ImageVersion> running) throws IOException {
+        try {
+            return running.get(properties.getOnDemand().getWaitTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando el render de " + key, e);
+        } catch (TimeoutException e) {
+            throw new IOException("Timeout esperando el render de " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Falló el render de " + key, e.getCause());
+        }
+    }
+
+    private boolean isStale(ImageKey key, ImageVersion version, ImageVersion hotVersion) {
+        if (hotVersion == null) {
+            return false;
+        }
+        long rendered = Math.max(version.getLastModified(), renderedAt.getOrDefault(key, 0L));
+        return hotVersion.getLastModified() > rendered;
+    }
+
+    private ImageVersion hotCanvasVersion(String canvasId) throws IOException {
+        int[] scales = properties.getScaleVersions();
+        return scales.length > 0 ? imageRepository.getImageVersion(canvasId, scales[0]) : null;
+    }
+
+    private ImageVersion hotTileVersion(String canvasId, int tileX, int tileY) throws IOException {
+        int[] scales = properties.getTileScaleVersions();
+        if (!properties.isTilesEnabled() || scales.length == 0) {
+            // Sin tiles calientes, cualquier cambio del canvas vuelve viejo al tile
+            return hotCanvasVersion(canvasId);
+        }
+        return imageRepository.getTileImageVersion(canvasId, tileX, tileY, scales[0]);
+    }
+
+    private void checkSize(long pixels, int scale) {
+        long max = properties.getOnDemand().getMaxImagePixels();
+        if (pixels * scale * scale > max) {
+            throw new IllegalArgumentException(
+                    "Imagen demasiado grande para render a demanda: " + pixels + " pixeles a escala " + scale);
+        }
+    }
+
+    private static boolean contains(int[] scales, int scale) {
+        for (int candidate : scales) {
+            if (candidate == scale) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Counter renderCounter(String outcome) {
+        return Counter.builder("pixelplace.image.ondemand.renders")
+                .description("Imágenes pedidas que se renderizaron a demanda")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    private interface Render {
+        ImageVersion run() throws IOException;
+    }
+}
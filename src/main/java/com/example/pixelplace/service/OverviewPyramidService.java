@@ -0,0 +1,300 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.dto.CanvasState;
+import com.example.pixelplace.event.CanvasCreatedEvent;
+import com.example.pixelplace.event.PixelPlacedEvent;
+import com.example.pixelplace.repository.CanvasImageFileRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.axonframework.eventhandling.EventHandler;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pirámide de vistas reducidas del canvas (estilo mipmap) para el minimapa
+ * y la navegación con zoom alejado.
+ *
+ * El nivel 0 es el raster 1x que mantiene la proyección (CanvasState,
+ * sin copia); cada celda del nivel N es el
+ * promedio de 2x2 celdas del nivel N-1. Cada nivel se corta en tiles de
+ * tileSize x tileSize celdas y se sirve por el endpoint de tiles con
+ * ?level=N. Se agregan niveles hasta que el canvas entero entra en un
+ * tile (o hasta maxLevels).
+ *
+ * Mantenimiento incremental: los pixeles marcan su tile de nivel 0 como
+ * sucio y la tarea programada recalcula y recodifica solo los tiles padre
+ * afectados en cada nivel; el nivel 1 se promedia directo del raster de
+ * la proyección, así que el trabajo es proporcional a los tiles sucios. Los niveles viven en memoria por canvas; tras
+ * un reinicio la pirámide se arma completa al primer request.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OverviewPyramidService {
+
+    private final CanvasStateProjection canvasProjection;
+    private final CanvasImageFileRepository imageRepository;
+    private final ImageGenerationProperties properties;
+    private final RenderScheduler renderScheduler;
+
+    private final ConcurrentHashMap<String, Pyramid> pyramids = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        // En el hilo de render: no atrasa al scheduler de @Scheduled
+        renderScheduler.scheduleWithFixedDelay("overview-pyramid", this::refresh,
+                properties.getOverview().getIntervalMillis());
+    }
+
+    /**
+     * Canvas nuevo: pirámide vacía con todos los tiles sucios.
+     */
+    @EventHandler
+    public void on(CanvasCreatedEvent event) {
+        if (!properties.getOverview().isEnabled()) {
+            return;
+        }
+        pyramids.put(event.getCanvasId(), new Pyramid(event.getWidth(), event.getHeight()));
+    }
+
+    /**
+     * Marca como sucio el tile de nivel 0 del pixel (sin asignar objetos).
+     * Si la pirámide del canvas no existe todavía no hay nada que marcar:
+     * se armará completa cuando alguien la pida.
+     */
+    @EventHandler
+    public void on(PixelPlacedEvent event) {
+        Pyramid pyramid = pyramids.get(event.getCanvasId());
+        if (pyramid != null) {
+            int tileSize = properties.getTileSize();
+            pyramid.markDirty(event.getX() / tileSize, event.getY() / tileSize);
+        }
+    }
+
+    public void refresh() {
+        if (!properties.getOverview().isEnabled()) {
+            return;
+        }
+
+        pyramids.forEach((canvasId, pyramid) -> {
+            try {
+                update(canvasId, pyramid);
+            } catch (Exception e) {
+                log.error("❌ Error actualizando pirámide del canvas {}: {}", canvasId, e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Cantidad de niveles reducidos del canvas, armando la pirámide si
+     * todavía no existe.
+     *
+     * @return Niveles (1..N) o 0 si el canvas no existe o la pirámide está deshabilitada
+     */
+    public int ensureBuilt(String canvasId) throws IOException {
+        if (!properties.getOverview().isEnabled()) {
+            return 0;
+        }
+
+        Pyramid pyramid = pyramids.get(canvasId);
+        if (pyramid != null) {
+            // Ya armada: la mantiene al día la tarea programada
+            return pyramid.levels.length - 1;
+        }
+
+        CanvasState state = canvasProjection.findCanvasState(canvasId);
+        if (state == null) {
+            return 0;
+        }
+        Pyramid created = new Pyramid(state.getWidth(), state.getHeight());
+        pyramid = pyramids.putIfAbsent(canvasId, created);
+        if (pyramid == null) {
+            pyramid = created;
+        }
+
+        // Recién creada (o creada por otro request): armarla antes de servirla
+        update(canvasId, pyramid);
+        return pyramid.levels.length - 1;
+    }
+
+    /**
+     * Recalcula los tiles sucios en todos los niveles y guarda los que cambiaron.
+     */
+    private void update(String canvasId, Pyramid pyramid) throws IOException {
+        synchronized (pyramid) {
+            BitSet dirty = pyramid.drainDirty();
+            if (dirty.isEmpty()) {
+                return;
+            }
+
+            try {
+                rebuildDirty(canvasId, pyramid, dirty);
+            } catch (IOException | RuntimeException e) {
+                // Se reintenta en la próxima ejecución
+                pyramid.restoreDirty(dirty);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Recalcula/guarda los tiles padre de los tiles sucios, leyendo el nivel 0
+     * del raster de la proyección.
+     */
+    private void rebuildDirty(String canvasId, Pyramid pyramid, BitSet dirty) throws IOException {
+        long start = System.nanoTime();
+        CanvasState state = canvasProjection.getCachedState(canvasId);
+        if (state == null) {
+            state = canvasProjection.rebuildCanvasState(canvasId);
+        }
+        int[] base = state.getRaster();
+
+        int tileSize = properties.getTileSize();
+        int saved = 0;
+
+        for (int level = 1; level < pyramid.levels.length; level++) {
+            // Tiles del nivel cubiertos por algún tile sucio de nivel 0
+            int levelTilesX = ceilDiv(pyramid.widths[level], tileSize);
+            BitSet levelDirty = new BitSet();
+            for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+                int tileX = (i % pyramid.tilesX) >> level;
+                int tileY = (i / pyramid.tilesX) >> level;
+                levelDirty.set(tileY * levelTilesX + tileX);
+            }
+
+            for (int i = levelDirty.nextSetBit(0); i >= 0; i = levelDirty.nextSetBit(i + 1)) {
+                int tileX = i % levelTilesX;
+                int tileY = i / levelTilesX;
+                pyramid.downsample(level, level == 1 ? base : pyramid.levels[level - 1],
+                        tileX * tileSize, tileY * tileSize, tileSize);
+                saveTile(canvasId, pyramid, level, tileX, tileY);
+                saved++;
+            }
+        }
+
+        log.debug("🗻 Pirámide actualizada: canvas={}, {} tiles de nivel 0 sucios, {} tiles guardados en {} ms",
+                canvasId, dirty.cardinality(), saved, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void saveTile(String canvasId, Pyramid pyramid, int level, int tileX, int tileY) throws IOException {
+        int tileSize = properties.getTileSize();
+        int levelWidth = pyramid.widths[level];
+        int startX = tileX * tileSize;
+        int startY = tileY * tileSize;
+        int width = Math.min(tileSize, levelWidth - startX);
+        int height = Math.min(tileSize, pyramid.heights[level] - startY);
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pyramid.levels[level], startY * levelWidth + startX, levelWidth);
+
+        imageRepository.saveEncodedOverviewTile(canvasId, level, tileX, tileY, imageRepository.encodePng(image));
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Rasters (RGB empaquetado) de los niveles reducidos de un canvas y sus
+     * tiles de nivel 0 sucios. levels[0] queda en null: el nivel 0 es el
+     * raster de la proyección.
+     */
+    private final class Pyramid {
+
+        private final int[][] levels;
+        private final int[] widths;
+        private final int[] heights;
+        private final int tilesX;
+        private final BitSet dirty;
+
+        Pyramid(int width, int height) {
+            int tileSize = properties.getTileSize();
+
+            // Niveles hasta que el canvas entero entre en un tile
+            int count = 1;
+            while (count <= properties.getOverview().getMaxLevels() &&
+                   ceilDiv(Math.max(width, height), 1 << (count - 1)) > tileSize) {
+                count++;
+            }
+            count = Math.max(count, 2);
+
+            levels = new int[count][];
+            widths = new int[count];
+            heights = new int[count];
+            for (int level = 0; level < count; level++) {
+                widths[level] = ceilDiv(width, 1 << level);
+                heights[level] = ceilDiv(height, 1 << level);
+                if (level > 0) {
+                    levels[level] = new int[widths[level] * heights[level]];
+                }
+            }
+
+            tilesX = ceilDiv(width, tileSize);
+            dirty = new BitSet(tilesX * ceilDiv(height, tileSize));
+            dirty.set(0, tilesX * ceilDiv(height, tileSize));
+        }
+
+        // Lock propio: el event handler no espera a que termine una actualización
+        void markDirty(int tileX, int tileY) {
+            if (tileX < tilesX) {
+                synchronized (dirty) {
+                    dirty.set(tileY * tilesX + tileX);
+                }
+            }
+        }
+
+        void restoreDirty(BitSet drained) {
+            synchronized (dirty) {
+                dirty.or(drained);
+            }
+        }
+
+        BitSet drainDirty() {
+            synchronized (dirty) {
+                BitSet drained = (BitSet) dirty.clone();
+                dirty.clear();
+                return drained;
+            }
+        }
+
+        /**
+         * Recalcula un bloque de celdas del nivel como promedio de 2x2 celdas
+         * del nivel anterior (recortado en los bordes).
+         *
+         * @param source Raster del nivel anterior (el de la proyección para el nivel 1)
+         */
+        void downsample(int level, int[] source, int fromX, int fromY, int size) {
+            int sourceWidth = widths[level - 1];
+            int sourceHeight = heights[level - 1];
+            int[] target = levels[level];
+            int width = widths[level];
+            int toX = Math.min(fromX + size, width);
+            int toY = Math.min(fromY + size, heights[level]);
+
+            for (int y = fromY; y < toY; y++) {
+                for (int x = fromX; x < toX; x++) {
+                    int red = 0;
+                    int green = 0;
+                    int blue = 0;
+                    int samples = 0;
+                    for (int sy = 2 * y; sy < Math.min(2 * y + 2, sourceHeight); sy++) {
+                        for (int sx = 2 * x; sx < Math.min(2 * x + 2, sourceWidth); sx++) {
+                            int rgb = source[sy * sourceWidth + sx];
+                            red += (rgb >>> 16) & 0xFF;
+                            green += (rgb >>> 8) & 0xFF;
+                            blue += rgb & 0xFF;
+                            samples++;
+                        }
+                    }
+                    target[y * width + x] = ((red / samples) << 16) | ((green / samples) << 8) | (blue / samples);
+                }
+            }
+        }
+    }
+}
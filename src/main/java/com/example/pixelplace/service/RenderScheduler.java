@@ -0,0 +1,83 @@
+package com.example.pixelplace.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo dedicado (image-render) para las tareas periódicas de render:
+ * batches por tiempo y ADAPTIVE, regeneraciones diferidas, reintentos,
+ * pirámide de overview y reconciliación de tiles.
+ *
+ * Un render largo no atrasa al scheduler de @Scheduled (digest del feed,
+ * etc.) y las tareas de render no compiten entre sí: corren en un único
+ * hilo, así que los buffers que comparten los ticks de
+ * ImageGenerationEventHandler siguen siendo de un solo thread. La cola está
+ * acotada por construcción: cada tarea es de delay fijo y se reprograma
+ * recién al terminar, así que nunca hay más de una ejecución pendiente por
+ * tarea aunque el render se atrase.
+ *
+ * Métrica: pixelplace.image.render.tick (duración de cada ejecución, por tarea).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RenderScheduler {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    private final MeterRegistry meterRegistry;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "image-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Programa una tarea con delay fijo entre ejecuciones.
+     * Una excepción se registra y no cancela las ejecuciones siguientes.
+     *
+     * @param task Nombre de la tarea (tag de la métrica y logs)
+     */
+    public void scheduleWithFixedDelay(String task, Runnable tick, long delayMillis) {
+        Timer timer = Timer.builder("pixelplace.image.render.tick")
+                .description("Duración de una ejecución de tarea de render")
+                .tag("task", task)
+                .register(meterRegistry);
+
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                timer.record(tick);
+            } catch (Exception e) {
+                log.error("❌ Error en tarea de render {}: {}", task, e.getMessage(), e);
+            }
+        }, delayMillis, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Deja terminar el render en curso (sin interrumpir una escritura a
+     * medias) y cancela las ejecuciones siguientes.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("⚠️ Render en curso no terminó en {} s, se interrumpe", SHUTDOWN_TIMEOUT_SECONDS);
+            executor.shutdownNow();
+        }
+    }
+}
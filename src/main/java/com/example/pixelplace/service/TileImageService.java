@@ -1,5 +1,6 @@
 package com.example.pixelplace.service;
 
+import com.example.pixelplace.batch.PixelBatch;
 import com.example.pixelplace.config.ImageGenerationProperties;
 import com.example.pixelplace.dto.CanvasState;
 import com.example.pixelplace.dto.PixelState;
@@ -11,7 +12,6 @@ import org.springframework.stereotype.Service;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Servicio para generar imágenes de tiles de manera incremental.
@@ -31,6 +31,7 @@ public class TileImageService {
     private final CanvasImageFileRepository imageRepository;
     private final CanvasStateProjection canvasProjection;
     private final ImageGenerationProperties properties;
+    private final BlankImageCache blankImages;
 
     /**
      * Actualiza la imagen de un tile específico de manera incremental.
@@ -44,7 +45,7 @@ public class TileImageService {
      * @return Imagen del tile actualizada
      */
     public BufferedImage updateTileImage(String canvasId, int tileX, int tileY,
-                                         List<PixelState> newPixels, 
+                                         PixelBatch newPixels, 
                                          int scale, boolean grid) throws IOException {
         
         log.info("🎨 Actualizando tile incremental: canvas={}, tile=({},{}), pixels={}, scale={}, grid={}", 
@@ -73,22 +74,21 @@ public class TileImageService {
         g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
         g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
 
-        for (PixelState pixel : newPixels) {
+        for (int i = 0; i < newPixels.size(); i++) {
+            int x = newPixels.x(i);
+            int y = newPixels.y(i);
+
             // Verificar que el pixel pertenece a este tile
-            if (pixel.getX() >= tileStartX && pixel.getX() < tileStartX + tileSize &&
-                pixel.getY() >= tileStartY && pixel.getY() < tileStartY + tileSize) {
+            if (x >= tileStartX && x < tileStartX + tileSize &&
+                y >= tileStartY && y < tileStartY + tileSize) {
                 
-                Color color = parseColor(pixel.getColor());
-                g2d.setColor(color);
+                g2d.setColor(new Color(newPixels.rgb(i)));
                 
                 // Coordenadas relativas al tile y escaladas
-                int relX = (pixel.getX() - tileStartX) * scale;
-                int relY = (pixel.getY() - tileStartY) * scale;
+                int relX = (x - tileStartX) * scale;
+                int relY = (y - tileStartY) * scale;
                 
                 g2d.fillRect(relX, relY, scale, scale);
-                
-                log.debug("🖌️ Pixel pintado en tile: ({}, {}) - {}", 
-                        pixel.getX(), pixel.getY(), pixel.getColor());
             }
         }
 
@@ -135,7 +135,21 @@ public class TileImageService {
         
         int actualTileWidth = tileEndX - tileStartX;
         int actualTileHeight = tileEndY - tileStartY;
-        
+
+        BufferedImage image = createBaseTileImage(actualTileWidth, actualTileHeight,
+                canvasState.getBackgroundColor(), scale);
+
+        log.info("📄 Tile base creado: ({}, {}) - {}x{}", 
+                tileX, tileY, image.getWidth(), image.getHeight());
+
+        return image;
+    }
+
+    /**
+     * Crea una imagen base de tile (fondo solamente) a partir de sus dimensiones.
+     */
+    private BufferedImage createBaseTileImage(int actualTileWidth, int actualTileHeight,
+                                              String backgroundColor, int scale) {
         int scaledWidth = actualTileWidth * scale;
         int scaledHeight = actualTileHeight * scale;
 
@@ -151,18 +165,76 @@ public class TileImageService {
         g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
 
         // Pintar fondo
-        Color bgColor = parseColor(canvasState.getBackgroundColor());
+        Color bgColor = parseColor(backgroundColor);
         g2d.setColor(bgColor);
         g2d.fillRect(0, 0, scaledWidth, scaledHeight);
 
         g2d.dispose();
 
-        log.info("📄 Tile base creado: ({}, {}) - {}x{}", 
-                tileX, tileY, scaledWidth, scaledHeight);
-
         return image;
     }
 
+    /**
+     * Guarda un tile sin pixeles (solo fondo) sin dibujarlo ni codificarlo:
+     * reutiliza los bytes PNG de BlankImageCache.
+     * 
+     * @param canvasId ID del canvas
+     * @param tileX Índice X del tile
+     * @param tileY Índice Y del tile
+     * @param canvasWidth Ancho del canvas en pixeles
+     * @param canvasHeight Alto del canvas en pixeles
+     * @param backgroundColor Color de fondo
+     * @param scale Factor de escala
+     * @param grid Si se debe dibujar cuadrícula
+     */
+    public void saveBlankTile(String canvasId, int tileX, int tileY, int canvasWidth, int canvasHeight,
+                              String backgroundColor, int scale, boolean grid) throws IOException {
+        int tileSize = properties.getTileSize();
+        int width = Math.min(tileSize, canvasWidth - tileX * tileSize);
+        int height = Math.min(tileSize, canvasHeight - tileY * tileSize);
+
+        byte[] png = blankImages.get(width, height, backgroundColor, scale, grid, () -> {
+            BufferedImage image = createBaseTileImage(width, height, backgroundColor, scale);
+            return grid && scale > 1 ? addGridToTileImage(image, width, height, scale) : image;
+        });
+
+        imageRepository.saveEncodedTileImage(canvasId, tileX, tileY, png, scale);
+    }
+
+    /**
+     * Crea todos los tiles en blanco de un canvas recién creado, para que
+     * estén disponibles desde el inicio.
+     * 
+     * Solo si el almacenamiento deduplica: cada tile cuesta un puntero al
+     * mismo PNG. Con un PNG por archivo no se crean (se generan al pintar).
+     * 
+     * @return Cantidad de tiles guardados
+     */
+    public int createBlankTiles(String canvasId, int canvasWidth, int canvasHeight,
+                                String backgroundColor, boolean grid) throws IOException {
+        if (!imageRepository.isDeduplicating()) {
+            return 0;
+        }
+
+        int tileSize = properties.getTileSize();
+        int tilesX = (canvasWidth + tileSize - 1) / tileSize;
+        int tilesY = (canvasHeight + tileSize - 1) / tileSize;
+        int saved = 0;
+
+        for (int scale : properties.getTileScaleVersions()) {
+            for (int tileY = 0; tileY < tilesY; tileY++) {
+                for (int tileX = 0; tileX < tilesX; tileX++) {
+                    saveBlankTile(canvasId, tileX, tileY, canvasWidth, canvasHeight, backgroundColor, scale, grid);
+                    saved++;
+                }
+            }
+        }
+
+        log.info("📄 Tiles en blanco creados: canvas={}, {} tiles", canvasId, saved);
+
+        return saved;
+    }
+
     /**
      * Agrega grid a una imagen de tile existente.
      * Se usa DESPUÉS de pintar pixeles para evitar sobrescritura.
@@ -233,11 +305,15 @@ public class TileImageService {
     /**
      * Regenera completamente la imagen de un tile (útil si hay corrupción).
      * 
+     * Si el tile no tiene pixeles se guarda el PNG en blanco cacheado,
+     * sin dibujar ni codificar.
+     * 
      * @param canvasId ID del canvas
      * @param tileX Índice X del tile
      * @param tileY Índice Y del tile
      * @param scale Factor de escala
      * @param grid Si se debe dibujar cuadrícula
+     * @return Imagen regenerada, o null si el tile quedó en blanco
      */
     public BufferedImage regenerateFullTileImage(String canvasId, int tileX, int tileY, 
                                                  int scale, boolean grid) throws IOException {
@@ -246,25 +322,29 @@ public class TileImageService {
 
         CanvasState canvasState = canvasProjection.rebuildCanvasState(canvasId);
 
-        // Crear imagen base del tile (sin grid)
-        BufferedImage image = createBaseTileImage(canvasState, tileX, tileY, scale, false);
-
-        // Pintar TODOS los pixeles del tile
         int tileSize = properties.getTileSize();
         int tileStartX = tileX * tileSize;
         int tileStartY = tileY * tileSize;
         int tileEndX = Math.min(tileStartX + tileSize, canvasState.getWidth());
         int tileEndY = Math.min(tileStartY + tileSize, canvasState.getHeight());
 
-        Graphics2D g2d = image.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        // Pintar TODOS los pixeles del tile (la imagen base se crea con el primero)
+        BufferedImage image = null;
+        Graphics2D g2d = null;
 
         int pixelCount = 0;
         for (PixelState pixel : canvasState.getPixels().values()) {
             if (pixel.getX() >= tileStartX && pixel.getX() < tileEndX &&
                 pixel.getY() >= tileStartY && pixel.getY() < tileEndY) {
+
+                if (g2d == null) {
+                    // Crear imagen base del tile (sin grid)
+                    image = createBaseTileImage(canvasState, tileX, tileY, scale, false);
+                    g2d = image.createGraphics();
+                    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_OFF);
+                    g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+                }
                 
                 Color color = parseColor(pixel.getColor());
                 g2d.setColor(color);
@@ -277,6 +357,14 @@ public class TileImageService {
             }
         }
 
+        // Tile en blanco conocido: sin dibujar ni codificar
+        if (g2d == null) {
+            saveBlankTile(canvasId, tileX, tileY, canvasState.getWidth(), canvasState.getHeight(),
+                    canvasState.getBackgroundColor(), scale, grid);
+            log.info("✅ Tile regenerado en blanco: ({}, {}), grid={}", tileX, tileY, grid);
+            return null;
+        }
+
         g2d.dispose();
 
         // IMPORTANTE: Aplicar grid DESPUÉS de pintar todos los pixeles
@@ -294,18 +382,4 @@ public class TileImageService {
 
         return image;
     }
-
-    /**
-     * Calcula el índice de tile para unas coordenadas.
-     * 
-     * @param x Coordenada X del pixel
-     * @param y Coordenada Y del pixel
-     * @return Array [tileX, tileY]
-     */
-    public int[] getTileIndices(int x, int y) {
-        int tileSize = properties.getTileSize();
-        int tileX = x / tileSize;
-        int tileY = y / tileSize;
-        return new int[]{tileX, tileY};
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,151 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasState;
+import com.example.pixelplace.dto.TileManifest;
+import com.example.pixelplace.repository.CanvasImageFileRepository;
+import com.example.pixelplace.repository.ImageVersion;
+import com.example.pixelplace.repository.storage.ContentHash;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Arma el manifiesto de tiles de un canvas desde las versiones en memoria.
+ *
+ * Con el manifiesto el cliente compara versiones y pide solo los tiles que
+ * cambiaron, en URLs versionadas que se pueden cachear para siempre.
+ *
+ * El manifiesto se guarda por canvas junto con su ETag y la generación de
+ * ImageVersionRegistry con la que se armó: mientras ningún tile cambie
+ * (cada guardado avanza la generación) se responde sin tocar el storage.
+ * Si cambió, se rearma desde las versiones en memoria y solo se consulta
+ * el storage por los tiles que no están ahí. Con varios pods (relay
+ * distinto de LOCAL) otros procesos escriben tiles sin pasar por este
+ * registro, así que además se rearma consultando el storage como mucho
+ * cada storage.cache-revalidate-millis.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TileManifestService {
+
+    private final CanvasImageFileRepository imageRepository;
+    private final CanvasStateProjection canvasProjection;
+    private final ImageGenerationProperties properties;
+    private final LiveUpdateProperties liveProperties;
+
+    private final ConcurrentHashMap<String, CachedManifest> manifests = new ConcurrentHashMap<>();
+
+    /**
+     * Manifiesto armado con su ETag y el estado con el que se armó.
+     */
+    @Value
+    public static class CachedManifest {
+        TileManifest manifest;
+        String eTag;
+        long generation;
+        long validatedMillis;
+    }
+
+    /**
+     * @param canvasId ID del canvas
+     * @return Manifiesto con todas las escalas de tiles configuradas, con su
+     *         ETag, o null si el canvas no existe
+     */
+    public CachedManifest getManifest(String canvasId) throws IOException {
+        // Antes de leer versiones: un tile guardado durante el armado lo vuelve a invalidar
+        long generation = imageRepository.tileVersionGeneration(canvasId);
+        long now = System.currentTimeMillis();
+
+        CachedManifest cached = manifests.get(canvasId);
+        boolean validated = cached != null && !needsValidation(cached, now);
+        if (validated && cached.getGeneration() == generation) {
+            return cached;
+        }
+
+        TileManifest manifest = buildManifest(canvasId, validated ? cached.getManifest() : null);
+        if (manifest == null) {
+            return null;
+        }
+        CachedManifest built = new CachedManifest(manifest, eTag(manifest), generation,
+                validated ? cached.getValidatedMillis() : now);
+        manifests.put(canvasId, built);
+        return built;
+    }
+
+    private boolean needsValidation(CachedManifest cached, long now) {
+        if (!liveProperties.isRelayed()) {
+            return false;
+        }
+        return now - cached.getValidatedMillis() >= properties.getStorage().getCacheRevalidateMillis();
+    }
+
+    /**
+     * @param previous Manifiesto vigente (solo cambiaron tiles de este pod), o
+     *                 null para validar todas las versiones contra el storage
+     * @return Manifiesto o null si el canvas no existe
+     */
+    private TileManifest buildManifest(String canvasId, TileManifest previous) throws IOException {
+        CanvasState state = canvasProjection.findCanvasState(canvasId);
+        if (state == null) {
+            return null;
+        }
+
+        int tileSize = properties.getTileSize();
+        int tilesX = (state.getWidth() + tileSize - 1) / tileSize;
+        int tilesY = (state.getHeight() + tileSize - 1) / tileSize;
+
+        Map<Integer, long[]> versions = new LinkedHashMap<>();
+        for (int scale : properties.getTileScaleVersions()) {
+            long[] scaleVersions = new long[tilesX * tilesY];
+            for (int tileY = 0; tileY < tilesY; tileY++) {
+                for (int tileX = 0; tileX < tilesX; tileX++) {
+                    ImageVersion version = previous != null
+                            ? imageRepository.getKnownTileImageVersion(canvasId, tileX, tileY, scale)
+                            : null;
+                    if (version == null) {
+                        version = imageRepository.getTileImageVersion(canvasId, tileX, tileY, scale);
+                    }
+                    if (version != null) {
+                        scaleVersions[tileY * tilesX + tileX] = version.getVersion();
+                    }
+                }
+            }
+            versions.put(scale, scaleVersions);
+        }
+
+        log.debug("📋 Manifiesto de tiles: canvas={}, {}x{} tiles, {} escalas ({})",
+                canvasId, tilesX, tilesY, versions.size(), previous != null ? "memoria" : "storage");
+
+        return new TileManifest(canvasId, tileSize, tilesX, tilesY, versions);
+    }
+
+    /**
+     * ETag del manifiesto: hash de todas las versiones (salen del contenido
+     * de cada tile), así cambia con cualquier tile y coincide entre réplicas.
+     */
+    static String eTag(TileManifest manifest) {
+        int count = 0;
+        for (long[] scaleVersions : manifest.getVersions().values()) {
+            count += 1 + scaleVersions.length;
+        }
+        ByteBuffer fingerprint = ByteBuffer.allocate(8 * count);
+        for (Map.Entry<Integer, long[]> entry : manifest.getVersions().entrySet()) {
+            fingerprint.putLong(entry.getKey());
+            for (long version : entry.getValue()) {
+                fingerprint.putLong(version);
+            }
+        }
+        fingerprint.flip();
+        return "\"m" + ContentHash.of(fingerprint) + "\"";
+    }
+}
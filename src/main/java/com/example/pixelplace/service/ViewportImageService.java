@@ -0,0 +1,326 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.dto.CanvasState;
+import com.example.pixelplace.repository.CanvasImageFileRepository;
+import com.example.pixelplace.repository.ImageVersion;
+import com.example.pixelplace.repository.storage.ContentHash;
+import com.example.pixelplace.repository.storage.ImageKey;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Imagen de una región (viewport) del canvas armada con los tiles.
+ *
+ * En lugar de reconstruir el estado y dibujar pixel por pixel (como
+ * CanvasImageService.generateRegionImage), copia los rectángulos de los
+ * tiles ya renderizados en la escala pedida. Así la carga inicial de la
+ * página es un solo request y el costo está acotado por maxImagePixels.
+ *
+ * El ETag sale de la región y de las versiones de los tiles que cubre:
+ * se puede responder 304 antes de armar nada. Los PNG codificados se
+ * cachean un rato por ETag (los viewports populares se codifican una vez)
+ * y los tiles decodificados se guardan en un LRU acotado por pixeles.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ViewportImageService {
+
+    private final OnDemandRenderService onDemandRenderService;
+    private final CanvasImageFileRepository imageRepository;
+    private final CanvasStateProjection canvasProjection;
+    private final ImageGenerationProperties properties;
+
+    // PNG por ETag; el future hace que requests iguales esperen la misma codificación
+    private final ConcurrentHashMap<String, CachedViewport> encoded = new ConcurrentHashMap<>();
+
+    // Tiles decodificados (LRU por pixeles)
+    private final LinkedHashMap<ImageKey, Raster> rasters = new LinkedHashMap<>(64, 0.75f, true);
+    private long rasterPixels;
+
+    /**
+     * Región pedida, recortada al canvas, con las versiones de sus tiles.
+     */
+    @Value
+    public static class Viewport {
+        String canvasId;
+        int x;
+        int y;
+        int width;
+        int height;
+        int zoom;
+        String backgroundColor;
+        int firstTileX;
+        int firstTileY;
+        int tilesX;
+        int tilesY;
+        long[] tileVersions;
+        String eTag;
+    }
+
+    /**
+     * Resuelve la región y las versiones de sus tiles (renderizando a demanda
+     * los que falten), sin armar la imagen.
+     *
+     * @return Viewport o null si el canvas no existe o la región cae fuera de él
+     * @throws IllegalArgumentException si la imagen supera maxImagePixels
+     */
+    public Viewport resolve(String canvasId, int x, int y, int width, int height, int zoom) throws IOException {
+        CanvasState state = canvasProjection.findCanvasState(canvasId);
+        if (state == null) {
+            return null;
+        }
+
+        // Recortar al canvas
+        int endX = Math.min(x + width, state.getWidth());
+        int endY = Math.min(y + height, state.getHeight());
+        if (x >= endX || y >= endY) {
+            return null;
+        }
+        width = endX - x;
+        height = endY - y;
+
+        long pixels = (long) width * height * zoom * zoom;
+        if (pixels > properties.getViewport().getMaxImagePixels()) {
+            throw new IllegalArgumentException("Viewport demasiado grande: " + pixels + " pixeles");
+        }
+
+        int tileSize = properties.getTileSize();
+        int firstTileX = x / tileSize;
+        int firstTileY = y / tileSize;
+        int tilesX = (endX - 1) / tileSize - firstTileX + 1;
+        int tilesY = (endY - 1) / tileSize - firstTileY + 1;
+
+        long[] versions = new long[tilesX * tilesY];
+        byte[] canvasBytes = canvasId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer fingerprint = ByteBuffer.allocate(canvasBytes.length + 24 + 8 * versions.length);
+        fingerprint.put(canvasBytes).putInt(x).putInt(y).putInt(width).putInt(height).putInt(zoom)
+                .putInt(properties.isDefaultGrid() ? 1 : 0);
+
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                ImageVersion version = onDemandRenderService.getOrRenderTile(
+                        canvasId, firstTileX + tx, firstTileY + ty, zoom);
+                long value = version != null ? version.getVersion() : 0;
+                versions[ty * tilesX + tx] = value;
+                fingerprint.putLong(value);
+            }
+        }
+        fingerprint.flip();
+        String eTag = "\"v" + ContentHash.of(fingerprint) + "\"";
+
+        return new Viewport(canvasId, x, y, width, height, zoom, state.getBackgroundColor(),
+                firstTileX, firstTileY, tilesX, tilesY, versions, eTag);
+    }
+
+    /**
+     * PNG del viewport: del cache si otro request ya lo armó con las mismas
+     * versiones de tiles, o armándolo y codificándolo una vez.
+     */
+    public byte[] render(Viewport viewport) throws IOException {
+        long now = System.currentTimeMillis();
+        CachedViewport mine = new CachedViewport(new CompletableFuture<>(), now);
+        CachedViewport cached = encoded.putIfAbsent(viewport.getETag(), mine);
+
+        if (cached != null && now - cached.getCreatedMillis() <= properties.getViewport().getCacheTtlMillis()) {
+            return await(cached.getPng());
+        }
+        if (cached != null) {
+            // Vencido: reemplazarlo (si otro request no lo hizo ya)
+            if (!encoded.replace(viewport.getETag(), cached, mine)) {
+                return render(viewport);
+            }
+        }
+
+        evictExpired(now);
+
+        try {
+            byte[] png = imageRepository.encodePng(stitch(viewport));
+            mine.getPng().complete(png);
+            log.debug("🗺️ Viewport armado: canvas={}, ({},{}) {}x{} zoom={}, {} tiles, {}KB",
+                    viewport.getCanvasId(), viewport.getX(), viewport.getY(), viewport.getWidth(),
+                    viewport.getHeight(), viewport.getZoom(), viewport.getTileVersions().length, png.length / 1024);
+            return png;
+        } catch (IOException | RuntimeException e) {
+            encoded.remove(viewport.getETag(), mine);
+            mine.getPng().completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Copia a la imagen del viewport la parte visible de cada tile.
+     */
+    private BufferedImage stitch(Viewport viewport) throws IOException {
+        int zoom = viewport.getZoom();
+        int tileSize = properties.getTileSize();
+
+        BufferedImage image = new BufferedImage(
+                viewport.getWidth() * zoom, viewport.getHeight() * zoom, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+
+        try {
+            g2d.setColor(new Color(HexColor.parseRgb(viewport.getBackgroundColor())));
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+            int viewEndX = viewport.getX() + viewport.getWidth();
+            int viewEndY = viewport.getY() + viewport.getHeight();
+
+            for (int ty = 0; ty < viewport.getTilesY(); ty++) {
+                for (int tx = 0; tx < viewport.getTilesX(); tx++) {
+                    long version = viewport.getTileVersions()[ty * viewport.getTilesX() + tx];
+                    if (version == 0) {
+                        continue;
+                    }
+
+                    int tileX = viewport.getFirstTileX() + tx;
+                    int tileY = viewport.getFirstTileY() + ty;
+                    BufferedImage tile = raster(viewport.getCanvasId(), tileX, tileY, zoom, version);
+                    if (tile == null) {
+                        continue;
+                    }
+
+                    // Intersección del tile con el viewport, en pixeles del canvas
+                    int tileStartX = tileX * tileSize;
+                    int tileStartY = tileY * tileSize;
+                    int fromX = Math.max(viewport.getX(), tileStartX);
+                    int fromY = Math.max(viewport.getY(), tileStartY);
+                    int toX = Math.min(viewEndX, tileStartX + tileSize);
+                    int toY = Math.min(viewEndY, tileStartY + tileSize);
+
+                    g2d.drawImage(tile,
+                            (fromX - viewport.getX()) * zoom, (fromY - viewport.getY()) * zoom,
+                            (toX - viewport.getX()) * zoom, (toY - viewport.getY()) * zoom,
+                            (fromX - tileStartX) * zoom, (fromY - tileStartY) * zoom,
+                            (toX - tileStartX) * zoom, (toY - tileStartY) * zoom,
+                            null);
+                }
+            }
+        } finally {
+            g2d.dispose();
+        }
+
+        return image;
+    }
+
+    /**
+     * Tile decodificado en una versión, del LRU o leyéndolo del repositorio.
+     */
+    private BufferedImage raster(String canvasId, int tileX, int tileY, int zoom, long version) throws IOException {
+        ImageKey key = ImageKey.tile(canvasId, tileX, tileY, zoom);
+
+        synchronized (rasters) {
+            Raster cached = rasters.get(key);
+            if (cached != null && cached.getVersion() == version) {
+                return cached.getImage();
+            }
+        }
+
+        BufferedImage image = imageRepository.loadTileImage(canvasId, tileX, tileY, zoom);
+        if (image == null) {
+            return null;
+        }
+
+        long maxPixels = properties.getViewport().getRasterCacheMaxPixels();
+        long pixels = (long) image.getWidth() * image.getHeight();
+        if (pixels > maxPixels) {
+            return image;
+        }
+
+        synchronized (rasters) {
+            Raster previous = rasters.put(key, new Raster(version, image));
+            if (previous != null) {
+                rasterPixels -= previous.pixels();
+            }
+            rasterPixels += pixels;
+
+            Iterator<Raster> eldest = rasters.values().iterator();
+            while (rasterPixels > maxPixels && eldest.hasNext()) {
+                rasterPixels -= eldest.next().pixels();
+                eldest.remove();
+            }
+        }
+
+        return image;
+    }
+
+    private void evictExpired(long now) {
+        int maxEntries = properties.getViewport().getCacheMaxEntries();
+        if (encoded.size() <= maxEntries) {
+            return;
+        }
+
+        long ttl = properties.getViewport().getCacheTtlMillis();
+        encoded.entrySet().removeIf(entry -> now - entry.getValue().getCreatedMillis() > ttl);
+
+        // Todos vigentes: descartar los más viejos (por createdMillis) hasta
+        // volver al límite. Los que se están armando no se tocan: hay
+        // requests esperando su PNG
+        if (encoded.size() <= maxEntries) {
+            return;
+        }
+        List<Map.Entry<String, CachedViewport>> oldest = new ArrayList<>();
+        for (Map.Entry<String, CachedViewport> entry : encoded.entrySet()) {
+            if (entry.getValue().getPng().isDone()) {
+                oldest.add(entry);
+            }
+        }
+        oldest.sort(Comparator.comparingLong(entry -> entry.getValue().getCreatedMillis()));
+        for (Map.Entry<String, CachedViewport> entry : oldest) {
+            if (encoded.size() <= maxEntries) {
+                break;
+            }
+            encoded.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> png) throws IOException {
+        try {
+            return png.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrumpido esperando el viewport", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Falló el armado del viewport", e.getCause());
+        }
+    }
+
+    @Value
+    private static class CachedViewport {
+        CompletableFuture<byte[]> png;
+        long createdMillis;
+    }
+
+    @Value
+    private static class Raster {
+        long version;
+        BufferedImage image;
+
+        long pixels() {
+            return (long) image.getWidth() * image.getHeight();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.pixelplace.websocket;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.dto.PixelBatchMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Formato binario opcional de los mensajes de pixeles (big-endian).
+ *
+ * <pre>
+ *   type                        u8   (1 = batch de pixeles)
+ *   flags                       u8   (bit 0: paleta, bit 1: usuarios)
+ *   fromSequence, toSequence    long, long   (pixeles en (from, to])
+ *   count                       int
+ *   [paleta]   size u8, size x RGB (3 bytes)
+ *   [usuarios] size u16, size x (largo u8, UTF-8)
+ *   pixels     count x (x u16, y u16, color, [usuario u16])
+ *              color = índice de paleta (u8) o RGB (3 bytes)
+ * </pre>
+ *
+ * Un frame de resync (type 2, ver ResyncingSessionDecorator) lleva solo
+ * type, flags = 0 y fromSequence: el cliente debe pedir los cambios
+ * posteriores a esa secuencia por HTTP.
+ *
+ * El canvas lo identifica el destino. La paleta y el diccionario de
+ * usuarios son del frame (no hay estado por conexión), así el mismo frame
+ * se codifica una vez y el broker lo reparte a todas las sesiones. Un
+ * pixel ocupa 5 a 9 bytes contra ~150 del JSON.
+ */
+public final class BinaryPixelFrame {
+
+    public static final int TYPE_BATCH = 1;
+    public static final int TYPE_RESYNC = 2;
+    public static final int FLAG_PALETTE = 1;
+    public static final int FLAG_USERS = 1 << 1;
+
+    private static final int MAX_PALETTE = 255;
+    private static final int MAX_USERS = 0xFFFF;
+    private static final int MAX_USER_BYTES = 0xFF;
+
+    private BinaryPixelFrame() {
+    }
+
+    /**
+     * @param includeUsers Incluir el diccionario de usuarios y el usuario de cada pixel
+     */
+    public static byte[] encode(PixelBatchMessage batch, boolean includeUsers) {
+        int count = batch.getX().length;
+        String[] colors = batch.getColors();
+
+        // Paleta del frame (null si hay demasiados colores)
+        int[] rgb = new int[count];
+        int[] palette = new int[16];
+        int paletteSize = 0;
+        int[] table = new int[512];
+        Arrays.fill(table, -1);
+        for (int i = 0; i < count; i++) {
+            rgb[i] = HexColor.parseRgb(colors[i]);
+            if (palette == null) {
+                continue;
+            }
+            int slot = mix(rgb[i]) & (table.length - 1);
+            while (table[slot] >= 0 && palette[table[slot]] != rgb[i]) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            if (table[slot] < 0) {
+                if (paletteSize == MAX_PALETTE) {
+                    palette = null;
+                    continue;
+                }
+                if (paletteSize == palette.length) {
+                    palette = Arrays.copyOf(palette, paletteSize * 2);
+                }
+                table[slot] = paletteSize;
+                palette[paletteSize++] = rgb[i];
+            }
+        }
+
+        // Diccionario de usuarios del frame
+        Map<String, Integer> userIndexes = null;
+        byte[][] users = null;
+        int usersBytes = 0;
+        if (includeUsers) {
+            userIndexes = new HashMap<>();
+            users = new byte[Math.min(count, MAX_USERS)][];
+            for (String userId : batch.getUserIds()) {
+                String key = userId != null ? userId : "";
+                if (userIndexes.size() < MAX_USERS && !userIndexes.containsKey(key)) {
+                    byte[] utf8 = key.getBytes(StandardCharsets.UTF_8);
+                    if (utf8.length > MAX_USER_BYTES) {
+                        utf8 = Arrays.copyOf(utf8, MAX_USER_BYTES);
+                    }
+                    users[userIndexes.size()] = utf8;
+                    userIndexes.put(key, userIndexes.size());
+                    usersBytes += 1 + utf8.length;
+                }
+            }
+        }
+
+        int flags = (palette != null ? FLAG_PALETTE : 0) | (includeUsers ? FLAG_USERS : 0);
+        int pixelBytes = 4 + (palette != null ? 1 : 3) + (includeUsers ? 2 : 0);
+        int size = 2 + 16 + 4
+                + (palette != null ? 1 + 3 * paletteSize : 0)
+                + (includeUsers ? 2 + usersBytes : 0)
+                + count * pixelBytes;
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.put((byte) TYPE_BATCH)
+                .put((byte) flags)
+                .putLong(batch.getFromSequence())
+                .putLong(batch.getToSequence())
+                .putInt(count);
+
+        if (palette != null) {
+            out.put((byte) paletteSize);
+            for (int i = 0; i < paletteSize; i++) {
+                putRgb(out, palette[i]);
+            }
+        }
+        if (includeUsers) {
+            out.putShort((short) userIndexes.size());
+            for (int i = 0; i < userIndexes.size(); i++) {
+                out.put((byte) users[i].length).put(users[i]);
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            out.putShort((short) batch.getX()[i]).putShort((short) batch.getY()[i]);
+            if (palette != null) {
+                int slot = mix(rgb[i]) & (table.length - 1);
+                while (palette[table[slot]] != rgb[i]) {
+                    slot = (slot + 1) & (table.length - 1);
+                }
+                out.put((byte) table[slot]);
+            } else {
+                putRgb(out, rgb[i]);
+            }
+            if (includeUsers) {
+                String userId = batch.getUserIds()[i];
+                Integer index = userIndexes.get(userId != null ? userId : "");
+                out.putShort((short) (index != null ? index : 0));
+            }
+        }
+
+        return out.array();
+    }
+
+    /**
+     * Frame de resync: el cliente pide los cambios posteriores a fromSequence.
+     */
+    public static byte[] encodeResync(long fromSequence) {
+        return ByteBuffer.allocate(10)
+                .put((byte) TYPE_RESYNC)
+                .put((byte) 0)
+                .putLong(fromSequence)
+                .array();
+    }
+
+    private static void putRgb(ByteBuffer out, int rgb) {
+        out.put((byte) (rgb >>> 16)).put((byte) (rgb >>> 8)).put((byte) rgb);
+    }
+
+    private static int mix(int rgb) {
+        int h = rgb * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
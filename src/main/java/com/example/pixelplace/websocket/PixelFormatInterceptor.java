@@ -0,0 +1,82 @@
+package com.example.pixelplace.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Negocia por conexión el formato de los mensajes de pixeles.
+ *
+ * Un cliente que envía el header {@code pixel-format:binary} en el CONNECT
+ * recibe frames BinaryPixelFrame: sus SUBSCRIBE a /topic/canvas/{canvasId}
+ * (o a un tile, /topic/canvas/{canvasId}/tile/{x}/{y}) se redirigen al
+ * mismo destino con sufijo .bin. El resto sigue recibiendo
+ * JSON. Los frames binarios requieren WebSocket nativo: SockJS no tiene
+ * frames binarios, así que en una sesión SockJS (cualquier transporte) el
+ * pedido se ignora y la sesión sigue en JSON. El endpoint /ws acepta
+ * WebSocket nativo, sin el protocolo SockJS, en /ws/websocket.
+ */
+@Slf4j
+@Component
+public class PixelFormatInterceptor implements ChannelInterceptor {
+
+    public static final String FORMAT_HEADER = "pixel-format";
+    public static final String BINARY = "binary";
+    public static final String BINARY_SUFFIX = ".bin";
+
+    private static final String CANVAS_TOPIC = "/topic/canvas/";
+    private static final String FORMAT_ATTRIBUTE = "pixelFormat";
+
+    /**
+     * Atributo de sesión: true si la conexión es WebSocket nativo (lo pone
+     * ResyncingSubProtocolWebSocketHandler al abrirla)
+     */
+    public static final String NATIVE_ATTRIBUTE = "pixelNativeWebSocket";
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null) {
+            return message;
+        }
+
+        Map<String, Object> attributes = accessor.getSessionAttributes();
+        if (attributes == null) {
+            return message;
+        }
+
+        if (accessor.getCommand() == StompCommand.CONNECT) {
+            if (BINARY.equalsIgnoreCase(accessor.getFirstNativeHeader(FORMAT_HEADER))) {
+                if (Boolean.TRUE.equals(attributes.get(NATIVE_ATTRIBUTE))) {
+                    attributes.put(FORMAT_ATTRIBUTE, BINARY);
+                    log.debug("🔢 Sesión {} con formato binario", accessor.getSessionId());
+                } else {
+                    log.debug("🔢 Sesión {} pidió formato binario sobre SockJS: sigue en JSON",
+                            accessor.getSessionId());
+                }
+            }
+        } else if (accessor.getCommand() == StompCommand.SUBSCRIBE && BINARY.equals(attributes.get(FORMAT_ATTRIBUTE))) {
+            String destination = accessor.getDestination();
+            if (isCanvasTopic(destination)) {
+                accessor.setDestination(destination + BINARY_SUFFIX);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Destino de pixeles de un canvas (o de uno de sus tiles) sin sufijo de formato.
+     */
+    private static boolean isCanvasTopic(String destination) {
+        return destination != null
+                && destination.startsWith(CANVAS_TOPIC)
+                && !destination.endsWith(BINARY_SUFFIX);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.pixelplace.websocket;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Endpoint WebSocket sin SockJS ni STOMP (/ws-raw) para visores de alto
+ * volumen.
+ *
+ * Protocolo mínimo, un canvas por conexión. El cliente envía texto:
+ *
+ * <pre>
+ *   SUBSCRIBE {canvasId}    (reemplaza la suscripción anterior)
+ *   UNSUBSCRIBE
+ * </pre>
+ *
+ * y recibe mensajes binarios que son BinaryPixelFrame tal cual, sin
+ * headers: WebSocketEventHandler codifica cada frame una vez y aquí solo
+ * se envuelve el mismo byte[] para cada sesión. Las sesiones usan las
+ * mismas colas acotadas que STOMP (ver ResyncingSessionFactory): una
+ * sesión atrasada recibe un frame RESYNC. Al reconectar, el cliente pide
+ * GET /api/canvas/{canvasId}/state/changes con su última secuencia.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RawPixelWebSocketHandler extends TextWebSocketHandler {
+
+    public static final String SUBSCRIBE = "SUBSCRIBE";
+    public static final String UNSUBSCRIBE = "UNSUBSCRIBE";
+
+    private final ResyncingSessionFactory sessionFactory;
+
+    // Sesiones decoradas por canvas
+    private final ConcurrentHashMap<String, Set<WebSocketSession>> subscribers = new ConcurrentHashMap<>();
+
+    // sessionId → sesión decorada y canvas suscrito
+    private final ConcurrentHashMap<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> canvases = new ConcurrentHashMap<>();
+
+    public boolean hasSubscribers(String canvasId) {
+        return subscribers.containsKey(canvasId);
+    }
+
+    /**
+     * Envía un BinaryPixelFrame ya codificado a las sesiones del canvas.
+     */
+    public void send(String canvasId, byte[] frame) {
+        Set<WebSocketSession> targets = subscribers.get(canvasId);
+        if (targets == null) {
+            return;
+        }
+        for (WebSocketSession session : targets) {
+            try {
+                // Un BinaryMessage por sesión: el contenedor consume la posición del buffer
+                session.sendMessage(new BinaryMessage(frame));
+            } catch (IOException | RuntimeException e) {
+                log.debug("🔌 Sesión raw {} descartada: {}", session.getId(), e.getMessage());
+                closeQuietly(session, CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        sessions.put(session.getId(), sessionFactory.decorate(session, false));
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        WebSocketSession decorated = sessions.get(session.getId());
+        if (decorated == null) {
+            return;
+        }
+
+        String command = message.getPayload().trim();
+        if (command.startsWith(SUBSCRIBE + " ")) {
+            String canvasId = command.substring(SUBSCRIBE.length() + 1).trim();
+            if (canvasId.isEmpty()) {
+                closeQuietly(decorated, CloseStatus.BAD_DATA);
+                return;
+            }
+            unsubscribe(decorated);
+            canvases.put(session.getId(), canvasId);
+            subscribers.compute(canvasId, (id, set) -> {
+                Set<WebSocketSession> targets = set != null ? set : ConcurrentHashMap.newKeySet();
+                targets.add(decorated);
+                return targets;
+            });
+            log.debug("📡 Sesión raw {} suscrita al canvas {}", session.getId(), canvasId);
+        } else if (command.equals(UNSUBSCRIBE)) {
+            unsubscribe(decorated);
+        } else {
+            closeQuietly(decorated, CloseStatus.BAD_DATA);
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        WebSocketSession decorated = sessions.remove(session.getId());
+        if (decorated != null) {
+            unsubscribe(decorated);
+        }
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        log.debug("🔌 Error de transporte en la sesión raw {}: {}", session.getId(), exception.getMessage());
+    }
+
+    private void unsubscribe(WebSocketSession session) {
+        String canvasId = canvases.remove(session.getId());
+        if (canvasId == null) {
+            return;
+        }
+        subscribers.computeIfPresent(canvasId, (id, set) -> {
+            set.remove(session);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static void closeQuietly(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            log.debug("🔌 Error cerrando la sesión raw {}: {}", session.getId(), e.getMessage());
+        }
+    }
+}
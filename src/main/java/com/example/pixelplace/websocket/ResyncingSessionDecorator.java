@@ -0,0 +1,384 @@
+package com.example.pixelplace.websocket;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sesión WebSocket con cola de salida acotada.
+ *
+ * sendMessage solo encola: un hilo del pool de flush vacía la cola, así
+ * una sesión lenta no bloquea al canal de salida ni a las demás sesiones.
+ * Si los bytes en cola superan el límite, los mensajes de pixeles
+ * pendientes (PIXEL_PLACED, PIXEL_BATCH y sus frames binarios) se
+ * descartan y cada suscripción afectada recibe un único RESYNC con la
+ * secuencia desde la que faltan cambios:
+ *
+ * <pre>
+ *   JSON:    {"type":"RESYNC","canvasId":"...","fromSequence":N}
+ *   binario: BinaryPixelFrame type 2 con fromSequence N
+ * </pre>
+ *
+ * El cliente pide GET /api/canvas/{canvasId}/state/changes?since=N (o el
+ * estado completo si responde 410). En las sesiones del endpoint sin STOMP
+ * (ver RawPixelWebSocketHandler) los mensajes son BinaryPixelFrame sin
+ * envoltura y el RESYNC es un solo frame binario. Los demás frames (RECEIPT, ERROR,
+ * otros destinos) se conservan en orden. Si aun así se supera el límite,
+ * o un envío lleva bloqueado más del tiempo límite, la sesión se cierra.
+ */
+@Slf4j
+public class ResyncingSessionDecorator extends WebSocketSessionDecorator {
+
+    private static final String CANVAS_TOPIC = "/topic/canvas/";
+    private static final byte[] PIXEL_TYPE = "\"type\":\"PIXEL_".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] RESYNC_TYPE = "\"type\":\"RESYNC\"".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FROM_SEQUENCE = "\"fromSequence\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEQUENCE = "\"sequence\":".getBytes(StandardCharsets.UTF_8);
+    private static final String RAW_SUBSCRIPTION = "";
+
+    private final Executor flushExecutor;
+    private final boolean stomp;
+    private final int bufferLimit;
+    private final long sendTimeLimit;
+    private final Counter resyncs;
+    private final Counter droppedBytes;
+
+    private final Queue<WebSocketMessage<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger bufferSize = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    // Inicio del envío en curso (0 = sin envío)
+    private volatile long sendStartMillis;
+    private volatile boolean closing;
+
+    /**
+     * @param stomp true si los mensajes son frames STOMP; false si son
+     *              BinaryPixelFrame sin envoltura (endpoint sin STOMP)
+     */
+    public ResyncingSessionDecorator(WebSocketSession delegate, Executor flushExecutor, boolean stomp,
+                                     int bufferLimit, long sendTimeLimit,
+                                     Counter resyncs, Counter droppedBytes) {
+        super(delegate);
+        this.flushExecutor = flushExecutor;
+        this.stomp = stomp;
+        this.bufferLimit = bufferLimit;
+        this.sendTimeLimit = sendTimeLimit;
+        this.resyncs = resyncs;
+        this.droppedBytes = droppedBytes;
+    }
+
+    /**
+     * @return Bytes pendientes de envío
+     */
+    public int getBufferSize() {
+        return bufferSize.get();
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+        if (closing) {
+            return;
+        }
+
+        long start = sendStartMillis;
+        if (start > 0 && System.currentTimeMillis() - start > sendTimeLimit) {
+            closing = true;
+            throw new SessionLimitExceededException(
+                    "Envío bloqueado más de " + sendTimeLimit + " ms en la sesión " + getId(),
+                    CloseStatus.SESSION_NOT_RELIABLE);
+        }
+
+        // Encolar y resync atómicos respecto de otros productores
+        synchronized (queue) {
+            enqueue(message);
+            if (bufferSize.get() > bufferLimit) {
+                resync();
+                if (bufferSize.get() > bufferLimit) {
+                    closing = true;
+                    throw new SessionLimitExceededException(
+                            "Cola de " + bufferSize.get() + " bytes sin mensajes de pixeles en la sesión " + getId(),
+                            CloseStatus.SESSION_NOT_RELIABLE);
+                }
+            }
+        }
+        scheduleFlush();
+    }
+
+    @Override
+    public void close(CloseStatus status) throws IOException {
+        closing = true;
+        queue.clear();
+        bufferSize.set(0);
+        super.close(status);
+    }
+
+    private void enqueue(WebSocketMessage<?> message) {
+        queue.add(message);
+        bufferSize.addAndGet(message.getPayloadLength());
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        try {
+            WebSocketMessage<?> message;
+            while (!closing && (message = queue.poll()) != null) {
+                bufferSize.addAndGet(-message.getPayloadLength());
+                sendStartMillis = System.currentTimeMillis();
+                try {
+                    super.sendMessage(message);
+                } finally {
+                    sendStartMillis = 0;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.debug("🔌 Envío fallido en la sesión {}: {}", getId(), e.getMessage());
+            // Cerrar (no solo descartar): el cierre quita las suscripciones del broker
+            try {
+                close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException | RuntimeException closeError) {
+                log.debug("🔌 Error cerrando la sesión {}: {}", getId(), closeError.getMessage());
+            }
+        } finally {
+            flushScheduled.set(false);
+        }
+
+        // Un productor pudo encolar después del último poll
+        if (!closing && !queue.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Descarta los mensajes de pixeles en cola y agrega un RESYNC por
+     * suscripción afectada. Se llama con el lock de la cola tomado; el
+     * hilo de flush puede seguir enviando el mensaje que ya sacó.
+     */
+    private void resync() {
+        List<WebSocketMessage<?>> kept = new ArrayList<>();
+        Map<String, Dropped> dropped = new LinkedHashMap<>();
+        long droppedSize = 0;
+
+        WebSocketMessage<?> message;
+        while ((message = queue.poll()) != null) {
+            bufferSize.addAndGet(-message.getPayloadLength());
+            if (!stomp) {
+                ByteBuffer raw = rawPixelFrame(message);
+                if (raw == null) {
+                    kept.add(message);
+                    continue;
+                }
+                if (!dropped.containsKey(RAW_SUBSCRIPTION)) {
+                    dropped.put(RAW_SUBSCRIPTION, new Dropped(null, raw.getLong(raw.position() + 2), true));
+                }
+                droppedSize += message.getPayloadLength();
+                continue;
+            }
+            Message<byte[]> frame = decodePixelFrame(message);
+            if (frame == null) {
+                kept.add(message);
+                continue;
+            }
+            StompHeaderAccessor accessor = StompHeaderAccessor.wrap(frame);
+            String subscription = accessor.getSubscriptionId() != null
+                    ? accessor.getSubscriptionId()
+                    : accessor.getDestination();
+            // El primer descartado de cada suscripción marca desde dónde faltan cambios
+            if (!dropped.containsKey(subscription)) {
+                dropped.put(subscription, new Dropped(accessor,
+                        fromSequence(frame.getPayload(), isBinary(accessor)), message instanceof BinaryMessage));
+            }
+            droppedSize += message.getPayloadLength();
+        }
+
+        kept.forEach(this::enqueue);
+        dropped.values().forEach(d -> enqueue(d.toResyncMessage()));
+
+        resyncs.increment();
+        droppedBytes.increment(droppedSize);
+        log.debug("🐢 Sesión {} atrasada: {} bytes descartados, RESYNC en {} suscripciones",
+                getId(), droppedSize, dropped.size());
+    }
+
+    /**
+     * @return El BinaryPixelFrame de un mensaje sin STOMP, o null si no es de pixeles
+     */
+    private static ByteBuffer rawPixelFrame(WebSocketMessage<?> message) {
+        if (!(message instanceof BinaryMessage)) {
+            return null;
+        }
+        ByteBuffer buffer = ((BinaryMessage) message).getPayload().duplicate();
+        if (buffer.remaining() < 10) {
+            return null;
+        }
+        byte type = buffer.get(buffer.position());
+        return type == BinaryPixelFrame.TYPE_BATCH || type == BinaryPixelFrame.TYPE_RESYNC ? buffer : null;
+    }
+
+    /**
+     * @return El frame MESSAGE de pixeles decodificado, o null si el mensaje
+     *         no es de pixeles (se conserva)
+     */
+    private static Message<byte[]> decodePixelFrame(WebSocketMessage<?> message) {
+        ByteBuffer buffer;
+        if (message instanceof TextMessage) {
+            buffer = ByteBuffer.wrap(((TextMessage) message).asBytes());
+        } else if (message instanceof BinaryMessage) {
+            buffer = ((BinaryMessage) message).getPayload().duplicate();
+        } else {
+            return null;
+        }
+
+        List<Message<byte[]>> frames;
+        try {
+            frames = new StompDecoder().decode(buffer);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (frames.size() != 1) {
+            return null;
+        }
+
+        Message<byte[]> frame = frames.get(0);
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(frame);
+        String destination = accessor.getDestination();
+        if (accessor.getCommand() != StompCommand.MESSAGE
+                || destination == null || !destination.startsWith(CANVAS_TOPIC)) {
+            return null;
+        }
+
+        byte[] payload = frame.getPayload();
+        boolean pixels = isBinary(accessor)
+                ? payload.length >= 10
+                        && (payload[0] == BinaryPixelFrame.TYPE_BATCH || payload[0] == BinaryPixelFrame.TYPE_RESYNC)
+                : indexOf(payload, PIXEL_TYPE) >= 0 || indexOf(payload, RESYNC_TYPE) >= 0;
+        return pixels ? frame : null;
+    }
+
+    private static boolean isBinary(StompHeaderAccessor accessor) {
+        String destination = accessor.getDestination();
+        return destination != null && destination.endsWith(PixelFormatInterceptor.BINARY_SUFFIX);
+    }
+
+    /**
+     * @return Secuencia después de la cual faltan cambios (-1 si no se encuentra)
+     */
+    private static long fromSequence(byte[] payload, boolean binary) {
+        if (binary) {
+            return ByteBuffer.wrap(payload).getLong(2);
+        }
+        int from = indexOf(payload, FROM_SEQUENCE);
+        if (from >= 0) {
+            return parseLong(payload, from + FROM_SEQUENCE.length);
+        }
+        int sequence = indexOf(payload, SEQUENCE);
+        if (sequence >= 0) {
+            long value = parseLong(payload, sequence + SEQUENCE.length);
+            return value >= 0 ? value - 1 : -1;
+        }
+        return -1;
+    }
+
+    private static long parseLong(byte[] payload, int start) {
+        long value = 0;
+        int i = start;
+        while (i < payload.length && payload[i] >= '0' && payload[i] <= '9') {
+            value = value * 10 + (payload[i++] - '0');
+        }
+        return i > start ? value : -1;
+    }
+
+    private static int indexOf(byte[] payload, byte[] target) {
+        outer:
+        for (int i = 0; i <= payload.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (payload[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Primer mensaje descartado de una suscripción (headers null = sin STOMP)
+     */
+    private static final class Dropped {
+
+        private final StompHeaderAccessor headers;
+        private final long fromSequence;
+        private final boolean binaryMessage;
+
+        private Dropped(StompHeaderAccessor headers, long fromSequence, boolean binaryMessage) {
+            this.headers = headers;
+            this.fromSequence = fromSequence;
+            this.binaryMessage = binaryMessage;
+        }
+
+        /**
+         * RESYNC con los headers (destino, suscripción) del mensaje descartado
+         */
+        private WebSocketMessage<?> toResyncMessage() {
+            if (headers == null) {
+                return new BinaryMessage(BinaryPixelFrame.encodeResync(fromSequence));
+            }
+            StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+            accessor.setDestination(headers.getDestination());
+            accessor.setSubscriptionId(headers.getSubscriptionId());
+            accessor.setMessageId(headers.getMessageId() + "-resync");
+
+            byte[] payload;
+            if (isBinary(headers)) {
+                accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+                payload = BinaryPixelFrame.encodeResync(fromSequence);
+            } else {
+                accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+                payload = ("{\"type\":\"RESYNC\",\"canvasId\":\"" + canvasId(headers.getDestination())
+                        + "\",\"fromSequence\":" + fromSequence + "}").getBytes(StandardCharsets.UTF_8);
+            }
+
+            byte[] frame = new StompEncoder().encode(accessor.getMessageHeaders(), payload);
+            return binaryMessage ? new BinaryMessage(frame) : new TextMessage(frame);
+        }
+
+        private static String canvasId(String destination) {
+            int end = destination.indexOf('/', CANVAS_TOPIC.length());
+            if (end < 0) {
+                end = destination.endsWith(PixelFormatInterceptor.BINARY_SUFFIX)
+                        ? destination.length() - PixelFormatInterceptor.BINARY_SUFFIX.length()
+                        : destination.length();
+            }
+            return destination.substring(CANVAS_TOPIC.length(), end);
+        }
+    }
+}
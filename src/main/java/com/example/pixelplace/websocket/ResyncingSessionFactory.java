@@ -0,0 +1,65 @@
+package com.example.pixelplace.websocket;
+
+import com.example.pixelplace.config.LiveUpdateProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Crea los ResyncingSessionDecorator de los dos endpoints WebSocket (STOMP
+ * y sin STOMP), que comparten el pool de flush (flush-threads), los
+ * límites de pixel-place.live.session y las métricas:
+ * pixelplace.live.session.resyncs y pixelplace.live.session.dropped.bytes.
+ */
+@Component
+@RequiredArgsConstructor
+public class ResyncingSessionFactory {
+
+    private final LiveUpdateProperties liveProperties;
+    private final MeterRegistry meterRegistry;
+
+    private ExecutorService flushExecutor;
+    private Counter resyncs;
+    private Counter droppedBytes;
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threads = new AtomicInteger();
+        flushExecutor = Executors.newFixedThreadPool(liveProperties.getSession().getFlushThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "ws-flush-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        resyncs = Counter.builder("pixelplace.live.session.resyncs")
+                .description("Sesiones WebSocket atrasadas que recibieron un RESYNC")
+                .register(meterRegistry);
+        droppedBytes = Counter.builder("pixelplace.live.session.dropped.bytes")
+                .description("Bytes de mensajes de pixeles descartados en sesiones atrasadas")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param stomp true para sesiones STOMP, false para BinaryPixelFrame sin envoltura
+     */
+    public ResyncingSessionDecorator decorate(WebSocketSession session, boolean stomp) {
+        LiveUpdateProperties.Session properties = liveProperties.getSession();
+        return new ResyncingSessionDecorator(session, flushExecutor, stomp,
+                properties.getSendBufferLimitBytes(), properties.getSendTimeLimitMillis(),
+                resyncs, droppedBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushExecutor.shutdown();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.pixelplace.websocket;
+
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+import org.springframework.web.socket.sockjs.transport.SockJsSession;
+
+/**
+ * SubProtocolWebSocketHandler que envuelve cada sesión en un
+ * ResyncingSessionDecorator en lugar del ConcurrentWebSocketSessionDecorator
+ * de Spring.
+ *
+ * Con preservePublishOrder, el canal de salida envía de a un mensaje por
+ * sesión y espera a que termine: con el decorator de Spring, un navegador
+ * lento acumula sin límite la cola ordenada de su sesión. Aquí el envío
+ * solo encola y el pool de ResyncingSessionFactory escribe en los sockets.
+ *
+ * También marca en los atributos de la sesión si es WebSocket nativo o
+ * SockJS, para que PixelFormatInterceptor ofrezca frames binarios solo
+ * donde se pueden enviar.
+ */
+public class ResyncingSubProtocolWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    private final ResyncingSessionFactory sessionFactory;
+
+    public ResyncingSubProtocolWebSocketHandler(MessageChannel clientInboundChannel,
+                                                SubscribableChannel clientOutboundChannel,
+                                                ResyncingSessionFactory sessionFactory) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.sessionFactory = sessionFactory;
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        session.getAttributes().put(PixelFormatInterceptor.NATIVE_ATTRIBUTE, !(session instanceof SockJsSession));
+        return sessionFactory.decorate(session, true);
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.pixelplace.websocket;
+
+import com.example.pixelplace.batch.CoalescedPixels;
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.config.ImageGenerationProperties;
+import com.example.pixelplace.dto.PixelBatchMessage;
+import com.example.pixelplace.dto.ResyncMessage;
+import com.example.pixelplace.service.CanvasChangeLog;
+import com.example.pixelplace.service.CanvasSnapshotService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+/**
+ * Reenvía a una sesión que se reconecta los pixeles que se perdió.
+ *
+ * El cliente agrega al SUBSCRIBE de /topic/canvas/{canvasId} (o de un
+ * tile, o su variante .bin) el header {@code last-sequence} con la última
+ * secuencia aplicada y, opcionalmente, {@code epoch} (X-Canvas-Epoch del
+ * estado que cargó). Cuando el broker ya registró la suscripción, se
+ * envía solo a esa suscripción un PIXEL_BATCH (o BinaryPixelFrame) con
+ * los cambios en (last-sequence, actual] tomados de CanvasChangeLog, sin
+ * usuarios. Todo pixel posterior llega por el topic, así que no queda
+ * hueco; el cliente ordena por secuencia como con cualquier batch (uno
+ * del topic con fromSequence mayor a la suya espera al replay).
+ *
+ * Si la secuencia ya no está en el registro o el epoch no coincide (o no
+ * es un número), se envía un RESYNC y el cliente recarga por HTTP. Un
+ * last-sequence o un tile mal formados se ignoran: no hay replay. Con relay entre pods la
+ * secuencia es la posición en el topic de relay, la misma en todos los
+ * pods, así que el cliente puede reconectarse a cualquiera.
+ *
+ * Métrica: pixelplace.live.replay (result=replayed|resync).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SubscriptionReplayInterceptor implements ExecutorChannelInterceptor {
+
+    public static final String LAST_SEQUENCE_HEADER = "last-sequence";
+    public static final String EPOCH_HEADER = "epoch";
+
+    private static final String CANVAS_TOPIC = "/topic/canvas/";
+    private static final String TILE_SEGMENT = "/tile/";
+
+    private final CanvasChangeLog changeLog;
+    private final CanvasSnapshotService snapshotService;
+    private final ImageGenerationProperties imageProperties;
+    // Perezoso: el template lo crea la misma configuración del broker que usa este interceptor
+    private final ObjectProvider<SimpMessagingTemplate> messagingTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private Counter replayed;
+    private Counter resyncs;
+
+    @PostConstruct
+    public void init() {
+        replayed = replayCounter("replayed");
+        resyncs = replayCounter("resync");
+    }
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        // Después del broker: la suscripción ya recibe los pixeles nuevos
+        if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)) {
+            return;
+        }
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() != StompCommand.SUBSCRIBE) {
+            return;
+        }
+        String lastSequence = accessor.getFirstNativeHeader(LAST_SEQUENCE_HEADER);
+        String destination = accessor.getDestination();
+        if (lastSequence == null || destination == null || !destination.startsWith(CANVAS_TOPIC)) {
+            return;
+        }
+
+        // Headers y destino se validan antes de tocar el registro de cambios
+        long since = parseSequence(lastSequence);
+        ReplayTarget target = ReplayTarget.parse(destination);
+        if (since < 0 || target == null) {
+            log.debug("⚠️ SUBSCRIBE con replay inválido en la sesión {}: {}={}, destino {}",
+                    accessor.getSessionId(), LAST_SEQUENCE_HEADER, lastSequence, destination);
+            return;
+        }
+        // Un epoch ilegible no se puede comparar: se trata como otro epoch y el cliente recarga
+        String epoch = accessor.getFirstNativeHeader(EPOCH_HEADER);
+        boolean comparable = epoch == null || parseSequence(epoch) == snapshotService.getEpoch();
+
+        try {
+            replay(accessor, target, since, comparable,
+                    ((AbstractBrokerMessageHandler) handler).getClientOutboundChannel());
+        } catch (Exception e) {
+            log.error("❌ Error reenviando pixeles a la sesión {}: {}", accessor.getSessionId(), e.getMessage(), e);
+        }
+    }
+
+    private void replay(StompHeaderAccessor subscribe, ReplayTarget target, long since, boolean comparable,
+                        MessageChannel outbound) {
+        String destination = target.destination;
+        boolean binary = target.binary;
+        String canvasId = target.canvasId;
+        CanvasChangeLog.Changes changes = comparable ? changeLog.since(canvasId, since) : null;
+
+        if (changes == null) {
+            Object payload = binary
+                    ? BinaryPixelFrame.encodeResync(since)
+                    : new ResyncMessage(canvasId, since);
+            send(outbound, subscribe, destination, payload, binary);
+            resyncs.increment();
+            log.debug("🔄 Sesión {} sin cambios disponibles desde {} en {}: RESYNC",
+                    subscribe.getSessionId(), since, destination);
+            return;
+        }
+        if (changes.getCount() == 0) {
+            return;
+        }
+
+        PixelBatchMessage batch = toBatch(canvasId, changes, target.tileX, target.tileY);
+        if (batch.getX().length > 0) {
+            Object payload = binary ? BinaryPixelFrame.encode(batch, false) : batch;
+            send(outbound, subscribe, destination, payload, binary);
+        }
+        replayed.increment();
+        log.debug("🔄 Sesión {} reconectada: {} cambios reenviados en {}",
+                subscribe.getSessionId(), changes.getCount(), destination);
+    }
+
+    /**
+     * Agrupa los cambios (last-write-wins) y filtra los del tile, si lo hay.
+     */
+    private PixelBatchMessage toBatch(String canvasId, CanvasChangeLog.Changes changes, int tileX, int tileY) {
+        int tileSize = imageProperties.getTileSize();
+        byte[] packed = changes.getPacked();
+        CoalescedPixels pixels = new CoalescedPixels();
+        for (int i = 0, offset = 0; i < changes.getCount(); i++, offset += 7) {
+            int x = ((packed[offset] & 0xFF) << 8) | (packed[offset + 1] & 0xFF);
+            int y = ((packed[offset + 2] & 0xFF) << 8) | (packed[offset + 3] & 0xFF);
+            if (tileX >= 0 && (x / tileSize != tileX || y / tileSize != tileY)) {
+                continue;
+            }
+            int rgb = ((packed[offset + 4] & 0xFF) << 16)
+                    | ((packed[offset + 5] & 0xFF) << 8)
+                    | (packed[offset + 6] & 0xFF);
+            pixels.add(x, y, HexColor.format(rgb), null, 0, 0);
+        }
+
+        int size = pixels.size();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        String[] colors = new String[size];
+        for (int i = 0; i < size; i++) {
+            xs[i] = pixels.x(i);
+            ys[i] = pixels.y(i);
+            colors[i] = pixels.color(i);
+        }
+
+        // El rango es el pedido aunque el tile no haya cambiado en todo él
+        return new PixelBatchMessage(canvasId, changes.getFromSequence(), changes.getToSequence(),
+                System.currentTimeMillis(), xs, ys, colors, new String[size]);
+    }
+
+    /**
+     * Envía un mensaje solo a la suscripción, por el canal de salida del broker.
+     */
+    private void send(MessageChannel outbound, StompHeaderAccessor subscribe, String destination,
+                      Object payload, boolean binary) {
+        SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        headers.setSessionId(subscribe.getSessionId());
+        headers.setSubscriptionId(subscribe.getSubscriptionId());
+        headers.setDestination(destination);
+        if (binary) {
+            headers.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        }
+        headers.setLeaveMutable(true);
+
+        Message<?> message = messagingTemplate.getObject().getMessageConverter()
+                .toMessage(payload, headers.getMessageHeaders());
+        if (message != null) {
+            outbound.send(message);
+        }
+    }
+
+    /**
+     * Número no negativo de un header (last-sequence, epoch).
+     *
+     * @return El valor o -1 si no es un número válido
+     */
+    private static long parseSequence(String value) {
+        try {
+            long parsed = Long.parseLong(value.trim());
+            return parsed >= 0 ? parsed : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Destino de un SUBSCRIBE con replay ya validado:
+     * /topic/canvas/{canvasId}[/tile/{tileX}/{tileY}][.bin].
+     */
+    private static final class ReplayTarget {
+
+        private final String destination;
+        private final String canvasId;
+        private final int tileX;
+        private final int tileY;
+        private final boolean binary;
+
+        private ReplayTarget(String destination, String canvasId, int tileX, int tileY, boolean binary) {
+            this.destination = destination;
+            this.canvasId = canvasId;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.binary = binary;
+        }
+
+        /**
+         * @return El destino o null si el canvasId está vacío o el tile no es un par de enteros no negativos
+         */
+        static ReplayTarget parse(String destination) {
+            boolean binary = destination.endsWith(PixelFormatInterceptor.BINARY_SUFFIX);
+            String topic = binary
+                    ? destination.substring(0, destination.length() - PixelFormatInterceptor.BINARY_SUFFIX.length())
+                    : destination;
+
+            String canvasId = topic.substring(CANVAS_TOPIC.length());
+            int tile = canvasId.indexOf(TILE_SEGMENT);
+            if (tile < 0) {
+                return canvasId.isEmpty() || canvasId.indexOf('/') >= 0
+                        ? null
+                        : new ReplayTarget(destination, canvasId, -1, -1, binary);
+            }
+
+            String[] parts = canvasId.substring(tile + TILE_SEGMENT.length()).split("/", -1);
+            canvasId = canvasId.substring(0, tile);
+            if (canvasId.isEmpty() || parts.length != 2) {
+                return null;
+            }
+            try {
+                int tileX = Integer.parseInt(parts[0]);
+                int tileY = Integer.parseInt(parts[1]);
+                return tileX < 0 || tileY < 0 ? null : new ReplayTarget(destination, canvasId, tileX, tileY, binary);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private Counter replayCounter(String result) {
+        return Counter.builder("pixelplace.live.replay")
+                .description("Suscripciones con last-sequence: pixeles reenviados o RESYNC")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
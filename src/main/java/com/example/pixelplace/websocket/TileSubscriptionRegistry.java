@@ -0,0 +1,137 @@
+package com.example.pixelplace.websocket;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Suscripciones activas a los destinos por tile:
+ * /topic/canvas/{canvasId}/tile/{tileX}/{tileY} (y su variante .bin).
+ *
+ * Un cliente con zoom suscribe solo los tiles de su viewport y los cambia
+ * al desplazarse (UNSUBSCRIBE/SUBSCRIBE, O(1) cada uno). Con el conteo por
+ * destino, WebSocketEventHandler arma y envía mensajes solo para los tiles
+ * que alguien mira: el costo sigue a la relevancia, no a audiencia x pixeles.
+ *
+ * También cuenta las suscripciones al frame binario del canvas completo
+ * (/topic/canvas/{canvasId}.bin), así el frame solo se codifica y envía
+ * para los canvas con algún suscriptor binario.
+ *
+ * Se registra en el canal de entrada después de PixelFormatInterceptor,
+ * así ve el destino ya redirigido al formato de la sesión.
+ */
+@Slf4j
+@Component
+public class TileSubscriptionRegistry implements ChannelInterceptor {
+
+    private static final String CANVAS_TOPIC = "/topic/canvas/";
+    private static final String TILE_SEGMENT = "/tile/";
+
+    // Sesiones por destino
+    private final ConcurrentHashMap<String, Integer> counts = new ConcurrentHashMap<>();
+
+    // Destinos de tile con al menos una sesión
+    private final AtomicInteger tileDestinations = new AtomicInteger();
+
+    // Destino de cada suscripción por sesión: sessionId → subscriptionId → destino
+    private final ConcurrentHashMap<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * @return Destino JSON de un tile (la variante binaria agrega .bin)
+     */
+    public static String tileDestination(String canvasId, int tileX, int tileY) {
+        return CANVAS_TOPIC + canvasId + TILE_SEGMENT + tileX + "/" + tileY;
+    }
+
+    public boolean hasSubscribers(String destination) {
+        return counts.containsKey(destination);
+    }
+
+    /**
+     * @return true si hay al menos una suscripción a algún tile
+     */
+    public boolean hasAnySubscribers() {
+        return tileDestinations.get() > 0;
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if (accessor == null || accessor.getCommand() == null || accessor.getSessionId() == null) {
+            return message;
+        }
+
+        StompCommand command = accessor.getCommand();
+        if (command == StompCommand.SUBSCRIBE && isTracked(accessor.getDestination())) {
+            subscribe(accessor.getSessionId(), accessor.getSubscriptionId(), accessor.getDestination());
+        } else if (command == StompCommand.UNSUBSCRIBE) {
+            unsubscribe(accessor.getSessionId(), accessor.getSubscriptionId());
+        } else if (command == StompCommand.DISCONNECT) {
+            disconnect(accessor.getSessionId());
+        }
+        return message;
+    }
+
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (subscriptionId == null) {
+            return;
+        }
+        String previous = sessions.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(subscriptionId, destination);
+        if (previous != null) {
+            release(previous);
+        }
+        if (counts.merge(destination, 1, Integer::sum) == 1 && isTileDestination(destination)) {
+            tileDestinations.incrementAndGet();
+        }
+    }
+
+    private void unsubscribe(String sessionId, String subscriptionId) {
+        Map<String, String> subscriptions = sessions.get(sessionId);
+        if (subscriptions != null && subscriptionId != null) {
+            String destination = subscriptions.remove(subscriptionId);
+            if (destination != null) {
+                release(destination);
+            }
+        }
+    }
+
+    private void disconnect(String sessionId) {
+        Map<String, String> subscriptions = sessions.remove(sessionId);
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::release);
+            log.debug("🔌 Sesión {} desconectada: {} suscripciones a tiles liberadas",
+                    sessionId, subscriptions.size());
+        }
+    }
+
+    private void release(String destination) {
+        // Solo se liberan destinos registrados: null es que quedó sin sesiones
+        if (counts.computeIfPresent(destination, (d, count) -> count > 1 ? count - 1 : null) == null
+                && isTileDestination(destination)) {
+            tileDestinations.decrementAndGet();
+        }
+    }
+
+    private static boolean isTracked(String destination) {
+        return isTileDestination(destination)
+                || (destination != null
+                        && destination.startsWith(CANVAS_TOPIC)
+                        && destination.endsWith(PixelFormatInterceptor.BINARY_SUFFIX));
+    }
+
+    private static boolean isTileDestination(String destination) {
+        return destination != null
+                && destination.startsWith(CANVAS_TOPIC)
+                && destination.indexOf(TILE_SEGMENT, CANVAS_TOPIC.length()) > 0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.pixelplace.websocket.relay;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Relay en memoria compartido por todas las instancias de la JVM.
+ *
+ * Reemplaza a Kafka cuando varios contextos de Spring (uno por "pod")
+ * corren en el mismo proceso: cada instancia iniciada recibe todos los
+ * registros en un hilo propio, en orden de publicación, como lo haría
+ * su consumer de Kafka. El bus es un único stream: cada registro toma la
+ * siguiente posición global, la misma para todas las instancias.
+ */
+@Slf4j
+public class InMemoryRelayTransport implements RelayTransport {
+
+    private static final List<InMemoryRelayTransport> BUS = new CopyOnWriteArrayList<>();
+
+    // Última posición asignada (protegida por el lock de BUS)
+    private static long position;
+
+    private final ExecutorService deliverer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "live-relay-memory");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Consumer<RelayRecord> receiver;
+    private long origin;
+
+    @Override
+    public void send(String canvasId, byte[] record) {
+        synchronized (BUS) {
+            long assigned = ++position;
+            for (InMemoryRelayTransport transport : BUS) {
+                transport.deliver(new RelayRecord(record, assigned, transport.origin, false));
+            }
+        }
+    }
+
+    @Override
+    public void start(Consumer<RelayRecord> receiver) {
+        this.receiver = receiver;
+        synchronized (BUS) {
+            origin = position;
+            BUS.add(this);
+        }
+    }
+
+    private void deliver(RelayRecord record) {
+        deliverer.execute(() -> {
+            try {
+                receiver.accept(record);
+            } catch (Exception e) {
+                log.error("❌ Error entregando registro del relay: {}", e.getMessage(), e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        BUS.remove(this);
+        deliverer.shutdown();
+    }
+}
@@ -0,0 +1,167 @@
+package com.example.pixelplace.websocket.relay;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Relay sobre un topic de Kafka dedicado.
+ *
+ * Los registros se publican con el canvasId como clave (orden por canvas).
+ * Cada pod consume con un consumer group propio ({prefijo}-{uuid}): recibe
+ * todas las particiones, independientemente del reparto de particiones del
+ * topic de eventos de Axon. La posición de cada registro es offset + 1 en
+ * su partición, igual en todos los pods.
+ *
+ * No se commitean offsets. Al asignarse una partición el consumer arranca
+ * backfill registros antes del final: esos llegan marcados como backfill
+ * (solo pueblan CanvasChangeLog, así los clientes que se reconectan tras
+ * un rollout se ponen al día sin recargar) y desde el final en adelante
+ * se entregan en vivo.
+ */
+@Slf4j
+public class KafkaRelayTransport implements RelayTransport {
+
+    private final String topic;
+    private final String groupId;
+    private final int backfill;
+    private final KafkaProducer<String, byte[]> producer;
+    private final KafkaConsumer<String, byte[]> consumer;
+
+    // Por partición: offset desde el que se consume, primer offset en vivo y
+    // próximo offset a leer (solo los usa el hilo del poller, el listener
+    // corre dentro de poll)
+    private final Map<Integer, Long> origins = new HashMap<>();
+    private final Map<Integer, Long> liveFrom = new HashMap<>();
+    private final Map<Integer, Long> next = new HashMap<>();
+
+    private volatile boolean running;
+    private Thread poller;
+
+    public KafkaRelayTransport(String bootstrapServers, String topic, String groupIdPrefix, int backfill) {
+        this.topic = topic;
+        this.groupId = groupIdPrefix + "-" + UUID.randomUUID();
+        this.backfill = backfill;
+
+        Properties producerProps = new Properties();
+        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        producerProps.put(ProducerConfig.ACKS_CONFIG, "1");
+        producerProps.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        producer = new KafkaProducer<>(producerProps);
+
+        Properties consumerProps = new Properties();
+        consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        consumerProps.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        consumerProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumer = new KafkaConsumer<>(consumerProps);
+    }
+
+    @Override
+    public void send(String canvasId, byte[] record) {
+        producer.send(new ProducerRecord<>(topic, canvasId, record), (metadata, e) -> {
+            if (e != null) {
+                log.warn("⚠️ Error publicando en el relay {}: {}", topic, e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public void start(Consumer<RelayRecord> receiver) {
+        running = true;
+        consumer.subscribe(Collections.singletonList(topic), new ConsumerRebalanceListener() {
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                seekBackfill(partitions);
+            }
+        });
+
+        poller = new Thread(() -> {
+            try {
+                while (running) {
+                    for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(100))) {
+                        try {
+                            int partition = record.partition();
+                            next.put(partition, record.offset() + 1);
+                            receiver.accept(new RelayRecord(
+                                    record.value(),
+                                    record.offset() + 1,
+                                    origins.getOrDefault(partition, record.offset()),
+                                    record.offset() < liveFrom.getOrDefault(partition, 0L)
+                            ));
+                        } catch (Exception e) {
+                            log.error("❌ Error entregando registro del relay: {}", e.getMessage(), e);
+                        }
+                    }
+                }
+            } catch (WakeupException e) {
+                // close()
+            } finally {
+                consumer.close();
+            }
+        }, "live-relay-kafka");
+        poller.setDaemon(true);
+        poller.start();
+
+        log.info("📡 Relay Kafka iniciado: topic={}, group={}", topic, groupId);
+    }
+
+    private void seekBackfill(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> end = consumer.endOffsets(partitions);
+        for (TopicPartition partition : partitions) {
+            Long origin = origins.get(partition.partition());
+            if (origin != null) {
+                // Reasignada tras un rebalance: seguir donde quedó
+                consumer.seek(partition, next.getOrDefault(partition.partition(), origin));
+                continue;
+            }
+            long live = end.get(partition);
+            long from = Math.max(beginning.get(partition), live - backfill);
+            consumer.seek(partition, from);
+            origins.put(partition.partition(), from);
+            liveFrom.put(partition.partition(), live);
+        }
+        log.info("📡 Relay Kafka: {} particiones asignadas (backfill {} registros)", partitions.size(), backfill);
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        consumer.wakeup();
+        if (poller != null) {
+            poller.join(5_000);
+        } else {
+            consumer.close();
+        }
+        producer.close(Duration.ofSeconds(5));
+    }
+}
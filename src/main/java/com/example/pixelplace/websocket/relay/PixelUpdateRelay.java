@@ -0,0 +1,158 @@
+package com.example.pixelplace.websocket.relay;
+
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import com.example.pixelplace.eventhandler.WebSocketEventHandler;
+import com.example.pixelplace.service.ActivityFeedService;
+import com.example.pixelplace.service.CanvasChangeLog;
+import com.example.pixelplace.service.CanvasStateProjection;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lleva los pixeles procesados en cualquier pod a las sesiones WebSocket
+ * de todos los pods.
+ *
+ * El processor de Axon de cada pod solo consume las particiones que Kafka
+ * le asignó, así que un navegador conectado al pod A no vería los pixeles
+ * procesados en el pod B. Con un RelayTransport, cada pod publica los
+ * CanvasPixelUpdate de su proyección (sin secuencia) y recibe el stream
+ * completo, los propios incluidos, una sola vez. Cada pixel recibido se
+ * aplica a CanvasStateProjection con su posición en el topic como
+ * secuencia (la misma en todos los pods) y se entrega a CanvasChangeLog,
+ * WebSocketEventHandler y ActivityFeedService. Los registros de backfill
+ * solo pueblan CanvasChangeLog. Sin transporte (relay.type=LOCAL) los
+ * pixeles de la proyección se entregan directo.
+ *
+ * Métricas: pixelplace.live.relay.records (direction=sent|received),
+ * pixelplace.live.relay.latency (publicación → recepción) y
+ * pixelplace.live.relay.delivery (entrega a las sesiones locales).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PixelUpdateRelay {
+
+    private static final byte VERSION = 2;
+
+    private final CanvasStateProjection projection;
+    private final CanvasChangeLog changeLog;
+    private final WebSocketEventHandler broadcaster;
+    private final ActivityFeedService activityFeed;
+    private final ObjectProvider<RelayTransport> transportProvider;
+    private final MeterRegistry meterRegistry;
+
+    private RelayTransport transport;
+    private Counter sent;
+    private Counter received;
+    private Timer latency;
+    private Timer delivery;
+
+    @PostConstruct
+    public void init() {
+        sent = recordCounter("sent");
+        received = recordCounter("received");
+        latency = Timer.builder("pixelplace.live.relay.latency")
+                .description("Tiempo entre la publicación de un pixel en el relay y su recepción")
+                .register(meterRegistry);
+        delivery = Timer.builder("pixelplace.live.relay.delivery")
+                .description("Tiempo de entrega de un pixel recibido a las sesiones locales")
+                .register(meterRegistry);
+
+        transport = transportProvider.getIfAvailable();
+        if (transport != null) {
+            transport.start(this::receive);
+        }
+    }
+
+    @EventListener
+    public void on(CanvasPixelUpdate update) {
+        if (transport == null) {
+            deliver(update);
+            return;
+        }
+        transport.send(update.getCanvasId(), encode(update, System.currentTimeMillis()));
+        sent.increment();
+    }
+
+    private void receive(RelayRecord record) {
+        received.increment();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+        try {
+            if (in.readByte() != VERSION) {
+                log.warn("⚠️ Registro del relay con versión desconocida, descartado");
+                return;
+            }
+            long publishedMillis = in.readLong();
+            CanvasPixelUpdate relayed = new CanvasPixelUpdate(
+                    in.readUTF(),
+                    in.readUnsignedShort(),
+                    in.readUnsignedShort(),
+                    in.readUTF(),
+                    in.readUTF(),
+                    in.readLong(),
+                    0,
+                    0
+            );
+
+            CanvasPixelUpdate update = projection.applyRelayed(
+                    relayed, record.getPosition(), record.getOrigin(), record.isBackfill());
+            if (update == null) {
+                return;
+            }
+            if (record.isBackfill()) {
+                changeLog.on(update);
+                return;
+            }
+
+            latency.record(Math.max(0, System.currentTimeMillis() - publishedMillis), TimeUnit.MILLISECONDS);
+            delivery.record(() -> deliver(update));
+        } catch (IOException e) {
+            log.warn("⚠️ Registro del relay inválido: {}", e.getMessage());
+        }
+    }
+
+    private void deliver(CanvasPixelUpdate update) {
+        changeLog.on(update);
+        broadcaster.on(update);
+        activityFeed.on(update);
+    }
+
+    static byte[] encode(CanvasPixelUpdate update, long publishedMillis) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(VERSION);
+            out.writeLong(publishedMillis);
+            out.writeUTF(update.getCanvasId());
+            out.writeShort(update.getX());
+            out.writeShort(update.getY());
+            out.writeUTF(update.getColor() != null ? update.getColor() : "");
+            out.writeUTF(update.getUserId() != null ? update.getUserId() : "");
+            out.writeLong(update.getTimestamp());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private Counter recordCounter(String direction) {
+        return Counter.builder("pixelplace.live.relay.records")
+                .description("Pixeles publicados y recibidos por el relay entre pods")
+                .tag("direction", direction)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.pixelplace.websocket.relay;
+
+import lombok.Value;
+
+/**
+ * Registro recibido del relay con su posición en el stream.
+ *
+ * Los registros de un canvas van siempre al mismo stream (partición del
+ * topic, con el canvasId como clave), así que la posición es creciente por
+ * canvas y la misma en todos los pods: sirve de secuencia entre réplicas.
+ */
+@Value
+public class RelayRecord {
+
+    byte[] payload;
+
+    /**
+     * Posición del registro en su stream (offset + 1 en Kafka), siempre > 0
+     */
+    long position;
+
+    /**
+     * Todo registro del mismo stream con posición mayor a origin llega a este pod
+     */
+    long origin;
+
+    /**
+     * Registro anterior al arranque del consumer, releído solo para poblar
+     * el registro de cambios (no se transmite)
+     */
+    boolean backfill;
+}
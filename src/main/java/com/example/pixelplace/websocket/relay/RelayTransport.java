@@ -0,0 +1,28 @@
+package com.example.pixelplace.websocket.relay;
+
+import java.util.function.Consumer;
+
+/**
+ * SPI del transporte que reparte los pixeles a todos los pods.
+ *
+ * Cada pod publica los pixeles que procesó y recibe el stream completo
+ * (los suyos incluidos) exactamente una vez, sin importar qué particiones
+ * del topic de eventos le asignó Kafka. Los registros de un mismo canvas
+ * llegan en el orden en que se publicaron, con la misma posición en todos
+ * los pods (ver RelayRecord).
+ * Implementaciones: KafkaRelayTransport (topic de relay con un consumer
+ * group por pod) e InMemoryRelayTransport (bus en la JVM, reemplazo de
+ * Kafka para tests y pruebas locales con varios contextos).
+ */
+public interface RelayTransport extends AutoCloseable {
+
+    /**
+     * Publica un registro ya codificado (asíncrono).
+     */
+    void send(String canvasId, byte[] record);
+
+    /**
+     * Empieza a entregar al receptor los registros de todos los pods.
+     */
+    void start(Consumer<RelayRecord> receiver);
+}
@@ -0,0 +1,99 @@
+package com.example.pixelplace.batch;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Umbral = clamp(ceil(tasa × intervalo), min, max) e intervalo estirado
+ * según el presupuesto de CPU (valores por defecto: objetivo 1000 ms,
+ * presupuesto 0.5, umbrales 1..500).
+ */
+class AdaptiveBatchControllerTest {
+
+    private static final AdaptiveBatchController.Target TILE = AdaptiveBatchController.Target.TILE;
+    private static final AdaptiveBatchController.Target CANVAS = AdaptiveBatchController.Target.CANVAS;
+
+    private AdaptiveBatchController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new AdaptiveBatchController(new ImageGenerationProperties(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void firstEventUsesTheMinimumThreshold() {
+        assertThat(controller.onEvent(TILE, TileKeys.tileKey(0, 0, 0), 1_000)).isEqualTo(1);
+        assertThat(controller.flushIntervalMillis(TILE)).isEqualTo(1000);
+    }
+
+    @Test
+    void thresholdFollowsTheEventRate() {
+        long key = TileKeys.tileKey(0, 0, 0);
+
+        // Un evento cada 10 ms: 0.1 eventos/ms × 1000 ms de objetivo
+        int threshold = feed(key, 0, 10, 200);
+
+        assertThat(threshold).isEqualTo(100);
+    }
+
+    @Test
+    void thresholdIsCappedAtTheMaximum() {
+        long key = TileKeys.tileKey(0, 0, 0);
+
+        // Todos en el mismo milisegundo: tasa acotada por MIN_INTERVAL_MILLIS
+        int threshold = feed(key, 0, 0, 100);
+
+        assertThat(threshold).isEqualTo(500);
+    }
+
+    @Test
+    void intervalStretchesToRespectTheCpuBudget() {
+        // 10 tiles a 0.1 eventos/ms: cada uno pide un render por ventana de 1000 ms
+        for (int tile = 0; tile < 10; tile++) {
+            feed(TileKeys.tileKey(0, tile, 0), 0, 10, 200);
+        }
+        // 100 ms por render × 10 renders por segundo = 1 core, el doble del presupuesto
+        controller.recordRender(TILE, 100_000_000L);
+        controller.refresh(2_000);
+
+        assertThat(controller.flushIntervalMillis(TILE)).isBetween(1999L, 2001L);
+        assertThat(controller.onEvent(TILE, TileKeys.tileKey(0, 0, 0), 2_000)).isBetween(199, 201);
+
+        // Los canvas tienen su propio presupuesto
+        assertThat(controller.flushIntervalMillis(CANVAS)).isEqualTo(1000);
+    }
+
+    @Test
+    void withoutRenderCostTheIntervalIsTheTarget() {
+        feed(TileKeys.tileKey(0, 0, 0), 0, 1, 500);
+        controller.refresh(500);
+
+        assertThat(controller.flushIntervalMillis(TILE)).isEqualTo(1000);
+    }
+
+    @Test
+    void idleKeysAreForgotten() {
+        long key = TileKeys.tileKey(0, 0, 0);
+        feed(key, 0, 10, 200);
+
+        controller.refresh(2_000 + 60_001);
+
+        // Sin historial: vuelve al umbral mínimo
+        assertThat(controller.onEvent(TILE, key, 2_000 + 60_002)).isEqualTo(1);
+    }
+
+    /**
+     * @return Umbral devuelto por el último evento
+     */
+    private int feed(long key, long start, long step, int events) {
+        int threshold = 0;
+        for (int i = 0; i < events; i++) {
+            threshold = controller.onEvent(TILE, key, start + i * step);
+        }
+        return threshold;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.pixelplace.batch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Last-write-wins por coordenada en orden de primera aparición, y rango
+ * de secuencias (fromSequence, toSequence] cubierto por el buffer.
+ */
+class CoalescedPixelsTest {
+
+    @Test
+    void lastWriteWinsKeepingFirstAppearanceOrder() {
+        CoalescedPixels pixels = new CoalescedPixels();
+
+        pixels.add(1, 1, "#000001", "a", 0, 1);
+        pixels.add(2, 2, "#000002", "b", 1, 2);
+        pixels.add(1, 1, "#000003", "c", 2, 3);
+
+        assertThat(pixels.size()).isEqualTo(2);
+        assertThat(pixels.x(0)).isEqualTo(1);
+        assertThat(pixels.color(0)).isEqualTo("#000003");
+        assertThat(pixels.userId(0)).isEqualTo("c");
+        assertThat(pixels.x(1)).isEqualTo(2);
+        assertThat(pixels.color(1)).isEqualTo("#000002");
+    }
+
+    @Test
+    void growsWithoutLosingOrDuplicatingCoordinates() {
+        CoalescedPixels pixels = new CoalescedPixels();
+
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < 1_000; i++) {
+                pixels.add(i, 65_535 - i, "#" + round, null, 0, 0);
+            }
+        }
+
+        assertThat(pixels.size()).isEqualTo(1_000);
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(pixels.x(i)).isEqualTo(i);
+            assertThat(pixels.y(i)).isEqualTo(65_535 - i);
+            assertThat(pixels.color(i)).isEqualTo("#1");
+        }
+    }
+
+    @Test
+    void sequenceRangeStartsAtThePreviousSequenceOfTheFirstPixel() {
+        CoalescedPixels pixels = new CoalescedPixels();
+
+        pixels.add(1, 1, "#000001", null, 41, 42);
+        pixels.add(2, 2, "#000002", null, 42, 45);
+        pixels.add(3, 3, "#000003", null, 0, 0);
+
+        assertThat(pixels.getFromSequence()).isEqualTo(41);
+        assertThat(pixels.getToSequence()).isEqualTo(45);
+    }
+
+    @Test
+    void unsequencedPixelsLeaveAnEmptyRange() {
+        CoalescedPixels pixels = new CoalescedPixels();
+        pixels.add(1, 1, "#000001", null, 0, 0);
+
+        assertThat(pixels.getFromSequence()).isZero();
+        assertThat(pixels.getToSequence()).isZero();
+    }
+
+    @Test
+    void clearResetsPixelsAndRange() {
+        CoalescedPixels pixels = new CoalescedPixels();
+        for (int i = 0; i < 5_000; i++) {
+            pixels.add(i, i, "#000001", "u", i, i + 1);
+        }
+
+        pixels.clear();
+        assertThat(pixels.isEmpty()).isTrue();
+        assertThat(pixels.getToSequence()).isZero();
+
+        pixels.add(7, 7, "#000002", null, 100, 101);
+        assertThat(pixels.size()).isEqualTo(1);
+        assertThat(pixels.color(0)).isEqualTo("#000002");
+        assertThat(pixels.getFromSequence()).isEqualTo(100);
+        assertThat(pixels.getToSequence()).isEqualTo(101);
+    }
+}
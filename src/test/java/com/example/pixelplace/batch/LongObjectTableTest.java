@@ -0,0 +1,84 @@
+package com.example.pixelplace.batch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Hash abierto con sondeo lineal: el borrado con desplazamiento hacia atrás
+ * no debe cortar las cadenas de sondeo de las claves que quedan.
+ */
+class LongObjectTableTest {
+
+    @Test
+    void putGetAndReplace() {
+        LongObjectTable<String> table = new LongObjectTable<>(8);
+
+        assertThat(table.put(1L, "a")).isNull();
+        assertThat(table.put(2L, "b")).isNull();
+        assertThat(table.put(1L, "c")).isEqualTo("a");
+
+        assertThat(table.get(1L)).isEqualTo("c");
+        assertThat(table.get(2L)).isEqualTo("b");
+        assertThat(table.get(3L)).isNull();
+        assertThat(table.size()).isEqualTo(2);
+    }
+
+    @Test
+    void removeKeepsProbeChainsOfRemainingKeys() {
+        // Tabla chica y muchas claves: cadenas largas que se cruzan y pasan por rehash
+        LongObjectTable<Long> table = new LongObjectTable<>(8);
+        Map<Long, Long> reference = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int round = 0; round < 20_000; round++) {
+            long key = random.nextInt(512);
+            if (random.nextBoolean()) {
+                assertThat(table.put(key, key * 10)).isEqualTo(reference.put(key, key * 10));
+            } else {
+                assertThat(table.remove(key)).isEqualTo(reference.remove(key));
+            }
+        }
+
+        assertThat(table.size()).isEqualTo(reference.size());
+        for (long key = 0; key < 512; key++) {
+            assertThat(table.get(key)).isEqualTo(reference.get(key));
+        }
+    }
+
+    @Test
+    void removeFromTheMiddleKeepsTheOtherKeys() {
+        LongObjectTable<String> table = new LongObjectTable<>(8);
+        for (long key = 0; key < 6; key++) {
+            table.put(key, "v" + key);
+        }
+
+        assertThat(table.remove(2L)).isEqualTo("v2");
+        assertThat(table.remove(2L)).isNull();
+
+        for (long key = 0; key < 6; key++) {
+            assertThat(table.get(key)).isEqualTo(key == 2 ? null : "v" + key);
+        }
+        assertThat(table.size()).isEqualTo(5);
+    }
+
+    @Test
+    void keysCopiesAtMostTheTargetLength() {
+        LongObjectTable<String> table = new LongObjectTable<>(8);
+        for (long key = 0; key < 5; key++) {
+            table.put(key, "v" + key);
+        }
+
+        long[] all = new long[8];
+        assertThat(table.keys(all)).isEqualTo(5);
+        assertThat(table.keys(new long[3])).isEqualTo(3);
+
+        table.clear();
+        assertThat(table.isEmpty()).isTrue();
+        assertThat(table.keys(all)).isZero();
+    }
+}
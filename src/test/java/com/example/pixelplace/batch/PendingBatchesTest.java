@@ -0,0 +1,114 @@
+package com.example.pixelplace.batch;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Acumulación por clave, colapso por backpressure y reciclado de buffers.
+ */
+class PendingBatchesTest {
+
+    private static final long KEY_A = TileKeys.tileKey(1, 0, 0);
+    private static final long KEY_B = TileKeys.tileKey(1, 1, 0);
+
+    @Test
+    void accumulatesPixelsPerKey() {
+        PendingBatches batches = new PendingBatches();
+
+        assertThat(batches.add(KEY_A, 1, 2, 0xFF0000, 100)).isEqualTo(1);
+        assertThat(batches.add(KEY_A, 3, 4, 0x00FF00, 200)).isEqualTo(2);
+        assertThat(batches.add(KEY_B, 5, 6, 0x0000FF, 150)).isEqualTo(1);
+
+        assertThat(batches.size()).isEqualTo(2);
+        assertThat(batches.pendingPixels()).isEqualTo(3);
+        assertThat(batches.firstEventMillis(KEY_A)).isEqualTo(100);
+        assertThat(batches.oldestEventMillis()).isEqualTo(100);
+
+        PixelBatch batch = batches.drain(KEY_A);
+        assertThat(batch.size()).isEqualTo(2);
+        assertThat(batch.x(1)).isEqualTo(3);
+        assertThat(batch.y(1)).isEqualTo(4);
+        assertThat(batch.rgb(1)).isEqualTo(0x00FF00);
+        assertThat(batches.pendingPixels()).isEqualTo(1);
+        assertThat(batches.firstEventMillis(KEY_A)).isEqualTo(-1);
+    }
+
+    @Test
+    void collapsesABatchOverThePerKeyLimit() {
+        PendingBatches batches = new PendingBatches();
+        batches.setLimits(2, Integer.MAX_VALUE);
+
+        batches.add(KEY_A, 0, 0, 0, 100);
+        batches.add(KEY_A, 1, 0, 0, 110);
+        assertThat(batches.add(KEY_A, 2, 0, 0, 120)).isZero();
+
+        assertThat(batches.collapsedBatches()).isEqualTo(1);
+        assertThat(batches.collapses()).isEqualTo(1);
+        assertThat(batches.pendingPixels()).isZero();
+
+        // Colapsado: sigue contando eventos sin guardar pixeles
+        assertThat(batches.add(KEY_A, 3, 0, 0, 130)).isZero();
+
+        long[] keys = new long[4];
+        assertThat(batches.keys(keys, true)).isEqualTo(1);
+        assertThat(keys[0]).isEqualTo(KEY_A);
+        assertThat(batches.keys(keys, false)).isZero();
+
+        PixelBatch batch = batches.drain(KEY_A);
+        assertThat(batch.isCollapsed()).isTrue();
+        assertThat(batch.getEventCount()).isEqualTo(4);
+        assertThat(batch.getFirstEventMillis()).isEqualTo(100);
+        assertThat(batch.getLastEventMillis()).isEqualTo(130);
+        assertThat(batches.collapsedBatches()).isZero();
+    }
+
+    @Test
+    void collapsesTheGrowingBatchOverTheGlobalLimit() {
+        PendingBatches batches = new PendingBatches();
+        batches.setLimits(Integer.MAX_VALUE, 3);
+
+        batches.add(KEY_A, 0, 0, 0, 100);
+        batches.add(KEY_A, 1, 0, 0, 100);
+        batches.add(KEY_B, 0, 0, 0, 100);
+        assertThat(batches.add(KEY_B, 1, 0, 0, 100)).isZero();
+
+        // Solo se descartan los pixeles del batch que creció
+        assertThat(batches.pendingPixels()).isEqualTo(2);
+        long[] keys = new long[4];
+        assertThat(batches.keys(keys, false)).isEqualTo(1);
+        assertThat(keys[0]).isEqualTo(KEY_A);
+    }
+
+    @Test
+    void requestRegenerationCollapsesWithoutCountingABackpressureCollapse() {
+        PendingBatches batches = new PendingBatches();
+        batches.add(KEY_A, 0, 0, 0, 100);
+
+        batches.requestRegeneration(KEY_A, 200);
+        batches.requestRegeneration(KEY_B, 300);
+
+        assertThat(batches.collapsedBatches()).isEqualTo(2);
+        assertThat(batches.collapses()).isZero();
+        assertThat(batches.pendingPixels()).isZero();
+    }
+
+    @Test
+    void recycledBatchesComeBackEmpty() {
+        PendingBatches batches = new PendingBatches();
+        batches.setLimits(1, Integer.MAX_VALUE);
+        batches.add(KEY_A, 0, 0, 0, 100);
+        batches.add(KEY_A, 1, 0, 0, 100);
+
+        PixelBatch collapsed = batches.drain(KEY_A);
+        batches.recycle(collapsed);
+
+        assertThat(batches.add(KEY_B, 7, 8, 0x123456, 500)).isEqualTo(1);
+        PixelBatch reused = batches.drain(KEY_B);
+        assertThat(reused).isSameAs(collapsed);
+        assertThat(reused.isCollapsed()).isFalse();
+        assertThat(reused.getEventCount()).isEqualTo(1);
+        assertThat(reused.getFirstEventMillis()).isEqualTo(500);
+        assertThat(reused.rgb(0)).isEqualTo(0x123456);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.pixelplace.batch;
+
+import com.example.pixelplace.config.ImageGenerationProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Backoff exponencial con tope, fusión de fallas de la misma clave y
+ * descarte al agotar los intentos (backoff inicial 1000 ms, tope 60000 ms).
+ */
+class RenderRetryQueueTest {
+
+    private static final int TILE_SIZE = 100;
+    private static final long CANVAS = TileKeys.canvasKey(3);
+
+    private ImageGenerationProperties properties;
+    private RenderRetryQueue queue;
+    private final List<RenderRetryQueue.Entry> due = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        properties = new ImageGenerationProperties();
+        queue = new RenderRetryQueue(properties, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void canvasFailureRetriesOnlyTheTouchedTiles() {
+        queue.enqueueCanvas(CANVAS, batch(5, 5, 150, 5, 160, 40), TILE_SIZE, 10_000);
+
+        queue.pollDue(10_999, due);
+        assertThat(due).isEmpty();
+
+        queue.pollDue(11_000, due);
+        assertThat(due).hasSize(1);
+        RenderRetryQueue.Entry entry = due.get(0);
+        assertThat(entry.isTile()).isFalse();
+        assertThat(entry.isFullRegeneration()).isFalse();
+        assertThat(entry.getAttempts()).isEqualTo(1);
+        assertThat(entry.getTiles()).containsExactlyInAnyOrder(
+                TileKeys.tileKey(3, 0, 0), TileKeys.tileKey(3, 1, 0));
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    void repeatedFailuresOfTheSameKeyMerge() {
+        queue.enqueueCanvas(CANVAS, batch(5, 5), TILE_SIZE, 10_000);
+        queue.enqueueCanvas(CANVAS, batch(250, 250), TILE_SIZE, 10_500);
+        queue.enqueueCanvas(CANVAS, collapsed(), TILE_SIZE, 10_600);
+        queue.enqueueTile(TileKeys.tileKey(3, 4, 4), 10_000);
+        queue.enqueueTile(TileKeys.tileKey(3, 4, 4), 10_700);
+
+        queue.pollDue(11_000, due);
+
+        // El primer encolado fija el vencimiento
+        assertThat(due).hasSize(2);
+        RenderRetryQueue.Entry canvas = due.get(0);
+        assertThat(canvas.isFullRegeneration()).isTrue();
+        assertThat(canvas.getTiles()).containsExactlyInAnyOrder(
+                TileKeys.tileKey(3, 0, 0), TileKeys.tileKey(3, 2, 2));
+        assertThat(due.get(1).isTile()).isTrue();
+    }
+
+    @Test
+    void backoffDoublesUpToTheMaximum() {
+        properties.getRetry().setMaxAttempts(10);
+        queue.enqueueTile(TileKeys.tileKey(3, 0, 0), 0);
+
+        long now = 1_000;
+        long[] expected = {2_000, 4_000, 8_000, 16_000, 32_000, 60_000, 60_000};
+        for (long delay : expected) {
+            RenderRetryQueue.Entry entry = pollOne(now);
+            queue.failed(entry, now);
+            assertThat(entry.getNextAttemptMillis()).isEqualTo(now + delay);
+            now += delay;
+        }
+    }
+
+    @Test
+    void entryIsDroppedAfterMaxAttempts() {
+        queue.enqueueTile(TileKeys.tileKey(3, 0, 0), 0);
+
+        long now = 0;
+        for (int attempt = 1; attempt <= properties.getRetry().getMaxAttempts(); attempt++) {
+            now += 60_000;
+            RenderRetryQueue.Entry entry = pollOne(now);
+            assertThat(entry.getAttempts()).isEqualTo(attempt);
+            queue.failed(entry, now);
+        }
+
+        assertThat(queue.isEmpty()).isTrue();
+    }
+
+    @Test
+    void failureDuringRetryMergesIntoTheNewEntry() {
+        queue.enqueueCanvas(CANVAS, batch(5, 5), TILE_SIZE, 0);
+        RenderRetryQueue.Entry retrying = pollOne(1_000);
+
+        // Mientras se reintentaba falló otro batch del mismo canvas
+        queue.enqueueCanvas(CANVAS, collapsed(), TILE_SIZE, 1_100);
+        queue.failed(retrying, 1_200);
+
+        RenderRetryQueue.Entry merged = pollOne(2_100);
+        assertThat(merged).isNotSameAs(retrying);
+        assertThat(merged.isFullRegeneration()).isTrue();
+        assertThat(merged.getTiles()).containsExactly(TileKeys.tileKey(3, 0, 0));
+        assertThat(merged.getAttempts()).isEqualTo(2);
+    }
+
+    private RenderRetryQueue.Entry pollOne(long now) {
+        due.clear();
+        queue.pollDue(now, due);
+        assertThat(due).hasSize(1);
+        return due.get(0);
+    }
+
+    private static PixelBatch batch(int... coordinates) {
+        PixelBatch batch = new PixelBatch();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            batch.add(coordinates[i], coordinates[i + 1], 0xFFFFFF, 0);
+        }
+        return batch;
+    }
+
+    private static PixelBatch collapsed() {
+        PixelBatch batch = batch(1, 1);
+        batch.collapse();
+        return batch;
+    }
+}
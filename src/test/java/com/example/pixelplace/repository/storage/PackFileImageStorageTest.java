@@ -0,0 +1,161 @@
+package com.example.pixelplace.repository.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Pack por canvas: persistencia entre aperturas, deduplicación por
+ * contenido, compactación y recuperación del índice tras un crash.
+ */
+class PackFileImageStorageTest {
+
+    private static final String CANVAS = "canvas";
+
+    @TempDir
+    Path directory;
+
+    private PackFileImageStorage storage;
+
+    @AfterEach
+    void tearDown() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    void imagesSurviveReopening() throws IOException {
+        storage = open();
+        storage.put(tile(0), png(1, 100), 1_000);
+        storage.put(tile(1), png(2, 100), 2_000);
+        storage.put(tile(0), png(3, 100), 3_000);
+        reopen();
+
+        assertImage(tile(0), png(3, 100), 3_000);
+        assertImage(tile(1), png(2, 100), 2_000);
+        assertThat(storage.exists(tile(2))).isFalse();
+    }
+
+    @Test
+    void identicalContentIsStoredOnce() throws IOException {
+        storage = open();
+        storage.put(tile(0), png(7, 1_000), 1_000);
+        long afterBlob = Files.size(packFile());
+
+        storage.put(tile(1), png(7, 1_000), 2_000);
+
+        assertThat(Files.size(packFile()) - afterBlob)
+                .isEqualTo(PackFileImageStorage.HEADER_BYTES + PackFileImageStorage.LINK_BYTES);
+        assertImage(tile(1), png(7, 1_000), 2_000);
+
+        // El enlace sobrevive aunque la clave del blob original cambie
+        storage.put(tile(0), png(8, 1_000), 3_000);
+        reopen();
+        assertImage(tile(1), png(7, 1_000), 2_000);
+    }
+
+    @Test
+    void compactionKeepsOnlyLiveImages() throws IOException {
+        storage = open();
+        for (int version = 0; version < 50; version++) {
+            storage.put(tile(0), png(version, 1_000), version);
+        }
+        storage.put(tile(1), png(200, 1_000), 100);
+        storage.put(tile(2), png(200, 1_000), 101);
+        long before = Files.size(packFile());
+
+        storage.compactAll();
+
+        assertThat(Files.size(packFile())).isLessThan(before / 10);
+        assertImage(tile(0), png(49, 1_000), 49);
+        assertImage(tile(2), png(200, 1_000), 101);
+
+        // Escrituras después de compactar, y el índice nuevo al reabrir
+        storage.put(tile(3), png(201, 1_000), 102);
+        reopen();
+        assertImage(tile(0), png(49, 1_000), 49);
+        assertImage(tile(1), png(200, 1_000), 100);
+        assertImage(tile(3), png(201, 1_000), 102);
+    }
+
+    @Test
+    void recordsMissingFromTheIndexAreRecovered() throws IOException {
+        storage = open();
+        storage.put(tile(0), png(1, 100), 1_000);
+        storage.put(tile(1), png(2, 100), 2_000);
+        storage.close();
+
+        // Crash entre la escritura del pack y la del índice: falta la última entrada
+        try (FileChannel index = FileChannel.open(indexFile(), StandardOpenOption.WRITE)) {
+            index.truncate(index.size() - PackFileImageStorage.INDEX_ENTRY_BYTES);
+        }
+
+        storage = open();
+        assertImage(tile(0), png(1, 100), 1_000);
+        assertImage(tile(1), png(2, 100), 2_000);
+    }
+
+    @Test
+    void incompleteTrailingRecordIsDiscarded() throws IOException {
+        storage = open();
+        storage.put(tile(0), png(1, 100), 1_000);
+        storage.close();
+        long complete = Files.size(packFile());
+
+        // Encabezado a medio escribir al final del pack
+        Files.write(packFile(), new byte[]{0, 0, 0, 0, 1}, StandardOpenOption.APPEND);
+
+        storage = open();
+        assertThat(Files.size(packFile())).isEqualTo(complete);
+        assertImage(tile(0), png(1, 100), 1_000);
+
+        storage.put(tile(1), png(2, 100), 2_000);
+        reopen();
+        assertImage(tile(1), png(2, 100), 2_000);
+    }
+
+    private PackFileImageStorage open() {
+        // Sin compactación programada: los tests la invocan a mano
+        return new PackFileImageStorage(directory.toString(), 0, 0.5, 0);
+    }
+
+    private void reopen() {
+        storage.close();
+        storage = open();
+    }
+
+    private void assertImage(ImageKey key, byte[] png, long lastModified) throws IOException {
+        StoredImage image = storage.get(key);
+        assertThat(image).isNotNull();
+        assertThat(image.toByteArray()).isEqualTo(png);
+        assertThat(image.getLastModified()).isEqualTo(lastModified);
+    }
+
+    private Path packFile() {
+        return directory.resolve(CANVAS).resolve(PackFileImageStorage.PACK_FILE);
+    }
+
+    private Path indexFile() {
+        return directory.resolve(CANVAS).resolve(PackFileImageStorage.INDEX_FILE);
+    }
+
+    private static ImageKey tile(int tileX) {
+        return ImageKey.tile(CANVAS, tileX, 0, 1);
+    }
+
+    private static byte[] png(int content, int length) {
+        byte[] png = new byte[length];
+        Arrays.fill(png, (byte) content);
+        return png;
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.pixelplace.repository.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Versiones pendientes por clave (solo se escribe la más reciente),
+ * reintentos con backoff y último intento sincrónico al cerrar.
+ */
+class WriteBehindImageStorageTest {
+
+    private static final ImageKey KEY = ImageKey.tile("canvas", 1, 2, 1);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FlakyStorage backend = new FlakyStorage();
+    private WriteBehindImageStorage storage;
+
+    @AfterEach
+    void tearDown() throws Exception {
+        backend.release();
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    void newerVersionSupersedesThePendingOne() throws Exception {
+        storage = writeBehind(3, 10);
+        backend.gate = new CountDownLatch(1);
+
+        storage.put(KEY, png(1));
+        await(() -> backend.waiting);
+        storage.put(KEY, png(2));
+        storage.put(KEY, png(3));
+
+        // Las lecturas ven la versión pendiente más reciente
+        assertThat(storage.get(KEY).toByteArray()).isEqualTo(png(3));
+
+        backend.release();
+        await(() -> storage.pendingWrites() == 0);
+
+        assertThat(backend.writes).containsExactly(png(1), png(3));
+        assertThat(backend.get(KEY).toByteArray()).isEqualTo(png(3));
+        assertThat(count("superseded")).isEqualTo(2);
+        assertThat(count("written")).isEqualTo(2);
+    }
+
+    @Test
+    void failedWriteIsRetriedAndStaysReadable() throws Exception {
+        storage = writeBehind(5, 10);
+        backend.failures = 2;
+
+        storage.put(KEY, png(1));
+        assertThat(storage.get(KEY).toByteArray()).isEqualTo(png(1));
+
+        await(() -> storage.pendingWrites() == 0);
+        assertThat(backend.get(KEY).toByteArray()).isEqualTo(png(1));
+        assertThat(count("failed")).isEqualTo(2);
+        assertThat(count("exhausted")).isZero();
+    }
+
+    @Test
+    void writeIsDroppedAfterMaxAttempts() throws Exception {
+        storage = writeBehind(2, 10);
+        backend.failures = Integer.MAX_VALUE;
+
+        storage.put(KEY, png(1));
+
+        await(() -> storage.pendingWrites() == 0);
+        assertThat(storage.get(KEY)).isNull();
+        assertThat(count("exhausted")).isEqualTo(1);
+    }
+
+    @Test
+    void closeDrainsPendingWritesWithTheirTimestamp() throws Exception {
+        // Backoff largo: el reintento agendado no llega a correr antes del cierre
+        storage = writeBehind(5, 60_000);
+        backend.failures = 1;
+
+        storage.put(KEY, png(1));
+        await(() -> count("failed") == 1);
+        long lastModified = storage.stat(KEY).getLastModified();
+
+        storage.close();
+        storage = null;
+
+        assertThat(backend.get(KEY).toByteArray()).isEqualTo(png(1));
+        assertThat(backend.stat(KEY).getLastModified()).isEqualTo(lastModified);
+    }
+
+    private WriteBehindImageStorage writeBehind(int maxAttempts, long backoffMillis) {
+        return new WriteBehindImageStorage(backend, 1, backoffMillis, backoffMillis, maxAttempts, registry);
+    }
+
+    private double count(String outcome) {
+        return registry.get("pixelplace.image.storage.writes").tag("outcome", outcome).counter().count();
+    }
+
+    private static byte[] png(int version) {
+        return new byte[]{(byte) 0x89, 'P', 'N', 'G', (byte) version};
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condición a tiempo").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Backend en memoria que puede fallar las primeras escrituras o
+     * bloquearlas hasta que se libere el gate.
+     */
+    private static final class FlakyStorage extends InMemoryImageStorage {
+
+        final List<byte[]> writes = Collections.synchronizedList(new ArrayList<>());
+        volatile int failures;
+        volatile CountDownLatch gate;
+        volatile boolean waiting;
+
+        @Override
+        public void put(ImageKey key, byte[] png, long lastModified) {
+            CountDownLatch current = gate;
+            if (current != null) {
+                waiting = true;
+                try {
+                    current.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("backend no disponible");
+            }
+            writes.add(png);
+            super.put(key, png, lastModified);
+        }
+
+        void release() {
+            CountDownLatch current = gate;
+            gate = null;
+            if (current != null) {
+                current.countDown();
+            }
+        }
+    }
+}
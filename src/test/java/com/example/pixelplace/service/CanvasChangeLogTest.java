@@ -0,0 +1,126 @@
+package com.example.pixelplace.service;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Anillo de cambios por canvas: rango (floor, last], vuelta del anillo,
+ * secuencias no consecutivas del relay y huecos.
+ */
+class CanvasChangeLogTest {
+
+    private static final String CANVAS = "canvas";
+
+    private CanvasChangeLog changeLog;
+
+    @BeforeEach
+    void setUp() {
+        LiveUpdateProperties properties = new LiveUpdateProperties();
+        properties.getChangeLog().setCapacity(8);
+        changeLog = new CanvasChangeLog(properties);
+    }
+
+    @Test
+    void unknownCanvasIsUpToDateOnlyFromZero() {
+        CanvasChangeLog.Changes changes = changeLog.since(CANVAS, 0);
+
+        assertThat(changes.getCount()).isZero();
+        assertThat(changeLog.since(CANVAS, 5)).isNull();
+        assertThat(changeLog.lastSequence(CANVAS)).isZero();
+    }
+
+    @Test
+    void returnsTheChangesAfterTheSequenceInOrder() {
+        for (long sequence = 1; sequence <= 5; sequence++) {
+            append(sequence - 1, sequence);
+        }
+
+        CanvasChangeLog.Changes changes = changeLog.since(CANVAS, 2);
+        assertThat(changes.getFromSequence()).isEqualTo(2);
+        assertThat(changes.getToSequence()).isEqualTo(5);
+        assertThat(changes.getCount()).isEqualTo(3);
+        assertChange(changes, 0, 3);
+        assertChange(changes, 2, 5);
+
+        assertThat(changeLog.since(CANVAS, 5).getCount()).isZero();
+        assertThat(changeLog.since(CANVAS, 6)).isNull();
+        assertThat(changeLog.lastSequence(CANVAS)).isEqualTo(5);
+    }
+
+    @Test
+    void ringKeepsOnlyTheLastCapacityChanges() {
+        for (long sequence = 1; sequence <= 20; sequence++) {
+            append(sequence - 1, sequence);
+        }
+
+        // Quedan 13..20: se puede pedir desde 12
+        assertThat(changeLog.since(CANVAS, 11)).isNull();
+
+        CanvasChangeLog.Changes changes = changeLog.since(CANVAS, 12);
+        assertThat(changes.getCount()).isEqualTo(8);
+        assertChange(changes, 0, 13);
+        assertChange(changes, 7, 20);
+
+        changes = changeLog.since(CANVAS, 19);
+        assertThat(changes.getCount()).isEqualTo(1);
+        assertChange(changes, 0, 20);
+    }
+
+    @Test
+    void nonConsecutiveSequencesChain() {
+        // Posiciones del relay: los demás canvas ocupan las intermedias
+        append(0, 10);
+        append(10, 15);
+        append(15, 40);
+
+        CanvasChangeLog.Changes changes = changeLog.since(CANVAS, 12);
+        assertThat(changes.getFromSequence()).isEqualTo(12);
+        assertThat(changes.getToSequence()).isEqualTo(40);
+        assertThat(changes.getCount()).isEqualTo(2);
+        assertChange(changes, 0, 15);
+        assertChange(changes, 1, 40);
+
+        assertThat(changeLog.since(CANVAS, 0).getCount()).isEqualTo(3);
+    }
+
+    @Test
+    void gapDropsWhatCameBefore() {
+        append(0, 1);
+        append(1, 2);
+        // El cambio anterior a 6 (5) nunca llegó
+        append(5, 6);
+
+        assertThat(changeLog.since(CANVAS, 1)).isNull();
+        assertThat(changeLog.since(CANVAS, 4)).isNull();
+
+        CanvasChangeLog.Changes changes = changeLog.since(CANVAS, 5);
+        assertThat(changes.getCount()).isEqualTo(1);
+        assertChange(changes, 0, 6);
+    }
+
+    /**
+     * Pixel de la secuencia n: (n, n + 1) con color n.
+     */
+    private void append(long previous, long sequence) {
+        changeLog.on(new CanvasPixelUpdate(CANVAS, (int) sequence, (int) sequence + 1,
+                HexColor.format((int) sequence), "user", 0, previous, sequence));
+    }
+
+    private static void assertChange(CanvasChangeLog.Changes changes, int index, long sequence) {
+        byte[] packed = changes.getPacked();
+        int offset = index * 7;
+        int x = ((packed[offset] & 0xFF) << 8) | (packed[offset + 1] & 0xFF);
+        int y = ((packed[offset + 2] & 0xFF) << 8) | (packed[offset + 3] & 0xFF);
+        int rgb = ((packed[offset + 4] & 0xFF) << 16)
+                | ((packed[offset + 5] & 0xFF) << 8)
+                | (packed[offset + 6] & 0xFF);
+        assertThat(x).isEqualTo((int) sequence);
+        assertThat(y).isEqualTo((int) sequence + 1);
+        assertThat(rgb).isEqualTo((int) sequence);
+    }
+}
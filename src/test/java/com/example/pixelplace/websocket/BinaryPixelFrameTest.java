@@ -0,0 +1,127 @@
+package com.example.pixelplace.websocket;
+
+import com.example.pixelplace.batch.HexColor;
+import com.example.pixelplace.dto.PixelBatchMessage;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Layout del frame binario (ver doc de BinaryPixelFrame), leído byte a byte.
+ */
+class BinaryPixelFrameTest {
+
+    @Test
+    void batchWithPaletteAndWithoutUsers() {
+        PixelBatchMessage batch = batch(10, 20,
+                new int[]{1, 300, 2},
+                new int[]{2, 400, 3},
+                new String[]{"#FF0000", "#00FF00", "#FF0000"},
+                new String[]{"a", "b", "a"});
+
+        ByteBuffer frame = ByteBuffer.wrap(BinaryPixelFrame.encode(batch, false));
+
+        assertThat(frame.get()).isEqualTo((byte) BinaryPixelFrame.TYPE_BATCH);
+        assertThat(frame.get()).isEqualTo((byte) BinaryPixelFrame.FLAG_PALETTE);
+        assertThat(frame.getLong()).isEqualTo(10);
+        assertThat(frame.getLong()).isEqualTo(20);
+        assertThat(frame.getInt()).isEqualTo(3);
+
+        assertThat(frame.get()).isEqualTo((byte) 2);
+        assertThat(rgb(frame)).isEqualTo(0xFF0000);
+        assertThat(rgb(frame)).isEqualTo(0x00FF00);
+
+        assertPixel(frame, 1, 2);
+        assertThat(frame.get()).isEqualTo((byte) 0);
+        assertPixel(frame, 300, 400);
+        assertThat(frame.get()).isEqualTo((byte) 1);
+        assertPixel(frame, 2, 3);
+        assertThat(frame.get()).isEqualTo((byte) 0);
+
+        assertThat(frame.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void batchWithUsersIndexesTheFrameDictionary() {
+        PixelBatchMessage batch = batch(0, 3,
+                new int[]{1, 2, 3},
+                new int[]{1, 2, 3},
+                new String[]{"#000000", "#000000", "#000000"},
+                new String[]{"ana", null, "ana"});
+
+        ByteBuffer frame = ByteBuffer.wrap(BinaryPixelFrame.encode(batch, true));
+
+        frame.position(2 + 16 + 4);
+        // Paleta de un color
+        assertThat(frame.get()).isEqualTo((byte) 1);
+        assertThat(rgb(frame)).isZero();
+
+        // Diccionario: "ana" y el usuario vacío (null)
+        assertThat(frame.getShort()).isEqualTo((short) 2);
+        assertThat(frame.get()).isEqualTo((byte) 3);
+        byte[] name = new byte[3];
+        frame.get(name);
+        assertThat(new String(name, StandardCharsets.UTF_8)).isEqualTo("ana");
+        assertThat(frame.get()).isEqualTo((byte) 0);
+
+        int[] expectedUsers = {0, 1, 0};
+        for (int i = 0; i < 3; i++) {
+            assertPixel(frame, i + 1, i + 1);
+            assertThat(frame.get()).isEqualTo((byte) 0);
+            assertThat(frame.getShort()).isEqualTo((short) expectedUsers[i]);
+        }
+        assertThat(frame.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void tooManyColorsFallBackToRgb() {
+        int count = 300;
+        int[] xs = new int[count];
+        int[] ys = new int[count];
+        String[] colors = new String[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = i;
+            ys[i] = i;
+            colors[i] = HexColor.format(i * 101);
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(BinaryPixelFrame.encode(
+                batch(0, count, xs, ys, colors, new String[count]), false));
+
+        frame.get();
+        assertThat(frame.get()).isZero();
+        frame.position(2 + 16);
+        assertThat(frame.getInt()).isEqualTo(count);
+        for (int i = 0; i < count; i++) {
+            assertPixel(frame, i, i);
+            assertThat(rgb(frame)).isEqualTo(i * 101);
+        }
+        assertThat(frame.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void resyncCarriesOnlyTheSequence() {
+        ByteBuffer frame = ByteBuffer.wrap(BinaryPixelFrame.encodeResync(1234));
+
+        assertThat(frame.remaining()).isEqualTo(10);
+        assertThat(frame.get()).isEqualTo((byte) BinaryPixelFrame.TYPE_RESYNC);
+        assertThat(frame.get()).isZero();
+        assertThat(frame.getLong()).isEqualTo(1234);
+    }
+
+    private static PixelBatchMessage batch(long from, long to, int[] xs, int[] ys, String[] colors, String[] users) {
+        return new PixelBatchMessage("canvas", from, to, 0, xs, ys, colors, users);
+    }
+
+    private static void assertPixel(ByteBuffer frame, int x, int y) {
+        assertThat(Short.toUnsignedInt(frame.getShort())).isEqualTo(x);
+        assertThat(Short.toUnsignedInt(frame.getShort())).isEqualTo(y);
+    }
+
+    private static int rgb(ByteBuffer frame) {
+        return ((frame.get() & 0xFF) << 16) | ((frame.get() & 0xFF) << 8) | (frame.get() & 0xFF);
+    }
+}
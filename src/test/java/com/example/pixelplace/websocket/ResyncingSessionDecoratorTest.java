@@ -0,0 +1,178 @@
+package com.example.pixelplace.websocket;
+
+import com.example.pixelplace.dto.PixelBatchMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompDecoder;
+import org.springframework.messaging.simp.stomp.StompEncoder;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Cola de salida acotada: al superar el límite se descartan los mensajes
+ * de pixeles en cola y cada suscripción recibe un único RESYNC con la
+ * secuencia del primer mensaje descartado.
+ *
+ * El executor de flush no corre solo: las tareas se ejecutan a mano para
+ * simular una sesión lenta.
+ */
+class ResyncingSessionDecoratorTest {
+
+    private static final int BUFFER_LIMIT = 1000;
+    private static final String PADDING = "x".repeat(200);
+
+    private final List<Runnable> flushTasks = new ArrayList<>();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private WebSocketSession delegate;
+    private Counter resyncs;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(WebSocketSession.class);
+        resyncs = registry.counter("resyncs");
+    }
+
+    @Test
+    void stompOverflowDropsPixelsAndKeepsOtherFrames() throws Exception {
+        ResyncingSessionDecorator session = decorator(true);
+
+        session.sendMessage(receipt());
+        session.sendMessage(pixelFrame(10));
+        session.sendMessage(pixelFrame(20));
+        session.sendMessage(pixelFrame(30));
+
+        assertThat(resyncs.count()).isEqualTo(1);
+        assertThat(session.getBufferSize()).isLessThan(BUFFER_LIMIT);
+
+        List<WebSocketMessage<?>> sent = flush(2);
+        assertThat(decode(sent.get(0)).getCommand()).isEqualTo(StompCommand.RECEIPT);
+
+        Message<byte[]> resync = decodeMessage(sent.get(1));
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(resync);
+        assertThat(headers.getSubscriptionId()).isEqualTo("sub-1");
+        assertThat(headers.getDestination()).isEqualTo("/topic/canvas/c1");
+        assertThat(new String(resync.getPayload(), StandardCharsets.UTF_8))
+                .isEqualTo("{\"type\":\"RESYNC\",\"canvasId\":\"c1\",\"fromSequence\":10}");
+    }
+
+    @Test
+    void rawOverflowSendsASingleBinaryResync() throws Exception {
+        ResyncingSessionDecorator session = decorator(false);
+
+        for (int i = 0; i < 20; i++) {
+            session.sendMessage(new BinaryMessage(rawFrame(5 + i)));
+        }
+
+        assertThat(resyncs.count()).isPositive();
+
+        List<WebSocketMessage<?>> sent = flushAll();
+        ByteBuffer first = ((BinaryMessage) sent.get(0)).getPayload();
+        assertThat(first.get(0)).isEqualTo((byte) BinaryPixelFrame.TYPE_RESYNC);
+        assertThat(first.getLong(2)).isEqualTo(5);
+    }
+
+    @Test
+    void overflowWithoutPixelMessagesClosesTheSession() throws Exception {
+        ResyncingSessionDecorator session = decorator(true);
+
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 10; i++) {
+                session.sendMessage(receiptWithBody());
+            }
+        }).isInstanceOf(SessionLimitExceededException.class);
+
+        // Cerrando: lo que llegue después se ignora
+        session.sendMessage(pixelFrame(40));
+        assertThat(flushTasks).hasSize(1);
+    }
+
+    private ResyncingSessionDecorator decorator(boolean stomp) {
+        return new ResyncingSessionDecorator(delegate, flushTasks::add, stomp, BUFFER_LIMIT, 10_000,
+                resyncs, registry.counter("dropped"));
+    }
+
+    private List<WebSocketMessage<?>> flush(int expected) throws Exception {
+        List<WebSocketMessage<?>> sent = flushAll();
+        assertThat(sent).hasSize(expected);
+        return sent;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<WebSocketMessage<?>> flushAll() throws Exception {
+        assertThat(flushTasks).hasSize(1);
+        flushTasks.remove(0).run();
+
+        ArgumentCaptor<WebSocketMessage> captor = ArgumentCaptor.forClass(WebSocketMessage.class);
+        verify(delegate, atLeast(1)).sendMessage(captor.capture());
+        List<WebSocketMessage<?>> sent = new ArrayList<>();
+        for (WebSocketMessage message : captor.getAllValues()) {
+            sent.add(message);
+        }
+        return sent;
+    }
+
+    private static TextMessage pixelFrame(long fromSequence) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.MESSAGE);
+        accessor.setDestination("/topic/canvas/c1");
+        accessor.setSubscriptionId("sub-1");
+        accessor.setMessageId("m" + fromSequence);
+        String payload = "{\"type\":\"PIXEL_BATCH\",\"canvasId\":\"c1\",\"fromSequence\":" + fromSequence
+                + ",\"toSequence\":" + (fromSequence + 1) + ",\"pad\":\"" + PADDING + "\"}";
+        return new TextMessage(new StompEncoder().encode(accessor.getMessageHeaders(),
+                payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static TextMessage receipt() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        accessor.setReceiptId("r1");
+        return new TextMessage(new StompEncoder().encode(accessor.getMessageHeaders(), new byte[0]));
+    }
+
+    private static TextMessage receiptWithBody() {
+        StompHeaderAccessor accessor = StompHeaderAccessor.create(StompCommand.RECEIPT);
+        accessor.setReceiptId("r1");
+        return new TextMessage(new StompEncoder().encode(accessor.getMessageHeaders(),
+                PADDING.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static byte[] rawFrame(long fromSequence) {
+        int count = 20;
+        int[] xs = new int[count];
+        String[] colors = new String[count];
+        Arrays.fill(colors, "#FF0000");
+        return BinaryPixelFrame.encode(new PixelBatchMessage("c1", fromSequence, fromSequence + 1, 0,
+                xs, xs, colors, new String[count]), false);
+    }
+
+    private static StompHeaderAccessor decode(WebSocketMessage<?> message) {
+        return StompHeaderAccessor.wrap(decodeMessage(message));
+    }
+
+    private static Message<byte[]> decodeMessage(WebSocketMessage<?> message) {
+        List<Message<byte[]>> frames = new StompDecoder()
+                .decode(ByteBuffer.wrap(((TextMessage) message).asBytes()));
+        assertThat(frames).hasSize(1);
+        return frames.get(0);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.pixelplace.websocket.relay;
+
+import com.example.pixelplace.config.LiveUpdateProperties;
+import com.example.pixelplace.dto.CanvasPixelUpdate;
+import com.example.pixelplace.eventhandler.WebSocketEventHandler;
+import com.example.pixelplace.service.ActivityFeedService;
+import com.example.pixelplace.service.CanvasChangeLog;
+import com.example.pixelplace.service.CanvasStateProjection;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.axonframework.eventsourcing.eventstore.EventStore;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Dos "pods" (un contexto de Spring cada uno) unidos por InMemoryRelayTransport,
+ * el reemplazo de Kafka del relay: cada pod publica solo sus pixeles y
+ * cada uno entrega a su WebSocketEventHandler el stream completo, una vez,
+ * en orden de publicación y con las mismas secuencias (posiciones del relay).
+ */
+class PixelUpdateRelayTest {
+
+    private static final int PIXELS_PER_POD = 200;
+
+    private AnnotationConfigApplicationContext podA;
+    private AnnotationConfigApplicationContext podB;
+
+    @BeforeEach
+    void startPods() {
+        podA = new AnnotationConfigApplicationContext(PodConfiguration.class);
+        podB = new AnnotationConfigApplicationContext(PodConfiguration.class);
+    }
+
+    @AfterEach
+    void stopPods() {
+        podA.close();
+        podB.close();
+    }
+
+    @Test
+    void everyPodDeliversTheFullStreamExactlyOnce() {
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < PIXELS_PER_POD * 2; i++) {
+            // Los pods se alternan; publican sin secuencia (ver CanvasStateProjection)
+            AnnotationConfigApplicationContext origin = i % 2 == 0 ? podA : podB;
+            origin.publishEvent(new CanvasPixelUpdate("canvas-1", i, i % 7, "#00FF00",
+                    "user-" + i, 1_000L + i, 0, 0));
+            expected.add(i + "," + (i % 7) + ",user-" + i);
+        }
+
+        List<CanvasPixelUpdate> deliveredA = delivered(podA);
+        List<CanvasPixelUpdate> deliveredB = delivered(podB);
+
+        assertThat(deliveredA).extracting(u -> u.getX() + "," + u.getY() + "," + u.getUserId())
+                .containsExactlyElementsOf(expected);
+        assertThat(deliveredB).containsExactlyElementsOf(deliveredA);
+
+        // Secuencias encadenadas: cada pixel cubre (previousSequence, sequence]
+        for (int i = 1; i < deliveredA.size(); i++) {
+            assertThat(deliveredA.get(i).getPreviousSequence()).isEqualTo(deliveredA.get(i - 1).getSequence());
+            assertThat(deliveredA.get(i).getSequence()).isGreaterThan(deliveredA.get(i).getPreviousSequence());
+        }
+
+        // El registro de cambios de cualquier pod responde con esas secuencias
+        long from = deliveredA.get(0).getPreviousSequence();
+        CanvasChangeLog.Changes changes = podB.getBean(CanvasChangeLog.class).since("canvas-1", from);
+        assertThat(changes).isNotNull();
+        assertThat(changes.getCount()).isEqualTo(PIXELS_PER_POD * 2);
+        assertThat(changes.getToSequence()).isEqualTo(deliveredA.get(deliveredA.size() - 1).getSequence());
+    }
+
+    private static List<CanvasPixelUpdate> delivered(AnnotationConfigApplicationContext pod) {
+        WebSocketEventHandler broadcaster = pod.getBean(WebSocketEventHandler.class);
+        ArgumentCaptor<CanvasPixelUpdate> updates = ArgumentCaptor.forClass(CanvasPixelUpdate.class);
+        // Con times() exacto, un duplicado ocupa el lugar de otro pixel y la comparación falla
+        verify(broadcaster, timeout(5_000).times(PIXELS_PER_POD * 2)).on(updates.capture());
+        return updates.getAllValues();
+    }
+
+    @Configuration
+    @Import({PixelUpdateRelay.class, CanvasChangeLog.class})
+    static class PodConfiguration {
+
+        @Bean
+        LiveUpdateProperties liveUpdateProperties() {
+            LiveUpdateProperties properties = new LiveUpdateProperties();
+            properties.getRelay().setType(LiveUpdateProperties.RelayType.IN_MEMORY);
+            return properties;
+        }
+
+        @Bean
+        CanvasStateProjection canvasStateProjection(ApplicationEventPublisher publisher,
+                                                    LiveUpdateProperties properties) {
+            return new CanvasStateProjection(mock(EventStore.class), mock(JdbcTemplate.class),
+                    publisher, properties);
+        }
+
+        @Bean
+        RelayTransport relayTransport() {
+            return new InMemoryRelayTransport();
+        }
+
+        @Bean
+        WebSocketEventHandler webSocketEventHandler() {
+            return mock(WebSocketEventHandler.class);
+        }
+
+        @Bean
+        ActivityFeedService activityFeedService() {
+            return mock(ActivityFeedService.class);
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}